@@ -0,0 +1,130 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Assembles (and decodes) generated sources of increasing size, the time per line should stay flat as the sources
+ * grow
+ *
+ * @author Tony
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AssemblerBenchmark {
+
+    /**
+     * Number of source lines in the generated assembly
+     */
+    @Param({"100", "1000", "10000", "100000", "1000000"})
+    public int lines;
+
+    private LitaVM vm;
+    private String assembly;
+    private String constants;
+    private byte[] assemblyBytes;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.vm = new LitaVM(32 * 1024 * 1024, 1024, false);
+        this.assembly = generate(this.lines);
+        this.constants = generateConstants(this.lines);
+        this.assemblyBytes = this.assembly.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Generates a source with the supplied number of lines, made of blocks that each define a string and number
+     * constant, a label and a mix of instructions and jumps
+     *
+     * @param lines
+     * @return the assembly
+     */
+    static String generate(int lines) {
+        StringBuilder sb = new StringBuilder();
+        for(int block = 0, line = 0; line < lines; block++, line += 10) {
+            sb.append(".str").append(block).append(" \"block number ").append(block).append("\"\n");
+            sb.append(".num").append(block).append(" ").append(block).append(".5\n");
+            sb.append(":block").append(block).append("\n");
+            sb.append("  ldca $a .str").append(block).append("\n");
+            sb.append("  ldcf $b .num").append(block).append("\n");
+            sb.append("  movi $c #").append(block).append("\n");
+            sb.append("  addi $c &$a\n");
+            sb.append("  ifi $c #").append(block % 100).append("\n");
+            sb.append("  jmp :block").append(block).append("\n");
+            sb.append("  pushi $c ; save the result\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Generates a source defining the supplied number of number and string constants (every fifth one repeating an
+     * earlier value), each followed by an instruction loading it
+     *
+     * @param lines
+     * @return the assembly
+     */
+    static String generateConstants(int lines) {
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < lines; i++) {
+            int value = i % 5 == 4 ? i - 4 : i;
+            if(i % 2 == 0) {
+                sb.append(".c").append(i).append(" ").append(value).append("\n");
+                sb.append("ldci $a .c").append(i).append("\n");
+            }
+            else {
+                sb.append(".c").append(i).append(" \"constant ").append(value).append("\"\n");
+                sb.append("ldca $a .c").append(i).append("\n");
+            }
+        }
+        return sb.toString();
+    }
+
+    @Benchmark
+    public Bytecode assemble() {
+        return new Assembler(this.vm).compile(this.assembly);
+    }
+
+    @Benchmark
+    public Bytecode assembleChannel() throws IOException {
+        return new Assembler(this.vm).compile(Channels.newChannel(new ByteArrayInputStream(this.assemblyBytes)));
+    }
+
+    @Benchmark
+    public Bytecode assembleParallel() {
+        return new Assembler(this.vm).compileParallel(this.assembly);
+    }
+
+    @Benchmark
+    public Bytecode assembleConstants() {
+        return new Assembler(this.vm).compile(this.constants);
+    }
+
+    @Benchmark
+    public DecodedBytecode assembleAndDecode() {
+        return DecodedBytecode.decode(new Assembler(this.vm).compile(this.assembly));
+    }
+}
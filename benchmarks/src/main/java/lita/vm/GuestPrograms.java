@@ -0,0 +1,195 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+/**
+ * Representative guest programs for the benchmarks, each exercising a different part of the interpreter
+ *
+ * @author Tony
+ *
+ */
+public enum GuestPrograms {
+
+    /**
+     * A tight integer loop, all register operands
+     */
+    INT_LOOP(
+          "movi $b #500000\n"
+        + "movi $a #0\n"
+        + "movi $c #0\n"
+        + ":loop\n"
+        + "ifi $b $a\n"
+        + "jmp :done\n"
+        + "addi $a #1\n"
+        + "addi $c $a\n"
+        + "xori $d $c\n"
+        + "jmp :loop\n"
+        + ":done\n"),
+
+    /**
+     * Walks a string byte by byte, the way print_string does, without the output
+     */
+    STRING_WALK(
+          ".text \"The quick brown fox jumps over the lazy dog\"\n"
+        + "movi $j #0\n"
+        + ":again\n"
+        + "ldca $a .text\n"
+        + "pushi $a\n"
+        + "call :strlen\n"
+        + "addi $j #1\n"
+        + "ifei $j #20000\n"
+        + "jmp :again\n"
+        + "jmp :exit\n"
+        + ":strlen\n"
+        + "  popi $a\n"
+        + "  movi $c #0\n"
+        + "  :loop\n"
+        + "  ifb &$a #0\n"
+        + "  jmp :end\n"
+        + "  addi $a #1\n"
+        + "  addi $c #1\n"
+        + "  jmp :loop\n"
+        + "  :end\n"
+        + "  ret\n"
+        + ":exit\n"),
+
+    /**
+     * {@link #STRING_WALK} with the string length found by the <code>MEMFIND</code> block opcode
+     */
+    STRING_FIND(
+          ".text \"The quick brown fox jumps over the lazy dog\"\n"
+        + "movi $j #0\n"
+        + ":again\n"
+        + "ldca $a .text\n"
+        + "pushi $a\n"
+        + "call :strlen\n"
+        + "addi $j #1\n"
+        + "ifei $j #20000\n"
+        + "jmp :again\n"
+        + "jmp :exit\n"
+        + ":strlen\n"
+        + "  popi $a\n"
+        + "  movi $d $a\n"
+        + "  movi $c #1024\n"
+        + "  memfind $a #0\n"
+        + "  subi $a $d\n"
+        + "  movi $c $a\n"
+        + "  ret\n"
+        + ":exit\n"),
+
+    /**
+     * Fills, copies and compares 4 KiB blocks with the block memory opcodes
+     */
+    BLOCK_COPY(
+          "movi $c #4096\n"
+        + "movi $b $h\n"
+        + "movi $d $h\n"
+        + "addi $d #4096\n"
+        + "movi $j #0\n"
+        + ":loop\n"
+        + "memset $b $j\n"
+        + "memcpy $d $b\n"
+        + "movi $i $d\n"
+        + "memcmp $i $b\n"
+        + "addi $j #1\n"
+        + "ifei $j #20000\n"
+        + "jmp :loop\n"),
+
+    /**
+     * Float arithmetic on registers and constants
+     */
+    FLOAT_MATH(
+          ".one 1.0\n"
+        + ".step 0.5\n"
+        + "ldcf $a .one\n"
+        + "ldcf $b .one\n"
+        + "movi $j #0\n"
+        + ":loop\n"
+        + "addf $b .step\n"
+        + "mulf $a $b\n"
+        + "divf $a $b\n"
+        + "subf $c $a\n"
+        + "addf $c $b\n"
+        + "addi $j #1\n"
+        + "ifei $j #200000\n"
+        + "jmp :loop\n"),
+
+    /**
+     * Recursive calls 200 deep, the return address is saved on the stack for every frame
+     */
+    DEEP_CALLS(
+          "movi $j #0\n"
+        + ":outer\n"
+        + "movi $a #200\n"
+        + "call :down\n"
+        + "addi $j #1\n"
+        + "ifei $j #1000\n"
+        + "jmp :outer\n"
+        + "jmp :exit\n"
+        + ":down\n"
+        + "  pushi $r\n"
+        + "  subi $a #1\n"
+        + "  ifei $a #1\n"
+        + "  jmp :unwind\n"
+        + "  call :down\n"
+        + "  :unwind\n"
+        + "  popi $r\n"
+        + "  ret\n"
+        + ":exit\n"),
+
+    /**
+     * Pushes and pops of every width
+     */
+    STACK_STORM(
+          "movi $j #0\n"
+        + ":loop\n"
+        + "pushi $j\n"
+        + "dupi $k\n"
+        + "pushf $j\n"
+        + "pushb $j\n"
+        + "popb $a\n"
+        + "popf $c\n"
+        + "popi $b\n"
+        + "popi $d\n"
+        + "addi $j #1\n"
+        + "ifei $j #200000\n"
+        + "jmp :loop\n"),
+    ;
+
+    /**
+     * Size of the RAM and stack the programs are run with
+     */
+    public static final int RAM_SIZE   = 1024 * 64;
+    public static final int STACK_SIZE = 1024 * 4;
+
+    public final String assembly;
+
+    private GuestPrograms(String assembly) {
+        this.assembly = assembly;
+    }
+
+    /**
+     * Runs the program once and counts the guest instructions it executes.  Fusion is turned off, so that
+     * every guest instruction is dispatched on its own and counted.
+     *
+     * @return the number of instructions a run of this program executes
+     */
+    public long countInstructions() {
+        LitaVM vm = new LitaVM(RAM_SIZE, STACK_SIZE, false, DispatchMode.THREADED);
+        DecodedBytecode code = DecodedBytecode.decode(new Assembler(vm).compile(this.assembly), false);
+
+        long[] count = new long[1];
+        ThreadedEngine.Handler[] handlers = code.getHandlers();
+        for(int i = 0; i < handlers.length; i++) {
+            ThreadedEngine.Handler handler = handlers[i];
+            handlers[i] = (e, pc) -> {
+                count[0]++;
+                return handler.execute(e, pc);
+            };
+        }
+
+        vm.getCpu().execute(code);
+        return count[0];
+    }
+}
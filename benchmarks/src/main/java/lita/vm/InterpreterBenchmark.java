@@ -0,0 +1,80 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Runs the {@link GuestPrograms} with each {@link DispatchMode}, with and without the JIT.  Besides the runs
+ * per second, the <code>instructions</code> counter reports guest instructions per second.
+ *
+ * @author Tony
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class InterpreterBenchmark {
+
+    /**
+     * Guest instructions executed, reported as a rate
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long instructions;
+    }
+
+    @Param
+    public GuestPrograms program;
+
+    @Param({"SWITCH", "THREADED"})
+    public DispatchMode dispatch;
+
+    @Param({"0", "1000"})
+    public int jitThreshold;
+
+    private LitaVM vm;
+    private DecodedBytecode code;
+    private int[] initialRegisters;
+    private long instructionsPerRun;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.vm = new LitaVM(GuestPrograms.RAM_SIZE, GuestPrograms.STACK_SIZE, false, this.dispatch);
+        this.vm.getCpu().setJitThreshold(this.jitThreshold);
+        this.code = DecodedBytecode.decode(new Assembler(this.vm).compile(this.program.assembly));
+
+        this.initialRegisters = this.vm.getCpu().getRegisterFile().clone();
+        this.instructionsPerRun = this.program.countInstructions();
+    }
+
+    @Benchmark
+    public int run(Counters counters) {
+        int[] regs = this.vm.getCpu().getRegisterFile();
+        System.arraycopy(this.initialRegisters, 0, regs, 0, regs.length);
+
+        this.vm.getCpu().execute(this.code);
+
+        counters.instructions += this.instructionsPerRun;
+        return regs[CPU32.R];
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reads and writes through {@link RAM} with each of the {@link MemoryBackend}s.  Each operation is a single
+ * int, byte or (for the bulk benchmark) 4 KiB access.
+ *
+ * @author Tony
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RAMBenchmark {
+
+    private static final int SIZE = 1024 * 64;
+    private static final int ACCESSES = SIZE / 4;
+    private static final int BLOCK = 1024 * 4;
+
+    @Param({"buffer", "varhandle", "direct", "cow"})
+    public String backend;
+
+    private RAM ram;
+    private byte[] block;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        switch(this.backend) {
+            case "buffer":    this.ram = new RAM(new ByteBufferMemory(SIZE)); break;
+            case "varhandle": this.ram = new RAM(new VarHandleMemory(SIZE)); break;
+            case "direct":    this.ram = new RAM(ByteBufferMemory.allocateDirect(SIZE, ByteOrder.BIG_ENDIAN)); break;
+            case "cow":       this.ram = new RAM(new CopyOnWriteMemory(SIZE)); break;
+            default: throw new IllegalArgumentException("Unknown backend: " + this.backend);
+        }
+
+        this.block = new byte[BLOCK];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ACCESSES)
+    public int storeInts() {
+        RAM ram = this.ram;
+        for(int i = 0; i < ACCESSES; i++) {
+            ram.storeInt(i * 4, i);
+        }
+        return ram.readInt(0);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ACCESSES)
+    public int readInts() {
+        RAM ram = this.ram;
+        int sum = 0;
+        for(int i = 0; i < ACCESSES; i++) {
+            sum += ram.readInt(i * 4);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ACCESSES)
+    public int copyBytes() {
+        RAM ram = this.ram;
+        for(int i = 0; i < ACCESSES; i++) {
+            ram.storeByte(SIZE - 1 - i, ram.readByte(i));
+        }
+        return ram.readByte(0);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE / BLOCK)
+    public byte[] bulk() {
+        RAM ram = this.ram;
+        for(int address = 0; address < SIZE; address += BLOCK) {
+            ram.readBytes(address, this.block, 0, BLOCK);
+            ram.storeBytes(SIZE - BLOCK - address, this.block, 0, BLOCK);
+        }
+        return this.block;
+    }
+}
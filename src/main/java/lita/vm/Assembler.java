@@ -3,32 +3,101 @@
  */
 package lita.vm;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-
-import lita.vm.AssemblerParser.AssemblerInstruction;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * The Assembler reads in assembly language and compiles it down to machine {@link Bytecode}.
  * 
+ * <p>
+ * The assembly is compiled in a single pass as it is read, straight into an int array of instructions.  Labels and
+ * constants may be used before they are defined, so the instructions that refer to them are recorded in a list of
+ * fixups and patched once all of the assembly has been read.
+ * 
+ * <p>
+ * Large sources can be compiled with {@link #compileParallel(String)}, which splits the source into chunks of whole
+ * lines that are compiled concurrently and then merged in order.  Because labels, constants and fixups are only
+ * resolved in the merge, the result is identical to compiling the source sequentially.
+ * 
+ * <p>
+ * Programs made of several sources can be assembled into separate {@link ObjectModule}s with
+ * {@link #compileModule(String, Reader)}, which are then combined by {@link #link(List)}.
+ * 
  * @author Tony
  *
  */
 public class Assembler {
     
-    private List<Integer> instrs;
-    private List<Number> numPool;
-    private List<String> strPool;
+    /**
+     * Default number of characters of source below which a chunk is no longer split by
+     * {@link #compileParallel(String)}
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
     
-    private Map<String, Integer> labels;
-    private Map<Integer, AssemblerInstruction> pendingInstructions;
-    private Map<String, Integer> constants;
+    /**
+     * Compiles a range of the source, splitting it in half at a line boundary until it is below the chunk size
+     */
+    @SuppressWarnings("serial")
+    private static class ChunkTask extends RecursiveTask<List<ObjectModule>> {
+        final String assembly;
+        final int start;
+        final int end;
+        final int chunkSize;
+        final String[] registers;
+        
+        ChunkTask(String assembly, int start, int end, int chunkSize, String[] registers) {
+            this.assembly = assembly;
+            this.start = start;
+            this.end = end;
+            this.chunkSize = chunkSize;
+            this.registers = registers;
+        }
+        
+        @Override
+        protected List<ObjectModule> compute() {
+            if(this.end - this.start > this.chunkSize) {
+                int split = this.assembly.indexOf('\n', this.start + (this.end - this.start) / 2);
+                if(split >= 0 && split + 1 < this.end) {
+                    ChunkTask right = new ChunkTask(this.assembly, split + 1, this.end, this.chunkSize, this.registers);
+                    right.fork();
+                    
+                    List<ObjectModule> chunks = new ChunkTask(this.assembly, this.start, split + 1, this.chunkSize, this.registers).compute();
+                    chunks.addAll(right.join());
+                    return chunks;
+                }
+            }
+            
+            // roughly one instruction per 16 characters of source
+            ObjectModule chunk = new ObjectModule(null, Math.max(16, (this.end - this.start) / 16));
+            try {
+                chunk.compile(new AssemblerParser(new StringReader(this.assembly.substring(this.start, this.end)), this.registers));
+            }
+            catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            
+            List<ObjectModule> chunks = new ArrayList<>();
+            chunks.add(chunk);
+            return chunks;
+        }
+    }
+    
+    private Map<String, Integer> symbols;
     
-    private Map<String, Integer> registers;
+    private String[] registers;
     
-    private AssemblerParser parser;
     private LitaVM vm;
     
     /**
@@ -37,228 +106,143 @@ public class Assembler {
     public Assembler(LitaVM vm) {
         this.vm = vm;
         
-        this.instrs = new ArrayList<>();
-        
-        this.numPool = new ArrayList<>();
-        this.strPool = new ArrayList<>();
-        
-        this.constants = new HashMap<>();
-        
-        this.labels = new HashMap<>();
-        this.pendingInstructions = new HashMap<>();
-        
-        this.registers = new HashMap<>();
-        
         Register[] regs = vm.getCpu().getRegisters();
+        this.registers = new String[regs.length];
         for(int i = 0; i < regs.length; i++) {
-            Register r = regs[i];
-            registers.put(r.getName(), i);
+            this.registers[i] = regs[i].getName();
         }
         
-        this.parser = new AssemblerParser(registers, constants);
+        this.symbols = new HashMap<>();
     }
     
+    /**
+     * The symbols of the last compiled assembly
+     * 
+     * @return the label (instruction index) and data constant (constant index) symbols, labels
+     * are prefixed with a <code>:</code> and data constants with a <code>.</code>
+     */
+    public Map<String, Integer> getSymbols() {
+        return new HashMap<>(this.symbols);
+    }
     
     /**
-     * Converts the supplied assembly line into the equivalent machine code line
+     * Links the modules into {@link Bytecode}, see {@link Linker}
      * 
-     * @param args
+     * @param modules the modules, the first of which is the entry point of the program
+     * @return the {@link Bytecode}
      */
-    private void addInstruction(AssemblerInstruction instr) {
-        
-        // if any of the arguments starts with a label marker,
-        // mark this as a pending instruction, so that we can
-        // reconcile all of the labels
-        if(instr.args.stream().anyMatch(a -> a.startsWith(":"))) {
-            addInstruction(0);
-            
-            this.pendingInstructions.put(this.instrs.size() - 1, instr);
+    public Bytecode link(List<ObjectModule> modules) {
+        Linker linker = new Linker(this.vm);
+        Bytecode bytecode = linker.link(modules);
+        this.symbols = linker.getSymbols();
+        return bytecode;
+    }
+    
+    /**
+     * Compiles the assembly into {@link Bytecode} to be run by the supplied
+     * {@link VM}
+     * 
+     * @param assembly
+     * @return the {@link Bytecode}
+     */
+    public Bytecode compile(String assembly) {        
+        try {
+            return compile(new StringReader(assembly));
         }
-        else {            
-            int instruction = this.parser.parseInstruction(instr);
-            addInstruction(instruction);
+        catch(IOException e) {
+            throw new UncheckedIOException(e);
         }
     }
     
-    private void addInstruction(int instruction) {
-        this.instrs.add(instruction);
+    /**
+     * Compiles the UTF-8 encoded assembly read from the channel into {@link Bytecode}, see 
+     * {@link #compile(Reader)}
+     * 
+     * @param channel
+     * @return the {@link Bytecode}
+     * @throws IOException
+     */
+    public Bytecode compile(ReadableByteChannel channel) throws IOException {
+        return compile(Channels.newReader(channel, StandardCharsets.UTF_8));
     }
-       
     
     /**
-     * Reconciles any labels.  This substitutes any instructions
-     * that contain a label with the actual instruction index.
+     * Compiles the assembly read from the reader into {@link Bytecode}.  The assembly is compiled as it is
+     * read, so the whole of it is never held in memory.
+     * 
+     * @param reader
+     * @return the {@link Bytecode}
+     * @throws IOException
      */
-    private void reconcileLabels() {
-        this.pendingInstructions.entrySet().forEach( entry -> {
-            AssemblerInstruction instr = entry.getValue();
-            List<String> args = instr.args;
-            String arg1 = args.get(1);
-            String arg2 = null;
-            if(args.size() > 2) {
-                arg2 = args.get(2);
-            }
-            
-            if(arg1.startsWith(":")) {
-                arg1 = "#" + this.labels.get(arg1);                
-            }
-            
-            if(arg2 != null && arg2.startsWith(":")) {
-                arg2 = "#" + this.labels.get(arg2);                
-            }            
-            
-            int instruction = this.parser.parseInstruction(instr, arg1, arg2);                        
-            this.instrs.set(entry.getKey(), instruction );
-        });
-    }
-        
-    private int[] buildConstants(List<AssemblerInstruction> parsedLines) {
-        class ConstantEntry {
-            String constantName;
-            int index;
-            boolean isNumber;
-            
-            ConstantEntry(String constantName, int index, boolean isNumber) {
-                this.constantName = constantName;
-                this.index = index;
-                this.isNumber = isNumber;
-            }
-        }
-        
-        List<ConstantEntry> constantEntries = new ArrayList<>();
-        
-        // Build up the constant pools
-        for(AssemblerInstruction instr: parsedLines) {
-            List<String> args = instr.args;
-            if(!args.isEmpty()) {
-                String opcode = args.get(0);
-                if(opcode != null && opcode.startsWith(".")) {
-                    if(args.size() < 2) {
-                        throw this.parser.parseError(instr, "Illegal constant expression: '" + args + "'");                        
-                    }
-                    
-                    int index = 0;
-                    
-                    String arg = args.get(1);
-                    try {
-                        
-                        Number value = arg.contains(".") ? Float.parseFloat(arg) : Integer.parseInt(arg);
-                        index = numPool.indexOf(value);
-                        if(index < 0) {
-                            numPool.add(value);
-                            index = numPool.size();
-                        }
-                        
-                        constantEntries.add(new ConstantEntry(opcode, index, true));
-                    }
-                    catch(NumberFormatException e) {
-                        index = strPool.indexOf(arg);
-                        if(index < 0) {
-                            strPool.add(arg);
-                            index = strPool.size();
-                        }
-                        
-                        constantEntries.add(new ConstantEntry(opcode, index, false));
-                    }
-                    
-                }
-            }
-        }
-        
-        // Build out the constant mappings (constant name => constant pool index)
-        constantEntries.stream().filter(c ->  c.isNumber)
-                 .forEach(c -> this.constants.put(c.constantName, c.index - 1));
-        
-        constantEntries.stream().filter(c -> !c.isNumber)
-                 .forEach(c -> this.constants.put(c.constantName, numPool.size() + c.index - 1));
-        
-        
-        // Now Build out the mappings to the constant pool to RAM 
-        {
-            CPU32 cpu = vm.getCpu();
-            RAM ram = vm.getRam();
-            
-            int ramAddress = 0;
-            final int addressInc = cpu.getWordSize() / 8;
-            
-            int[] constants = new int[numPool.size() + strPool.size()];
-            int index = 0;
-            
-            for(Number n : numPool) {
-                if(n instanceof Float) {
-                    ram.storeFloat(ramAddress, n.floatValue());
-                }
-                else {               
-                    ram.storeInt(ramAddress, n.intValue());
-                }
-                
-                constants[index++] = ramAddress;
-                ramAddress += addressInc;
-            }
-            
-            for(String str : strPool) {
-                ram.storeStr(ramAddress, str);
-                
-                constants[index++] = ramAddress;
-                ramAddress += (str.length() + 1); // strings are null terminated
-            }
-            
-            // Mark the start of the Heap space
-            cpu.getH().address(ramAddress);
-            
-            return constants;        
-        }
+    public Bytecode compile(Reader reader) throws IOException {
+        return link(Collections.singletonList(compileModule(null, reader)));
     }
     
+    /**
+     * Compiles the assembly read from the reader into a relocatable {@link ObjectModule}, to be linked with
+     * other modules by {@link #link(List)}
+     * 
+     * @param name the name of the module used in link errors, may be null
+     * @param reader
+     * @return the module
+     * @throws IOException
+     */
+    public ObjectModule compileModule(String name, Reader reader) throws IOException {
+        ObjectModule module = new ObjectModule(name, 1024);
+        module.compile(new AssemblerParser(reader, this.registers));
+        return module;
+    }
     
-    private Bytecode compileBytecode(int[] constants) {
-        int code[] = new int[this.instrs.size()];
-        for(int i = 0; i < code.length; i++) {
-            code[i] = this.instrs.get(i);
+    /**
+     * Compiles the assembly into a relocatable {@link ObjectModule}, see {@link #compileModule(String, Reader)}
+     * 
+     * @param name the name of the module used in link errors, may be null
+     * @param assembly
+     * @return the module
+     */
+    public ObjectModule compileModule(String name, String assembly) {
+        try {
+            return compileModule(name, new StringReader(assembly));
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException(e);
         }
-        
-        return new Bytecode(constants, code, 0 , code.length);
     }
     
+    /**
+     * Compiles the assembly into {@link Bytecode}, compiling chunks of {@link #DEFAULT_CHUNK_SIZE} characters in
+     * parallel on the common {@link ForkJoinPool}.  The {@link Bytecode} is identical to that of 
+     * {@link #compile(String)}.
+     * 
+     * @param assembly
+     * @return the {@link Bytecode}
+     */
+    public Bytecode compileParallel(String assembly) {
+        return compileParallel(assembly, DEFAULT_CHUNK_SIZE, ForkJoinPool.commonPool());
+    }
     
     /**
-     * Compiles the assembly into {@link Bytecode} to be run by the supplied
-     * {@link VM}
+     * Compiles the assembly into {@link Bytecode}, compiling chunks of the supplied number of characters in
+     * parallel on the pool.  The {@link Bytecode} is identical to that of {@link #compile(String)}.
      * 
-     * @param asm
+     * @param assembly
+     * @param chunkSize the number of characters of source below which a chunk is no longer split
+     * @param pool
      * @return the {@link Bytecode}
      */
-    public Bytecode compile(String assembly) {        
-        List<AssemblerInstruction> parsedLines = this.parser.parse(assembly);
-        
-        final int[] constants = buildConstants(parsedLines);
-        
-        for(AssemblerInstruction instr : parsedLines) {
-            List<String> args = instr.args;
-            String opcode = args.get(0);
-            if(opcode != null && !opcode.equals("")) {
-                /* The opcode can be either a Label or Data constant
-                 */
-                
-                // Label
-                if(opcode.startsWith(":")) {
-                    this.labels.put(opcode, this.instrs.size());
-                }
-                
-                // Data Constant
-                else if(opcode.startsWith(".")) {
-                    continue;
-                }
-                
-                // Actual opcode instruction
-                else {                    
-                    addInstruction(instr);
-                }
-            }
+    public Bytecode compileParallel(String assembly, int chunkSize, ForkJoinPool pool) {
+        if(chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
         }
-
-        reconcileLabels();
         
-        return compileBytecode(constants);
+        try {
+            List<ObjectModule> chunks = pool.invoke(new ChunkTask(assembly, 0, assembly.length(), chunkSize, this.registers));
+            return link(Collections.singletonList(ObjectModule.concat(null, chunks)));
+        }
+        catch(ParserException e) {
+            // the line numbers of the chunks are relative to the chunk, so report the
+            // error from the sequential compile of the whole source
+            return compile(assembly);
+        }
     }
 }
@@ -3,110 +3,313 @@
  */
 package lita.vm;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
 import java.util.Arrays;
-import java.util.List;
-import java.util.Map;
 
 /**
- * Handles the parsing assembly files
+ * Handles the parsing assembly files.  The assembly is read from a {@link Reader} one line at a time, and each line
+ * is split into tokens in a reusable character buffer, so that reading large files does not create a String or a
+ * list per line; only the names of labels and constants are turned into Strings.
+ * 
+ * <p>
+ * Tokens are separated by whitespace, text in double quotes is a single token (without the quotes) and anything
+ * after a <code>;</code> is a comment.
  * 
  * @author Tony
  *
  */
 public class AssemblerParser {
 
-    public static class AssemblerInstruction {
-        final public List<String> args;
-        final int lineNumber;
+    private static final int INPUT_SIZE = 8 * 1024;
+    
+    private final Reader reader;
+    
+    /**
+     * The register names, indexed by register number
+     */
+    private final String[] registers;
+    
+    private final char[] input;
+    private int inputPosition;
+    private int inputLimit;
+    
+    /**
+     * The characters of the tokens of the current line
+     */
+    private char[] line;
+    private CharBuffer lineView;
+    private int lineLength;
+    
+    private int[] tokenStarts;
+    private int[] tokenEnds;
+    private int numberOfTokens;
+    
+    private int lineNumber;
+    
+    /**
+     * @param reader the assembly
+     * @param registers the register names, indexed by register number
+     */
+    public AssemblerParser(Reader reader, String[] registers) {
+        this.reader = reader;
+        this.registers = registers;
         
+        this.input = new char[INPUT_SIZE];
         
-        AssemblerInstruction(List<String> args, int lineNumber) {
-            this.args = args;
-            this.lineNumber = lineNumber;
+        this.line = new char[256];
+        this.lineView = CharBuffer.wrap(this.line);
+        
+        this.tokenStarts = new int[4];
+        this.tokenEnds = new int[4];
+    }
+    
+    public ParserException parseError(String message) {
+        return parseError(this.lineNumber, message);
+    }
+    
+    public static ParserException parseError(int lineNumber, String message) {
+        return new ParserException(message + " at line: " + lineNumber);
+    }
+    
+    /**
+     * @return the line number of the current line, starting at 1
+     */
+    public int getLineNumber() {
+        return lineNumber;
+    }
+    
+    /**
+     * @return the number of tokens on the current line
+     */
+    public int getNumberOfTokens() {
+        return numberOfTokens;
+    }
+    
+    /**
+     * @param token
+     * @return the token of the current line
+     */
+    public String getToken(int token) {
+        return new String(this.line, this.tokenStarts[token], this.tokenEnds[token] - this.tokenStarts[token]);
+    }
+    
+    /**
+     * @param token
+     * @param str
+     * @return true if the token of the current line is the supplied string, ignoring case
+     */
+    public boolean isToken(int token, String str) {
+        int start = this.tokenStarts[token];
+        if(this.tokenEnds[token] - start != str.length()) {
+            return false;
+        }
+        
+        for(int i = 0; i < str.length(); i++) {
+            if(Character.toLowerCase(this.line[start + i]) != Character.toLowerCase(str.charAt(i))) {
+                return false;
+            }
         }
+        return true;
     }
     
-    private Map<String, Integer> registers;
-    private Map<String, Integer> constants;
+    /**
+     * @param token
+     * @return the first character of the token of the current line, or <code>0</code> if the token is empty
+     */
+    public char getFirstChar(int token) {
+        return this.tokenStarts[token] < this.tokenEnds[token] ? this.line[this.tokenStarts[token]] : 0;
+    }
+    
+    /**
+     * Reads in the next line
+     * 
+     * @return false if there are no more lines
+     * @throws IOException
+     */
+    public boolean nextLine() throws IOException {
+        this.lineLength = 0;
+        this.numberOfTokens = 0;
+        
+        boolean inComment = false;
+        boolean inString  = false;
+        boolean inToken   = false;
+        
+        boolean isEmpty = true;
+        for(;;) {
+            if(this.inputPosition == this.inputLimit) {
+                this.inputPosition = 0;
+                this.inputLimit = Math.max(this.reader.read(this.input, 0, this.input.length), 0);
+                if(this.inputLimit == 0) {
+                    if(isEmpty) {
+                        return false;
+                    }
+                    break;
+                }
+            }
+            
+            char c = this.input[this.inputPosition++];
+            isEmpty = false;
+            
+            if(c == '\n') {
+                break;
+            }
+            
+            if(inComment) {
+                continue;
+            }
+            
+            if(c == '"') {
+                inString = !inString;
+                if(!inToken) {
+                    startToken();
+                    inToken = true;
+                }
+            }
+            else if(inString) {
+                append(c);
+            }
+            else if(c == ';') {
+                inComment = true;
+            }
+            else if(c <= ' ') {
+                if(inToken) {
+                    endToken();
+                    inToken = false;
+                }
+            }
+            else {
+                if(!inToken) {
+                    startToken();
+                    inToken = true;
+                }
+                append(c);
+            }
+        }
+        
+        if(inToken) {
+            endToken();
+        }
+        
+        this.lineNumber++;
+        return true;
+    }
     
+    private void append(char c) {
+        if(this.lineLength == this.line.length) {
+            this.line = Arrays.copyOf(this.line, this.line.length * 2);
+            this.lineView = CharBuffer.wrap(this.line);
+        }
+        this.line[this.lineLength++] = c;
+    }
+    
+    private void startToken() {
+        if(this.numberOfTokens == this.tokenStarts.length) {
+            this.tokenStarts = Arrays.copyOf(this.tokenStarts, this.numberOfTokens * 2);
+            this.tokenEnds = Arrays.copyOf(this.tokenEnds, this.numberOfTokens * 2);
+        }
+        this.tokenStarts[this.numberOfTokens] = this.lineLength;
+    }
+    
+    private void endToken() {
+        this.tokenEnds[this.numberOfTokens++] = this.lineLength;
+    }
     
     /**
-     * @param registers
-     * @param constants
+     * @return the register number of the characters, or -1 if they are not a register name
      */
-    public AssemblerParser(Map<String, Integer> registers, Map<String, Integer> constants) {
-        this.registers = registers;
-        this.constants = constants;
+    private int findRegister(int start, int end) {
+        for(int i = 0; i < this.registers.length; i++) {
+            String name = this.registers[i];
+            if(name.length() != end - start) {
+                continue;
+            }
+            
+            int j = 0;
+            while(j < name.length() && Character.toLowerCase(this.line[start + j]) == name.charAt(j)) {
+                j++;
+            }
+            
+            if(j == name.length()) {
+                return i;
+            }
+        }
+        return -1;
     }
     
-    public ParserException parseError(AssemblerInstruction instruction, String message) {
-        return new ParserException(message + " at line: " + instruction.lineNumber);
+    private int parseInt(int start, int end, int radix) {
+        try {
+            return Integer.parseInt(this.lineView, start, end, radix);
+        }
+        catch(NumberFormatException e) {
+            throw parseError("Invalid number: '" + new String(this.line, start, end - start) + "'");
+        }
     }
     
-
     /**
-     * Parses the OPCODE which should be the first argument in the assembly
+     * Parses the OPCODE which should be the first token of the line
      * 
-     * @param arg0
-     * @return the 32bit positioned opcode
+     * @return the raw opcode
      */
-    private int parseOpcode(AssemblerInstruction instr, String arg0) {
-        int opcode = Opcodes.strOpcode(arg0);
+    public int parseOpcode() {
+        int opcode = Opcodes.strOpcode(this.line, this.tokenStarts[0], this.tokenEnds[0] - this.tokenStarts[0]);
         if(opcode < 0) {
-            throw parseError(instr, "Invalid opcode: '" + arg0 + "'");
+            throw parseError("Invalid opcode: '" + getToken(0) + "'");
         }
         
-        return opcode << Instruction.ARG1_SIZE + Instruction.ARG2_SIZE; 
+        return opcode;
     }
     
-    
     /**
      * Parses the argument 1 which can be in the format of:
      * 
      * Always a register, optionally be address value of register
      * 
-     * @param arg1
+     * @param token
      * @return the 32 bit positioned argument one
      */
-    private int parseArg1(AssemblerInstruction instr, String arg1) {
+    public int parseArg1(int token) {
         int instruction = 0;
         
-        boolean isAddress = arg1.startsWith("&");
+        int start = this.tokenStarts[token];
+        int end = this.tokenEnds[token];
+        
+        boolean isAddress = getFirstChar(token) == '&';
         if(isAddress) {
             instruction |= Instruction.ARG1_ADDR_MASK;
-            if(arg1.length() < 3) {
-                throw parseError(instr, "Invalid argument structure: '" + arg1 + "'");
+            if(end - start < 3) {
+                throw parseError("Invalid argument structure: '" + getToken(token) + "'");
             }
-            arg1 = arg1.substring(1);
+            start++;
         }
         
-        Integer registerNumber = registers.get(arg1.toLowerCase());
-        if(registerNumber == null) {
-            throw parseError(instr, "Invalid register name: '" + arg1 + "'");
+        int registerNumber = findRegister(start, end);
+        if(registerNumber < 0) {
+            throw parseError("Invalid register name: '" + new String(this.line, start, end - start) + "'");
         }
         instruction |= registerNumber;
         
         return instruction << Instruction.ARG2_SIZE;        
     }
-
     
     /**
      * Jump instructions are special in that they only accept a 24 bit immediate mode
      * number.
      * 
-     * @param arg
+     * @param token
      * @return the instruction
      */
-    private int parseJumpArg(AssemblerInstruction instr, String arg) {
-        if(!arg.startsWith("#")) {
-            throw parseError(instr, "Invalid jump instruction argument, must be an immediate number: '" + arg + "'");
+    public int parseJumpArg(int token) {
+        if(getFirstChar(token) != '#') {
+            throw parseError("Invalid jump instruction argument, must be an immediate number: '" + getToken(token) + "'");
         }
         
-        arg = arg.substring(1);
-        int value = Integer.parseInt(arg);
-        
-        return value;  
+        int value = parseInt(this.tokenStarts[token] + 1, this.tokenEnds[token], 10);
+        if(value < 0 || value > Instruction.ARG_JMP_VALUE_MASK) {
+            throw parseError("Invalid jump instruction argument, out of range: '" + value + "'");
+        }
+        return value;
     }
     
     /**
@@ -114,211 +317,61 @@ public class AssemblerParser {
      * 
      * Can be a register, if register - optionally be address value of register
      * Can be an Immediate Value, in which case the actual integer value is used
-     * Can be a Constant Value, in which case the constant index is used
      * 
-     * @param arg2
+     * Constants and labels are resolved once all of the assembly has been read, see {@link Assembler}.
+     * 
+     * @param token
      * @return the 32 bit positioned argument two
      */
-    private int parseArg2(AssemblerInstruction instr, String arg2) {
+    public int parseArg2(int token) {
         int instruction = 0;
         
-        boolean isRegister = false;
-        boolean isAddress = arg2.startsWith("&");
+        int start = this.tokenStarts[token];
+        int end = this.tokenEnds[token];
+        
+        boolean isAddress = getFirstChar(token) == '&';
         if(isAddress) {
-            isRegister = true;
             instruction |= Instruction.ARG2_ADDR_MASK;
-            if(arg2.length() < 3) {
-                throw parseError(instr, "Invalid argument structure: '" + arg2 + "'");
+            if(end - start < 3) {
+                throw parseError("Invalid argument structure: '" + getToken(token) + "'");
             }
-            arg2 = arg2.substring(1);
+            start++;
         }
         
-        Integer registerNumber = registers.get(arg2.toLowerCase());
-        if(registerNumber == null) {
-            if(isAddress) {
-                throw parseError(instr, "Invalid register argument structure: '" + arg2 + "'");
-            }
-
-            if(arg2.startsWith("#")) {
-                int base = 10;
-                int offset = 1;
-                
-                if(arg2.startsWith("#0x")) {
-                    base = 16;  // Hexidecimal format
-                    offset = 3;
-                }
-                else if(arg2.startsWith("#0b")) {
-                    base = 2;  // Binary format
-                    offset = 3;
-                }
-                
-                if(arg2.length() < (offset+1)) {
-                    throw parseError(instr, "Invalid immediate value argument structure: '" + arg2 + "'");    
-                }
-                
-                arg2 = arg2.substring(offset);
-                int value = Integer.parseInt(arg2, base);
-                if(value > Instruction.MAX_IMMEDIATE_VALUE) {
-                    throw parseError(instr, "Invalid immediate value, above max value (" + Instruction.MAX_IMMEDIATE_VALUE + "): '" + value + "'");
-                }
-                
-                instruction |= Instruction.ARG2_IMM_MASK;
-                instruction |= value;                
-            }
-            else if(arg2.startsWith(".")) {
-                Integer index = this.constants.get(arg2);
-                if(index == null) {
-                    throw parseError(instr, "No constant defined for '" + arg2 + "'");
-                }
-                
-                instruction |= index;
-            }
-        }
-        else {
-            isRegister = true;
-            instruction |= registerNumber;
+        int registerNumber = findRegister(start, end);
+        if(registerNumber >= 0) {
+            return instruction | Instruction.ARG2_REG_MASK | registerNumber;
         }
         
-        if(isRegister) {
-            instruction |= Instruction.ARG2_REG_MASK;
+        if(isAddress) {
+            throw parseError("Invalid register argument structure: '" + new String(this.line, start, end - start) + "'");
         }
         
-        return instruction;
-    }
-    
-    /**
-     * Creates an argument list, stripping out any comments and combining any constant
-     * strings into one argument
-     * 
-     * @param line
-     * @return the argument list
-     */
-    private AssemblerInstruction parseLine(int lineNumber, String line) {
-        StringBuilder sb = new StringBuilder(line.length());
-        
-        boolean inComment = false;
-        boolean inString  = false;
-        
-        List<String> args = new ArrayList<>();
-        
-        for(int i = 0; i < line.length(); i++) {
-            char c = line.charAt(i);
-            if(c == ';') {
-                if(!inString) {
-                    inComment = true; 
-                }
-            }            
-            else if(c == '"') {
-                if(inString) {
-                    inString = false;
-                    continue;
-                }
-                else if(!inComment) {
-                    inString = true;
-                    continue;
-                }
-            }
-            else if(c == ' ') {
-                if(!inString && !inComment) {
-                    args.add(sb.toString());
-                    sb.setLength(0);
-                    
-                    continue;
-                }
-            }
-            
-            if(!inComment) {
-                sb.append(c);
-            }
+        if(getFirstChar(token) != '#') {
+            throw parseError("Invalid argument: '" + getToken(token) + "'");
         }
         
-        args.add(sb.toString());
+        int base = 10;
+        int offset = 1;
         
-        return new AssemblerInstruction(args, lineNumber);
-        
-    }
-    
-    /**
-     * Parses out the supplied arguments and forms a CPU machine code instruction
-     * 
-     * @param instr - the instruction to parse
-     * @return the machine code instruction
-     */
-    public int parseInstruction(AssemblerInstruction instr) {
-        String arg1 = null;
-        String arg2 = null;
-        
-        switch(instr.args.size()) {
-            case 0:
-            case 1:
-                break;
-            case 2: 
-                arg1 = instr.args.get(1);
-                break;
-            default:
-                arg1 = instr.args.get(1);
-                arg2 = instr.args.get(2);
-                break;
+        if(end - start > 2 && this.line[start + 1] == '0' && this.line[start + 2] == 'x') {
+            base = 16;  // Hexidecimal format
+            offset = 3;
         }
-        
-        return parseInstruction(instr, arg1, arg2);
-    }
-    
-    /**
-     * Parses out the supplied arguments and forms a CPU machine code instruction
-     * 
-     * @param instr - the instruction to parse
-     * @param arg1 - optional first argument to override
-     * @param arg2 - optional second argument to override
-     * @return the machine code instruction
-     */
-    public int parseInstruction(AssemblerInstruction instr, String arg1, String arg2) {
-        int opcode = parseOpcode(instr, instr.args.get(0));
-        int indexedOpcode = Instruction.opcode(opcode);
-        int parg1 = 0, 
-            parg2 = 0;
-        
-        if(Opcodes.JMP == indexedOpcode || Opcodes.CALL == indexedOpcode) {
-            parg2 = parseJumpArg(instr, arg1);                
+        else if(end - start > 2 && this.line[start + 1] == '0' && this.line[start + 2] == 'b') {
+            base = 2;  // Binary format
+            offset = 3;
         }
-        else {
         
-            if(Opcodes.numberOfArgs(Instruction.opcode(opcode)) == 2) {
-                parg1 = parseArg1(instr, arg1);
-                parg2 = 0;
-                if(arg2 != null) {
-                    parg2 = parseArg2(instr, arg2);
-                }    
-            }
-            else if(arg1 != null) {
-                parg2 = parseArg2(instr, arg1);
-            }
+        if(end - start < (offset+1)) {
+            throw parseError("Invalid immediate value argument structure: '" + getToken(token) + "'");    
         }
         
-        return opcode | parg1 | parg2;                  
-    }
-    
-    
-    /**
-     * Parses the assembly text
-     * 
-     * @param assembly
-     * @return the parsed assembly text into instructions with arguments
-     */
-    public List<AssemblerInstruction> parse(String assembly) {
-        // TODO: Account for strings with \n
-        List<String> lines = Arrays.asList(assembly.split("\n"));
-        
-        List<AssemblerInstruction> parsedLines = new ArrayList<>();
-        int lineNumber = 1;
-        for(String line : lines) {
-            AssemblerInstruction instr = parseLine(lineNumber++, line.trim());
-            if(!instr.args.isEmpty()) {
-                parsedLines.add(instr);
-            }
+        int value = parseInt(start + offset, end, base);
+        if(value > Instruction.MAX_IMMEDIATE_VALUE) {
+            throw parseError("Invalid immediate value, above max value (" + Instruction.MAX_IMMEDIATE_VALUE + "): '" + value + "'");
         }
         
-        return parsedLines;
+        return Instruction.ARG2_IMM_MASK | value;
     }
-
 }
@@ -0,0 +1,246 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An on-disk cache of assembled programs, so that running the same assembly again skips the {@link Assembler}.
+ *
+ * <p>
+ * Each entry is a {@link BytecodeImage} file named after the SHA-256 hash of the assembly source along with the VM
+ * configuration that shapes the image: the RAM size, stack size, word size and RAM byte order.  A changed source or
+ * configuration is therefore simply a miss.  Entries are written to a temporary file and moved into place, so
+ * several VMs can share a cache directory.
+ *
+ * <p>
+ * The cache is bounded by the total size of its entries.  The modified time of an entry is refreshed whenever it is
+ * used, and once a new entry takes the cache over its size the least recently used entries are deleted.
+ *
+ * <pre>
+ * AssemblyCache cache = new AssemblyCache(Paths.get(".litacache"), AssemblyCache.DEFAULT_MAX_SIZE);
+ * BytecodeImage image = cache.assemble(vm, Files.readAllBytes(file), false);
+ * vm.execute(image.load(vm));
+ * </pre>
+ *
+ * @author Tony
+ *
+ */
+public class AssemblyCache {
+
+    /**
+     * Default bound on the total size (in bytes) of the cache entries
+     */
+    public static final long DEFAULT_MAX_SIZE = 64L * 1024 * 1024;
+
+    private static final String ENTRY_SUFFIX = ".lita";
+
+    private static class Entry {
+        Path path;
+        long size;
+        long lastUsed;
+    }
+
+    private final Path directory;
+    private final long maxSize;
+
+    private int hits;
+    private int misses;
+
+    /**
+     * @param directory the directory holding the cache entries, created if it does not exist
+     * @param maxSize the bound on the total size (in bytes) of the cache entries
+     * @throws IOException if the directory can not be created
+     */
+    public AssemblyCache(Path directory, long maxSize) throws IOException {
+        if(maxSize < 0) {
+            throw new IllegalArgumentException("Maximum cache size must not be negative: " + maxSize);
+        }
+
+        this.directory = directory;
+        this.maxSize = maxSize;
+
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * @return the directory holding the cache entries
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return the number of {@link #assemble(LitaVM, byte[], boolean)} calls served from the cache
+     */
+    public int getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of {@link #assemble(LitaVM, byte[], boolean)} calls that had to assemble the source
+     */
+    public int getMisses() {
+        return misses;
+    }
+
+    /**
+     * Gets the image of the UTF-8 encoded assembly source from the cache, or assembles it for the supplied
+     * {@link LitaVM} and adds it to the cache.  Either way the image must still be {@link BytecodeImage#load(LitaVM)
+     * loaded} into the VM.
+     *
+     * @param vm
+     * @param source the assembly source
+     * @param parallel if the source is assembled with {@link Assembler#compileParallel(String)} on a miss
+     * @return the image of the assembled source
+     * @throws IOException if the entry can not be written
+     */
+    public BytecodeImage assemble(LitaVM vm, byte[] source, boolean parallel) throws IOException {
+        Path entry = this.directory.resolve(key(vm, source) + ENTRY_SUFFIX);
+
+        BytecodeImage image = read(entry);
+        if(image != null) {
+            this.hits++;
+            return image;
+        }
+
+        this.misses++;
+
+        Assembler asm = new Assembler(vm);
+        String assembly = new String(source, StandardCharsets.UTF_8);
+        Bytecode bytecode = parallel ? asm.compileParallel(assembly) : asm.compile(assembly);
+
+        image = BytecodeImage.fromVM(vm, bytecode, asm.getSymbols());
+        write(entry, image);
+        evict(entry);
+
+        return image;
+    }
+
+    /**
+     * Deletes all of the cache entries
+     *
+     * @throws IOException
+     */
+    public void clear() throws IOException {
+        for(Path entry : entries()) {
+            Files.deleteIfExists(entry);
+        }
+    }
+
+    /**
+     * @return the entry image, or null if there is no usable entry
+     */
+    private BytecodeImage read(Path entry) throws IOException {
+        try {
+            BytecodeImage image = BytecodeImage.read(entry);
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            return image;
+        }
+        catch(NoSuchFileException e) {
+            return null;
+        }
+        catch(IOException e) {
+            // a corrupt or outdated entry, it is replaced by the newly assembled image
+            Files.deleteIfExists(entry);
+            return null;
+        }
+    }
+
+    private void write(Path entry, BytecodeImage image) throws IOException {
+        Path tmp = Files.createTempFile(this.directory, "entry", ".tmp");
+        try {
+            image.write(tmp);
+            Files.move(tmp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache is within its size, the newly added entry is kept
+     */
+    private void evict(Path added) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        long totalSize = 0;
+        for(Path path : entries()) {
+            try {
+                Entry e = new Entry();
+                e.path = path;
+                e.size = Files.size(path);
+                e.lastUsed = Files.getLastModifiedTime(path).toMillis();
+
+                entries.add(e);
+                totalSize += e.size;
+            }
+            catch(NoSuchFileException e) {
+                // evicted by another VM sharing the cache
+            }
+        }
+
+        entries.sort(Comparator.comparingLong(e -> e.lastUsed));
+        for(int i = 0; i < entries.size() && totalSize > this.maxSize; i++) {
+            Entry e = entries.get(i);
+            if(!e.path.equals(added)) {
+                Files.deleteIfExists(e.path);
+                totalSize -= e.size;
+            }
+        }
+    }
+
+    private List<Path> entries() throws IOException {
+        List<Path> entries = new ArrayList<>();
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory, "*" + ENTRY_SUFFIX)) {
+            stream.forEach(entries::add);
+        }
+        return entries;
+    }
+
+    /**
+     * @return the hex encoded hash of the source and the VM configuration that shapes its image
+     */
+    private static String key(LitaVM vm, byte[] source) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch(NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        CPU32 cpu = vm.getCpu();
+        RAM ram = vm.getRam();
+
+        ByteBuffer config = ByteBuffer.allocate(5 * 4);
+        config.putInt(BytecodeImage.VERSION)
+              .putInt(ram.sizeInBytes())
+              .putInt(cpu.getStackSize())
+              .putInt(cpu.getWordSize())
+              .putInt(ram.getBackend().getOrder() == ByteOrder.LITTLE_ENDIAN ? 1 : 0);
+
+        digest.update(config.array());
+        digest.update(source);
+
+        StringBuilder sb = new StringBuilder();
+        for(byte b : digest.digest()) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
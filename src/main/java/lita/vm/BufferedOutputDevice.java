@@ -0,0 +1,99 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * {@link OutputDevice} that collects the output in a reusable buffer and writes it to a {@link WritableByteChannel} 
+ * in bulk, when the buffer is full or the device is flushed.  Writes to the channel block until the channel has
+ * taken all of the output, so when executing on a virtual thread (see {@link LitaVM#start(DecodedBytecode)}) a 
+ * slow channel parks the thread rather than tying up a platform thread.
+ * 
+ * @author Tony
+ *
+ */
+public class BufferedOutputDevice implements OutputDevice {
+
+    public static final int DEFAULT_CAPACITY = 8 * 1024;
+    
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+    
+    /**
+     * @param channel the channel to write to
+     */
+    public BufferedOutputDevice(WritableByteChannel channel) {
+        this(channel, DEFAULT_CAPACITY);
+    }
+    
+    /**
+     * @param channel the channel to write to
+     * @param capacity the number of bytes to buffer before writing to the channel
+     */
+    public BufferedOutputDevice(WritableByteChannel channel, int capacity) {
+        if(capacity < 1) {
+            throw new IllegalArgumentException("The capacity must be at least 1");
+        }
+        
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(capacity);
+    }
+    
+    /**
+     * @return a device that writes to System.out
+     */
+    public static BufferedOutputDevice systemOut() {
+        return new BufferedOutputDevice(Channels.newChannel(System.out));
+    }
+    
+    /**
+     * @return the channel written to
+     */
+    public WritableByteChannel getChannel() {
+        return channel;
+    }
+    
+    @Override
+    public void write(byte value) {
+        if(!this.buffer.hasRemaining()) {
+            flush();
+        }
+        this.buffer.put(value);
+    }
+    
+    @Override
+    public void write(byte[] buf, int offset, int length) {
+        while(length > 0) {
+            if(!this.buffer.hasRemaining()) {
+                flush();
+            }
+            
+            int count = Math.min(length, this.buffer.remaining());
+            this.buffer.put(buf, offset, count);
+            
+            offset += count;
+            length -= count;
+        }
+    }
+    
+    @Override
+    public void flush() {
+        this.buffer.flip();
+        try {
+            while(this.buffer.hasRemaining()) {
+                this.channel.write(this.buffer);
+            }
+        }
+        catch(IOException e) {
+            throw new EvalException("Unable to write output: " + e.getMessage(), e);
+        }
+        finally {
+            this.buffer.clear();
+        }
+    }
+}
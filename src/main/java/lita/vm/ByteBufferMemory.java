@@ -0,0 +1,128 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * {@link MemoryBackend} that accesses memory through a {@link ByteBuffer} window.  The buffer may wrap a 
+ * Java byte array, or live outside of the Java heap (see {@link #allocateDirect(int, ByteOrder)} and 
+ * {@link MappedMemory}), in which case the memory does not add to the garbage collected heap.
+ * 
+ * @author Tony
+ *
+ */
+public class ByteBufferMemory implements MemoryBackend {
+
+    private final ByteBuffer memWindow;
+    
+    /**
+     * Big endian memory
+     * 
+     * @param sizeInBytes
+     */
+    public ByteBufferMemory(int sizeInBytes) {
+        this(sizeInBytes, ByteOrder.BIG_ENDIAN);
+    }
+    
+    /**
+     * @param sizeInBytes
+     * @param order the byte order ints and floats are stored in
+     */
+    public ByteBufferMemory(int sizeInBytes, ByteOrder order) {
+        this(ByteBuffer.wrap(new byte[sizeInBytes]).order(order));
+    }
+    
+    /**
+     * @param memWindow the memory, the whole capacity of the buffer is addressable
+     */
+    public ByteBufferMemory(ByteBuffer memWindow) {
+        this.memWindow = memWindow;
+    }
+    
+    /**
+     * Allocates the memory outside of the Java heap
+     * 
+     * @param sizeInBytes
+     * @param order the byte order ints and floats are stored in
+     * @return the off heap memory
+     */
+    public static ByteBufferMemory allocateDirect(int sizeInBytes, ByteOrder order) {
+        return new ByteBufferMemory(ByteBuffer.allocateDirect(sizeInBytes).order(order));
+    }
+    
+    @Override
+    public int sizeInBytes() {
+        return this.memWindow.capacity();
+    }
+    
+    @Override
+    public ByteOrder getOrder() {
+        return this.memWindow.order();
+    }
+    
+    /**
+     * @param address
+     * @param length
+     * @return a buffer over the supplied range of the memory, sharing its content
+     */
+    ByteBuffer slice(int address, int length) {
+        return this.memWindow.slice(address, length);
+    }
+    
+    /**
+     * Only a buffer that covers the whole of its array is exposed, as the address of a byte must be its index
+     * in the array
+     */
+    @Override
+    public byte[] array() {
+        if(this.memWindow.hasArray() 
+        && this.memWindow.arrayOffset() == 0 
+        && this.memWindow.array().length == this.memWindow.capacity()) {
+            return this.memWindow.array();
+        }
+        return null;
+    }
+    
+    @Override
+    public void storeBytes(int address, byte[] buf, int offset, int length) {
+        this.memWindow.put(address, buf, offset, length);
+    }
+    
+    @Override
+    public void storeInt(int address, int value) {
+        this.memWindow.putInt(address, value);
+    }
+    
+    @Override
+    public void storeFloat(int address, float value) {
+        this.memWindow.putFloat(address, value);
+    }
+    
+    @Override
+    public void storeByte(int address, byte value) {
+        this.memWindow.put(address, value);
+    }
+    
+    @Override
+    public void readBytes(int address, byte[] buf, int offset, int length) {
+        this.memWindow.get(address, buf, offset, length);
+    }
+    
+    @Override
+    public int readInt(int address) {
+        return this.memWindow.getInt(address);
+    }
+    
+    @Override
+    public float readFloat(int address) {
+        return this.memWindow.getFloat(address);
+    }
+    
+    @Override
+    public byte readByte(int address) {
+        return this.memWindow.get(address);
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An assembled program, stored in a binary file so that it can be run without assembling it again.  The image holds
+ * everything {@link Assembler#compile(String)} produces: the {@link Bytecode} and the constant pool it loaded into
+ * {@link RAM}, along with the assembly symbols.
+ *
+ * <p>
+ * The file layout (all values are big endian):
+ * <pre>
+ * int    magic            'LITA'
+ * short  version
+ * short  flags            bit 0 set if the constant pool ints/floats are little endian
+ * int    pc               entry point
+ * int    constantPoolSize number of bytes of the constant pool, which is also the start of the heap ($h)
+ * int    numberOfConstants
+ * int    numberOfInstructions
+ * int    numberOfSymbols
+ * byte[] constantPool     padded to a multiple of 4 bytes
+ * int[]  constants        Bytecode.constants, RAM address of each constant
+ * int[]  instructions     Bytecode.instr
+ * symbol[]                short name length, UTF-8 name, int value
+ * </pre>
+ *
+ * @author Tony
+ *
+ */
+public class BytecodeImage {
+
+    public static final int MAGIC = 0x4C495441; // LITA
+    public static final int VERSION = 1;
+
+    private static final int LITTLE_ENDIAN_FLAG = 1;
+
+    private final Bytecode bytecode;
+    private final byte[] constantPool;
+    private final ByteOrder constantPoolOrder;
+    private final Map<String, Integer> symbols;
+
+    /**
+     * @param bytecode
+     * @param constantPool the bytes of the constant pool, which start at address 0 of {@link RAM}
+     * @param constantPoolOrder the byte order of the ints and floats in the constant pool
+     * @param symbols the assembly symbols, see {@link Assembler#getSymbols()}
+     */
+    public BytecodeImage(Bytecode bytecode, byte[] constantPool, ByteOrder constantPoolOrder, Map<String, Integer> symbols) {
+        this.bytecode = bytecode;
+        this.constantPool = constantPool;
+        this.constantPoolOrder = constantPoolOrder;
+        this.symbols = Collections.unmodifiableMap(new TreeMap<>(symbols));
+    }
+
+    /**
+     * Creates the image of {@link Bytecode} that was just assembled for the supplied {@link LitaVM}; the constant pool
+     * is taken from the RAM of the VM, up to the start of the heap.
+     *
+     * @param vm the VM the code was assembled for
+     * @param bytecode
+     * @param symbols the assembly symbols, see {@link Assembler#getSymbols()}
+     * @return the image
+     */
+    public static BytecodeImage fromVM(LitaVM vm, Bytecode bytecode, Map<String, Integer> symbols) {
+        RAM ram = vm.getRam();
+
+        byte[] constantPool = new byte[vm.getCpu().getH().address()];
+        ram.readBytes(0, constantPool, 0, constantPool.length);
+
+        return new BytecodeImage(bytecode, constantPool, ram.getBackend().getOrder(), symbols);
+    }
+
+    /**
+     * @return the bytecode
+     */
+    public Bytecode getBytecode() {
+        return bytecode;
+    }
+
+    /**
+     * @return the constant pool bytes
+     */
+    public byte[] getConstantPool() {
+        return constantPool;
+    }
+
+    /**
+     * @return the symbols, labels are prefixed with a <code>:</code> and data constants with a <code>.</code>
+     */
+    public Map<String, Integer> getSymbols() {
+        return symbols;
+    }
+
+    /**
+     * Loads the constant pool into the {@link RAM} of the supplied {@link LitaVM}, and sets the start of its heap, so
+     * that it is ready to execute the {@link Bytecode} of this image
+     *
+     * @param vm
+     * @return the {@link Bytecode} to execute
+     */
+    public Bytecode load(LitaVM vm) {
+        RAM ram = vm.getRam();
+        if(ram.getBackend().getOrder() != this.constantPoolOrder) {
+            throw new IllegalArgumentException("The image was assembled for " + this.constantPoolOrder + " RAM, but the VM RAM is " + ram.getBackend().getOrder());
+        }
+
+        ram.storeBytes(0, this.constantPool, 0, this.constantPool.length);
+        vm.getCpu().getH().address(this.constantPool.length);
+
+        return this.bytecode;
+    }
+
+    /**
+     * Writes the image to the supplied file
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void write(Path file) throws IOException {
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeShort(this.constantPoolOrder == ByteOrder.LITTLE_ENDIAN ? LITTLE_ENDIAN_FLAG : 0);
+
+            out.writeInt(this.bytecode.pc);
+            out.writeInt(this.constantPool.length);
+            out.writeInt(this.bytecode.constants.length);
+            out.writeInt(this.bytecode.length);
+            out.writeInt(this.symbols.size());
+
+            out.write(this.constantPool);
+            for(int i = this.constantPool.length; i % 4 != 0; i++) {
+                out.writeByte(0);
+            }
+
+            for(int constant : this.bytecode.constants) {
+                out.writeInt(constant);
+            }
+
+            for(int i = 0; i < this.bytecode.length; i++) {
+                out.writeInt(this.bytecode.instr[i]);
+            }
+
+            for(Map.Entry<String, Integer> symbol : this.symbols.entrySet()) {
+                byte[] name = symbol.getKey().getBytes(StandardCharsets.UTF_8);
+                out.writeShort(name.length);
+                out.write(name);
+                out.writeInt(symbol.getValue());
+            }
+        }
+    }
+
+    /**
+     * Reads the image from the supplied file.  The file is memory mapped, and the constants and instructions are
+     * copied out of it in bulk.
+     *
+     * @param file
+     * @return the image
+     * @throws IOException if the file can not be read or is not a valid image
+     */
+    public static BytecodeImage read(Path file) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+
+            try {
+                if(buffer.getInt() != MAGIC) {
+                    throw new IOException("'" + file + "' is not a LitaVM image");
+                }
+
+                int version = buffer.getShort();
+                if(version != VERSION) {
+                    throw new IOException("'" + file + "' is an unsupported LitaVM image version: " + version);
+                }
+
+                int flags = buffer.getShort();
+                ByteOrder order = (flags & LITTLE_ENDIAN_FLAG) != 0 ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+
+                int pc = buffer.getInt();
+                int constantPoolSize = buffer.getInt();
+                int numberOfConstants = buffer.getInt();
+                int numberOfInstructions = buffer.getInt();
+                int numberOfSymbols = buffer.getInt();
+
+                // the counts are checked against the rest of the file before anything is allocated
+                checkCount(file, buffer, constantPoolSize, 1);
+                checkCount(file, buffer, numberOfSymbols, 6);
+
+                byte[] constantPool = new byte[constantPoolSize];
+                buffer.get(constantPool);
+                buffer.position((buffer.position() + 3) & ~3);
+
+                checkCount(file, buffer, numberOfConstants, 4);
+                int[] constants = new int[numberOfConstants];
+                buffer.asIntBuffer().get(constants);
+                buffer.position(buffer.position() + numberOfConstants * 4);
+
+                checkCount(file, buffer, numberOfInstructions, 4);
+                int[] instructions = new int[numberOfInstructions];
+                buffer.asIntBuffer().get(instructions);
+                buffer.position(buffer.position() + numberOfInstructions * 4);
+
+                Map<String, Integer> symbols = new LinkedHashMap<>();
+                for(int i = 0; i < numberOfSymbols; i++) {
+                    byte[] name = new byte[buffer.getShort() & 0xFFFF];
+                    buffer.get(name);
+                    symbols.put(new String(name, StandardCharsets.UTF_8), buffer.getInt());
+                }
+
+                Bytecode bytecode = new Bytecode(constants, instructions, pc, numberOfInstructions);
+                return new BytecodeImage(bytecode, constantPool, order, symbols);
+            }
+            catch(BufferUnderflowException | IllegalArgumentException e) {
+                throw new IOException("'" + file + "' is a truncated or corrupt LitaVM image", e);
+            }
+        }
+    }
+
+    /**
+     * Verifies the remainder of the file can hold the supplied number of items
+     *
+     * @throws IOException if it can not
+     */
+    private static void checkCount(Path file, MappedByteBuffer buffer, int count, int itemSize) throws IOException {
+        if(count < 0 || (long)count * itemSize > buffer.remaining()) {
+            throw new IOException("'" + file + "' is a truncated or corrupt LitaVM image");
+        }
+    }
+}
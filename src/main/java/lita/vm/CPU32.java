@@ -1,720 +1,1306 @@
-/*
- * see license.txt
- */
-package lita.vm;
-
-import static lita.vm.Instruction.*;
-import static lita.vm.Opcodes.*;
-
-
-/**
- * A 32-bit central processing unit.  The Stack grows down (i.e., starts at highest memory address) and the 
- * Heap grows up (starts at memory address after constants).
- * 
- * @author Tony
- *
- */
-public class CPU32 {
-
-    private static final int WORD_SIZE = 32; /* 32 bits per word */
-    
-    class CpuInstruction {
-        int[] constants;
-        
-        boolean isReg = false; 
-        
-        boolean isArg1Address  = false;
-        boolean isArg2Address  = false;
-        boolean isImmediate    = false;
-                    
-        Register x = null;
-        Register y = null;
-
-        int arg2Value = 0;
-        
-        
-        /**
-         * Process the instruction, parses out the arguments and fills in the appropriate
-         * data values based on the instruction
-         * 
-         * @param pc
-         * @param instr
-         * @return the opcode
-         */
-        int process(int pc, int instr) {
-            final int opcode = opcode(instr);
-            
-            isReg = false; 
-            
-            isArg1Address  = false;
-            isArg2Address  = false;
-            isImmediate    = false;
-                        
-            x = null;
-            y = null;
-
-            arg2Value = 0;
-            
-            ////
-            // JMP instruction is special in that its argument is
-            // a 24 bit immediate mode number
-            ////            
-            if(opcode==JMP||opcode==CALL) {
-                arg2Value = argJmpValue(instr); 
-            }
-            else {
-                ////
-                // All other instructions follow arg1/arg2 formats
-                ////
-                
-                if(numberOfArgs(opcode) == 2) {
-                    x = registers[arg1Value(instr)];
-                    isArg1Address = isArg1Addr(instr);
-                    
-                    isReg = isArg2Reg(instr);
-                    
-                    // Determine if Arg2 is a Register or Constant value
-                    if(isReg) {
-                        // The register is either an address to a value in memory OR a value
-                        y = registers[arg2Value(instr)];
-                        isArg2Address = isArg2Addr(instr);
-                    }
-                    else {
-                        // The constant is either an immediate value OR index to RAM
-                        isImmediate = isArg2Immediate(instr); 
-                        arg2Value = arg2Value(instr);
-                    }
-                }
-                else {                                
-                    isReg = isArg2Reg(instr);
-                    
-                    // Determine if Arg2 is a Register or Constant value
-                    if(isReg) {
-                        // The register is either an address to a value in memory OR a value
-                        y = registers[arg2Value(instr)];
-                        x = y;
-                        isArg2Address = isArg2Addr(instr);
-                    }
-                    else {
-                        // The constant is either an immediate value OR index to RAM
-                        isImmediate = isArg2Immediate(instr); 
-                        arg2Value = arg2Value(instr);
-                    }
-                }
-            }
-            
-            return opcode;
-        }
-        
-        int getArg1IntValue() {
-            return isArg1Address ? getIntValueAt(x) : x.intValue();
-        }
-        
-        float getArg1FloatValue() {
-            return isArg1Address ? getFloatValueAt(x) : x.floatValue();
-        }
-        
-        byte getArg1ByteValue() {
-            return isArg1Address ? getByteValueAt(x) : x.byteValue();
-        }
-        
-        void setArg1IntValue(int value) {
-            if(isArg1Address) {
-                setIntValue(x, value);
-            }
-            else {
-                x.value(value);
-            }
-        }
-        
-        void setArg1FloatValue(float value) {
-            if(isArg1Address) {
-                setFloatValue(x, value);
-            }
-            else {
-                x.value(value);
-            }
-        }
-        
-        void setArg1ByteValue(byte value) {
-            if(isArg1Address) {
-                setByteValue(x, value);
-            }
-            else {
-                x.value(value);
-            }
-        }
-        
-        int getArg2IntValue() {
-            return isReg ? (isArg2Address ? getIntValueAt(y) : y.intValue()) 
-                         : isImmediate ? arg2Value 
-                                       : ram.readInt(constants[arg2Value]);
-        }
-        
-        byte getArg2ByteValue() {
-            return isReg ? (isArg2Address ? getByteValueAt(y) : y.byteValue()) 
-                         : isImmediate ? (byte)arg2Value 
-                                       : ram.readByte(constants[arg2Value]);
-        }
-        
-        float getArg2FloatValue() {
-            return isReg ? (isArg2Address ? getFloatValueAt(y) : y.floatValue()) 
-                         : ram.readFloat(constants[arg2Value]);
-        }
-        
-        int getConstantIntValue() {
-            return isImmediate ? arg2Value 
-                               : ram.readInt(constants[arg2Value]);
-        }
-        
-        float getConstantFloatValue() {
-            return ram.readFloat(constants[arg2Value]);
-        }
-        
-        byte getConstantByteValue() {
-            return isImmediate ? (byte)arg2Value 
-                               : ram.readByte(constants[arg2Value]);
-        }
-        
-        int getConstantAddressValue() {
-            return constants[arg2Value];
-        }
-    }
-    
-    private final Register[] registers;
-    private final Register sp, pc, r, h;
-    
-    private final RAM ram;
-    
-    private final int stackSize;
-    
-    private final CpuInstruction currentInstruction;
-    
-    /**
-     * @param ram
-     * @param stackSize
-     */
-    public CPU32(RAM ram, int stackSize) {        
-        if(stackSize > ram.sizeInBytes()) {
-            throw new IllegalArgumentException("Stack size is bigger than RAM amount");
-        }
-        
-        this.ram = ram;
-        this.stackSize = stackSize;
-        
-        this.registers = new Register[12];
-        this.registers[0] = new Register("$sp", this);
-        this.registers[1] = new Register("$pc", this);
-        this.registers[2] = new Register("$r", this);
-        this.registers[3] = new Register("$h", this);
-        
-        this.registers[4] = new Register("$a", this);
-        this.registers[5] = new Register("$b", this);
-        this.registers[6] = new Register("$c", this);
-        this.registers[7] = new Register("$d", this);
-        
-        this.registers[8] = new Register("$i", this);
-        this.registers[9] = new Register("$j", this);
-        this.registers[10]= new Register("$k", this);
-        this.registers[11]= new Register("$u", this);
-        
-        this.sp = this.registers[0];
-        this.pc = this.registers[1];
-        this.r  = this.registers[2];
-        this.h  = this.registers[3];
-        
-        this.currentInstruction = new CpuInstruction();
-        
-        // Stack grows down, and the Heap grows up
-        this.sp.address(ram.sizeInBytes() - 1);
-    }
-
-    /**
-     * The word size of this VM; size is in bits
-     * 
-     * @return the number of bits per word
-     */
-    public int getWordSize() {
-        return WORD_SIZE;
-    }
-    
-    /**
-     * @return the ram
-     */
-    public RAM getRam() {
-        return ram;
-    }
-    
-    /**
-     * @return the stackSize
-     */
-    public int getStackSize() {
-        return stackSize;
-    }
-    
-    /**
-     * @return the registers for this CPU
-     */
-    public Register[] getRegisters() {
-        return this.registers;
-    }
-    
-    /**
-     * The $h registers holds the starting Heap address.
-     * 
-     * @return the h
-     */
-    public Register getH() {
-        return h;
-    }
-    
-    /**
-     * The $pc registers holds the Program Counter
-     * 
-     * @return the pc
-     */
-    public Register getPc() {
-        return pc;
-    }
-    
-    /**
-     * The $r registers holds the return address from a subroutine call
-     * 
-     * @return the r
-     */
-    public Register getR() {
-        return r;
-    }
-    
-    /**
-     * The $sp registers holds the Stack Pointer 
-     * 
-     * @return the sp
-     */
-    public Register getSp() {
-        return sp;
-    }
-            
-    /**
-     * An error occurred
-     * 
-     * @param fmt
-     * @param args
-     * @return the {@link EvalException} to throw
-     */
-    private EvalException error(String fmt, Object ... args) {
-        final String str = String.format(fmt, args);
-        return new EvalException(str);
-    }
-    
-    /**
-     * Execute the supplied {@link Bytecode}
-     * 
-     * @param bytecode
-     */
-    public void execute(Bytecode bytecode) {
-        int pc = bytecode.pc;
-        final int len = bytecode.length;
-        
-        final int[] constants = bytecode.constants;        
-        final int[] instrs = bytecode.instr;
-        
-        this.currentInstruction.constants = constants;
-        
-        while(pc < len) {
-            int instr = instrs[pc++];
-            this.pc.address(pc);
-            
-            final int opcode = this.currentInstruction.process(pc, instr);
-                        
-            switch(opcode) {
-                case NOOP: {
-                    break;
-                }
-                case MOVI: {
-                    this.currentInstruction.setArg1IntValue(this.currentInstruction.getArg2IntValue());
-                    break;
-                }
-                case MOVF: {                    
-                    this.currentInstruction.setArg1FloatValue(this.currentInstruction.getArg2FloatValue());
-                    break;
-                }
-                case MOVB: {                    
-                    this.currentInstruction.setArg1ByteValue(this.currentInstruction.getArg2ByteValue());
-                    break;
-                }
-                case LDCI: {
-                    this.currentInstruction.setArg1IntValue(this.currentInstruction.getConstantIntValue());                    
-                    break;
-                }
-                case LDCF: {
-                    this.currentInstruction.setArg1FloatValue(this.currentInstruction.getConstantFloatValue());                    
-                    break;
-                }
-                case LDCB: {
-                    this.currentInstruction.setArg1ByteValue(this.currentInstruction.getConstantByteValue());
-                    break;
-                }
-                case LDCA: {
-                    this.currentInstruction.setArg1IntValue(this.currentInstruction.getConstantAddressValue());
-                    break;
-                }
-                case PUSHI: {
-                    int value = this.currentInstruction.getArg2IntValue();
-                    
-                    this.sp.decAddress();
-                    setIntValue(this.sp, value);
-                    break;
-                }
-                case PUSHF: {
-                    float value = this.currentInstruction.getArg2FloatValue();
-                    
-                    this.sp.decAddress();
-                    setFloatValue(this.sp, value);
-                    break;
-                }
-                case PUSHB: {
-                    byte value = this.currentInstruction.getArg2ByteValue();
-                    
-                    this.sp.addressOffset(-1);
-                    setByteValue(this.sp, value);
-                    break;
-                }
-                case POPI: {
-                    int value = getIntValueAt(this.sp);
-                    this.sp.incAddress();
-                    
-                    this.currentInstruction.setArg1IntValue(value);          
-                    break;
-                }
-                case POPF: {
-                    float value = getFloatValueAt(this.sp);
-                    this.sp.incAddress();
-                    
-                    this.currentInstruction.setArg1FloatValue(value);           
-                    break;
-                }
-                case POPB: {
-                    byte value = getByteValueAt(this.sp);
-                    this.sp.address(+1);
-                    
-                    this.currentInstruction.setArg1ByteValue(value);                    
-                    break;
-                }
-                case DUPI: {
-                    int value = getIntValueAt(this.sp);
-                    this.sp.decAddress();
-                    
-                    setIntValue(this.sp, value);
-                    
-                    this.currentInstruction.setArg1IntValue(value);
-                    break;
-                }
-                case DUPF: {
-                    float value = getFloatValueAt(this.sp);
-                    this.sp.decAddress();
-                    
-                    setFloatValue(this.sp, value);
-                    
-                    this.currentInstruction.setArg1FloatValue(value);
-                    break;
-                }
-                case DUPB: {
-                    byte value = getByteValueAt(this.sp);
-                    this.sp.addressOffset(-1);
-                    
-                    setByteValue(this.sp, value);
-                    
-                    this.currentInstruction.setArg1ByteValue(value);
-                    break;
-                }
-                case IFI: {
-                    int yValue = this.currentInstruction.getArg2IntValue();          
-                    int xValue = this.currentInstruction.getArg1IntValue();
-                    
-                    if(xValue > yValue) {
-                        pc++;
-                    }
-                    break;
-                }
-                case IFF: {
-                    float yValue = this.currentInstruction.getArg2FloatValue();          
-                    float xValue = this.currentInstruction.getArg1FloatValue();
-                    
-                    if(xValue > yValue) {
-                        pc++;
-                    }
-                    break;
-                }
-                case IFB: {
-                    byte yValue = this.currentInstruction.getArg2ByteValue();          
-                    byte xValue = this.currentInstruction.getArg1ByteValue();
-                    
-                    if(xValue > yValue) {
-                        pc++;
-                    }
-                    break;
-                }
-                case IFEI: {
-                    int yValue = this.currentInstruction.getArg2IntValue();          
-                    int xValue = this.currentInstruction.getArg1IntValue();
-                    
-                    if(xValue >= yValue) {
-                        pc++;
-                    }
-                    break;
-                }
-                case IFEF: {
-                    float yValue = this.currentInstruction.getArg2FloatValue();          
-                    float xValue = this.currentInstruction.getArg1FloatValue();
-                    
-                    if(xValue >= yValue) {
-                        pc++;
-                    }
-                    break;
-                }
-                case IFEB: {
-                    byte yValue = this.currentInstruction.getArg2ByteValue();          
-                    byte xValue = this.currentInstruction.getArg1ByteValue();
-                    
-                    if(xValue >= yValue) {
-                        pc++;
-                    }
-                    break;
-                }
-                case JMP: {
-                    pc = this.currentInstruction.arg2Value;
-                    break;
-                }
-                    
-                case PRINTI: {
-                    System.out.println(this.currentInstruction.getArg2IntValue());
-                    break;
-                }
-                case PRINTF: {
-                    System.out.println(this.currentInstruction.getArg2FloatValue());
-                    break;
-                }
-                case PRINTB: {
-                    System.out.println(this.currentInstruction.getArg2ByteValue());
-                    break;
-                }
-                case PRINTC: {
-                    System.out.print((char)this.currentInstruction.getArg2ByteValue());
-                    break;
-                }
-                case CALL: {
-                    this.r.address(pc);                    
-                    int value = this.currentInstruction.arg2Value;
-                    
-                    pc = value; 
-                    break;
-                }
-                case RET: {
-                    pc = this.r.address();                    
-                    break;
-                }
-                    
-                /* ===================================================
-                 * ALU operations 
-                 * ===================================================
-                 */
-                    
-                case ADDI: {
-                    int value = this.currentInstruction.getArg2IntValue();                    
-                    this.currentInstruction.setArg1IntValue(this.currentInstruction.getArg1IntValue() + value);                    
-                    break;
-                }
-                case ADDF: {
-                    float value = this.currentInstruction.getArg2FloatValue();                    
-                    this.currentInstruction.setArg1FloatValue(this.currentInstruction.getArg1FloatValue() + value);
-                    break;
-                }
-                case ADDB: {
-                    byte value = this.currentInstruction.getArg2ByteValue();                    
-                    this.currentInstruction.setArg1ByteValue((byte)(this.currentInstruction.getArg1ByteValue() + value));
-                    break;
-                }
-                case SUBI: {
-                    int value = this.currentInstruction.getArg2IntValue();                    
-                    this.currentInstruction.setArg1IntValue(this.currentInstruction.getArg1IntValue() - value);                    
-                    break;
-                }
-                case SUBF: {
-                    float value = this.currentInstruction.getArg2FloatValue();                    
-                    this.currentInstruction.setArg1FloatValue(this.currentInstruction.getArg1FloatValue() - value);
-                    break;
-                }
-                case SUBB: {
-                    byte value = this.currentInstruction.getArg2ByteValue();                    
-                    this.currentInstruction.setArg1ByteValue((byte)(this.currentInstruction.getArg1ByteValue() - value));                    
-                    break;
-                }
-                case MULI: {
-                    int value = this.currentInstruction.getArg2IntValue();                    
-                    this.currentInstruction.setArg1IntValue(this.currentInstruction.getArg1IntValue() * value);                     
-                    break;
-                }
-                case MULF: {
-                    float value = this.currentInstruction.getArg2FloatValue();                    
-                    this.currentInstruction.setArg1FloatValue(this.currentInstruction.getArg1FloatValue() * value);
-                    break;
-                }
-                case MULB: {
-                    byte value = this.currentInstruction.getArg2ByteValue();                    
-                    this.currentInstruction.setArg1ByteValue((byte)(this.currentInstruction.getArg1ByteValue() * value));                     
-                    break;
-                }
-                case DIVI: {
-                    int value = this.currentInstruction.getArg2IntValue();                    
-                    if(value == 0) {
-                        error("Divide be zero error.");
-                    }
-                    
-                    this.currentInstruction.setArg1IntValue(this.currentInstruction.getArg1IntValue() / value); 
-                    break;
-                }
-                case DIVF: {
-                    float value = this.currentInstruction.getArg2FloatValue();                    
-                    if(value == 0) {
-                        error("Divide be zero error.");
-                    }
-                    this.currentInstruction.setArg1FloatValue(this.currentInstruction.getArg1FloatValue() / value);
-                    break;
-                }
-                case DIVB: {
-                    byte value = this.currentInstruction.getArg2ByteValue();                    
-                    if(value == 0) {
-                        error("Divide be zero error.");
-                    }
-                    
-                    this.currentInstruction.setArg1ByteValue((byte)(this.currentInstruction.getArg1ByteValue() / value)); 
-                    break;
-                }
-                case MODI: {
-                    int value = this.currentInstruction.getArg2IntValue();                    
-                    if(value == 0) {
-                        error("Divide be zero error.");
-                    }
-                    
-                    this.currentInstruction.setArg1IntValue(this.currentInstruction.getArg1IntValue() % value);                  
-                    break;
-                }
-                case MODF: {
-                    float value = this.currentInstruction.getArg2FloatValue();                    
-                    if(value == 0) {
-                        error("Divide be zero error.");
-                    }
-                    this.currentInstruction.setArg1FloatValue(this.currentInstruction.getArg1FloatValue() % value);
-                    break;
-                }
-                case MODB: {
-                    byte value = this.currentInstruction.getArg2ByteValue();                    
-                    if(value == 0) {
-                        error("Divide be zero error.");
-                    }
-                    
-                    this.currentInstruction.setArg1ByteValue((byte)(this.currentInstruction.getArg1ByteValue() % value)); 
-                    break;
-                }
-                case ORI: {
-                    int value = this.currentInstruction.getArg2IntValue();                    
-                    this.currentInstruction.setArg1IntValue(this.currentInstruction.getArg1IntValue() | value);                     
-                    break;
-                }
-                case ORB: {
-                    byte value = this.currentInstruction.getArg2ByteValue();                    
-                    this.currentInstruction.setArg1ByteValue((byte)(this.currentInstruction.getArg1ByteValue() | value));                     
-                    break;
-                }
-                case ANDI: {
-                    int value = this.currentInstruction.getArg2IntValue();                    
-                    this.currentInstruction.setArg1IntValue(this.currentInstruction.getArg1IntValue() & value);                     
-                    break;
-                }
-                case ANDB: {
-                    byte value = this.currentInstruction.getArg2ByteValue();                    
-                    this.currentInstruction.setArg1ByteValue((byte)(this.currentInstruction.getArg1ByteValue() & value));                     
-                    break;
-                }
-                case NOTI: {
-                    int value = this.currentInstruction.getArg2IntValue();                    
-                    this.currentInstruction.setArg1IntValue(~value);                     
-                    break;
-                }
-                case NOTB: {
-                    byte value = this.currentInstruction.getArg2ByteValue();                    
-                    this.currentInstruction.setArg1ByteValue((byte)(~value));                     
-                    break;
-                }
-                case XORI: {
-                    int value = this.currentInstruction.getArg2IntValue();                    
-                    this.currentInstruction.setArg1IntValue(this.currentInstruction.getArg1IntValue() ^ value);                     
-                    break;
-                }
-                case XORB: {
-                    byte value = this.currentInstruction.getArg2ByteValue();                    
-                    this.currentInstruction.setArg1ByteValue((byte)(this.currentInstruction.getArg1ByteValue() ^ value));                     
-                    break;
-                }
-                case SZRLI: {
-                    int value = this.currentInstruction.getArg2IntValue();                    
-                    this.currentInstruction.setArg1IntValue(this.currentInstruction.getArg1IntValue() >>> value);                     
-                    break;
-                }
-                case SZRLB: {
-                    byte value = this.currentInstruction.getArg2ByteValue();                    
-                    this.currentInstruction.setArg1ByteValue((byte)(this.currentInstruction.getArg1ByteValue() >>> value));                     
-                    break;
-                }
-                case SRLI: {
-                    int value = this.currentInstruction.getArg2IntValue();                    
-                    this.currentInstruction.setArg1IntValue(this.currentInstruction.getArg1IntValue() >> value);                     
-                    break;
-                }
-                case SRLB: {
-                    byte value = this.currentInstruction.getArg2ByteValue();                    
-                    this.currentInstruction.setArg1ByteValue((byte)(this.currentInstruction.getArg1ByteValue() >> value));                     
-                    break;
-                }
-                case SLLI: {
-                    int value = this.currentInstruction.getArg2IntValue();                    
-                    this.currentInstruction.setArg1IntValue(this.currentInstruction.getArg1IntValue() << value);                     
-                    break;
-                }
-                case SLLB: {
-                    byte value = this.currentInstruction.getArg2ByteValue();                    
-                    this.currentInstruction.setArg1ByteValue((byte)(this.currentInstruction.getArg1ByteValue() << value));                     
-                    break;
-                }
-                default:
-                    throw error("Unknown opcode: %d", opcode);
-            }
-        }
-    }
-    
-    private int getIntValueAt(Register r) {
-        return this.ram.readInt(r.address());
-    }
-        
-    private float getFloatValueAt(Register r) {
-        return this.ram.readFloat(r.address());
-    }
-        
-    private byte getByteValueAt(Register r) {
-        return this.ram.readByte(r.address());
-    }
-        
-    private void setIntValue(Register r, int value) {
-        this.ram.storeInt(r.address(), value);
-    }   
-    
-    private void setFloatValue(Register r, float value) {
-        this.ram.storeFloat(r.address(), value);
-    }
-        
-    private void setByteValue(Register r, byte value) {
-        this.ram.storeByte(r.address(), value);
-    }
-
-}
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import static lita.vm.DecodedBytecode.*;
+import static lita.vm.Opcodes.*;
+import static lita.vm.SpecializedOpcodes.*;
+import static lita.vm.SuperInstructions.*;
+
+/**
+ * A 32-bit central processing unit.  The Stack grows down (i.e., starts at highest memory address) and the 
+ * Heap grows up (starts at memory address after constants).
+ * 
+ * @author Tony
+ *
+ */
+public class CPU32 {
+
+    private static final int WORD_SIZE = 32; /* 32 bits per word */
+    private static final int WORD_BYTES = WORD_SIZE / 8; /* RAM is addressed by bytes */
+    
+    /**
+     * Indexes of the reserved registers in the register file
+     */
+    public static final int
+        SP = 0,
+        PC = 1,
+        R  = 2,
+        H  = 3
+        ;
+    
+    /**
+     * Index of $c, the register holding the number of bytes the block memory opcodes
+     * (<code>MEMCPY</code>, <code>MEMSET</code>, <code>MEMCMP</code> and <code>MEMFIND</code>) work on
+     */
+    public static final int C = 6;
+    
+    /**
+     * Instruction budget of code that is executed to completion
+     */
+    public static final long UNLIMITED = Long.MAX_VALUE;
+    
+    /**
+     * The number of instructions between checks of the time, when executing for an amount of time
+     */
+    public static final int TIME_CHECK_INSTRUCTIONS = 10_000;
+    
+    /**
+     * Program counter the dispatch loops are left with when the instruction budget runs out; it is past
+     * the end of any code
+     */
+    static final int SUSPENDED = Integer.MAX_VALUE;
+    
+    /**
+     * The register values; the {@link Register}s are views into this 
+     */
+    private final int[] registerFile;
+    private final Register[] registers;
+    private final Register sp, pc, r, h;
+    
+    private final RAM ram;
+    
+    private final int stackSize;
+    
+    /**
+     * The {@link ThreadedEngine} when using {@link DispatchMode#THREADED} dispatch, otherwise
+     * the instructions are dispatched by the switch in {@link #execute(DecodedBytecode)}
+     */
+    private final ThreadedEngine threadedEngine;
+    
+    /**
+     * The number of times a jump/call target is entered before it is compiled, 
+     * disabled if 0
+     */
+    private int jitThreshold;
+    
+    /**
+     * Where the <code>PRINT</code> opcodes write to
+     */
+    private OutputDevice output;
+    
+    /**
+     * Scratch space for formatting numbers
+     */
+    private final byte[] digits = new byte[12];
+    
+    /**
+     * Execution statistics being recorded, null if disabled
+     */
+    private ExecutionStats stats;
+    
+    /**
+     * The guest call stack profiler, null if disabled
+     */
+    private Profiler profiler;
+    private InstrumentedEngine instrumentedEngine;
+    
+    /**
+     * The instructions left to execute before suspending, and the start of the straight run of
+     * code since the last budget check 
+     */
+    private long budget;
+    private int regionStart;
+    private int suspendedPc;
+    
+    /**
+     * @param ram
+     * @param stackSize
+     */
+    public CPU32(RAM ram, int stackSize) {
+        this(ram, stackSize, DispatchMode.SWITCH);
+    }
+    
+    /**
+     * @param ram
+     * @param stackSize
+     * @param dispatchMode how instructions are dispatched
+     */
+    public CPU32(RAM ram, int stackSize, DispatchMode dispatchMode) {        
+        if(stackSize > ram.sizeInBytes()) {
+            throw new IllegalArgumentException("Stack size is bigger than RAM amount");
+        }
+        
+        this.ram = ram;
+        this.stackSize = stackSize;
+        this.output = BufferedOutputDevice.systemOut();
+        
+        this.registerFile = new int[12];
+        
+        this.registers = new Register[12];
+        this.registers[0] = new Register("$sp", this, 0);
+        this.registers[1] = new Register("$pc", this, 1);
+        this.registers[2] = new Register("$r", this, 2);
+        this.registers[3] = new Register("$h", this, 3);
+        
+        this.registers[4] = new Register("$a", this, 4);
+        this.registers[5] = new Register("$b", this, 5);
+        this.registers[6] = new Register("$c", this, 6);
+        this.registers[7] = new Register("$d", this, 7);
+        
+        this.registers[8] = new Register("$i", this, 8);
+        this.registers[9] = new Register("$j", this, 9);
+        this.registers[10]= new Register("$k", this, 10);
+        this.registers[11]= new Register("$u", this, 11);
+        
+        this.sp = this.registers[SP];
+        this.pc = this.registers[PC];
+        this.r  = this.registers[R];
+        this.h  = this.registers[H];
+        
+        // Stack grows down, and the Heap grows up
+        this.registerFile[SP] = ram.sizeInBytes() - 1;
+        
+        this.threadedEngine = dispatchMode == DispatchMode.THREADED ? new ThreadedEngine(this) : null;
+    }
+
+    /**
+     * The word size of this VM; size is in bits
+     * 
+     * @return the number of bits per word
+     */
+    public int getWordSize() {
+        return WORD_SIZE;
+    }
+    
+    /**
+     * @return the ram
+     */
+    public RAM getRam() {
+        return ram;
+    }
+    
+    /**
+     * @return the stackSize
+     */
+    public int getStackSize() {
+        return stackSize;
+    }
+    
+    /**
+     * The register values, indexed by register number.  This is the actual storage
+     * of the registers, so writes to it change the state of the CPU.
+     * 
+     * @return the register file
+     */
+    public int[] getRegisterFile() {
+        return this.registerFile;
+    }
+    
+    /**
+     * @return how this CPU dispatches instructions
+     */
+    public DispatchMode getDispatchMode() {
+        return this.threadedEngine != null ? DispatchMode.THREADED : DispatchMode.SWITCH;
+    }
+    
+    /**
+     * @return the registers for this CPU
+     */
+    public Register[] getRegisters() {
+        return this.registers;
+    }
+    
+    /**
+     * Enables compiling hot code regions into JVM classes (see {@link JitCompiler}).
+     * 
+     * @param jitThreshold the number of times a <code>CALL</code> or backward <code>JMP</code> target 
+     * must be entered before it is compiled, or 0 to disable the JIT compiler
+     */
+    public void setJitThreshold(int jitThreshold) {
+        this.jitThreshold = Math.max(jitThreshold, 0);
+    }
+    
+    /**
+     * @return the number of times a target must be entered before it is compiled, 0 if
+     * the JIT compiler is disabled
+     */
+    public int getJitThreshold() {
+        return jitThreshold;
+    }
+    
+    /**
+     * Routes the output of the <code>PRINT</code> opcodes to the supplied device.  The device is flushed 
+     * whenever execution stops, see {@link OutputDevice}.
+     * 
+     * @param output the device to write to, or null to write to System.out
+     */
+    public void setOutput(OutputDevice output) {
+        this.output = output != null ? output : BufferedOutputDevice.systemOut();
+    }
+    
+    /**
+     * @return the device the <code>PRINT</code> opcodes write to
+     */
+    public OutputDevice getOutput() {
+        return output;
+    }
+    
+    /**
+     * Records {@link ExecutionStats} of the code this CPU executes.  While enabled, code is executed by
+     * an instrumented engine that counts every instruction; superinstructions and the JIT compiler are
+     * not used.
+     * 
+     * @param stats the stats to add the counts to, or null to disable recording
+     */
+    public void setStats(ExecutionStats stats) {
+        this.stats = stats;
+        if(stats != null && this.instrumentedEngine == null) {
+            this.instrumentedEngine = new InstrumentedEngine(this);
+        }
+    }
+    
+    /**
+     * @return the {@link ExecutionStats} being recorded, null if disabled
+     */
+    public ExecutionStats getStats() {
+        return stats;
+    }
+    
+    /**
+     * Samples the guest call stack of the code this CPU executes with the supplied {@link Profiler}.  Like
+     * {@link #setStats(ExecutionStats)}, this executes code with an instrumented engine.
+     * 
+     * @param profiler the profiler, or null to disable profiling
+     */
+    public void setProfiler(Profiler profiler) {
+        this.profiler = profiler;
+        if(profiler != null && this.instrumentedEngine == null) {
+            this.instrumentedEngine = new InstrumentedEngine(this);
+        }
+    }
+    
+    /**
+     * @return the {@link Profiler} sampling the call stack, null if disabled
+     */
+    public Profiler getProfiler() {
+        return profiler;
+    }
+    
+    /**
+     * The $h registers holds the starting Heap address.
+     * 
+     * @return the h
+     */
+    public Register getH() {
+        return h;
+    }
+    
+    /**
+     * The $pc registers holds the Program Counter
+     * 
+     * @return the pc
+     */
+    public Register getPc() {
+        return pc;
+    }
+    
+    /**
+     * The $r registers holds the return address from a subroutine call
+     * 
+     * @return the r
+     */
+    public Register getR() {
+        return r;
+    }
+    
+    /**
+     * The $sp registers holds the Stack Pointer 
+     * 
+     * @return the sp
+     */
+    public Register getSp() {
+        return sp;
+    }
+            
+    /**
+     * An error occurred
+     * 
+     * @param fmt
+     * @param args
+     * @return the {@link EvalException} to throw
+     */
+    private EvalException error(String fmt, Object ... args) {
+        final String str = String.format(fmt, args);
+        return new EvalException(str);
+    }
+    
+    /**
+     * Execute the supplied {@link Bytecode}
+     *
+     * @param bytecode
+     */
+    public void execute(Bytecode bytecode) {
+        execute(DecodedBytecode.decode(bytecode));
+    }
+
+    /**
+     * Execute the supplied {@link DecodedBytecode}
+     *
+     * @param code
+     */
+    public void execute(DecodedBytecode code) {
+        if(this.profiler != null) {
+            this.profiler.begin();
+        }
+        
+        run(code, code.pc, UNLIMITED);
+    }
+    
+    /**
+     * Execute the supplied {@link DecodedBytecode} for about the supplied number of instructions, after which
+     * execution is suspended so that it can be resumed later with {@link #resume(ExecutionState, long)}.
+     * 
+     * <p>
+     * The budget is only checked on backward jumps, calls and returns, not on every instruction, so a
+     * slice may run past the budget by the length of a straight run of forward-flowing code.  The
+     * instructions between two checks are charged as the span from the last jump target to the jump,
+     * which can overcharge code that jumps forward over instructions.
+     * 
+     * <p>
+     * Compiled regions (see {@link #setJitThreshold(int)}) run to their exit without checking the budget,
+     * so the JIT compiler is not used when executing with a budget.
+     * 
+     * @param code
+     * @param instructionBudget the number of instructions to run for, at least 1
+     * @return the state to resume from
+     */
+    public ExecutionState execute(DecodedBytecode code, long instructionBudget) {
+        if(this.profiler != null) {
+            this.profiler.begin();
+        }
+        
+        return suspend(code, run(code, code.pc, instructionBudget));
+    }
+    
+    /**
+     * Resumes the suspended execution for about the supplied number of instructions, see 
+     * {@link #execute(DecodedBytecode, long)}.  The registers are restored to the values they had
+     * when the execution was suspended.
+     * 
+     * @param state
+     * @param instructionBudget the number of instructions to run for, at least 1
+     * @return the state to resume from
+     */
+    public ExecutionState resume(ExecutionState state, long instructionBudget) {
+        if(state.isFinished()) {
+            return state;
+        }
+        
+        System.arraycopy(state.registers, 0, this.registerFile, 0, this.registerFile.length);
+        return suspend(state.getCode(), run(state.getCode(), state.getPc(), instructionBudget));
+    }
+    
+    /**
+     * Execute the supplied {@link DecodedBytecode} for about the supplied amount of time, after which
+     * execution is suspended.  The time is checked every {@link #TIME_CHECK_INSTRUCTIONS} instructions.
+     * 
+     * @param code
+     * @param nanos the time to run for, in nanoseconds
+     * @return the state to resume from
+     */
+    public ExecutionState executeFor(DecodedBytecode code, long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        return runUntil(execute(code, TIME_CHECK_INSTRUCTIONS), deadline);
+    }
+    
+    /**
+     * Resumes the suspended execution for about the supplied amount of time, see 
+     * {@link #executeFor(DecodedBytecode, long)}
+     * 
+     * @param state
+     * @param nanos the time to run for, in nanoseconds
+     * @return the state to resume from
+     */
+    public ExecutionState resumeFor(ExecutionState state, long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        return runUntil(resume(state, TIME_CHECK_INSTRUCTIONS), deadline);
+    }
+    
+    private ExecutionState runUntil(ExecutionState state, long deadline) {
+        while(!state.isFinished() && System.nanoTime() - deadline < 0) {
+            state = resume(state, TIME_CHECK_INSTRUCTIONS);
+        }
+        return state;
+    }
+    
+    private ExecutionState suspend(DecodedBytecode code, int resumePc) {
+        return new ExecutionState(code, resumePc, this.registerFile.clone());
+    }
+    
+    /**
+     * Charges the instructions executed since the last check to the instruction budget; called on every
+     * backward jump, call and return when the JIT compiler is not in use.
+     * 
+     * @param target the instruction being jumped to
+     * @param from the jump instruction
+     * @return the target, or {@link #SUSPENDED} if the budget has run out
+     */
+    int checkpoint(int target, int from) {
+        this.budget -= from - this.regionStart + 1;
+        this.regionStart = target;
+        
+        if(this.budget <= 0) {
+            this.suspendedPc = target;
+            return SUSPENDED;
+        }
+        return target;
+    }
+    
+    /**
+     * Runs the code from the supplied instruction until it ends or the budget runs out
+     * 
+     * @return the instruction to resume at, which is past the end of the code if it ran to completion
+     */
+    private int run(DecodedBytecode code, int pc, long instructionBudget) {
+        if(instructionBudget < 1) {
+            throw new IllegalArgumentException("The instruction budget must be at least 1");
+        }
+        
+        this.budget = instructionBudget;
+        this.regionStart = pc;
+        this.suspendedPc = -1;
+        
+        final JitCompiler jit = instructionBudget == UNLIMITED && this.jitThreshold > 0 ? code.getJitCompiler(this.jitThreshold) : null;
+        
+        try {
+            if(this.stats != null || this.profiler != null) {
+                this.instrumentedEngine.execute(code, pc, this.stats, this.profiler);
+            }
+            else if(this.threadedEngine != null) {
+                this.threadedEngine.execute(code, pc, jit);
+            }
+            else {
+                interpret(code, pc, jit);
+            }
+        }
+        finally {
+            this.output.flush();
+        }
+        
+        return this.suspendedPc >= 0 ? this.suspendedPc : code.length;
+    }
+    
+    /**
+     * The switch based dispatch loop
+     */
+    private void interpret(DecodedBytecode code, int pc, final JitCompiler jit) {
+        final int len = code.length;
+
+        final int[] dispatchCodes = code.dispatchCodes;
+        final int[] arg1 = code.arg1;
+        final byte[] arg1Mode = code.arg1Mode;
+        final int[] arg2 = code.arg2;
+        final byte[] arg2Mode = code.arg2Mode;
+
+        final int[] regs = this.registerFile;
+
+        while(pc < len) {
+            final int i = pc++;
+            regs[PC] = pc;
+
+            switch(dispatchCodes[i]) {
+                /* ===================================================
+                 * Operand mode specialized forms
+                 * ===================================================
+                 */
+
+                case MOVI_RR: {
+                    regs[arg1[i]] = regs[arg2[i]];
+                    break;
+                }
+                case MOVI_RI: {
+                    regs[arg1[i]] = arg2[i];
+                    break;
+                }
+                case MOVI_RM: {
+                    regs[arg1[i]] = this.ram.readInt(regs[arg2[i]]);
+                    break;
+                }
+                case MOVI_MR: {
+                    this.ram.storeInt(regs[arg1[i]], regs[arg2[i]]);
+                    break;
+                }
+                case ADDI_RR: {
+                    regs[arg1[i]] += regs[arg2[i]];
+                    break;
+                }
+                case ADDI_RI: {
+                    regs[arg1[i]] += arg2[i];
+                    break;
+                }
+                case SUBI_RR: {
+                    regs[arg1[i]] -= regs[arg2[i]];
+                    break;
+                }
+                case SUBI_RI: {
+                    regs[arg1[i]] -= arg2[i];
+                    break;
+                }
+                case MULI_RR: {
+                    regs[arg1[i]] *= regs[arg2[i]];
+                    break;
+                }
+                case MULI_RI: {
+                    regs[arg1[i]] *= arg2[i];
+                    break;
+                }
+                case ORI_RR: {
+                    regs[arg1[i]] |= regs[arg2[i]];
+                    break;
+                }
+                case ORI_RI: {
+                    regs[arg1[i]] |= arg2[i];
+                    break;
+                }
+                case ANDI_RR: {
+                    regs[arg1[i]] &= regs[arg2[i]];
+                    break;
+                }
+                case ANDI_RI: {
+                    regs[arg1[i]] &= arg2[i];
+                    break;
+                }
+                case XORI_RR: {
+                    regs[arg1[i]] ^= regs[arg2[i]];
+                    break;
+                }
+                case XORI_RI: {
+                    regs[arg1[i]] ^= arg2[i];
+                    break;
+                }
+                case SZRLI_RR: {
+                    regs[arg1[i]] >>>= regs[arg2[i]];
+                    break;
+                }
+                case SZRLI_RI: {
+                    regs[arg1[i]] >>>= arg2[i];
+                    break;
+                }
+                case SRLI_RR: {
+                    regs[arg1[i]] >>= regs[arg2[i]];
+                    break;
+                }
+                case SRLI_RI: {
+                    regs[arg1[i]] >>= arg2[i];
+                    break;
+                }
+                case SLLI_RR: {
+                    regs[arg1[i]] <<= regs[arg2[i]];
+                    break;
+                }
+                case SLLI_RI: {
+                    regs[arg1[i]] <<= arg2[i];
+                    break;
+                }
+                case IFI_RR: {
+                    if(regs[arg1[i]] > regs[arg2[i]]) {
+                        pc++;
+                    }
+                    break;
+                }
+                case IFI_RI: {
+                    if(regs[arg1[i]] > arg2[i]) {
+                        pc++;
+                    }
+                    break;
+                }
+                case IFEI_RR: {
+                    if(regs[arg1[i]] >= regs[arg2[i]]) {
+                        pc++;
+                    }
+                    break;
+                }
+                case IFEI_RI: {
+                    if(regs[arg1[i]] >= arg2[i]) {
+                        pc++;
+                    }
+                    break;
+                }
+                case IFB_MI: {
+                    if(this.ram.readByte(regs[arg1[i]]) > (byte)arg2[i]) {
+                        pc++;
+                    }
+                    break;
+                }
+                case IFB_MR: {
+                    if(this.ram.readByte(regs[arg1[i]]) > (byte)regs[arg2[i]]) {
+                        pc++;
+                    }
+                    break;
+                }
+                case IFEB_MI: {
+                    if(this.ram.readByte(regs[arg1[i]]) >= (byte)arg2[i]) {
+                        pc++;
+                    }
+                    break;
+                }
+                case IFEB_MR: {
+                    if(this.ram.readByte(regs[arg1[i]]) >= (byte)regs[arg2[i]]) {
+                        pc++;
+                    }
+                    break;
+                }
+                case PRINTC_M: {
+                    printChar(this.ram.readByte(regs[arg2[i]]));
+                    break;
+                }
+
+                /* ===================================================
+                 * Superinstructions, which also execute the instruction
+                 * following them
+                 * ===================================================
+                 */
+
+                case IFI_RR_JMP: {
+                    if(regs[arg1[i]] > regs[arg2[i]]) {
+                        pc++;
+                    }
+                    else {
+                        regs[PC] = ++pc;
+                        pc = arg2[i + 1];
+
+                        if(pc <= i + 1) {
+                            pc = jit != null ? jit.enter(pc, this) : checkpoint(pc, i + 1);
+                        }
+                    }
+                    break;
+                }
+                case IFI_RI_JMP: {
+                    if(regs[arg1[i]] > arg2[i]) {
+                        pc++;
+                    }
+                    else {
+                        regs[PC] = ++pc;
+                        pc = arg2[i + 1];
+
+                        if(pc <= i + 1) {
+                            pc = jit != null ? jit.enter(pc, this) : checkpoint(pc, i + 1);
+                        }
+                    }
+                    break;
+                }
+                case IFEI_RR_JMP: {
+                    if(regs[arg1[i]] >= regs[arg2[i]]) {
+                        pc++;
+                    }
+                    else {
+                        regs[PC] = ++pc;
+                        pc = arg2[i + 1];
+
+                        if(pc <= i + 1) {
+                            pc = jit != null ? jit.enter(pc, this) : checkpoint(pc, i + 1);
+                        }
+                    }
+                    break;
+                }
+                case IFEI_RI_JMP: {
+                    if(regs[arg1[i]] >= arg2[i]) {
+                        pc++;
+                    }
+                    else {
+                        regs[PC] = ++pc;
+                        pc = arg2[i + 1];
+
+                        if(pc <= i + 1) {
+                            pc = jit != null ? jit.enter(pc, this) : checkpoint(pc, i + 1);
+                        }
+                    }
+                    break;
+                }
+                case IFB_MI_JMP: {
+                    if(this.ram.readByte(regs[arg1[i]]) > (byte)arg2[i]) {
+                        pc++;
+                    }
+                    else {
+                        regs[PC] = ++pc;
+                        pc = arg2[i + 1];
+
+                        if(pc <= i + 1) {
+                            pc = jit != null ? jit.enter(pc, this) : checkpoint(pc, i + 1);
+                        }
+                    }
+                    break;
+                }
+                case IFEB_MI_JMP: {
+                    if(this.ram.readByte(regs[arg1[i]]) >= (byte)arg2[i]) {
+                        pc++;
+                    }
+                    else {
+                        regs[PC] = ++pc;
+                        pc = arg2[i + 1];
+
+                        if(pc <= i + 1) {
+                            pc = jit != null ? jit.enter(pc, this) : checkpoint(pc, i + 1);
+                        }
+                    }
+                    break;
+                }
+                case PRINTC_M_ADDI_RI: {
+                    printChar(this.ram.readByte(regs[arg2[i]]));
+
+                    regs[PC] = ++pc;
+                    regs[arg1[i + 1]] += arg2[i + 1];
+                    break;
+                }
+                case PUSHI_CALL: {
+                    int value = getIntArg(arg2Mode[i], arg2[i]);
+
+                    regs[SP] -= WORD_BYTES;
+                    this.ram.storeInt(regs[SP], value);
+
+                    regs[PC] = ++pc;
+                    regs[R] = pc;
+                    pc = arg2[i + 1];
+                    pc = jit != null ? jit.enter(pc, this) : checkpoint(pc, i + 1);
+                    break;
+                }
+
+                /* ===================================================
+                 * Generic forms
+                 * ===================================================
+                 */
+
+                case NOOP: {
+                    break;
+                }
+                case MOVI: {
+                    setIntArg(arg1Mode[i], arg1[i], getIntArg(arg2Mode[i], arg2[i]));
+                    break;
+                }
+                case MOVF: {
+                    setFloatArg(arg1Mode[i], arg1[i], getFloatArg(arg2Mode[i], arg2[i]));
+                    break;
+                }
+                case MOVB: {
+                    setByteArg(arg1Mode[i], arg1[i], getByteArg(arg2Mode[i], arg2[i]));
+                    break;
+                }
+                case LDCI: {
+                    setIntArg(arg1Mode[i], arg1[i], getIntArg(arg2Mode[i], arg2[i]));
+                    break;
+                }
+                case LDCF: {
+                    setFloatArg(arg1Mode[i], arg1[i], getFloatArg(arg2Mode[i], arg2[i]));
+                    break;
+                }
+                case LDCB: {
+                    setByteArg(arg1Mode[i], arg1[i], getByteArg(arg2Mode[i], arg2[i]));
+                    break;
+                }
+                case LDCA: {
+                    setIntArg(arg1Mode[i], arg1[i], arg2[i]);
+                    break;
+                }
+                case PUSHI: {
+                    int value = getIntArg(arg2Mode[i], arg2[i]);
+
+                    regs[SP] -= WORD_BYTES;
+                    this.ram.storeInt(regs[SP], value);
+                    break;
+                }
+                case PUSHF: {
+                    float value = getFloatArg(arg2Mode[i], arg2[i]);
+
+                    regs[SP] -= WORD_BYTES;
+                    this.ram.storeFloat(regs[SP], value);
+                    break;
+                }
+                case PUSHB: {
+                    byte value = getByteArg(arg2Mode[i], arg2[i]);
+
+                    regs[SP] -= 1;
+                    this.ram.storeByte(regs[SP], value);
+                    break;
+                }
+                case POPI: {
+                    int value = this.ram.readInt(regs[SP]);
+                    regs[SP] += WORD_BYTES;
+
+                    setIntArg(arg1Mode[i], arg1[i], value);
+                    break;
+                }
+                case POPF: {
+                    float value = this.ram.readFloat(regs[SP]);
+                    regs[SP] += WORD_BYTES;
+
+                    setFloatArg(arg1Mode[i], arg1[i], value);
+                    break;
+                }
+                case POPB: {
+                    byte value = this.ram.readByte(regs[SP]);
+                    regs[SP] += 1;
+
+                    setByteArg(arg1Mode[i], arg1[i], value);
+                    break;
+                }
+                case DUPI: {
+                    int value = this.ram.readInt(regs[SP]);
+                    regs[SP] -= WORD_BYTES;
+
+                    this.ram.storeInt(regs[SP], value);
+
+                    setIntArg(arg1Mode[i], arg1[i], value);
+                    break;
+                }
+                case DUPF: {
+                    float value = this.ram.readFloat(regs[SP]);
+                    regs[SP] -= WORD_BYTES;
+
+                    this.ram.storeFloat(regs[SP], value);
+
+                    setFloatArg(arg1Mode[i], arg1[i], value);
+                    break;
+                }
+                case DUPB: {
+                    byte value = this.ram.readByte(regs[SP]);
+                    regs[SP] -= 1;
+
+                    this.ram.storeByte(regs[SP], value);
+
+                    setByteArg(arg1Mode[i], arg1[i], value);
+                    break;
+                }
+                case IFI: {
+                    int yValue = getIntArg(arg2Mode[i], arg2[i]);
+                    int xValue = getIntArg(arg1Mode[i], arg1[i]);
+
+                    if(xValue > yValue) {
+                        pc++;
+                    }
+                    break;
+                }
+                case IFF: {
+                    float yValue = getFloatArg(arg2Mode[i], arg2[i]);
+                    float xValue = getFloatArg(arg1Mode[i], arg1[i]);
+
+                    if(xValue > yValue) {
+                        pc++;
+                    }
+                    break;
+                }
+                case IFB: {
+                    byte yValue = getByteArg(arg2Mode[i], arg2[i]);
+                    byte xValue = getByteArg(arg1Mode[i], arg1[i]);
+
+                    if(xValue > yValue) {
+                        pc++;
+                    }
+                    break;
+                }
+                case IFEI: {
+                    int yValue = getIntArg(arg2Mode[i], arg2[i]);
+                    int xValue = getIntArg(arg1Mode[i], arg1[i]);
+
+                    if(xValue >= yValue) {
+                        pc++;
+                    }
+                    break;
+                }
+                case IFEF: {
+                    float yValue = getFloatArg(arg2Mode[i], arg2[i]);
+                    float xValue = getFloatArg(arg1Mode[i], arg1[i]);
+
+                    if(xValue >= yValue) {
+                        pc++;
+                    }
+                    break;
+                }
+                case IFEB: {
+                    byte yValue = getByteArg(arg2Mode[i], arg2[i]);
+                    byte xValue = getByteArg(arg1Mode[i], arg1[i]);
+
+                    if(xValue >= yValue) {
+                        pc++;
+                    }
+                    break;
+                }
+                case JMP: {
+                    pc = arg2[i];
+                    
+                    // backward jumps are loops, which are candidates for compiling, and where
+                    // the instruction budget is checked
+                    if(pc <= i) {
+                        pc = jit != null ? jit.enter(pc, this) : checkpoint(pc, i);
+                    }
+                    break;
+                }
+
+                case PRINTI: {
+                    printInt(getIntArg(arg2Mode[i], arg2[i]));
+                    break;
+                }
+                case PRINTF: {
+                    printFloat(getFloatArg(arg2Mode[i], arg2[i]));
+                    break;
+                }
+                case PRINTB: {
+                    printByte(getByteArg(arg2Mode[i], arg2[i]));
+                    break;
+                }
+                case PRINTC: {
+                    printChar(getByteArg(arg2Mode[i], arg2[i]));
+                    break;
+                }
+                case CALL: {
+                    regs[R] = pc;
+                    pc = arg2[i];
+                    pc = jit != null ? jit.enter(pc, this) : checkpoint(pc, i);
+                    break;
+                }
+                case RET: {
+                    pc = jit != null ? regs[R] : checkpoint(regs[R], i);
+                    break;
+                }
+
+                /* ===================================================
+                 * ALU operations
+                 * ===================================================
+                 */
+
+                case ADDI: {
+                    int value = getIntArg(arg2Mode[i], arg2[i]);
+                    setIntArg(arg1Mode[i], arg1[i], getIntArg(arg1Mode[i], arg1[i]) + value);
+                    break;
+                }
+                case ADDF: {
+                    float value = getFloatArg(arg2Mode[i], arg2[i]);
+                    setFloatArg(arg1Mode[i], arg1[i], getFloatArg(arg1Mode[i], arg1[i]) + value);
+                    break;
+                }
+                case ADDB: {
+                    byte value = getByteArg(arg2Mode[i], arg2[i]);
+                    setByteArg(arg1Mode[i], arg1[i], (byte)(getByteArg(arg1Mode[i], arg1[i]) + value));
+                    break;
+                }
+                case SUBI: {
+                    int value = getIntArg(arg2Mode[i], arg2[i]);
+                    setIntArg(arg1Mode[i], arg1[i], getIntArg(arg1Mode[i], arg1[i]) - value);
+                    break;
+                }
+                case SUBF: {
+                    float value = getFloatArg(arg2Mode[i], arg2[i]);
+                    setFloatArg(arg1Mode[i], arg1[i], getFloatArg(arg1Mode[i], arg1[i]) - value);
+                    break;
+                }
+                case SUBB: {
+                    byte value = getByteArg(arg2Mode[i], arg2[i]);
+                    setByteArg(arg1Mode[i], arg1[i], (byte)(getByteArg(arg1Mode[i], arg1[i]) - value));
+                    break;
+                }
+                case MULI: {
+                    int value = getIntArg(arg2Mode[i], arg2[i]);
+                    setIntArg(arg1Mode[i], arg1[i], getIntArg(arg1Mode[i], arg1[i]) * value);
+                    break;
+                }
+                case MULF: {
+                    float value = getFloatArg(arg2Mode[i], arg2[i]);
+                    setFloatArg(arg1Mode[i], arg1[i], getFloatArg(arg1Mode[i], arg1[i]) * value);
+                    break;
+                }
+                case MULB: {
+                    byte value = getByteArg(arg2Mode[i], arg2[i]);
+                    setByteArg(arg1Mode[i], arg1[i], (byte)(getByteArg(arg1Mode[i], arg1[i]) * value));
+                    break;
+                }
+                case DIVI: {
+                    int value = getIntArg(arg2Mode[i], arg2[i]);
+                    if(value == 0) {
+                        throw error("Divide be zero error.");
+                    }
+
+                    setIntArg(arg1Mode[i], arg1[i], getIntArg(arg1Mode[i], arg1[i]) / value);
+                    break;
+                }
+                case DIVF: {
+                    float value = getFloatArg(arg2Mode[i], arg2[i]);
+                    if(value == 0) {
+                        throw error("Divide be zero error.");
+                    }
+
+                    setFloatArg(arg1Mode[i], arg1[i], getFloatArg(arg1Mode[i], arg1[i]) / value);
+                    break;
+                }
+                case DIVB: {
+                    byte value = getByteArg(arg2Mode[i], arg2[i]);
+                    if(value == 0) {
+                        throw error("Divide be zero error.");
+                    }
+
+                    setByteArg(arg1Mode[i], arg1[i], (byte)(getByteArg(arg1Mode[i], arg1[i]) / value));
+                    break;
+                }
+                case MODI: {
+                    int value = getIntArg(arg2Mode[i], arg2[i]);
+                    if(value == 0) {
+                        throw error("Divide be zero error.");
+                    }
+
+                    setIntArg(arg1Mode[i], arg1[i], getIntArg(arg1Mode[i], arg1[i]) % value);
+                    break;
+                }
+                case MODF: {
+                    float value = getFloatArg(arg2Mode[i], arg2[i]);
+                    if(value == 0) {
+                        throw error("Divide be zero error.");
+                    }
+
+                    setFloatArg(arg1Mode[i], arg1[i], getFloatArg(arg1Mode[i], arg1[i]) % value);
+                    break;
+                }
+                case MODB: {
+                    byte value = getByteArg(arg2Mode[i], arg2[i]);
+                    if(value == 0) {
+                        throw error("Divide be zero error.");
+                    }
+
+                    setByteArg(arg1Mode[i], arg1[i], (byte)(getByteArg(arg1Mode[i], arg1[i]) % value));
+                    break;
+                }
+                case ORI: {
+                    int value = getIntArg(arg2Mode[i], arg2[i]);
+                    setIntArg(arg1Mode[i], arg1[i], getIntArg(arg1Mode[i], arg1[i]) | value);
+                    break;
+                }
+                case ORB: {
+                    byte value = getByteArg(arg2Mode[i], arg2[i]);
+                    setByteArg(arg1Mode[i], arg1[i], (byte)(getByteArg(arg1Mode[i], arg1[i]) | value));
+                    break;
+                }
+                case ANDI: {
+                    int value = getIntArg(arg2Mode[i], arg2[i]);
+                    setIntArg(arg1Mode[i], arg1[i], getIntArg(arg1Mode[i], arg1[i]) & value);
+                    break;
+                }
+                case ANDB: {
+                    byte value = getByteArg(arg2Mode[i], arg2[i]);
+                    setByteArg(arg1Mode[i], arg1[i], (byte)(getByteArg(arg1Mode[i], arg1[i]) & value));
+                    break;
+                }
+                case NOTI: {
+                    int value = getIntArg(arg2Mode[i], arg2[i]);
+                    setIntArg(arg1Mode[i], arg1[i], ~value);
+                    break;
+                }
+                case NOTB: {
+                    byte value = getByteArg(arg2Mode[i], arg2[i]);
+                    setByteArg(arg1Mode[i], arg1[i], (byte)(~value));
+                    break;
+                }
+                case XORI: {
+                    int value = getIntArg(arg2Mode[i], arg2[i]);
+                    setIntArg(arg1Mode[i], arg1[i], getIntArg(arg1Mode[i], arg1[i]) ^ value);
+                    break;
+                }
+                case XORB: {
+                    byte value = getByteArg(arg2Mode[i], arg2[i]);
+                    setByteArg(arg1Mode[i], arg1[i], (byte)(getByteArg(arg1Mode[i], arg1[i]) ^ value));
+                    break;
+                }
+                case SZRLI: {
+                    int value = getIntArg(arg2Mode[i], arg2[i]);
+                    setIntArg(arg1Mode[i], arg1[i], getIntArg(arg1Mode[i], arg1[i]) >>> value);
+                    break;
+                }
+                case SZRLB: {
+                    byte value = getByteArg(arg2Mode[i], arg2[i]);
+                    setByteArg(arg1Mode[i], arg1[i], (byte)(getByteArg(arg1Mode[i], arg1[i]) >>> value));
+                    break;
+                }
+                case SRLI: {
+                    int value = getIntArg(arg2Mode[i], arg2[i]);
+                    setIntArg(arg1Mode[i], arg1[i], getIntArg(arg1Mode[i], arg1[i]) >> value);
+                    break;
+                }
+                case SRLB: {
+                    byte value = getByteArg(arg2Mode[i], arg2[i]);
+                    setByteArg(arg1Mode[i], arg1[i], (byte)(getByteArg(arg1Mode[i], arg1[i]) >> value));
+                    break;
+                }
+                case SLLI: {
+                    int value = getIntArg(arg2Mode[i], arg2[i]);
+                    setIntArg(arg1Mode[i], arg1[i], getIntArg(arg1Mode[i], arg1[i]) << value);
+                    break;
+                }
+                case SLLB: {
+                    byte value = getByteArg(arg2Mode[i], arg2[i]);
+                    setByteArg(arg1Mode[i], arg1[i], (byte)(getByteArg(arg1Mode[i], arg1[i]) << value));
+                    break;
+                }
+
+                /* ===================================================
+                 * Block memory operations
+                 * ===================================================
+                 */
+
+                case MEMCPY: {
+                    memcpy(getIntArg(arg1Mode[i], arg1[i]), getIntArg(arg2Mode[i], arg2[i]), regs[C]);
+                    break;
+                }
+                case MEMSET: {
+                    memset(getIntArg(arg1Mode[i], arg1[i]), getByteArg(arg2Mode[i], arg2[i]), regs[C]);
+                    break;
+                }
+                case MEMCMP: {
+                    int result = memcmp(getIntArg(arg1Mode[i], arg1[i]), getIntArg(arg2Mode[i], arg2[i]), regs[C]);
+                    setIntArg(arg1Mode[i], arg1[i], result);
+                    break;
+                }
+                case MEMFIND: {
+                    int result = memfind(getIntArg(arg1Mode[i], arg1[i]), getByteArg(arg2Mode[i], arg2[i]), regs[C]);
+                    setIntArg(arg1Mode[i], arg1[i], result);
+                    break;
+                }
+                default:
+                    throw error("Unknown opcode: %d", code.opcodes[i]);
+            }
+        }
+    }
+
+    /* ===================================================
+     * Output, shared with the compiled code and the
+     * threaded engine
+     * ===================================================
+     */
+    
+    void printInt(int value) {
+        if(value == Integer.MIN_VALUE) {
+            printText(Integer.toString(value));
+            this.output.write((byte)'\n');
+            return;
+        }
+        
+        int i = this.digits.length;
+        this.digits[--i] = '\n';
+        
+        int magnitude = Math.abs(value);
+        do {
+            this.digits[--i] = (byte)('0' + magnitude % 10);
+            magnitude /= 10;
+        }
+        while(magnitude > 0);
+        
+        if(value < 0) {
+            this.digits[--i] = '-';
+        }
+        
+        this.output.write(this.digits, i, this.digits.length - i);
+    }
+    
+    void printFloat(float value) {
+        printText(Float.toString(value));
+        this.output.write((byte)'\n');
+    }
+    
+    void printByte(byte value) {
+        printInt(value);
+    }
+    
+    void printChar(byte value) {
+        this.output.write(value);
+    }
+    
+    private void printText(String text) {
+        for(int i = 0; i < text.length(); i++) {
+            this.output.write((byte)text.charAt(i));
+        }
+    }
+
+    /* ===================================================
+     * Block memory operations, shared with the compiled
+     * code and the threaded engine
+     * ===================================================
+     */
+    
+    void memcpy(int destination, int source, int length) {
+        this.ram.copy(destination, source, length);
+    }
+    
+    void memset(int address, byte value, int length) {
+        this.ram.fill(address, length, value);
+    }
+    
+    int memcmp(int x, int y, int length) {
+        return this.ram.compare(x, y, length);
+    }
+    
+    int memfind(int address, byte value, int length) {
+        return this.ram.indexOf(address, length, value);
+    }
+
+    /* ===================================================
+     * Argument access, shared with the threaded engine
+     * ===================================================
+     */
+
+    /**
+     * Reads the decoded argument as an int
+     *
+     * @param mode the {@link DecodedBytecode} argument mode
+     * @param value the decoded argument value
+     * @return the int value
+     */
+    int getIntArg(int mode, int value) {
+        switch(mode) {
+            case ARG_REG:       return this.registerFile[value];
+            case ARG_REG_ADDR:  return this.ram.readInt(this.registerFile[value]);
+            case ARG_IMMEDIATE: return value;
+            default:            return this.ram.readInt(value);
+        }
+    }
+
+    float getFloatArg(int mode, int value) {
+        switch(mode) {
+            case ARG_REG:       return Float.intBitsToFloat(this.registerFile[value]);
+            case ARG_REG_ADDR:  return this.ram.readFloat(this.registerFile[value]);
+            case ARG_IMMEDIATE: return Float.intBitsToFloat(value);
+            default:            return this.ram.readFloat(value);
+        }
+    }
+
+    byte getByteArg(int mode, int value) {
+        switch(mode) {
+            case ARG_REG:       return (byte)this.registerFile[value];
+            case ARG_REG_ADDR:  return this.ram.readByte(this.registerFile[value]);
+            case ARG_IMMEDIATE: return (byte)value;
+            default:            return this.ram.readByte(value);
+        }
+    }
+
+    /**
+     * Writes to the decoded argument 1, which is either a register or the
+     * address the register holds
+     *
+     * @param mode the {@link DecodedBytecode} argument mode
+     * @param register the register index
+     * @param value the value to store
+     */
+    void setIntArg(int mode, int register, int value) {
+        if(mode == ARG_REG_ADDR) {
+            this.ram.storeInt(this.registerFile[register], value);
+        }
+        else {
+            this.registerFile[register] = value;
+        }
+    }
+
+    void setFloatArg(int mode, int register, float value) {
+        if(mode == ARG_REG_ADDR) {
+            this.ram.storeFloat(this.registerFile[register], value);
+        }
+        else {
+            this.registerFile[register] = Float.floatToIntBits(value);
+        }
+    }
+
+    void setByteArg(int mode, int register, byte value) {
+        if(mode == ARG_REG_ADDR) {
+            this.ram.storeByte(this.registerFile[register], value);
+        }
+        else {
+            this.registerFile[register] = value;
+        }
+    }
+
+}
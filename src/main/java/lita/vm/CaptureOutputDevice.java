@@ -0,0 +1,75 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * {@link OutputDevice} that keeps all of the output in memory, for testing and for embedding the VM
+ * 
+ * @author Tony
+ *
+ */
+public class CaptureOutputDevice implements OutputDevice {
+
+    private byte[] bytes;
+    private int size;
+    
+    public CaptureOutputDevice() {
+        this.bytes = new byte[256];
+    }
+    
+    private void ensureCapacity(int capacity) {
+        if(capacity > this.bytes.length) {
+            this.bytes = Arrays.copyOf(this.bytes, Math.max(capacity, this.bytes.length * 2));
+        }
+    }
+    
+    @Override
+    public void write(byte value) {
+        ensureCapacity(this.size + 1);
+        this.bytes[this.size++] = value;
+    }
+    
+    @Override
+    public void write(byte[] buf, int offset, int length) {
+        ensureCapacity(this.size + length);
+        System.arraycopy(buf, offset, this.bytes, this.size, length);
+        this.size += length;
+    }
+    
+    @Override
+    public void flush() {
+    }
+    
+    /**
+     * @return the number of bytes captured
+     */
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * @return a copy of the captured bytes
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(this.bytes, this.size);
+    }
+    
+    /**
+     * Discards the captured bytes
+     */
+    public void reset() {
+        this.size = 0;
+    }
+    
+    /**
+     * @return the captured bytes, one character per byte
+     */
+    @Override
+    public String toString() {
+        return new String(this.bytes, 0, this.size, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,443 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A minimal JVM class file writer, just enough for the {@link JitCompiler} to emit a class with
+ * a handful of methods.
+ *
+ * Classes are written in the version 49 (Java 5) format, which allows the JVM to verify them by
+ * type inference, so no stack map frames have to be computed.
+ *
+ * @author Tony
+ *
+ */
+class ClassFileWriter {
+
+    private static final int VERSION = 49;
+
+    /**
+     * Access flags
+     */
+    static final int
+        ACC_PUBLIC = 0x0001,
+        ACC_FINAL  = 0x0010,
+        ACC_SUPER  = 0x0020
+        ;
+
+    /**
+     * JVM instructions
+     */
+    static final int
+        ICONST_M1     = 0x02,
+        ICONST_0      = 0x03,
+        FCONST_0      = 0x0b,
+        BIPUSH        = 0x10,
+        SIPUSH        = 0x11,
+        LDC           = 0x12,
+        LDC_W         = 0x13,
+        ILOAD         = 0x15,
+        FLOAD         = 0x17,
+        ALOAD         = 0x19,
+        IALOAD        = 0x2e,
+        ISTORE        = 0x36,
+        FSTORE        = 0x38,
+        ASTORE        = 0x3a,
+        IASTORE       = 0x4f,
+        DUP           = 0x59,
+        IADD          = 0x60,
+        FADD          = 0x62,
+        ISUB          = 0x64,
+        FSUB          = 0x66,
+        IMUL          = 0x68,
+        FMUL          = 0x6a,
+        IDIV          = 0x6c,
+        FDIV          = 0x6e,
+        IREM          = 0x70,
+        FREM          = 0x72,
+        ISHL          = 0x78,
+        ISHR          = 0x7a,
+        IUSHR         = 0x7c,
+        IAND          = 0x7e,
+        IOR           = 0x80,
+        IXOR          = 0x82,
+        IINC          = 0x84,
+        I2B           = 0x91,
+        FCMPL         = 0x95,
+        IFEQ          = 0x99,
+        IFNE          = 0x9a,
+        IFLT          = 0x9b,
+        IFGE          = 0x9c,
+        IFGT          = 0x9d,
+        IFLE          = 0x9e,
+        IF_ICMPEQ     = 0x9f,
+        IF_ICMPNE     = 0xa0,
+        IF_ICMPLT     = 0xa1,
+        IF_ICMPGE     = 0xa2,
+        IF_ICMPGT     = 0xa3,
+        IF_ICMPLE     = 0xa4,
+        GOTO          = 0xa7,
+        IRETURN       = 0xac,
+        RETURN        = 0xb1,
+        GETFIELD      = 0xb4,
+        INVOKEVIRTUAL = 0xb6,
+        INVOKESPECIAL = 0xb7,
+        INVOKESTATIC  = 0xb8,
+        ATHROW        = 0xbf
+        ;
+
+    /**
+     * Constant pool tags
+     */
+    private static final int
+        CONSTANT_UTF8         = 1,
+        CONSTANT_INTEGER      = 3,
+        CONSTANT_FLOAT        = 4,
+        CONSTANT_CLASS        = 7,
+        CONSTANT_FIELDREF     = 9,
+        CONSTANT_METHODREF    = 10,
+        CONSTANT_NAMEANDTYPE  = 12
+        ;
+
+    /**
+     * The byte code of a single method
+     */
+    class Code {
+        private byte[] buf = new byte[256];
+        private int size;
+
+        private int maxStack;
+        private int maxLocals;
+
+        private int[] labels = new int[16];
+        private int numberOfLabels;
+
+        // pairs of (branch instruction offset, label)
+        private int[] fixups = new int[32];
+        private int numberOfFixups;
+
+        private List<int[]> exceptionHandlers = new ArrayList<>();
+
+        /**
+         * @param maxStack
+         * @param maxLocals
+         */
+        Code(int maxStack, int maxLocals) {
+            this.maxStack = maxStack;
+            this.maxLocals = maxLocals;
+        }
+
+        /**
+         * @return the number of bytes of code
+         */
+        int size() {
+            return this.size;
+        }
+
+        private void u1(int value) {
+            if(this.size == this.buf.length) {
+                this.buf = Arrays.copyOf(this.buf, this.size * 2);
+            }
+            this.buf[this.size++] = (byte)value;
+        }
+
+        private void u2(int value) {
+            u1(value >>> 8);
+            u1(value);
+        }
+
+        private void putU2(int offset, int value) {
+            this.buf[offset]   = (byte)(value >>> 8);
+            this.buf[offset+1] = (byte)value;
+        }
+
+        void op(int opcode) {
+            u1(opcode);
+        }
+
+        void iconst(int value) {
+            if(value >= -1 && value <= 5) {
+                u1(ICONST_0 + value);
+            }
+            else if(value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                u1(BIPUSH);
+                u1(value);
+            }
+            else if(value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                u1(SIPUSH);
+                u2(value);
+            }
+            else {
+                ldc(integerConstant(value));
+            }
+        }
+
+        private void ldc(int index) {
+            if(index < 256) {
+                u1(LDC);
+                u1(index);
+            }
+            else {
+                u1(LDC_W);
+                u2(index);
+            }
+        }
+
+        void local(int opcode, int index) {
+            u1(opcode);
+            u1(index);
+        }
+
+        void iinc(int index, int amount) {
+            u1(IINC);
+            u1(index);
+            u1(amount);
+        }
+
+        void invoke(int opcode, String owner, String name, String descriptor) {
+            u1(opcode);
+            u2(methodRef(owner, name, descriptor));
+        }
+
+        void field(int opcode, String owner, String name, String descriptor) {
+            u1(opcode);
+            u2(fieldRef(owner, name, descriptor));
+        }
+
+        int newLabel() {
+            if(this.numberOfLabels == this.labels.length) {
+                this.labels = Arrays.copyOf(this.labels, this.numberOfLabels * 2);
+            }
+            this.labels[this.numberOfLabels] = -1;
+            return this.numberOfLabels++;
+        }
+
+        void mark(int label) {
+            this.labels[label] = this.size;
+        }
+
+        int position(int label) {
+            return this.labels[label];
+        }
+
+        void jump(int opcode, int label) {
+            if(this.numberOfFixups + 2 > this.fixups.length) {
+                this.fixups = Arrays.copyOf(this.fixups, this.fixups.length * 2);
+            }
+            this.fixups[this.numberOfFixups++] = this.size;
+            this.fixups[this.numberOfFixups++] = label;
+
+            u1(opcode);
+            u2(0);
+        }
+
+        /**
+         * Adds an exception handler for any exception thrown between the start (inclusive)
+         * and end (exclusive) labels
+         */
+        void exceptionHandler(int startLabel, int endLabel, int handlerLabel) {
+            this.exceptionHandlers.add(new int[] { startLabel, endLabel, handlerLabel });
+        }
+
+        private void resolve() {
+            for(int i = 0; i < this.numberOfFixups; i += 2) {
+                int offset = this.fixups[i];
+                int target = this.labels[this.fixups[i+1]];
+                if(target < 0) {
+                    throw new IllegalStateException("Unmarked label: " + this.fixups[i+1]);
+                }
+
+                int delta = target - offset;
+                if(delta < Short.MIN_VALUE || delta > Short.MAX_VALUE) {
+                    throw new IllegalStateException("Branch offset out of range: " + delta);
+                }
+
+                putU2(offset + 1, delta);
+            }
+            this.numberOfFixups = 0;
+        }
+    }
+
+    private final ByteArrayOutputStream poolBytes;
+    private final DataOutputStream pool;
+    private int poolCount;
+    private final Map<String, Integer> poolEntries;
+
+    private final ByteArrayOutputStream methodBytes;
+    private final DataOutputStream methods;
+    private int methodCount;
+
+    public ClassFileWriter() {
+        this.poolBytes = new ByteArrayOutputStream();
+        this.pool = new DataOutputStream(this.poolBytes);
+        this.poolCount = 1;
+        this.poolEntries = new HashMap<>();
+
+        this.methodBytes = new ByteArrayOutputStream();
+        this.methods = new DataOutputStream(this.methodBytes);
+    }
+
+    /**
+     * Creates a new method body
+     *
+     * @param maxStack
+     * @param maxLocals
+     * @return the {@link Code}
+     */
+    Code newCode(int maxStack, int maxLocals) {
+        return new Code(maxStack, maxLocals);
+    }
+
+    private int entry(String key, int tag, int a, int b, String utf8) {
+        Integer index = this.poolEntries.get(key);
+        if(index != null) {
+            return index;
+        }
+
+        try {
+            this.pool.writeByte(tag);
+            switch(tag) {
+                case CONSTANT_UTF8:
+                    this.pool.writeUTF(utf8);
+                    break;
+                case CONSTANT_INTEGER:
+                case CONSTANT_FLOAT:
+                    this.pool.writeInt(a);
+                    break;
+                case CONSTANT_CLASS:
+                    this.pool.writeShort(a);
+                    break;
+                default:
+                    this.pool.writeShort(a);
+                    this.pool.writeShort(b);
+            }
+        }
+        catch(IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        index = this.poolCount++;
+        this.poolEntries.put(key, index);
+        return index;
+    }
+
+    int utf8(String value) {
+        return entry("U" + value, CONSTANT_UTF8, 0, 0, value);
+    }
+
+    int integerConstant(int value) {
+        return entry("I" + value, CONSTANT_INTEGER, value, 0, null);
+    }
+
+    int floatConstant(float value) {
+        int bits = Float.floatToRawIntBits(value);
+        return entry("F" + bits, CONSTANT_FLOAT, bits, 0, null);
+    }
+
+    int classRef(String internalName) {
+        return entry("C" + internalName, CONSTANT_CLASS, utf8(internalName), 0, null);
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        return entry("N" + name + ":" + descriptor, CONSTANT_NAMEANDTYPE, utf8(name), utf8(descriptor), null);
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        return entry("M" + owner + "." + name + ":" + descriptor, CONSTANT_METHODREF, classRef(owner), nameAndType(name, descriptor), null);
+    }
+
+    int fieldRef(String owner, String name, String descriptor) {
+        return entry("D" + owner + "." + name + ":" + descriptor, CONSTANT_FIELDREF, classRef(owner), nameAndType(name, descriptor), null);
+    }
+
+    /**
+     * Adds the method to the class
+     *
+     * @param access
+     * @param name
+     * @param descriptor
+     * @param code
+     */
+    void addMethod(int access, String name, String descriptor, Code code) {
+        code.resolve();
+
+        try {
+            this.methods.writeShort(access);
+            this.methods.writeShort(utf8(name));
+            this.methods.writeShort(utf8(descriptor));
+            this.methods.writeShort(1); // attributes
+
+            // Code attribute
+            this.methods.writeShort(utf8("Code"));
+            this.methods.writeInt(12 + code.size + code.exceptionHandlers.size() * 8);
+            this.methods.writeShort(code.maxStack);
+            this.methods.writeShort(code.maxLocals);
+            this.methods.writeInt(code.size);
+            this.methods.write(code.buf, 0, code.size);
+
+            this.methods.writeShort(code.exceptionHandlers.size());
+            for(int[] handler : code.exceptionHandlers) {
+                this.methods.writeShort(code.position(handler[0]));
+                this.methods.writeShort(code.position(handler[1]));
+                this.methods.writeShort(code.position(handler[2]));
+                this.methods.writeShort(0); // any exception
+            }
+
+            this.methods.writeShort(0); // code attributes
+        }
+        catch(IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        this.methodCount++;
+    }
+
+    /**
+     * Writes out the class file
+     *
+     * @param access
+     * @param className internal name of the class (i.e., <code>lita/vm/Foo</code>)
+     * @param superClassName internal name of the super class
+     * @return the class file bytes
+     */
+    byte[] toByteArray(int access, String className, String superClassName) {
+        int thisClass = classRef(className);
+        int superClass = classRef(superClassName);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(this.poolBytes.size() + this.methodBytes.size() + 64);
+        try(DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+
+            out.writeShort(this.poolCount);
+            this.poolBytes.writeTo(out);
+
+            out.writeShort(access);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+
+            out.writeShort(this.methodCount);
+            this.methodBytes.writeTo(out);
+
+            out.writeShort(0); // attributes
+        }
+        catch(IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+/**
+ * A region of {@link Bytecode} that has been compiled into a JVM class by the {@link JitCompiler}.
+ *
+ * @author Tony
+ *
+ */
+abstract class CompiledRegion {
+
+    /**
+     * Runs the compiled code from the entry point of the region, until control leaves the region
+     *
+     * @param regs the register file
+     * @param ram
+     * @param cpu
+     * @return the program counter to resume interpreting at
+     */
+    abstract int execute(int[] regs, RAM ram, CPU32 cpu);
+
+    /**
+     * Used by the compiled code when dividing by zero
+     *
+     * @return the {@link EvalException} to throw
+     */
+    static EvalException divideByZero() {
+        return new EvalException("Divide be zero error.");
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * {@link Device} for the console.  Every address of the device is the same port: stores write to the 
+ * {@link OutputDevice} and loads read the next bytes of the input, so a block of bytes can be moved in either
+ * direction with a single {@link DmaController} transfer.  A read takes what input is available, blocking only 
+ * when there is none; at the end of the input it reads nothing.  The output is flushed before each read, so that a
+ * prompt is seen before the input is waited on.
+ * 
+ * <p>
+ * A read that waits on the input blocks the thread executing the VM; under a {@link VMScheduler} that ties up
+ * one of its worker threads, so hosted guests that wait on input should read from a {@link RingBufferDevice} 
+ * fed by the host instead.
+ * 
+ * @author Tony
+ *
+ */
+public class ConsoleDevice implements Device {
+
+    public static final int DEFAULT_SIZE = 4 * 1024;
+    
+    private final OutputDevice output;
+    private final InputStream input;
+    private final int size;
+    
+    /**
+     * @param output where stores to the device are written to
+     * @param input where loads from the device are read from
+     */
+    public ConsoleDevice(OutputDevice output, InputStream input) {
+        this(output, input, DEFAULT_SIZE);
+    }
+    
+    /**
+     * @param output where stores to the device are written to
+     * @param input where loads from the device are read from
+     * @param size the number of bytes of address space, which is the most a single access can move
+     */
+    public ConsoleDevice(OutputDevice output, InputStream input, int size) {
+        this.output = output;
+        this.input = input;
+        this.size = size;
+    }
+    
+    @Override
+    public int size() {
+        return size;
+    }
+    
+    @Override
+    public int read(int offset, byte[] buf, int bufOffset, int length) {
+        try {
+            this.output.flush();
+            int read = this.input.read(buf, bufOffset, length);
+            return Math.max(read, 0);
+        }
+        catch(IOException e) {
+            throw new EvalException("Unable to read input: " + e.getMessage(), e);
+        }
+    }
+    
+    @Override
+    public int write(int offset, byte[] buf, int bufOffset, int length) {
+        this.output.write(buf, bufOffset, length);
+        return length;
+    }
+}
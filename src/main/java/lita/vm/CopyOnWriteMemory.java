@@ -0,0 +1,219 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * {@link MemoryBackend} made of fixed size pages that can be shared between memories.  A {@link #fork()} shares
+ * every page with the new memory, and from then on either side copies a page the first time it writes to it.
+ * This allows for loading a program into a template VM once and then forking many VMs from it, each of which
+ * only allocates the pages it writes to.
+ *
+ * Pages that have never been written to are all the same zero page, so a fresh memory costs only its page table.
+ *
+ * A memory must not be executing while it is being forked.
+ *
+ * @author Tony
+ *
+ */
+public class CopyOnWriteMemory implements MemoryBackend {
+
+    public static final int PAGE_SHIFT = 12;
+    public static final int PAGE_SIZE  = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private static final byte[] ZERO_PAGE = new byte[PAGE_SIZE];
+
+    private static final VarHandle BIG_ENDIAN_INTS    = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle LITTLE_ENDIAN_INTS = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final int sizeInBytes;
+    private final boolean isBigEndian;
+
+    private final byte[][] pages;
+
+    /**
+     * The pages that are private to this memory, and can therefore be written to in place
+     */
+    private final boolean[] owned;
+
+    /**
+     * Big endian memory
+     *
+     * @param sizeInBytes
+     */
+    public CopyOnWriteMemory(int sizeInBytes) {
+        this(sizeInBytes, ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * @param sizeInBytes
+     * @param order the byte order ints and floats are stored in
+     */
+    public CopyOnWriteMemory(int sizeInBytes, ByteOrder order) {
+        this(sizeInBytes, order == ByteOrder.BIG_ENDIAN, newZeroPages(sizeInBytes));
+    }
+
+    private CopyOnWriteMemory(int sizeInBytes, boolean isBigEndian, byte[][] pages) {
+        this.sizeInBytes = sizeInBytes;
+        this.isBigEndian = isBigEndian;
+        this.pages = pages;
+        this.owned = new boolean[pages.length];
+    }
+
+    private static byte[][] newZeroPages(int sizeInBytes) {
+        byte[][] pages = new byte[(sizeInBytes + PAGE_MASK) >>> PAGE_SHIFT][];
+        Arrays.fill(pages, ZERO_PAGE);
+        return pages;
+    }
+
+    /**
+     * Creates a new memory with the same contents as this one, sharing all of the pages.  Both memories
+     * copy a shared page before they first write to it.
+     *
+     * @return the forked memory
+     */
+    public CopyOnWriteMemory fork() {
+        Arrays.fill(this.owned, false);
+        return new CopyOnWriteMemory(this.sizeInBytes, this.isBigEndian, this.pages.clone());
+    }
+
+    /**
+     * @return the number of pages this memory has its own copy of
+     */
+    public int getNumberOfPrivatePages() {
+        int count = 0;
+        for(boolean isOwned : this.owned) {
+            if(isOwned) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private byte[] writablePage(int pageIndex) {
+        if(!this.owned[pageIndex]) {
+            this.pages[pageIndex] = this.pages[pageIndex].clone();
+            this.owned[pageIndex] = true;
+        }
+        return this.pages[pageIndex];
+    }
+
+    @Override
+    public int sizeInBytes() {
+        return this.sizeInBytes;
+    }
+
+    @Override
+    public ByteOrder getOrder() {
+        return this.isBigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+    }
+
+    @Override
+    public byte[] array() {
+        return null;
+    }
+
+    @Override
+    public void storeBytes(int address, byte[] buf, int offset, int length) {
+        Objects.checkFromIndexSize(address, length, this.sizeInBytes);
+
+        while(length > 0) {
+            int pageOffset = address & PAGE_MASK;
+            int count = Math.min(length, PAGE_SIZE - pageOffset);
+
+            System.arraycopy(buf, offset, writablePage(address >>> PAGE_SHIFT), pageOffset, count);
+
+            address += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    @Override
+    public void storeInt(int address, int value) {
+        Objects.checkFromIndexSize(address, 4, this.sizeInBytes);
+
+        int pageOffset = address & PAGE_MASK;
+        if(pageOffset > PAGE_SIZE - 4) {
+            // straddles two pages
+            for(int i = 0; i < 4; i++) {
+                int shift = this.isBigEndian ? 24 - (i * 8) : i * 8;
+                storeByte(address + i, (byte)(value >>> shift));
+            }
+            return;
+        }
+
+        byte[] page = writablePage(address >>> PAGE_SHIFT);
+        if(this.isBigEndian) {
+            BIG_ENDIAN_INTS.set(page, pageOffset, value);
+        }
+        else {
+            LITTLE_ENDIAN_INTS.set(page, pageOffset, value);
+        }
+    }
+
+    @Override
+    public void storeFloat(int address, float value) {
+        storeInt(address, Float.floatToRawIntBits(value));
+    }
+
+    @Override
+    public void storeByte(int address, byte value) {
+        Objects.checkIndex(address, this.sizeInBytes);
+        writablePage(address >>> PAGE_SHIFT)[address & PAGE_MASK] = value;
+    }
+
+    @Override
+    public void readBytes(int address, byte[] buf, int offset, int length) {
+        Objects.checkFromIndexSize(address, length, this.sizeInBytes);
+
+        while(length > 0) {
+            int pageOffset = address & PAGE_MASK;
+            int count = Math.min(length, PAGE_SIZE - pageOffset);
+
+            System.arraycopy(this.pages[address >>> PAGE_SHIFT], pageOffset, buf, offset, count);
+
+            address += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    @Override
+    public int readInt(int address) {
+        Objects.checkFromIndexSize(address, 4, this.sizeInBytes);
+
+        int pageOffset = address & PAGE_MASK;
+        if(pageOffset > PAGE_SIZE - 4) {
+            // straddles two pages
+            int value = 0;
+            for(int i = 0; i < 4; i++) {
+                int shift = this.isBigEndian ? 24 - (i * 8) : i * 8;
+                value |= (readByte(address + i) & 0xFF) << shift;
+            }
+            return value;
+        }
+
+        byte[] page = this.pages[address >>> PAGE_SHIFT];
+        return this.isBigEndian ? (int)BIG_ENDIAN_INTS.get(page, pageOffset)
+                                : (int)LITTLE_ENDIAN_INTS.get(page, pageOffset);
+    }
+
+    @Override
+    public float readFloat(int address) {
+        return Float.intBitsToFloat(readInt(address));
+    }
+
+    @Override
+    public byte readByte(int address) {
+        Objects.checkIndex(address, this.sizeInBytes);
+        return this.pages[address >>> PAGE_SHIFT][address & PAGE_MASK];
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import java.nio.ByteOrder;
+
+/**
+ * {@link MemoryBackend} that counts the reads and writes to another backend in {@link ExecutionStats}.  Each
+ * call counts as one access, regardless of how many bytes it moves.
+ *
+ * @author Tony
+ *
+ */
+class CountingMemory implements MemoryBackend {
+
+    private final MemoryBackend backend;
+    private final ExecutionStats stats;
+
+    /**
+     * @param backend the backend to count the accesses of
+     * @param stats
+     */
+    CountingMemory(MemoryBackend backend, ExecutionStats stats) {
+        this.backend = backend;
+        this.stats = stats;
+    }
+
+    @Override
+    public int sizeInBytes() {
+        return this.backend.sizeInBytes();
+    }
+
+    /**
+     * The array is not handed out, so that all of the accesses go through this backend
+     */
+    @Override
+    public byte[] array() {
+        return null;
+    }
+
+    @Override
+    public ByteOrder getOrder() {
+        return this.backend.getOrder();
+    }
+
+    @Override
+    public void storeBytes(int address, byte[] buf, int offset, int length) {
+        this.stats.write(address);
+        this.backend.storeBytes(address, buf, offset, length);
+    }
+
+    @Override
+    public void storeInt(int address, int value) {
+        this.stats.write(address);
+        this.backend.storeInt(address, value);
+    }
+
+    @Override
+    public void storeFloat(int address, float value) {
+        this.stats.write(address);
+        this.backend.storeFloat(address, value);
+    }
+
+    @Override
+    public void storeByte(int address, byte value) {
+        this.stats.write(address);
+        this.backend.storeByte(address, value);
+    }
+
+    @Override
+    public void readBytes(int address, byte[] buf, int offset, int length) {
+        this.stats.read(address);
+        this.backend.readBytes(address, buf, offset, length);
+    }
+
+    @Override
+    public int readInt(int address) {
+        this.stats.read(address);
+        return this.backend.readInt(address);
+    }
+
+    @Override
+    public float readFloat(int address) {
+        this.stats.read(address);
+        return this.backend.readFloat(address);
+    }
+
+    @Override
+    public byte readByte(int address) {
+        this.stats.read(address);
+        return this.backend.readByte(address);
+    }
+
+    @Override
+    public void copy(int destination, int source, int length) {
+        this.stats.read(source);
+        this.stats.write(destination);
+        this.backend.copy(destination, source, length);
+    }
+
+    @Override
+    public void fill(int address, int length, byte value) {
+        this.stats.write(address);
+        this.backend.fill(address, length, value);
+    }
+
+    @Override
+    public int compare(int x, int y, int length) {
+        this.stats.read(x);
+        this.stats.read(y);
+        return this.backend.compare(x, y, length);
+    }
+
+    @Override
+    public int indexOf(int address, int length, byte value) {
+        this.stats.read(address);
+        return this.backend.indexOf(address, length, value);
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import static lita.vm.Instruction.*;
+import static lita.vm.Opcodes.*;
+
+import java.util.Map;
+
+/**
+ * {@link Bytecode} that has been decoded up front into a form the {@link CPU32} can execute
+ * directly.  Each instruction word is broken out (once, at load time) into its opcode,
+ * argument modes, register indexes and resolved constant addresses, so the execution loop
+ * no longer has to re-extract them on every step.
+ *
+ * The instruction at index <code>i</code> of the original {@link Bytecode} is stored at index
+ * <code>i</code> of each of the arrays.
+ *
+ * @author Tony
+ *
+ */
+public class DecodedBytecode {
+
+    /**
+     * Argument modes
+     */
+    public static final byte
+        ARG_REG       = 0,  // value of the register
+        ARG_REG_ADDR  = 1,  // value in RAM at the address the register holds
+        ARG_IMMEDIATE = 2,  // immediate value stored in the instruction
+        ARG_CONSTANT  = 3   // value in RAM at the (resolved) constant address
+        ;
+
+    /**
+     * Marks an argument that does not resolve to anything (e.g., a constant index
+     * outside of the constant pool); it only faults once it is used to access memory
+     */
+    public static final int INVALID_ARG = -1;
+
+    public final Bytecode bytecode;
+
+    public final int[] opcodes;
+
+    /**
+     * The code the {@link CPU32} dispatches on, which is either the opcode,
+     * an operand mode {@link SpecializedOpcodes specialized} form of it or a
+     * {@link SuperInstructions superinstruction} that also executes the next instruction
+     */
+    public final int[] dispatchCodes;
+
+    /**
+     * Register index of argument 1
+     */
+    public final int[] arg1;
+    public final byte[] arg1Mode;
+
+    /**
+     * Register index, immediate value, resolved constant address or jump target
+     * of argument 2 (depending on the mode)
+     */
+    public final int[] arg2;
+    public final byte[] arg2Mode;
+
+    public final int pc;
+    public final int length;
+
+    private JitCompiler jitCompiler;
+    private ThreadedEngine.Handler[] handlers;
+    private ThreadedEngine.Handler[] unfusedHandlers;
+    private int[] fusions;
+
+    /**
+     * @param bytecode
+     */
+    private DecodedBytecode(Bytecode bytecode) {
+        this.bytecode = bytecode;
+        this.pc = bytecode.pc;
+        this.length = bytecode.length;
+
+        this.opcodes = new int[this.length];
+        this.dispatchCodes = new int[this.length];
+        this.arg1 = new int[this.length];
+        this.arg1Mode = new byte[this.length];
+        this.arg2 = new int[this.length];
+        this.arg2Mode = new byte[this.length];
+    }
+
+    /**
+     * Decodes the supplied {@link Bytecode}, fusing common instruction pairs into
+     * {@link SuperInstructions superinstructions}
+     *
+     * @param bytecode
+     * @return the {@link DecodedBytecode}
+     */
+    public static DecodedBytecode decode(Bytecode bytecode) {
+        return decode(bytecode, true);
+    }
+
+    /**
+     * Decodes the supplied {@link Bytecode}
+     *
+     * @param bytecode
+     * @param fuse if common instruction pairs should be fused into {@link SuperInstructions superinstructions}
+     * @return the {@link DecodedBytecode}
+     */
+    public static DecodedBytecode decode(Bytecode bytecode, boolean fuse) {
+        DecodedBytecode code = new DecodedBytecode(bytecode);
+
+        final int[] instrs = bytecode.instr;
+        for(int i = 0; i < code.length; i++) {
+            code.decodeInstruction(i, instrs[i]);
+            code.dispatchCodes[i] = SpecializedOpcodes.specialize(code.opcodes[i], code.arg1Mode[i], code.arg2Mode[i]);
+        }
+
+        code.fusions = fuse ? SuperInstructions.fuse(code) : new int[0];
+        return code;
+    }
+
+    /**
+     * The superinstructions that were fused into this code
+     *
+     * @return the number of instruction pairs fused, by superinstruction name
+     */
+    public Map<String, Integer> getFusions() {
+        return SuperInstructions.report(this.fusions);
+    }
+
+    /**
+     * The {@link JitCompiler} for this code, compiled regions are shared by every {@link CPU32}
+     * executing this code
+     *
+     * @param threshold the compile threshold, if the compiler hasn't been created yet
+     * @return the {@link JitCompiler}
+     */
+    public synchronized JitCompiler getJitCompiler(int threshold) {
+        if(this.jitCompiler == null) {
+            this.jitCompiler = new JitCompiler(this, threshold);
+        }
+
+        return this.jitCompiler;
+    }
+
+    /**
+     * The {@link ThreadedEngine} handlers bound to each instruction of this code, they are
+     * shared by every {@link CPU32} executing this code
+     *
+     * @return the handlers, indexed by instruction
+     */
+    synchronized ThreadedEngine.Handler[] getHandlers() {
+        if(this.handlers == null) {
+            this.handlers = ThreadedEngine.bind(this);
+        }
+
+        return this.handlers;
+    }
+
+    /**
+     * The {@link ThreadedEngine} handlers bound to each instruction of this code without superinstruction fusion,
+     * so that every instruction executes on its own.  They are shared by every {@link CPU32} executing this code
+     *
+     * @return the unfused handlers, indexed by instruction
+     */
+    synchronized ThreadedEngine.Handler[] getUnfusedHandlers() {
+        if(this.unfusedHandlers == null) {
+            this.unfusedHandlers = this.fusions.length == 0 ? getHandlers() : ThreadedEngine.bind(decode(this.bytecode, false));
+        }
+
+        return this.unfusedHandlers;
+    }
+
+    private void decodeInstruction(int index, int instr) {
+        final int opcode = opcode(instr);
+        final int[] constants = this.bytecode.constants;
+
+        this.opcodes[index] = opcode;
+        this.arg1[index] = INVALID_ARG;
+        this.arg1Mode[index] = ARG_REG;
+        this.arg2[index] = INVALID_ARG;
+        this.arg2Mode[index] = ARG_IMMEDIATE;
+
+        // unknown opcodes fault when they are executed
+        if(!isOpcode(opcode)) {
+            return;
+        }
+
+        ////
+        // JMP and CALL instructions are special in that their argument is
+        // a 24 bit immediate mode number
+        ////
+        if(opcode == JMP || opcode == CALL) {
+            this.arg2[index] = argJmpValue(instr);
+            return;
+        }
+
+        final int numberOfArgs = numberOfArgs(opcode);
+        if(numberOfArgs == 0) {
+            return;
+        }
+
+        final boolean isReg = isArg2Reg(instr);
+        final int value = arg2Value(instr);
+
+        if(numberOfArgs == 2) {
+            this.arg1[index] = arg1Value(instr);
+            this.arg1Mode[index] = isArg1Addr(instr) ? ARG_REG_ADDR : ARG_REG;
+        }
+        else if(isReg) {
+            // single argument instructions store the result directly
+            // in the register
+            this.arg1[index] = value;
+        }
+
+        switch(opcode) {
+            /* Load constant instructions always treat the argument as a constant index,
+             * register arguments refer to the first constant
+             */
+            case LDCA: {
+                this.arg2[index] = constantAddress(constants, isReg ? 0 : value);
+                this.arg2Mode[index] = ARG_IMMEDIATE;
+                break;
+            }
+            case LDCI:
+            case LDCB: {
+                if(!isReg && isArg2Immediate(instr)) {
+                    this.arg2[index] = value;
+                    this.arg2Mode[index] = ARG_IMMEDIATE;
+                }
+                else {
+                    this.arg2[index] = constantAddress(constants, isReg ? 0 : value);
+                    this.arg2Mode[index] = ARG_CONSTANT;
+                }
+                break;
+            }
+            case LDCF: {
+                this.arg2[index] = constantAddress(constants, isReg ? 0 : value);
+                this.arg2Mode[index] = ARG_CONSTANT;
+                break;
+            }
+            default: {
+                if(isReg) {
+                    this.arg2[index] = value;
+                    this.arg2Mode[index] = isArg2Addr(instr) ? ARG_REG_ADDR : ARG_REG;
+                }
+                // floats can not be immediate values, so they are always a constant index
+                else if(isArg2Immediate(instr) && !isFloatOpcode(opcode)) {
+                    this.arg2[index] = value;
+                    this.arg2Mode[index] = ARG_IMMEDIATE;
+                }
+                else {
+                    this.arg2[index] = constantAddress(constants, value);
+                    this.arg2Mode[index] = ARG_CONSTANT;
+                }
+            }
+        }
+    }
+
+    private static int constantAddress(int[] constants, int index) {
+        if(index < 0 || index >= constants.length) {
+            return INVALID_ARG;
+        }
+
+        return constants[index];
+    }
+
+    private static boolean isFloatOpcode(int opcode) {
+        switch(opcode) {
+            case MOVF:
+            case PUSHF:
+            case POPF:
+            case DUPF:
+            case IFF:
+            case IFEF:
+            case PRINTF:
+            case ADDF:
+            case SUBF:
+            case MULF:
+            case DIVF:
+            case MODF:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
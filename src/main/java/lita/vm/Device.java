@@ -0,0 +1,47 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+/**
+ * A host device that is mapped into the address space of the guest with a {@link DeviceBus}.  The guest talks to
+ * the device with ordinary loads and stores to the mapped address range, and the bus hands each access to the
+ * device as a block of bytes, addressed by the offset from the start of the range.  Ints and floats are moved
+ * as 4 bytes in the byte order of the {@link RAM}.
+ * 
+ * <p>
+ * A device may move fewer bytes than it is asked to, for instance when a stream runs dry.  A short read ends a
+ * bulk transfer, see {@link DmaController}.
+ * 
+ * @author Tony
+ *
+ */
+public interface Device {
+
+    /**
+     * @return the number of bytes of address space the device takes up
+     */
+    int size();
+    
+    /**
+     * Reads bytes from the device
+     * 
+     * @param offset the offset from the start of the device
+     * @param buf
+     * @param bufOffset
+     * @param length
+     * @return the number of bytes read, which may be less than the length
+     */
+    int read(int offset, byte[] buf, int bufOffset, int length);
+    
+    /**
+     * Writes bytes to the device
+     * 
+     * @param offset the offset from the start of the device
+     * @param buf
+     * @param bufOffset
+     * @param length
+     * @return the number of bytes written, which may be less than the length
+     */
+    int write(int offset, byte[] buf, int bufOffset, int length);
+}
@@ -0,0 +1,374 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * {@link MemoryBackend} that maps address ranges to host {@link Device}s, and the rest of the addresses to
+ * another backend.  This allows guest programs to exchange data with the host using ordinary loads and stores,
+ * and to move whole blocks at a time with a {@link DmaController}:
+ * 
+ * <pre>
+ * DeviceBus bus = new DeviceBus(new VarHandleMemory(ramSize));
+ * LitaVM vm = new LitaVM(new RAM(bus), stackSize, false, DispatchMode.SWITCH);
+ * bus.map(0x80000, new ConsoleDevice(vm.getCpu().getOutput(), System.in));
+ * bus.map(0x81000, new DmaController(bus));
+ * </pre>
+ * 
+ * A mapped range hides the memory underneath it, so devices should be mapped to addresses that the constant 
+ * pool, heap and stack do not use.  Accesses outside of the mapped ranges cost a single range check.
+ * 
+ * @author Tony
+ *
+ */
+public class DeviceBus implements MemoryBackend {
+
+    private final MemoryBackend backend;
+    private final boolean isBigEndian;
+    
+    /**
+     * The mapped devices, sorted by address
+     */
+    private int[] starts;
+    private int[] ends;
+    private Device[] devices;
+    
+    /**
+     * The lowest and highest (exclusive) mapped addresses
+     */
+    private int mappedStart;
+    private int mappedEnd;
+    
+    private final byte[] scratch;
+    
+    /**
+     * @param backend the memory for the addresses that are not mapped to a device
+     */
+    public DeviceBus(MemoryBackend backend) {
+        this.backend = backend;
+        this.isBigEndian = backend.getOrder() == ByteOrder.BIG_ENDIAN;
+        
+        this.starts = new int[0];
+        this.ends = new int[0];
+        this.devices = new Device[0];
+        
+        this.mappedStart = Integer.MAX_VALUE;
+        this.mappedEnd = 0;
+        
+        this.scratch = new byte[4];
+    }
+    
+    /**
+     * Maps the device to the addresses starting at the supplied address.  Devices must not be mapped
+     * while the VM is executing.
+     * 
+     * @param address the start address
+     * @param device
+     * @throws IllegalArgumentException if the range is outside of memory or overlaps another device
+     */
+    public void map(int address, Device device) {
+        int size = device.size();
+        if(size < 1 || address < 0 || address > sizeInBytes() - size) {
+            throw new IllegalArgumentException("Device range " + address + ".." + ((long)address + size) + " is outside of memory");
+        }
+        
+        int index = 0;
+        while(index < this.starts.length && this.starts[index] < address) {
+            index++;
+        }
+        
+        if((index > 0 && this.ends[index - 1] > address) || 
+           (index < this.starts.length && this.starts[index] < address + size)) {
+            throw new IllegalArgumentException("Device range " + address + ".." + (address + size) + " overlaps another device");
+        }
+        
+        this.starts = insert(this.starts, index, address);
+        this.ends = insert(this.ends, index, address + size);
+        
+        Device[] newDevices = new Device[this.devices.length + 1];
+        System.arraycopy(this.devices, 0, newDevices, 0, index);
+        newDevices[index] = device;
+        System.arraycopy(this.devices, index, newDevices, index + 1, this.devices.length - index);
+        this.devices = newDevices;
+        
+        this.mappedStart = this.starts[0];
+        this.mappedEnd = this.ends[this.ends.length - 1];
+    }
+    
+    private static int[] insert(int[] values, int index, int value) {
+        int[] newValues = new int[values.length + 1];
+        System.arraycopy(values, 0, newValues, 0, index);
+        newValues[index] = value;
+        System.arraycopy(values, index, newValues, index + 1, values.length - index);
+        return newValues;
+    }
+    
+    /**
+     * @param address
+     * @return the device mapped to the address, or null if it is ordinary memory
+     */
+    public Device getDevice(int address) {
+        int index = deviceAt(address);
+        return index >= 0 ? this.devices[index] : null;
+    }
+    
+    /**
+     * @return the memory for the addresses that are not mapped to a device
+     */
+    public MemoryBackend getBackend() {
+        return backend;
+    }
+    
+    private boolean isMapped(int address, int length) {
+        return address < this.mappedEnd && address + length > this.mappedStart;
+    }
+    
+    /**
+     * @return the index of the device containing the address, or -1
+     */
+    private int deviceAt(int address) {
+        int index = Arrays.binarySearch(this.starts, address);
+        if(index < 0) {
+            index = -index - 2;
+        }
+        return index >= 0 && address < this.ends[index] ? index : -1;
+    }
+    
+    /**
+     * The number of bytes from the address to the end of the device it is in, or to the start of the
+     * next device if it is ordinary memory
+     */
+    int extent(int address) {
+        int index = deviceAt(address);
+        if(index >= 0) {
+            return this.ends[index] - address;
+        }
+        
+        for(int start : this.starts) {
+            if(start > address) {
+                return start - address;
+            }
+        }
+        return sizeInBytes() - address;
+    }
+    
+    /**
+     * Reads a block, handing the parts of it that are mapped to devices to the devices
+     * 
+     * @return the number of bytes read, which is less than the length if a device read short
+     */
+    int read(int address, byte[] buf, int offset, int length) {
+        Objects.checkFromIndexSize(address, length, sizeInBytes());
+        
+        int total = 0;
+        while(total < length) {
+            int count = Math.min(length - total, extent(address));
+            int index = deviceAt(address);
+            if(index >= 0) {
+                int read = this.devices[index].read(address - this.starts[index], buf, offset, count);
+                total += read;
+                if(read < count) {
+                    break;
+                }
+            }
+            else {
+                this.backend.readBytes(address, buf, offset, count);
+                total += count;
+            }
+            
+            address += count;
+            offset += count;
+        }
+        
+        return total;
+    }
+    
+    /**
+     * Writes a block, handing the parts of it that are mapped to devices to the devices
+     * 
+     * @return the number of bytes written, which is less than the length if a device wrote short
+     */
+    int write(int address, byte[] buf, int offset, int length) {
+        Objects.checkFromIndexSize(address, length, sizeInBytes());
+        
+        int total = 0;
+        while(total < length) {
+            int count = Math.min(length - total, extent(address));
+            int index = deviceAt(address);
+            if(index >= 0) {
+                int written = this.devices[index].write(address - this.starts[index], buf, offset, count);
+                total += written;
+                if(written < count) {
+                    break;
+                }
+            }
+            else {
+                this.backend.storeBytes(address, buf, offset, count);
+                total += count;
+            }
+            
+            address += count;
+            offset += count;
+        }
+        
+        return total;
+    }
+    
+    private int toInt(byte[] bytes) {
+        return this.isBigEndian 
+                ? ((bytes[0] & 0xFF) << 24) | ((bytes[1] & 0xFF) << 16) | ((bytes[2] & 0xFF) << 8) | (bytes[3] & 0xFF)
+                : ((bytes[3] & 0xFF) << 24) | ((bytes[2] & 0xFF) << 16) | ((bytes[1] & 0xFF) << 8) | (bytes[0] & 0xFF);
+    }
+    
+    private void fromInt(int value, byte[] bytes) {
+        for(int i = 0; i < 4; i++) {
+            int shift = this.isBigEndian ? 24 - (i * 8) : i * 8;
+            bytes[i] = (byte)(value >>> shift);
+        }
+    }
+    
+    @Override
+    public int sizeInBytes() {
+        return this.backend.sizeInBytes();
+    }
+    
+    /**
+     * The array is not handed out, so that all of the accesses go through this bus
+     */
+    @Override
+    public byte[] array() {
+        return null;
+    }
+    
+    @Override
+    public ByteOrder getOrder() {
+        return this.backend.getOrder();
+    }
+    
+    /**
+     * Bytes the devices do not fill in are read as <code>0</code>
+     */
+    @Override
+    public void readBytes(int address, byte[] buf, int offset, int length) {
+        if(!isMapped(address, length)) {
+            this.backend.readBytes(address, buf, offset, length);
+            return;
+        }
+        
+        int read = read(address, buf, offset, length);
+        Arrays.fill(buf, offset + read, offset + length, (byte)0);
+    }
+    
+    @Override
+    public int readInt(int address) {
+        if(!isMapped(address, 4)) {
+            return this.backend.readInt(address);
+        }
+        
+        readBytes(address, this.scratch, 0, 4);
+        return toInt(this.scratch);
+    }
+    
+    @Override
+    public float readFloat(int address) {
+        if(!isMapped(address, 4)) {
+            return this.backend.readFloat(address);
+        }
+        
+        return Float.intBitsToFloat(readInt(address));
+    }
+    
+    @Override
+    public byte readByte(int address) {
+        if(!isMapped(address, 1)) {
+            return this.backend.readByte(address);
+        }
+        
+        readBytes(address, this.scratch, 0, 1);
+        return this.scratch[0];
+    }
+    
+    @Override
+    public void storeBytes(int address, byte[] buf, int offset, int length) {
+        if(!isMapped(address, length)) {
+            this.backend.storeBytes(address, buf, offset, length);
+            return;
+        }
+        
+        write(address, buf, offset, length);
+    }
+    
+    @Override
+    public void storeInt(int address, int value) {
+        if(!isMapped(address, 4)) {
+            this.backend.storeInt(address, value);
+            return;
+        }
+        
+        fromInt(value, this.scratch);
+        write(address, this.scratch, 0, 4);
+    }
+    
+    @Override
+    public void storeFloat(int address, float value) {
+        if(!isMapped(address, 4)) {
+            this.backend.storeFloat(address, value);
+            return;
+        }
+        
+        storeInt(address, Float.floatToRawIntBits(value));
+    }
+    
+    @Override
+    public void storeByte(int address, byte value) {
+        if(!isMapped(address, 1)) {
+            this.backend.storeByte(address, value);
+            return;
+        }
+        
+        this.scratch[0] = value;
+        write(address, this.scratch, 0, 1);
+    }
+    
+    @Override
+    public void copy(int destination, int source, int length) {
+        if(!isMapped(source, length) && !isMapped(destination, length)) {
+            this.backend.copy(destination, source, length);
+            return;
+        }
+        
+        MemoryBackend.super.copy(destination, source, length);
+    }
+    
+    @Override
+    public void fill(int address, int length, byte value) {
+        if(!isMapped(address, length)) {
+            this.backend.fill(address, length, value);
+            return;
+        }
+        
+        MemoryBackend.super.fill(address, length, value);
+    }
+    
+    @Override
+    public int compare(int x, int y, int length) {
+        if(!isMapped(x, length) && !isMapped(y, length)) {
+            return this.backend.compare(x, y, length);
+        }
+        
+        return MemoryBackend.super.compare(x, y, length);
+    }
+    
+    @Override
+    public int indexOf(int address, int length, byte value) {
+        if(!isMapped(address, length)) {
+            return this.backend.indexOf(address, length, value);
+        }
+        
+        return MemoryBackend.super.indexOf(address, length, value);
+    }
+}
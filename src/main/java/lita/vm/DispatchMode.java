@@ -0,0 +1,40 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+/**
+ * How the {@link CPU32} dispatches instructions.
+ *
+ * @author Tony
+ *
+ */
+public enum DispatchMode {
+
+    /**
+     * A single switch over the dispatch codes of the {@link DecodedBytecode}
+     */
+    SWITCH,
+
+    /**
+     * A table of small per instruction handlers, see {@link ThreadedEngine}
+     */
+    THREADED,
+    ;
+
+    /**
+     * Parses the command line name of the dispatch mode
+     *
+     * @param name
+     * @return the {@link DispatchMode}
+     */
+    public static DispatchMode fromName(String name) {
+        for(DispatchMode mode : values()) {
+            if(mode.name().equalsIgnoreCase(name)) {
+                return mode;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown dispatch mode: '" + name + "'");
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+/**
+ * {@link Device} that copies blocks of bytes between addresses of a {@link DeviceBus}, so that a guest program
+ * can move data between memory and devices without executing an instruction per byte.  The controller has 
+ * five int registers:
+ * 
+ * <pre>
+ * offset 0   SOURCE       the address to copy from
+ * offset 4   DESTINATION  the address to copy to
+ * offset 8   LENGTH       the number of bytes to copy
+ * offset 12  CONTROL      storing to it starts the copy, see {@link #FIXED_SOURCE} and {@link #FIXED_DESTINATION}
+ * offset 16  COUNT        the number of bytes the last copy moved
+ * </pre>
+ * 
+ * The copy ends early when a device reads or writes fewer bytes than asked, for instance at the end of a 
+ * stream; COUNT tells how far it got.  For example, with the controller mapped at 510000 and a 
+ * {@link ConsoleDevice} at 500000, this reads up to 1000 bytes of console input onto the heap:
+ * 
+ * <pre>
+ * movi $a #510000
+ * movi &amp;$a #500000   ; SOURCE, the console
+ * addi $a #4
+ * movi &amp;$a $h        ; DESTINATION, the heap
+ * addi $a #4
+ * movi &amp;$a #1000     ; LENGTH
+ * addi $a #4
+ * movi &amp;$a #1        ; CONTROL, FIXED_SOURCE; copies
+ * </pre>
+ * 
+ * @author Tony
+ *
+ */
+public class DmaController implements Device {
+
+    public static final int SOURCE      = 0;
+    public static final int DESTINATION = 4;
+    public static final int LENGTH      = 8;
+    public static final int CONTROL     = 12;
+    public static final int COUNT       = 16;
+    
+    /**
+     * CONTROL flag to read every byte from the SOURCE address rather than from successive addresses, for 
+     * devices that are a single port such as the {@link ConsoleDevice}
+     */
+    public static final int FIXED_SOURCE = 1;
+    
+    /**
+     * CONTROL flag to write every byte to the DESTINATION address rather than to successive addresses
+     */
+    public static final int FIXED_DESTINATION = 2;
+    
+    private static final int SIZE = 20;
+    private static final int CHUNK_SIZE = 8 * 1024;
+    
+    private final DeviceBus bus;
+    private final RAM registers;
+    private final byte[] chunk;
+    
+    /**
+     * @param bus the bus to copy over
+     */
+    public DmaController(DeviceBus bus) {
+        this.bus = bus;
+        this.registers = new RAM(new VarHandleMemory(SIZE, bus.getOrder()));
+        this.chunk = new byte[CHUNK_SIZE];
+    }
+    
+    @Override
+    public int size() {
+        return SIZE;
+    }
+    
+    @Override
+    public int read(int offset, byte[] buf, int bufOffset, int length) {
+        this.registers.readBytes(offset, buf, bufOffset, length);
+        return length;
+    }
+    
+    @Override
+    public int write(int offset, byte[] buf, int bufOffset, int length) {
+        this.registers.storeBytes(offset, buf, bufOffset, length);
+        
+        // the copy starts once the last byte of CONTROL has been stored
+        if(offset <= CONTROL + 3 && offset + length > CONTROL + 3) {
+            this.registers.storeInt(COUNT, copy(this.registers.readInt(SOURCE), 
+                                                this.registers.readInt(DESTINATION), 
+                                                this.registers.readInt(LENGTH), 
+                                                this.registers.readInt(CONTROL)));
+        }
+        return length;
+    }
+    
+    /**
+     * Copies the bytes
+     * 
+     * @param source
+     * @param destination
+     * @param length
+     * @param flags the CONTROL flags
+     * @return the number of bytes copied
+     */
+    public int copy(int source, int destination, int length, int flags) {
+        boolean fixedSource = (flags & FIXED_SOURCE) != 0;
+        boolean fixedDestination = (flags & FIXED_DESTINATION) != 0;
+        
+        int total = 0;
+        while(total < length) {
+            int count = Math.min(length - total, CHUNK_SIZE);
+            if(fixedSource) {
+                count = Math.min(count, this.bus.extent(source));
+            }
+            if(fixedDestination) {
+                count = Math.min(count, this.bus.extent(destination));
+            }
+            
+            int read = this.bus.read(source, this.chunk, 0, count);
+            int written = this.bus.write(destination, this.chunk, 0, read);
+            total += written;
+            
+            if(read < count || written < read) {
+                break;
+            }
+            
+            if(!fixedSource) {
+                source += count;
+            }
+            if(!fixedDestination) {
+                destination += count;
+            }
+        }
+        
+        return total;
+    }
+}
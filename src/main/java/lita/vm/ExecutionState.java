@@ -0,0 +1,60 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+/**
+ * The state of an execution that was suspended because it ran out of its instruction or time budget, see
+ * {@link CPU32#execute(DecodedBytecode, long)}.  It is resumed with {@link CPU32#resume(ExecutionState, long)}.
+ *
+ * The contents of {@link RAM} are not part of the state; they stay as they were when the execution was
+ * suspended.
+ *
+ * @author Tony
+ *
+ */
+public class ExecutionState {
+
+    private final DecodedBytecode code;
+    private final int pc;
+    final int[] registers;
+
+    /**
+     * @param code
+     * @param pc the instruction to resume at
+     * @param registers the register values to resume with
+     */
+    ExecutionState(DecodedBytecode code, int pc, int[] registers) {
+        this.code = code;
+        this.pc = pc;
+        this.registers = registers;
+    }
+
+    /**
+     * @return the code being executed
+     */
+    public DecodedBytecode getCode() {
+        return code;
+    }
+
+    /**
+     * @return the index of the instruction execution resumes at
+     */
+    public int getPc() {
+        return pc;
+    }
+
+    /**
+     * @return a copy of the register values at the time execution was suspended
+     */
+    public int[] getRegisters() {
+        return registers.clone();
+    }
+
+    /**
+     * @return true if the code ran to completion, in which case there is nothing left to resume
+     */
+    public boolean isFinished() {
+        return pc >= code.length;
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import java.util.Arrays;
+
+/**
+ * Execution statistics of a {@link CPU32}: how many times each opcode and each instruction was executed, and how
+ * many times each {@link Region} of {@link RAM} was read from and written to.
+ *
+ * <p>
+ * Instruction counts are recorded once the stats are set with {@link CPU32#setStats(ExecutionStats)}, which
+ * switches the CPU to an instrumented engine; RAM accesses are recorded if the {@link MemoryBackend} of the RAM
+ * is wrapped with {@link #countAccesses(MemoryBackend)}.  Neither costs anything when it is not used.
+ *
+ * <pre>
+ * ExecutionStats stats = new ExecutionStats();
+ * LitaVM vm = new LitaVM(new RAM(stats.countAccesses(new VarHandleMemory(ramSize))), stackSize, false, DispatchMode.SWITCH);
+ * vm.getCpu().setStats(stats);
+ * </pre>
+ *
+ * @author Tony
+ *
+ */
+public class ExecutionStats {
+
+    /**
+     * The regions of {@link RAM}
+     */
+    public static enum Region {
+        /**
+         * From address 0 up to the start of the heap ($h)
+         */
+        CONSTANT_POOL,
+
+        /**
+         * From the start of the heap up to the stack
+         */
+        HEAP,
+
+        /**
+         * The top {@link CPU32#getStackSize()} bytes of RAM
+         */
+        STACK,
+        ;
+    }
+
+    private static final Region[] REGIONS = Region.values();
+
+    private final long[] opcodeCounts;
+    private final long[] reads;
+    private final long[] writes;
+
+    private long instructionsRetired;
+
+    private Bytecode bytecode;
+    private long[] pcCounts;
+
+    /**
+     * The region boundaries of the executing program, RAM accesses are only counted while executing
+     */
+    private boolean executing;
+    private int heapStart;
+    private int stackStart;
+
+    public ExecutionStats() {
+        this.opcodeCounts = new long[64];
+        this.reads = new long[REGIONS.length];
+        this.writes = new long[REGIONS.length];
+        this.pcCounts = new long[0];
+    }
+
+    /**
+     * Wraps the supplied {@link MemoryBackend} so that the reads and writes to it, while a program executes,
+     * are counted by these stats
+     *
+     * @param backend
+     * @return the counting backend, to create the {@link RAM} with
+     */
+    public MemoryBackend countAccesses(MemoryBackend backend) {
+        return new CountingMemory(backend, this);
+    }
+
+    /**
+     * Clears all of the counts
+     */
+    public void reset() {
+        Arrays.fill(this.opcodeCounts, 0);
+        Arrays.fill(this.reads, 0);
+        Arrays.fill(this.writes, 0);
+        this.instructionsRetired = 0;
+        this.bytecode = null;
+        this.pcCounts = new long[0];
+    }
+
+    /**
+     * @return the total number of instructions executed
+     */
+    public long getInstructionsRetired() {
+        return instructionsRetired;
+    }
+
+    /**
+     * @param opcode
+     * @return the number of times the opcode was executed
+     */
+    public long getOpcodeCount(int opcode) {
+        return this.opcodeCounts[opcode];
+    }
+
+    /**
+     * @return the last {@link Bytecode} executed, which {@link #getPcCounts()} are for, or null if nothing
+     * was executed yet
+     */
+    public Bytecode getBytecode() {
+        return bytecode;
+    }
+
+    /**
+     * @return the number of times each instruction of {@link #getBytecode()} was executed, indexed by instruction
+     */
+    public long[] getPcCounts() {
+        return pcCounts.clone();
+    }
+
+    /**
+     * @param region
+     * @return the number of reads from the region
+     */
+    public long getReads(Region region) {
+        return this.reads[region.ordinal()];
+    }
+
+    /**
+     * @param region
+     * @return the number of writes to the region
+     */
+    public long getWrites(Region region) {
+        return this.writes[region.ordinal()];
+    }
+
+    /**
+     * Starts counting for the program the supplied {@link CPU32} is about to execute, the constant pool
+     * ends at its $h register
+     *
+     * @param cpu
+     */
+    void begin(CPU32 cpu) {
+        this.heapStart = cpu.getRegisterFile()[CPU32.H];
+        this.stackStart = cpu.getRam().sizeInBytes() - cpu.getStackSize();
+        this.executing = true;
+    }
+
+    /**
+     * Adds the instruction hit counts of an execution of the supplied code
+     *
+     * @param code
+     * @param hits the number of times each instruction was executed
+     */
+    void end(DecodedBytecode code, long[] hits) {
+        this.executing = false;
+
+        if(this.bytecode != code.bytecode) {
+            this.bytecode = code.bytecode;
+            this.pcCounts = new long[code.length];
+        }
+
+        for(int i = 0; i < hits.length; i++) {
+            long count = hits[i];
+            if(count > 0) {
+                this.pcCounts[i] += count;
+                this.opcodeCounts[code.opcodes[i]] += count;
+                this.instructionsRetired += count;
+            }
+        }
+    }
+
+    private int region(int address) {
+        if(address < this.heapStart) {
+            return Region.CONSTANT_POOL.ordinal();
+        }
+        if(address >= this.stackStart) {
+            return Region.STACK.ordinal();
+        }
+        return Region.HEAP.ordinal();
+    }
+
+    void read(int address) {
+        if(this.executing) {
+            this.reads[region(address)]++;
+        }
+    }
+
+    void write(int address) {
+        if(this.executing) {
+            this.writes[region(address)]++;
+        }
+    }
+}
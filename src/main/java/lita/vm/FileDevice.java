@@ -0,0 +1,94 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * {@link Device} that is a window onto a file: the byte at offset <code>n</code> of the device is the byte at 
+ * position <code>n</code> of the file.  Reads past the end of the file read nothing, and writes past it grow 
+ * the file.
+ * 
+ * @author Tony
+ *
+ */
+public class FileDevice implements Device, Closeable {
+
+    private final FileChannel channel;
+    private final int size;
+    
+    /**
+     * @param channel the file
+     * @param size the number of bytes of the file that are mapped
+     */
+    public FileDevice(FileChannel channel, int size) {
+        this.channel = channel;
+        this.size = size;
+    }
+    
+    /**
+     * Opens the file and maps all of it
+     * 
+     * @param file
+     * @param writable if the guest may write to the file
+     * @return the device
+     * @throws IOException
+     */
+    public static FileDevice open(Path file, boolean writable) throws IOException {
+        FileChannel channel = writable ? FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE) 
+                                       : FileChannel.open(file, StandardOpenOption.READ);
+        
+        long size = channel.size();
+        if(size < 1 || size > Integer.MAX_VALUE) {
+            channel.close();
+            throw new IOException("'" + file + "' is empty or too large to map");
+        }
+        return new FileDevice(channel, (int)size);
+    }
+    
+    @Override
+    public int size() {
+        return size;
+    }
+    
+    @Override
+    public int read(int offset, byte[] buf, int bufOffset, int length) {
+        ByteBuffer buffer = ByteBuffer.wrap(buf, bufOffset, length);
+        try {
+            while(buffer.hasRemaining()) {
+                if(this.channel.read(buffer, offset + buffer.position() - bufOffset) < 0) {
+                    break;
+                }
+            }
+        }
+        catch(IOException e) {
+            throw new EvalException("Unable to read file: " + e.getMessage(), e);
+        }
+        return buffer.position() - bufOffset;
+    }
+    
+    @Override
+    public int write(int offset, byte[] buf, int bufOffset, int length) {
+        ByteBuffer buffer = ByteBuffer.wrap(buf, bufOffset, length);
+        try {
+            while(buffer.hasRemaining()) {
+                this.channel.write(buffer, offset + buffer.position() - bufOffset);
+            }
+        }
+        catch(IOException e) {
+            throw new EvalException("Unable to write file: " + e.getMessage(), e);
+        }
+        return length;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+}
@@ -131,8 +131,6 @@ public class Instruction {
                     sb.append("&");
                 }
                 
-                sb.append("$");
-                
                 int arg1Register = arg1Value(instruction);
                 sb.append(cpu.getRegisters()[arg1Register].getName()).append(" ");
             }
@@ -141,7 +139,7 @@ public class Instruction {
                 if(isArg2Addr(instruction)) {
                     sb.append("&");
                 }
-                sb.append("$").append(cpu.getRegisters()[arg2Value(instruction)].getName());
+                sb.append(cpu.getRegisters()[arg2Value(instruction)].getName());
             }
             else if(isArg2Immediate(instruction)) {
                 sb.append("#").append(arg2Value(instruction));
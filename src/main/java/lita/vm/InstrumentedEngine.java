@@ -0,0 +1,114 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import static lita.vm.CPU32.PC;
+import static lita.vm.Opcodes.CALL;
+import static lita.vm.Opcodes.RET;
+
+import java.util.Arrays;
+
+/**
+ * Executes code while recording {@link ExecutionStats} and/or {@link Profiler} samples.  This is a separate engine,
+ * rather than checks in the dispatch loops of the {@link CPU32} and {@link ThreadedEngine}, so that executing
+ * without instrumentation costs nothing.
+ *
+ * Every instruction is counted on its own: the code is bound to {@link ThreadedEngine} handlers without
+ * superinstruction fusion, and the {@link JitCompiler} is not used.
+ *
+ * @author Tony
+ *
+ */
+class InstrumentedEngine {
+
+    /**
+     * Only used to execute the handlers, its JIT is never enabled
+     */
+    private final ThreadedEngine engine;
+    private final CPU32 cpu;
+    private final int[] regs;
+
+    /**
+     * The instruction hit counts, reused while the same code is executed (e.g. resumed after each time slice)
+     */
+    private long[] hits;
+
+    InstrumentedEngine(CPU32 cpu) {
+        this.engine = new ThreadedEngine(cpu);
+        this.cpu = cpu;
+        this.regs = cpu.getRegisterFile();
+    }
+
+    /**
+     * Execute the supplied {@link DecodedBytecode}
+     *
+     * @param code
+     * @param pc the instruction to start at
+     * @param stats the stats to add the counts to, may be null
+     * @param profiler the profiler to sample the call stack with, may be null
+     */
+    void execute(DecodedBytecode code, int pc, ExecutionStats stats, Profiler profiler) {
+        final ThreadedEngine.Handler[] handlers = code.getUnfusedHandlers();
+        if(this.hits == null || this.hits.length != code.length) {
+            this.hits = new long[code.length];
+        }
+        final long[] hits = this.hits;
+
+        if(stats != null) {
+            stats.begin(this.cpu);
+        }
+
+        try {
+            if(profiler != null) {
+                profile(code, pc, handlers, hits, profiler);
+            }
+            else {
+                count(code, pc, handlers, hits);
+            }
+        }
+        finally {
+            if(stats != null) {
+                stats.end(code, hits);
+            }
+            Arrays.fill(hits, 0L);
+        }
+    }
+
+    private void count(DecodedBytecode code, int pc, ThreadedEngine.Handler[] handlers, long[] hits) {
+        final int[] regs = this.regs;
+        final int len = code.length;
+
+        while(pc < len) {
+            hits[pc]++;
+            regs[PC] = ++pc;
+            pc = handlers[pc - 1].execute(this.engine, pc);
+        }
+    }
+
+    private void profile(DecodedBytecode code, int pc, ThreadedEngine.Handler[] handlers, long[] hits, Profiler profiler) {
+        final int[] regs = this.regs;
+        final int[] opcodes = code.opcodes;
+        final int[] targets = code.arg2;
+        final int len = code.length;
+        final int interval = profiler.getSampleInterval();
+
+        int countdown = interval;
+        while(pc < len) {
+            final int i = pc;
+            hits[i]++;
+            regs[PC] = ++pc;
+            pc = handlers[i].execute(this.engine, pc);
+
+            switch(opcodes[i]) {
+                case CALL: profiler.call(targets[i]); break;
+                case RET:  profiler.ret(); break;
+            }
+
+            if(--countdown == 0) {
+                profiler.sample();
+                countdown = interval;
+            }
+        }
+    }
+}
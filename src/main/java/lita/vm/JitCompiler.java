@@ -0,0 +1,898 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import static lita.vm.ClassFileWriter.*;
+import static lita.vm.DecodedBytecode.*;
+import static lita.vm.Opcodes.*;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Compiles hot regions of {@link DecodedBytecode} into JVM classes.
+ *
+ * The {@link CPU32} counts how many times each <code>CALL</code> target and backward <code>JMP</code>
+ * target is entered.  Once a target has been entered {@link #getThreshold()} times, the instructions
+ * reachable from it (up to {@link #MAX_REGION_SIZE} instructions ahead) are compiled into a hidden class,
+ * with the registers held in JVM locals.  Jumps within the region become JVM branches; leaving the
+ * region (jumping outside of it, <code>RET</code>, or reaching an instruction that can't be compiled)
+ * writes the registers back and returns the program counter for the interpreter to resume at.
+ *
+ * The compiled code only depends on the {@link DecodedBytecode}, so it is shared by every {@link CPU32}
+ * that executes the same code, including CPUs running on other threads.  Exactly one of the threads
+ * entering a target compiles it (the one whose entry reaches the threshold); the others keep interpreting
+ * until the compiled region is published.
+ *
+ * @author Tony
+ *
+ */
+public class JitCompiler {
+
+    public static final int DEFAULT_THRESHOLD = 1000;
+
+    /**
+     * Max number of instructions a region spans; this keeps the compiled methods small enough
+     * for the JVM to optimize them
+     */
+    public static final int MAX_REGION_SIZE = 200;
+
+    private static final int NUMBER_OF_REGISTERS = 12;
+
+    private static final String RAM_CLASS    = "lita/vm/RAM";
+    private static final String CPU_CLASS    = "lita/vm/CPU32";
+    private static final String REGION_CLASS = "lita/vm/CompiledRegion";
+    private static final String FLOAT_CLASS  = "java/lang/Float";
+
+    /**
+     * JVM local variable slots of the compiled method
+     */
+    private static final int
+        REGS      = 1,
+        RAM       = 2,
+        CPU       = 3,
+        REG_BASE  = 4,
+        TMP_INT   = REG_BASE + NUMBER_OF_REGISTERS,
+        TMP_FLOAT = TMP_INT + 1,
+        EXIT_PC   = TMP_FLOAT + 1,
+        EXCEPTION = EXIT_PC + 1,
+        MAX_LOCALS= EXCEPTION + 1
+        ;
+
+    private static final int MAX_STACK = 8;
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private final DecodedBytecode code;
+    private final int threshold;
+
+    private final AtomicIntegerArray counters;
+    private final AtomicReferenceArray<CompiledRegion> regions;
+    private final AtomicInteger numberOfCompiledRegions;
+    private final Map<Integer, Throwable> failures;
+
+    /**
+     * @param code
+     * @param threshold the number of times a target must be entered before it is compiled
+     */
+    public JitCompiler(DecodedBytecode code, int threshold) {
+        this.code = code;
+        this.threshold = threshold;
+
+        this.counters = new AtomicIntegerArray(code.length);
+        this.regions = new AtomicReferenceArray<>(code.length);
+        this.numberOfCompiledRegions = new AtomicInteger();
+        this.failures = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @return the number of times a target must be entered before it is compiled
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * @return the number of regions that have been compiled
+     */
+    public int getNumberOfCompiledRegions() {
+        return numberOfCompiledRegions.get();
+    }
+
+    /**
+     * @return why each region that could not be compiled failed, by its entry point; these regions are left to
+     * the interpreter
+     */
+    public Map<Integer, Throwable> getFailures() {
+        return new TreeMap<>(failures);
+    }
+
+    /**
+     * Enters the jump or call target.  If the target has been compiled, the compiled region is run.
+     *
+     * @param pc the target
+     * @param cpu
+     * @return the program counter the interpreter should continue at
+     */
+    int enter(int pc, CPU32 cpu) {
+        if(pc >= this.regions.length()) {
+            return pc;
+        }
+
+        CompiledRegion region = this.regions.get(pc);
+        if(region == null) {
+            if(this.counters.incrementAndGet(pc) != this.threshold) {
+                return pc;
+            }
+
+            region = compile(pc);
+            if(region == null) {
+                // don't try compiling this again
+                this.counters.set(pc, Integer.MIN_VALUE);
+                return pc;
+            }
+
+            this.regions.set(pc, region);
+            this.numberOfCompiledRegions.incrementAndGet();
+        }
+
+        return region.execute(cpu.getRegisterFile(), cpu.getRam(), cpu);
+    }
+
+    /**
+     * Compiles the region starting at the supplied entry point
+     *
+     * @param entry
+     * @return the compiled region, or null if it could not be compiled (see {@link #getFailures()})
+     */
+    CompiledRegion compile(int entry) {
+        try {
+            byte[] classFile = new RegionWriter(entry).write();
+
+            MethodHandles.Lookup lookup = LOOKUP.defineHiddenClass(classFile, true);
+            return (CompiledRegion) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+        }
+        catch(LinkageError | ReflectiveOperationException | IllegalStateException e) {
+            // a region the class file can not hold (e.g. a branch out of range), or a code generation bug
+            this.failures.put(entry, e);
+            return null;
+        }
+        catch(RuntimeException | Error e) {
+            throw e;
+        }
+        catch(Throwable e) {
+            // the generated constructor throws nothing checked
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes out the class for a single region
+     */
+    private class RegionWriter {
+        final int entry;
+        final int limit;
+
+        final ClassFileWriter writer;
+        final ClassFileWriter.Code out;
+
+        // JVM label of each reachable instruction, -1 if it isn't part of the region
+        final int[] labels;
+        final int exitLabel;
+
+        // out of line exits, (label, resume pc, pc register value)
+        int[] exits = new int[24];
+        int numberOfExits;
+
+        RegionWriter(int entry) {
+            this.entry = entry;
+            this.limit = Math.min(entry + MAX_REGION_SIZE, code.length);
+
+            this.writer = new ClassFileWriter();
+            this.out = this.writer.newCode(MAX_STACK, MAX_LOCALS);
+
+            this.labels = new int[this.limit - entry];
+            this.exitLabel = this.out.newLabel();
+        }
+
+        boolean inRegion(int pc) {
+            return pc >= this.entry && pc < this.limit && this.labels[pc - this.entry] >= 0;
+        }
+
+        int label(int pc) {
+            return this.labels[pc - this.entry];
+        }
+
+        /**
+         * Marks all of the instructions reachable from the entry point
+         */
+        void findReachable() {
+            java.util.Arrays.fill(this.labels, -1);
+
+            int[] pending = new int[this.labels.length * 2 + 1];
+            int top = 0;
+            pending[top++] = this.entry;
+
+            while(top > 0) {
+                int pc = pending[--top];
+                if(pc < this.entry || pc >= this.limit || this.labels[pc - this.entry] >= 0) {
+                    continue;
+                }
+
+                this.labels[pc - this.entry] = this.out.newLabel();
+                if(!isCompilable(pc)) {
+                    continue;
+                }
+
+                switch(code.opcodes[pc]) {
+                    case JMP:
+                    case CALL:
+                        pending[top++] = code.arg2[pc];
+                        break;
+                    case RET:
+                        break;
+                    case IFI: case IFF: case IFB:
+                    case IFEI: case IFEF: case IFEB:
+                        pending[top++] = pc + 1;
+                        pending[top++] = pc + 2;
+                        break;
+                    default:
+                        pending[top++] = pc + 1;
+                }
+            }
+        }
+
+        byte[] write() {
+            findReachable();
+
+            writeConstructor();
+
+            // load the registers into locals
+            for(int r = 0; r < NUMBER_OF_REGISTERS; r++) {
+                this.out.local(ALOAD, REGS);
+                this.out.iconst(r);
+                this.out.op(IALOAD);
+                this.out.local(ISTORE, REG_BASE + r);
+            }
+
+            int bodyStart = this.out.newLabel();
+            this.out.mark(bodyStart);
+
+            for(int pc = this.entry; pc < this.limit; pc++) {
+                if(!inRegion(pc)) {
+                    continue;
+                }
+
+                this.out.mark(label(pc));
+
+                if(!isCompilable(pc)) {
+                    exit(pc, -1);
+                    continue;
+                }
+
+                if(readsPc(pc)) {
+                    this.out.iconst(pc + 1);
+                    this.out.local(ISTORE, reg(CPU32.PC));
+                }
+
+                if(writeInstruction(pc)) {
+                    // falls through to the next instruction
+                    if(!inRegion(pc + 1)) {
+                        exit(pc + 1, pc + 1);
+                    }
+                }
+            }
+
+            for(int i = 0; i < this.numberOfExits; i += 3) {
+                this.out.mark(this.exits[i]);
+                exit(this.exits[i+1], this.exits[i+2]);
+            }
+
+            // write the registers back and return where to resume
+            int handlerLabel = this.out.newLabel();
+            this.out.mark(this.exitLabel);
+            writeBackRegisters();
+            this.out.local(ILOAD, EXIT_PC);
+            this.out.op(IRETURN);
+
+            // if anything faults, the registers still need to be written back
+            this.out.mark(handlerLabel);
+            this.out.local(ASTORE, EXCEPTION);
+            writeBackRegisters();
+            this.out.local(ALOAD, EXCEPTION);
+            this.out.op(ATHROW);
+            this.out.exceptionHandler(bodyStart, this.exitLabel, handlerLabel);
+
+            this.writer.addMethod(ACC_PUBLIC, "execute", "([IL" + RAM_CLASS + ";L" + CPU_CLASS + ";)I", this.out);
+            return this.writer.toByteArray(ACC_FINAL | ACC_SUPER, "lita/vm/JitRegion", REGION_CLASS);
+        }
+
+        void writeConstructor() {
+            ClassFileWriter.Code init = this.writer.newCode(1, 1);
+            init.local(ALOAD, 0);
+            init.invoke(INVOKESPECIAL, REGION_CLASS, "<init>", "()V");
+            init.op(RETURN);
+            this.writer.addMethod(ACC_PUBLIC, "<init>", "()V", init);
+        }
+
+        void writeBackRegisters() {
+            for(int r = 0; r < NUMBER_OF_REGISTERS; r++) {
+                this.out.local(ALOAD, REGS);
+                this.out.iconst(r);
+                this.out.local(ILOAD, REG_BASE + r);
+                this.out.op(IASTORE);
+            }
+        }
+
+        /**
+         * Leaves the region
+         *
+         * @param resumePc where the interpreter resumes
+         * @param pcValue the value of the $pc register, or -1 to leave it as is
+         */
+        void exit(int resumePc, int pcValue) {
+            this.out.iconst(resumePc);
+            this.out.local(ISTORE, EXIT_PC);
+            if(pcValue >= 0) {
+                this.out.iconst(pcValue);
+                this.out.local(ISTORE, reg(CPU32.PC));
+            }
+            this.out.jump(GOTO, this.exitLabel);
+        }
+
+        /**
+         * The label to branch to for the target; either the target instruction
+         * or an out of line exit to it
+         */
+        int branchTarget(int pc, int target) {
+            if(inRegion(target)) {
+                return label(target);
+            }
+
+            if(this.numberOfExits + 3 > this.exits.length) {
+                this.exits = java.util.Arrays.copyOf(this.exits, this.exits.length * 2);
+            }
+
+            int label = this.out.newLabel();
+            this.exits[this.numberOfExits++] = label;
+            this.exits[this.numberOfExits++] = target;
+            this.exits[this.numberOfExits++] = pc + 1;
+            return label;
+        }
+
+        /**
+         * Writes out the instruction
+         *
+         * @return true if the instruction falls through to the next instruction
+         */
+        boolean writeInstruction(final int pc) {
+            final int a1 = code.arg1[pc];
+            final int m1 = code.arg1Mode[pc];
+            final int a2 = code.arg2[pc];
+            final int m2 = code.arg2Mode[pc];
+
+            switch(code.opcodes[pc]) {
+                case NOOP: {
+                    return true;
+                }
+                case MOVI:
+                case LDCI: {
+                    storeInt(m1, a1, () -> loadInt(m2, a2));
+                    return true;
+                }
+                case MOVF:
+                case LDCF: {
+                    storeFloat(m1, a1, () -> loadFloat(m2, a2));
+                    return true;
+                }
+                case MOVB:
+                case LDCB: {
+                    storeByte(m1, a1, () -> loadByte(m2, a2));
+                    return true;
+                }
+                case LDCA: {
+                    storeInt(m1, a1, () -> this.out.iconst(a2));
+                    return true;
+                }
+                case PUSHI: {
+                    loadInt(m2, a2);
+                    this.out.local(ISTORE, TMP_INT);
+                    push(4);
+                    this.out.local(ILOAD, TMP_INT);
+                    invokeRam("storeInt", "(II)V");
+                    return true;
+                }
+                case PUSHF: {
+                    loadFloat(m2, a2);
+                    this.out.local(FSTORE, TMP_FLOAT);
+                    push(4);
+                    this.out.local(FLOAD, TMP_FLOAT);
+                    invokeRam("storeFloat", "(IF)V");
+                    return true;
+                }
+                case PUSHB: {
+                    loadByte(m2, a2);
+                    this.out.local(ISTORE, TMP_INT);
+                    push(1);
+                    this.out.local(ILOAD, TMP_INT);
+                    invokeRam("storeByte", "(IB)V");
+                    return true;
+                }
+                case POPI: {
+                    readStack("readInt", "(I)I");
+                    this.out.local(ISTORE, TMP_INT);
+                    this.out.iinc(reg(CPU32.SP), 4);
+                    storeInt(m1, a1, () -> this.out.local(ILOAD, TMP_INT));
+                    return true;
+                }
+                case POPF: {
+                    readStack("readFloat", "(I)F");
+                    this.out.local(FSTORE, TMP_FLOAT);
+                    this.out.iinc(reg(CPU32.SP), 4);
+                    storeFloat(m1, a1, () -> this.out.local(FLOAD, TMP_FLOAT));
+                    return true;
+                }
+                case POPB: {
+                    readStack("readByte", "(I)B");
+                    this.out.local(ISTORE, TMP_INT);
+                    this.out.iinc(reg(CPU32.SP), 1);
+                    storeByte(m1, a1, () -> this.out.local(ILOAD, TMP_INT));
+                    return true;
+                }
+                case DUPI: {
+                    readStack("readInt", "(I)I");
+                    this.out.local(ISTORE, TMP_INT);
+                    push(4);
+                    this.out.local(ILOAD, TMP_INT);
+                    invokeRam("storeInt", "(II)V");
+                    storeInt(m1, a1, () -> this.out.local(ILOAD, TMP_INT));
+                    return true;
+                }
+                case DUPF: {
+                    readStack("readFloat", "(I)F");
+                    this.out.local(FSTORE, TMP_FLOAT);
+                    push(4);
+                    this.out.local(FLOAD, TMP_FLOAT);
+                    invokeRam("storeFloat", "(IF)V");
+                    storeFloat(m1, a1, () -> this.out.local(FLOAD, TMP_FLOAT));
+                    return true;
+                }
+                case DUPB: {
+                    readStack("readByte", "(I)B");
+                    this.out.local(ISTORE, TMP_INT);
+                    push(1);
+                    this.out.local(ILOAD, TMP_INT);
+                    invokeRam("storeByte", "(IB)V");
+                    storeByte(m1, a1, () -> this.out.local(ILOAD, TMP_INT));
+                    return true;
+                }
+                case IFI:
+                case IFEI: {
+                    loadInts(m1, a1, m2, a2);
+                    this.out.jump(code.opcodes[pc] == IFI ? IF_ICMPGT : IF_ICMPGE, branchTarget(pc, pc + 2));
+                    return true;
+                }
+                case IFB:
+                case IFEB: {
+                    loadBytes(m1, a1, m2, a2);
+                    this.out.jump(code.opcodes[pc] == IFB ? IF_ICMPGT : IF_ICMPGE, branchTarget(pc, pc + 2));
+                    return true;
+                }
+                case IFF:
+                case IFEF: {
+                    loadFloats(m1, a1, m2, a2);
+                    this.out.op(FCMPL);
+                    this.out.jump(code.opcodes[pc] == IFF ? IFGT : IFGE, branchTarget(pc, pc + 2));
+                    return true;
+                }
+                case JMP: {
+                    this.out.jump(GOTO, branchTarget(pc, a2));
+                    return false;
+                }
+                case CALL: {
+                    this.out.iconst(pc + 1);
+                    this.out.local(ISTORE, reg(CPU32.R));
+                    this.out.jump(GOTO, branchTarget(pc, a2));
+                    return false;
+                }
+                case RET: {
+                    this.out.local(ILOAD, reg(CPU32.R));
+                    this.out.local(ISTORE, EXIT_PC);
+                    this.out.iconst(pc + 1);
+                    this.out.local(ISTORE, reg(CPU32.PC));
+                    this.out.jump(GOTO, this.exitLabel);
+                    return false;
+                }
+                case PRINTI: {
+                    this.out.local(ALOAD, CPU);
+                    loadInt(m2, a2);
+                    this.out.invoke(INVOKEVIRTUAL, CPU_CLASS, "printInt", "(I)V");
+                    return true;
+                }
+                case PRINTF: {
+                    this.out.local(ALOAD, CPU);
+                    loadFloat(m2, a2);
+                    this.out.invoke(INVOKEVIRTUAL, CPU_CLASS, "printFloat", "(F)V");
+                    return true;
+                }
+                case PRINTB: {
+                    this.out.local(ALOAD, CPU);
+                    loadByte(m2, a2);
+                    this.out.invoke(INVOKEVIRTUAL, CPU_CLASS, "printByte", "(B)V");
+                    return true;
+                }
+                case PRINTC: {
+                    this.out.local(ALOAD, CPU);
+                    loadByte(m2, a2);
+                    this.out.invoke(INVOKEVIRTUAL, CPU_CLASS, "printChar", "(B)V");
+                    return true;
+                }
+
+                case ADDI:  intOp(m1, a1, m2, a2, IADD); return true;
+                case SUBI:  intOp(m1, a1, m2, a2, ISUB); return true;
+                case MULI:  intOp(m1, a1, m2, a2, IMUL); return true;
+                case ORI:   intOp(m1, a1, m2, a2, IOR); return true;
+                case ANDI:  intOp(m1, a1, m2, a2, IAND); return true;
+                case XORI:  intOp(m1, a1, m2, a2, IXOR); return true;
+                case SZRLI: intOp(m1, a1, m2, a2, IUSHR); return true;
+                case SRLI:  intOp(m1, a1, m2, a2, ISHR); return true;
+                case SLLI:  intOp(m1, a1, m2, a2, ISHL); return true;
+
+                case ADDB:  byteOp(m1, a1, m2, a2, IADD); return true;
+                case SUBB:  byteOp(m1, a1, m2, a2, ISUB); return true;
+                case MULB:  byteOp(m1, a1, m2, a2, IMUL); return true;
+                case ORB:   byteOp(m1, a1, m2, a2, IOR); return true;
+                case ANDB:  byteOp(m1, a1, m2, a2, IAND); return true;
+                case XORB:  byteOp(m1, a1, m2, a2, IXOR); return true;
+                case SZRLB: byteOp(m1, a1, m2, a2, IUSHR); return true;
+                case SRLB:  byteOp(m1, a1, m2, a2, ISHR); return true;
+                case SLLB:  byteOp(m1, a1, m2, a2, ISHL); return true;
+
+                case ADDF:  floatOp(m1, a1, m2, a2, FADD); return true;
+                case SUBF:  floatOp(m1, a1, m2, a2, FSUB); return true;
+                case MULF:  floatOp(m1, a1, m2, a2, FMUL); return true;
+
+                case DIVI:
+                case MODI: {
+                    loadInt(m2, a2);
+                    this.out.local(ISTORE, TMP_INT);
+                    checkDivisor(pc, false);
+                    storeInt(m1, a1, () -> {
+                        loadInt(m1, a1);
+                        this.out.local(ILOAD, TMP_INT);
+                        this.out.op(code.opcodes[pc] == DIVI ? IDIV : IREM);
+                    });
+                    return true;
+                }
+                case DIVB:
+                case MODB: {
+                    loadByte(m2, a2);
+                    this.out.local(ISTORE, TMP_INT);
+                    checkDivisor(pc, false);
+                    storeByte(m1, a1, () -> {
+                        loadByte(m1, a1);
+                        this.out.local(ILOAD, TMP_INT);
+                        this.out.op(code.opcodes[pc] == DIVB ? IDIV : IREM);
+                        this.out.op(I2B);
+                    });
+                    return true;
+                }
+                case DIVF:
+                case MODF: {
+                    loadFloat(m2, a2);
+                    this.out.local(FSTORE, TMP_FLOAT);
+                    checkDivisor(pc, true);
+                    storeFloat(m1, a1, () -> {
+                        loadFloat(m1, a1);
+                        this.out.local(FLOAD, TMP_FLOAT);
+                        this.out.op(code.opcodes[pc] == DIVF ? FDIV : FREM);
+                    });
+                    return true;
+                }
+                case NOTI: {
+                    storeInt(m1, a1, () -> {
+                        loadInt(m2, a2);
+                        this.out.op(ICONST_M1);
+                        this.out.op(IXOR);
+                    });
+                    return true;
+                }
+                case NOTB: {
+                    storeByte(m1, a1, () -> {
+                        loadByte(m2, a2);
+                        this.out.op(ICONST_M1);
+                        this.out.op(IXOR);
+                        this.out.op(I2B);
+                    });
+                    return true;
+                }
+
+                case MEMCPY: {
+                    this.out.local(ALOAD, CPU);
+                    loadInt(m1, a1);
+                    loadInt(m2, a2);
+                    this.out.local(ILOAD, reg(CPU32.C));
+                    this.out.invoke(INVOKEVIRTUAL, CPU_CLASS, "memcpy", "(III)V");
+                    return true;
+                }
+                case MEMSET: {
+                    this.out.local(ALOAD, CPU);
+                    loadInt(m1, a1);
+                    loadByte(m2, a2);
+                    this.out.local(ILOAD, reg(CPU32.C));
+                    this.out.invoke(INVOKEVIRTUAL, CPU_CLASS, "memset", "(IBI)V");
+                    return true;
+                }
+                case MEMCMP: {
+                    storeInt(m1, a1, () -> {
+                        this.out.local(ALOAD, CPU);
+                        loadInt(m1, a1);
+                        loadInt(m2, a2);
+                        this.out.local(ILOAD, reg(CPU32.C));
+                        this.out.invoke(INVOKEVIRTUAL, CPU_CLASS, "memcmp", "(III)I");
+                    });
+                    return true;
+                }
+                case MEMFIND: {
+                    storeInt(m1, a1, () -> {
+                        this.out.local(ALOAD, CPU);
+                        loadInt(m1, a1);
+                        loadByte(m2, a2);
+                        this.out.local(ILOAD, reg(CPU32.C));
+                        this.out.invoke(INVOKEVIRTUAL, CPU_CLASS, "memfind", "(IBI)I");
+                    });
+                    return true;
+                }
+                default:
+                    throw new IllegalStateException("Unhandled opcode: " + code.opcodes[pc]);
+            }
+        }
+
+        void intOp(int m1, int a1, int m2, int a2, int op) {
+            storeInt(m1, a1, () -> {
+                loadInts(m1, a1, m2, a2);
+                this.out.op(op);
+            });
+        }
+
+        void byteOp(int m1, int a1, int m2, int a2, int op) {
+            storeByte(m1, a1, () -> {
+                loadBytes(m1, a1, m2, a2);
+                this.out.op(op);
+                this.out.op(I2B);
+            });
+        }
+
+        void floatOp(int m1, int a1, int m2, int a2, int op) {
+            storeFloat(m1, a1, () -> {
+                loadFloats(m1, a1, m2, a2);
+                this.out.op(op);
+            });
+        }
+
+        void checkDivisor(int pc, boolean isFloat) {
+            int ok = this.out.newLabel();
+            if(isFloat) {
+                this.out.local(FLOAD, TMP_FLOAT);
+                this.out.op(FCONST_0);
+                this.out.op(FCMPL);
+            }
+            else {
+                this.out.local(ILOAD, TMP_INT);
+            }
+            this.out.jump(IFNE, ok);
+
+            this.out.iconst(pc + 1);
+            this.out.local(ISTORE, reg(CPU32.PC));
+            this.out.invoke(INVOKESTATIC, REGION_CLASS, "divideByZero", "()Llita/vm/EvalException;");
+            this.out.op(ATHROW);
+
+            this.out.mark(ok);
+        }
+
+        /**
+         * Decrements the stack pointer and leaves the (ram, $sp) on the operand stack
+         */
+        void push(int size) {
+            this.out.iinc(reg(CPU32.SP), -size);
+            this.out.local(ALOAD, RAM);
+            this.out.local(ILOAD, reg(CPU32.SP));
+        }
+
+        void readStack(String method, String descriptor) {
+            this.out.local(ALOAD, RAM);
+            this.out.local(ILOAD, reg(CPU32.SP));
+            invokeRam(method, descriptor);
+        }
+
+        void invokeRam(String method, String descriptor) {
+            this.out.invoke(INVOKEVIRTUAL, RAM_CLASS, method, descriptor);
+        }
+
+        /**
+         * Leaves (arg1, arg2) on the operand stack, reading arg2 first as the {@link CPU32} does; the order is
+         * seen when both arguments read a {@link Device}
+         */
+        void loadInts(int m1, int a1, int m2, int a2) {
+            loadInt(m2, a2);
+            this.out.local(ISTORE, TMP_INT);
+            loadInt(m1, a1);
+            this.out.local(ILOAD, TMP_INT);
+        }
+
+        void loadBytes(int m1, int a1, int m2, int a2) {
+            loadByte(m2, a2);
+            this.out.local(ISTORE, TMP_INT);
+            loadByte(m1, a1);
+            this.out.local(ILOAD, TMP_INT);
+        }
+
+        void loadFloats(int m1, int a1, int m2, int a2) {
+            loadFloat(m2, a2);
+            this.out.local(FSTORE, TMP_FLOAT);
+            loadFloat(m1, a1);
+            this.out.local(FLOAD, TMP_FLOAT);
+        }
+
+        void loadInt(int mode, int value) {
+            switch(mode) {
+                case ARG_REG:
+                    this.out.local(ILOAD, reg(value));
+                    break;
+                case ARG_REG_ADDR:
+                    this.out.local(ALOAD, RAM);
+                    this.out.local(ILOAD, reg(value));
+                    invokeRam("readInt", "(I)I");
+                    break;
+                case ARG_IMMEDIATE:
+                    this.out.iconst(value);
+                    break;
+                default:
+                    this.out.local(ALOAD, RAM);
+                    this.out.iconst(value);
+                    invokeRam("readInt", "(I)I");
+            }
+        }
+
+        void loadFloat(int mode, int value) {
+            switch(mode) {
+                case ARG_REG:
+                    this.out.local(ILOAD, reg(value));
+                    this.out.invoke(INVOKESTATIC, FLOAT_CLASS, "intBitsToFloat", "(I)F");
+                    break;
+                case ARG_REG_ADDR:
+                    this.out.local(ALOAD, RAM);
+                    this.out.local(ILOAD, reg(value));
+                    invokeRam("readFloat", "(I)F");
+                    break;
+                case ARG_IMMEDIATE:
+                    this.out.iconst(value);
+                    this.out.invoke(INVOKESTATIC, FLOAT_CLASS, "intBitsToFloat", "(I)F");
+                    break;
+                default:
+                    this.out.local(ALOAD, RAM);
+                    this.out.iconst(value);
+                    invokeRam("readFloat", "(I)F");
+            }
+        }
+
+        void loadByte(int mode, int value) {
+            switch(mode) {
+                case ARG_REG:
+                    this.out.local(ILOAD, reg(value));
+                    this.out.op(I2B);
+                    break;
+                case ARG_REG_ADDR:
+                    this.out.local(ALOAD, RAM);
+                    this.out.local(ILOAD, reg(value));
+                    invokeRam("readByte", "(I)B");
+                    break;
+                case ARG_IMMEDIATE:
+                    this.out.iconst((byte)value);
+                    break;
+                default:
+                    this.out.local(ALOAD, RAM);
+                    this.out.iconst(value);
+                    invokeRam("readByte", "(I)B");
+            }
+        }
+
+        void storeInt(int mode, int register, Runnable value) {
+            if(mode == ARG_REG_ADDR) {
+                this.out.local(ALOAD, RAM);
+                this.out.local(ILOAD, reg(register));
+                value.run();
+                invokeRam("storeInt", "(II)V");
+            }
+            else {
+                value.run();
+                this.out.local(ISTORE, reg(register));
+            }
+        }
+
+        void storeFloat(int mode, int register, Runnable value) {
+            if(mode == ARG_REG_ADDR) {
+                this.out.local(ALOAD, RAM);
+                this.out.local(ILOAD, reg(register));
+                value.run();
+                invokeRam("storeFloat", "(IF)V");
+            }
+            else {
+                value.run();
+                this.out.invoke(INVOKESTATIC, FLOAT_CLASS, "floatToIntBits", "(F)I");
+                this.out.local(ISTORE, reg(register));
+            }
+        }
+
+        void storeByte(int mode, int register, Runnable value) {
+            if(mode == ARG_REG_ADDR) {
+                this.out.local(ALOAD, RAM);
+                this.out.local(ILOAD, reg(register));
+                value.run();
+                invokeRam("storeByte", "(IB)V");
+            }
+            else {
+                value.run();
+                this.out.local(ISTORE, reg(register));
+            }
+        }
+    }
+
+    private static int reg(int register) {
+        return REG_BASE + register;
+    }
+
+    private static boolean isRegister(int value) {
+        return value >= 0 && value < NUMBER_OF_REGISTERS;
+    }
+
+    /**
+     * Determines if the instruction can be compiled, instructions that can't
+     * be compiled exit back to the interpreter
+     */
+    private boolean isCompilable(int pc) {
+        final int opcode = this.code.opcodes[pc];
+        if(!isOpcode(opcode)) {
+            return false;
+        }
+
+        if(opcode == JMP || opcode == CALL || opcode == RET || opcode == NOOP) {
+            return true;
+        }
+
+        // every other instruction uses argument 2
+        final int mode = this.code.arg2Mode[pc];
+        if((mode == ARG_REG || mode == ARG_REG_ADDR) && !isRegister(this.code.arg2[pc])) {
+            return false;
+        }
+
+        switch(opcode) {
+            case PUSHI: case PUSHF: case PUSHB:
+            case PRINTI: case PRINTF: case PRINTB: case PRINTC:
+                return true;
+            default:
+                return isRegister(this.code.arg1[pc]);
+        }
+    }
+
+    /**
+     * Determines if the instruction reads the $pc register
+     */
+    private boolean readsPc(int pc) {
+        final int opcode = this.code.opcodes[pc];
+        if(opcode == JMP || opcode == CALL || opcode == RET || opcode == NOOP) {
+            return false;
+        }
+
+        final int mode = this.code.arg2Mode[pc];
+        return this.code.arg1[pc] == CPU32.PC ||
+               ((mode == ARG_REG || mode == ARG_REG_ADDR) && this.code.arg2[pc] == CPU32.PC);
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import lita.vm.ObjectModule.ConstantEntry;
+import lita.vm.ObjectModule.Fixup;
+
+/**
+ * Links {@link ObjectModule}s into a single program.  The instructions of the modules are laid out one after the
+ * other, in the order the modules are supplied except for the first module, the entry point, which is laid out last:
+ * the program starts at the first instruction of the entry module and ends once it runs off the end of it.
+ * The constants of all of the modules are merged into one constant pool (equal constants share an entry), which is
+ * loaded into the {@link RAM} of the {@link LitaVM}, and the label and constant references of each module are
+ * relocated to the merged program.
+ *
+ * <p>
+ * A reference is resolved against the labels and constants of its own module first, and then against the symbols
+ * exported by the other modules, if the module imports it.
+ *
+ * @author Tony
+ *
+ */
+public class Linker {
+
+    private final LitaVM vm;
+
+    /*
+     * The pooled constants, mapped to their index in the pool (in the order they were added)
+     */
+    private Map<Number, Integer> numPool;
+    private Map<String, Integer> strPool;
+
+    private Map<String, Integer> exported;
+    private Map<String, Integer> symbols;
+
+    /**
+     * @param vm the VM the program is linked for, its RAM is loaded with the constant pool
+     */
+    public Linker(LitaVM vm) {
+        this.vm = vm;
+        this.symbols = new HashMap<>();
+    }
+
+    /**
+     * The symbols of the last linked program: the exported symbols, followed by the symbols of each module that do
+     * not clash with a symbol already added
+     *
+     * @return the label (instruction index) and data constant (constant index) symbols, labels
+     * are prefixed with a <code>:</code> and data constants with a <code>.</code>
+     */
+    public Map<String, Integer> getSymbols() {
+        return new HashMap<>(this.symbols);
+    }
+
+    /**
+     * Links the modules into {@link Bytecode}
+     *
+     * @param modules the modules, the first of which is the entry point of the program
+     * @return the {@link Bytecode}
+     * @throws ParserException if a symbol can not be resolved, or is exported by more than one module
+     */
+    public Bytecode link(List<ObjectModule> modules) {
+        final int numberOfModules = modules.size();
+
+        this.numPool = new LinkedHashMap<>();
+        this.strPool = new LinkedHashMap<>();
+
+        // Lay out the modules, with the entry module last, and pool their constants
+        int[] bases = new int[numberOfModules];
+        int[][] constantIndexes = new int[numberOfModules][];
+
+        int numberOfInstrs = 0;
+        for(int m = 1; m < numberOfModules; m++) {
+            bases[m] = numberOfInstrs;
+            numberOfInstrs += modules.get(m).numberOfInstrs;
+        }
+        if(numberOfModules > 0) {
+            bases[0] = numberOfInstrs;
+            numberOfInstrs += modules.get(0).numberOfInstrs;
+        }
+
+        for(int m = 0; m < numberOfModules; m++) {
+            ObjectModule module = modules.get(m);
+            constantIndexes[m] = new int[module.constantEntries.size()];
+            for(int i = 0; i < constantIndexes[m].length; i++) {
+                constantIndexes[m][i] = addConstant(module.constantEntries.get(i));
+            }
+        }
+
+        final int[] constants = buildConstants();
+
+        // Build out the symbols of each module (symbol name => instruction or constant pool index)
+        List<Map<String, Integer>> moduleSymbols = new ArrayList<>(numberOfModules);
+        for(int m = 0; m < numberOfModules; m++) {
+            moduleSymbols.add(buildSymbols(modules.get(m), bases[m], constantIndexes[m]));
+        }
+
+        this.exported = new HashMap<>();
+        for(int m = 0; m < numberOfModules; m++) {
+            ObjectModule module = modules.get(m);
+            for(String symbol : module.exports) {
+                Integer value = moduleSymbols.get(m).get(symbol);
+                if(value == null) {
+                    throw new ParserException("Exported symbol '" + symbol + "' is not defined" + in(module));
+                }
+
+                if(this.exported.putIfAbsent(symbol, value) != null) {
+                    throw new ParserException("Symbol '" + symbol + "' is exported by more than one module" + in(module));
+                }
+            }
+        }
+
+        this.symbols = new HashMap<>(this.exported);
+        for(Map<String, Integer> symbols : moduleSymbols) {
+            for(Map.Entry<String, Integer> symbol : symbols.entrySet()) {
+                this.symbols.putIfAbsent(symbol.getKey(), symbol.getValue());
+            }
+        }
+
+        // Relocate the instructions
+        int[] instrs = new int[numberOfInstrs];
+        for(int m = 0; m < numberOfModules; m++) {
+            ObjectModule module = modules.get(m);
+            System.arraycopy(module.instrs, 0, instrs, bases[m], module.numberOfInstrs);
+            reconcileLabels(module, moduleSymbols.get(m), instrs, bases[m]);
+        }
+
+        return new Bytecode(constants, instrs, numberOfModules > 0 ? bases[0] : 0, numberOfInstrs);
+    }
+
+    private static String in(ObjectModule module) {
+        return module.getName() != null ? " in '" + module.getName() + "'" : "";
+    }
+
+    /**
+     * Adds the constant to the constant pools, sharing the pool entry of an equal constant
+     *
+     * @return the index of the constant in its pool
+     */
+    private int addConstant(ConstantEntry entry) {
+        if(entry.isNumber) {
+            Integer index = numPool.putIfAbsent((Number)entry.value, numPool.size());
+            return index != null ? index : numPool.size() - 1;
+        }
+
+        Integer index = strPool.putIfAbsent((String)entry.value, strPool.size());
+        return index != null ? index : strPool.size() - 1;
+    }
+
+    private Map<String, Integer> buildSymbols(ObjectModule module, int base, int[] constantIndexes) {
+        Map<String, Integer> symbols = new HashMap<>();
+        for(Map.Entry<String, Integer> label : module.labels.entrySet()) {
+            symbols.put(label.getKey(), base + label.getValue());
+        }
+
+        // Number constants are followed by the string constants in the constant pool
+        for(int i = 0; i < constantIndexes.length; i++) {
+            ConstantEntry c = module.constantEntries.get(i);
+            if(c.isNumber) {
+                symbols.put(c.constantName, constantIndexes[i]);
+            }
+        }
+
+        for(int i = 0; i < constantIndexes.length; i++) {
+            ConstantEntry c = module.constantEntries.get(i);
+            if(!c.isNumber) {
+                symbols.put(c.constantName, numPool.size() + constantIndexes[i]);
+            }
+        }
+
+        return symbols;
+    }
+
+    /**
+     * Patches the references to labels and constants of the module into the instructions
+     */
+    private void reconcileLabels(ObjectModule module, Map<String, Integer> symbols, int[] instrs, int base) {
+        for(Fixup fixup : module.fixups) {
+            Integer index = symbols.get(fixup.symbol);
+            if(index == null && module.imports.contains(fixup.symbol)) {
+                index = this.exported.get(fixup.symbol);
+                if(index == null) {
+                    throw AssemblerParser.parseError(fixup.lineNumber, "No module exports '" + fixup.symbol + "'" + in(module));
+                }
+            }
+
+            int value = 0;
+            switch(fixup.kind) {
+                case Fixup.CONSTANT: {
+                    if(index == null) {
+                        throw AssemblerParser.parseError(fixup.lineNumber, "No constant defined for '" + fixup.symbol + "'" + in(module));
+                    }
+                    value = index;
+                    if(value > Instruction.ARG2_VALUE_MASK) {
+                        throw AssemblerParser.parseError(fixup.lineNumber, "Invalid constant index, out of range: '" + value + "'" + in(module));
+                    }
+                    break;
+                }
+                default: {
+                    if(index == null) {
+                        throw AssemblerParser.parseError(fixup.lineNumber, "No label defined for '" + fixup.symbol + "'" + in(module));
+                    }
+
+                    value = index;
+                    if(fixup.kind == Fixup.IMMEDIATE) {
+                        if(value > Instruction.MAX_IMMEDIATE_VALUE) {
+                            throw AssemblerParser.parseError(fixup.lineNumber, "Invalid immediate value, above max value (" + Instruction.MAX_IMMEDIATE_VALUE + "): '" + value + "'" + in(module));
+                        }
+                        value |= Instruction.ARG2_IMM_MASK;
+                    }
+                    else if(value > Instruction.ARG_JMP_VALUE_MASK) {
+                        throw AssemblerParser.parseError(fixup.lineNumber, "Invalid jump instruction argument, out of range: '" + value + "'" + in(module));
+                    }
+                    break;
+                }
+            }
+
+            instrs[base + fixup.instruction] |= value;
+        }
+    }
+
+    private int[] buildConstants() {
+        CPU32 cpu = vm.getCpu();
+        RAM ram = vm.getRam();
+
+        int ramAddress = 0;
+        final int addressInc = cpu.getWordSize() / 8;
+
+        int[] constants = new int[numPool.size() + strPool.size()];
+        int index = 0;
+
+        for(Number n : numPool.keySet()) {
+            if(n instanceof Float) {
+                ram.storeFloat(ramAddress, n.floatValue());
+            }
+            else {
+                ram.storeInt(ramAddress, n.intValue());
+            }
+
+            constants[index++] = ramAddress;
+            ramAddress += addressInc;
+        }
+
+        for(String str : strPool.keySet()) {
+            ram.storeStr(ramAddress, str);
+
+            constants[index++] = ramAddress;
+            ramAddress += (str.length() + 1); // strings are null terminated
+        }
+
+        // Mark the start of the Heap space
+        cpu.getH().address(ramAddress);
+
+        return constants;
+    }
+}
@@ -3,8 +3,23 @@
  */
 package lita.vm;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -21,15 +36,41 @@ import org.apache.commons.cli.Options;
 public class LitaVM {
     public static final String VERSION = "v0.1-alpha";
     
+    private static final int DEFAULT_INPUT_WINDOW = 64 * 1024;
+    
     public static void main(String[] args) throws Exception {
         Options options = new Options();
         options.addOption("h", "help", false, "Displays the help contents");
         options.addOption("v", "version", false, "Displays the version");
         options.addOption("d", "debug", false, "Displays debug information");
         options.addOption("f", "file", true, "The assembly file to run");
+        options.addOption("o", "output", true, "Assembles the --file into the supplied image file, instead of running it");
+        options.addOption("i", "image", true, "The assembled image file (see --output) to run");
+        options.addOption("lm", "link-module", true, "Links the supplied module, either assembly or a module file (see --module-output), with the --file; may be repeated");
+        options.addOption("mo", "module-output", true, "Assembles the --file into the supplied module file, to be linked with --link-module, instead of running it");
+        options.addOption("pa", "parallel-assembly", false, "Assembles the --file on all cores, for very large sources");
+        options.addOption("ac", "assembly-cache", true, "Caches the assembled --file in the supplied directory, and reuses it while the file and VM configuration are unchanged");
+        options.addOption("acs", "assembly-cache-size", true, "Specifies the maximum size (in bytes) of the --assembly-cache, least recently used entries are evicted, defaults to " + AssemblyCache.DEFAULT_MAX_SIZE + " bytes");
         
         options.addOption("sx", "stack", true, "Specifies the stack size (in bytes) of the VM, defaults to 1024 bytes");
         options.addOption("rx", "ram", true, "Specifies the amount of RAM size (in bytes) of the VM, defaults to 1 MiB");
+        options.addOption("mb", "memory", true, "Specifies how RAM is stored, either 'buffer', 'varhandle', 'direct' (off heap), 'cow' (copy-on-write pages) or 'mapped' (memory mapped --memory-file), defaults to 'varhandle'");
+        options.addOption("mf", "memory-file", true, "The file RAM is mapped to when using '--memory mapped'");
+        options.addOption("bo", "byte-order", true, "Specifies the byte order of ints and floats in RAM, either 'big' or 'little', defaults to 'big'");
+        
+        options.addOption("j", "jit", false, "Compiles hot code regions into JVM classes");
+        options.addOption("jt", "jit-threshold", true, "Specifies the number of times a code region is entered before it is compiled, defaults to " + JitCompiler.DEFAULT_THRESHOLD);
+        options.addOption("fr", "fusion-report", false, "Displays which instruction pairs were fused into superinstructions");
+        options.addOption("dm", "dispatch", true, "Specifies how instructions are dispatched, either 'switch' or 'threaded', defaults to 'switch'");
+        options.addOption("mi", "max-instructions", true, "Stops the program once it has executed about the supplied number of instructions; disables the JIT");
+        options.addOption("st", "stats", false, "Displays execution statistics: opcode and instruction counts, and RAM accesses by region");
+        options.addOption("pf", "profile", true, "Samples the guest call stack and writes it to the supplied file, in the collapsed stack format of flame graph tools");
+        options.addOption("pi", "profile-interval", true, "Specifies the number of instructions between profile samples, defaults to " + Profiler.DEFAULT_SAMPLE_INTERVAL);
+        options.addOption("cd", "console-device", true, "Maps a console device (standard input and output) to the supplied RAM address");
+        options.addOption("dd", "dma-device", true, "Maps a DMA controller, for bulk copies between RAM and devices, to the supplied RAM address");
+        options.addOption("id", "input-device", true, "Maps a device that streams the --input-file to the supplied RAM address; the window the input is read into follows the device");
+        options.addOption("if", "input-file", true, "The file streamed by the --input-device");
+        options.addOption("iw", "input-window", true, "Specifies the size (in bytes) of the --input-device window, defaults to " + DEFAULT_INPUT_WINDOW + " bytes");
         
         CommandLineParser parser = new DefaultParser();
         CommandLine cmd = parser.parse(options, args);
@@ -47,25 +88,119 @@ public class LitaVM {
         
         int stackSize = Integer.parseInt(cmd.getOptionValue("sx", "1024"));
         int ramSize   = Integer.parseInt(cmd.getOptionValue("rx", "1048576"));
+        DispatchMode dispatchMode = DispatchMode.fromName(cmd.getOptionValue("dm", "switch"));
+        ByteOrder byteOrder = cmd.getOptionValue("bo", "big").equalsIgnoreCase("little") ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
         
-        if(cmd.hasOption("file")) {
-            String inputFilePath = cmd.getOptionValue("file");
-            File inputFile = new File(inputFilePath);
+        if(cmd.hasOption("file") || cmd.hasOption("image")) {
+            MemoryBackend backend = newMemory(cmd.getOptionValue("mb", "varhandle"), cmd.getOptionValue("mf"), ramSize, byteOrder);
+            ExecutionStats stats = cmd.hasOption("stats") ? new ExecutionStats() : null;
             
-            if(!inputFile.exists()) {
-                inputFile = new File(System.getProperty("user.dir"), inputFilePath);
-                if(!inputFile.exists()) {
-                    System.out.println("The input file '" + inputFilePath + "' does not exist.");
-                    System.exit(1);
-                }
+            DeviceBus bus = null;
+            MemoryBackend memory = backend;
+            if(cmd.hasOption("console-device") || cmd.hasOption("dma-device") || cmd.hasOption("input-device")) {
+                bus = new DeviceBus(backend);
+                memory = bus;
             }
             
-            LitaVM vm = new LitaVM(ramSize, stackSize, debugMode);
+            RAM ram = new RAM(stats != null ? stats.countAccesses(memory) : memory);
+            LitaVM vm = new LitaVM(ram, stackSize, debugMode, dispatchMode);
+            if(cmd.hasOption("console-device")) {
+                bus.map(Integer.decode(cmd.getOptionValue("console-device")), new ConsoleDevice(vm.getCpu().getOutput(), System.in));
+            }
+            if(cmd.hasOption("dma-device")) {
+                bus.map(Integer.decode(cmd.getOptionValue("dma-device")), new DmaController(bus));
+            }
+            
+            FileChannel input = null;
+            if(cmd.hasOption("input-device")) {
+                int address = Integer.decode(cmd.getOptionValue("input-device"));
+                int windowSize = Integer.decode(cmd.getOptionValue("input-window", String.valueOf(DEFAULT_INPUT_WINDOW)));
+                
+                input = FileChannel.open(findFile(cmd.getOptionValue("input-file")).toPath(), StandardOpenOption.READ);
+                bus.map(address, new StreamInputDevice(input, bus, address + StreamInputDevice.DEVICE_SIZE, windowSize));
+            }
+            if(cmd.hasOption("jit")) {
+                vm.getCpu().setJitThreshold(Integer.parseInt(cmd.getOptionValue("jt", String.valueOf(JitCompiler.DEFAULT_THRESHOLD))));
+            }
+            vm.getCpu().setStats(stats);
             
-            Assembler asm = new Assembler(vm);
+            Profiler profiler = null;
             try {
-                Bytecode bytecode = asm.compile(new String(Files.readAllBytes(inputFile.toPath()), "UTF8"));
-                vm.execute(bytecode);
+                Bytecode bytecode = null;
+                Map<String, Integer> symbols = null;
+                if(cmd.hasOption("image")) {
+                    File imageFile = findFile(cmd.getOptionValue("image"));
+                    BytecodeImage image = BytecodeImage.read(imageFile.toPath());
+                    bytecode = image.load(vm);
+                    symbols = image.getSymbols();
+                }
+                else {
+                    File inputFile = findFile(cmd.getOptionValue("file"));
+                    
+                    if(cmd.hasOption("module-output")) {
+                        readModule(new Assembler(vm), inputFile).write(Paths.get(cmd.getOptionValue("module-output")));
+                        return;
+                    }
+                    
+                    if(cmd.hasOption("link-module")) {
+                        Assembler asm = new Assembler(vm);
+                        
+                        List<ObjectModule> modules = new ArrayList<>();
+                        modules.add(readModule(asm, inputFile));
+                        for(String module : cmd.getOptionValues("link-module")) {
+                            modules.add(readModule(asm, findFile(module)));
+                        }
+                        
+                        bytecode = asm.link(modules);
+                        symbols = asm.getSymbols();
+                    }
+                    else if(cmd.hasOption("assembly-cache")) {
+                        long cacheSize = Long.decode(cmd.getOptionValue("assembly-cache-size", String.valueOf(AssemblyCache.DEFAULT_MAX_SIZE)));
+                        AssemblyCache cache = new AssemblyCache(Paths.get(cmd.getOptionValue("assembly-cache")), cacheSize);
+                        
+                        BytecodeImage image = cache.assemble(vm, Files.readAllBytes(inputFile.toPath()), cmd.hasOption("parallel-assembly"));
+                        bytecode = image.load(vm);
+                        symbols = image.getSymbols();
+                    }
+                    else {
+                        Assembler asm = new Assembler(vm);
+                        if(cmd.hasOption("parallel-assembly")) {
+                            bytecode = asm.compileParallel(new String(Files.readAllBytes(inputFile.toPath()), StandardCharsets.UTF_8));
+                        }
+                        else {
+                            try(Reader reader = Files.newBufferedReader(inputFile.toPath(), StandardCharsets.UTF_8)) {
+                                bytecode = asm.compile(reader);
+                            }
+                        }
+                        symbols = asm.getSymbols();
+                    }
+                    
+                    if(cmd.hasOption("output")) {
+                        BytecodeImage.fromVM(vm, bytecode, symbols).write(Paths.get(cmd.getOptionValue("output")));
+                        return;
+                    }
+                }
+                
+                DecodedBytecode code = DecodedBytecode.decode(bytecode);
+                if(cmd.hasOption("fusion-report")) {
+                    printFusions(code);
+                }
+                
+                if(cmd.hasOption("profile")) {
+                    profiler = new Profiler(symbols, Integer.parseInt(cmd.getOptionValue("pi", String.valueOf(Profiler.DEFAULT_SAMPLE_INTERVAL))));
+                    vm.getCpu().setProfiler(profiler);
+                }
+                
+                if(cmd.hasOption("max-instructions")) {
+                    long budget = Long.parseLong(cmd.getOptionValue("max-instructions"));
+                    ExecutionState state = vm.execute(code, budget);
+                    if(!state.isFinished()) {
+                        System.err.println("Execution Stopped >> ran out of the budget of " + budget + " instructions at instruction " + state.getPc());
+                    }
+                }
+                else {
+                    vm.execute(code);
+                }
             }
             catch(ParserException e) {
                 System.err.println("Parsing Error >> " + e.getMessage());
@@ -79,9 +214,91 @@ public class LitaVM {
                     throw e;
                 }
             }
+            finally {
+                if(backend instanceof MappedMemory) {
+                    ((MappedMemory)backend).flush();
+                }
+                
+                if(input != null) {
+                    input.close();
+                }
+                
+                if(stats != null && stats.getBytecode() != null) {
+                    printStats(vm.getCpu(), stats);
+                }
+                
+                if(profiler != null) {
+                    profiler.write(Paths.get(cmd.getOptionValue("profile")));
+                }
+            }
         }
     }
     
+    /**
+     * Finds the supplied file, either as is or relative to the working directory; exits if it
+     * does not exist
+     * 
+     * @param inputFilePath
+     * @return the file
+     */
+    private static File findFile(String inputFilePath) {
+        File inputFile = new File(inputFilePath);
+        
+        if(!inputFile.exists()) {
+            inputFile = new File(System.getProperty("user.dir"), inputFilePath);
+            if(!inputFile.exists()) {
+                System.out.println("The input file '" + inputFilePath + "' does not exist.");
+                System.exit(1);
+            }
+        }
+        
+        return inputFile;
+    }
+    
+    /**
+     * Reads the module file (see --module-output), or assembles the module if it is not a module file
+     */
+    private static ObjectModule readModule(Assembler asm, File file) throws IOException {
+        try(InputStream input = new BufferedInputStream(Files.newInputStream(file.toPath()))) {
+            input.mark(4);
+            byte[] magic = new byte[4];
+            boolean isModule = input.readNBytes(magic, 0, magic.length) == magic.length
+                            && ByteBuffer.wrap(magic).getInt() == ObjectModule.MAGIC;
+            input.reset();
+            
+            if(isModule) {
+                return ObjectModule.read(file.getName(), input);
+            }
+            return asm.compileModule(file.getName(), new InputStreamReader(input, StandardCharsets.UTF_8));
+        }
+    }
+    
+    /**
+     * Creates the {@link MemoryBackend} by its command line name
+     * 
+     * @param type
+     * @param file the file to map, only used by mapped memory
+     * @param sizeInBytes
+     * @param byteOrder
+     * @return the {@link MemoryBackend}
+     * @throws IOException if the file can not be mapped
+     */
+    private static MemoryBackend newMemory(String type, String file, int sizeInBytes, ByteOrder byteOrder) throws IOException {
+        switch(type.toLowerCase()) {
+            case "buffer":    return new ByteBufferMemory(sizeInBytes, byteOrder);
+            case "varhandle": return new VarHandleMemory(sizeInBytes, byteOrder);
+            case "direct":    return ByteBufferMemory.allocateDirect(sizeInBytes, byteOrder);
+            case "cow":       return new CopyOnWriteMemory(sizeInBytes, byteOrder);
+            case "mapped": {
+                if(file == null) {
+                    throw new IllegalArgumentException("Mapped memory requires a --memory-file");
+                }
+                return MappedMemory.map(Paths.get(file), sizeInBytes, byteOrder);
+            }
+            default:
+                throw new IllegalArgumentException("Unknown memory type: '" + type + "'");
+        }
+    }
     
     private final RAM ram;
     private final CPU32 cpu;
@@ -93,16 +310,60 @@ public class LitaVM {
      * @param debugMode 
      */
     public LitaVM(int ramSize, int stackSize, boolean debugMode) {        
-        if(stackSize > ramSize) {
+        this(ramSize, stackSize, debugMode, DispatchMode.SWITCH);
+    }
+    
+    /**
+     * @param ram
+     * @param stackSize
+     * @param debugMode 
+     * @param dispatchMode how the {@link CPU32} dispatches instructions
+     */
+    public LitaVM(int ramSize, int stackSize, boolean debugMode, DispatchMode dispatchMode) {        
+        this(new RAM(ramSize), stackSize, debugMode, dispatchMode);
+    }
+    
+    /**
+     * @param ram
+     * @param stackSize
+     * @param debugMode 
+     * @param dispatchMode how the {@link CPU32} dispatches instructions
+     */
+    public LitaVM(RAM ram, int stackSize, boolean debugMode, DispatchMode dispatchMode) {        
+        if(stackSize > ram.sizeInBytes()) {
             throw new IllegalArgumentException("Stack size is bigger than RAM amount");
         }
     
-        this.ram = new RAM(ramSize);
-        this.cpu = new CPU32(this.ram, stackSize);
+        this.ram = ram;
+        this.cpu = new CPU32(this.ram, stackSize, dispatchMode);
         
         this.debugMode = debugMode;
     }
     
+    /**
+     * Creates a new {@link LitaVM} in the same state as this one (RAM contents and registers).  The RAM
+     * pages are shared with this VM until either side writes to them, so forking a VM with a loaded
+     * program is cheap; the forked VM can then execute the same {@link Bytecode}.
+     * 
+     * This VM must not be executing while it is being forked, and its RAM must be {@link CopyOnWriteMemory}.
+     * 
+     * @return the forked VM
+     */
+    public LitaVM fork() {
+        if(!(this.ram.getBackend() instanceof CopyOnWriteMemory)) {
+            throw new IllegalStateException("Only VMs with copy-on-write RAM can be forked");
+        }
+        
+        RAM forkedRam = new RAM(((CopyOnWriteMemory)this.ram.getBackend()).fork());
+        LitaVM vm = new LitaVM(forkedRam, this.cpu.getStackSize(), this.debugMode, this.cpu.getDispatchMode());
+        
+        int[] registers = this.cpu.getRegisterFile();
+        System.arraycopy(registers, 0, vm.cpu.getRegisterFile(), 0, registers.length);
+        vm.cpu.setJitThreshold(this.cpu.getJitThreshold());
+        
+        return vm;
+    }
+    
     /**
      * @return the cpu
      */
@@ -123,11 +384,149 @@ public class LitaVM {
      * @param code
      */
     public void execute(Bytecode code) {
+        execute(DecodedBytecode.decode(code));
+    }
+    
+    /**
+     * Execute the supplied {@link DecodedBytecode}
+     * 
+     * @param code
+     */
+    public void execute(DecodedBytecode code) {
         if(this.debugMode) {
-            printInstructions(code);
+            printInstructions(code.bytecode);
+        }
+        
+        try {
+            this.cpu.execute(code);
+        }
+        finally {
+            if(this.debugMode && this.cpu.getJitThreshold() > 0) {
+                printJitFailures(code.getJitCompiler(this.cpu.getJitThreshold()));
+            }
+        }
+    }
+    
+    /**
+     * Execute the supplied {@link DecodedBytecode} on a thread of its own; a virtual thread on JVMs that support
+     * them (Java 21 and later), or a platform thread otherwise.  Route the output through a blocking channel
+     * with a {@link BufferedOutputDevice} (see {@link CPU32#setOutput(OutputDevice)}), so that a VM waiting on its output
+     * parks its virtual thread instead of blocking a platform thread; that way very many I/O bound VMs can
+     * run at once.
+     * 
+     * @param code
+     * @return completes once the code has executed, or exceptionally if it failed
+     */
+    public CompletableFuture<Void> start(DecodedBytecode code) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        VirtualThreads.start("litavm", () -> {
+            try {
+                execute(code);
+                future.complete(null);
+            }
+            catch(Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+    
+    /**
+     * @return true if {@link #start(DecodedBytecode)} executes on virtual threads
+     */
+    public static boolean isVirtualThreadSupported() {
+        return VirtualThreads.isSupported();
+    }
+    
+    /**
+     * Execute the supplied {@link DecodedBytecode} for about the supplied number of instructions, see
+     * {@link CPU32#execute(DecodedBytecode, long)}
+     * 
+     * @param code
+     * @param instructionBudget
+     * @return the state to resume from
+     */
+    public ExecutionState execute(DecodedBytecode code, long instructionBudget) {
+        if(this.debugMode) {
+            printInstructions(code.bytecode);
+        }
+        
+        return this.cpu.execute(code, instructionBudget);
+    }
+    
+    /**
+     * Resumes the suspended execution for about the supplied number of instructions, see
+     * {@link CPU32#resume(ExecutionState, long)}
+     * 
+     * @param state
+     * @param instructionBudget
+     * @return the state to resume from
+     */
+    public ExecutionState resume(ExecutionState state, long instructionBudget) {
+        return this.cpu.resume(state, instructionBudget);
+    }
+    
+    private static void printJitFailures(JitCompiler jit) {
+        for(Map.Entry<Integer, Throwable> failure : jit.getFailures().entrySet()) {
+            System.err.println("JIT failed to compile the region at instruction " + failure.getKey() + " >> " + failure.getValue());
+        }
+    }
+    
+    private static void printFusions(DecodedBytecode code) {
+        Map<String, Integer> fusions = code.getFusions();
+        
+        StringBuilder sb = new StringBuilder("Superinstructions fused: ");
+        if(fusions.isEmpty()) {
+            sb.append("none");
+        }
+        
+        for(Map.Entry<String, Integer> fusion : fusions.entrySet()) {
+            sb.append("\n  ").append(String.format("%-20s %d", fusion.getKey(), fusion.getValue()));
+        }
+        
+        System.out.println(sb);
+    }
+    
+    private static void printStats(CPU32 cpu, ExecutionStats stats) {
+        long total = stats.getInstructionsRetired();
+        
+        StringBuilder sb = new StringBuilder();
+        sb.append("\nInstructions retired: ").append(total).append("\n");
+        
+        sb.append("Opcodes:\n");
+        List<Integer> opcodes = new ArrayList<>();
+        for(int opcode = 0; opcode < 64; opcode++) {
+            if(stats.getOpcodeCount(opcode) > 0) {
+                opcodes.add(opcode);
+            }
+        }
+        opcodes.sort((a, b) -> Long.compare(stats.getOpcodeCount(b), stats.getOpcodeCount(a)));
+        for(int opcode : opcodes) {
+            long count = stats.getOpcodeCount(opcode);
+            sb.append(String.format("  %-10s %14d %6.2f%%%n", Opcodes.opcodeStr(opcode), count, 100.0 * count / total));
+        }
+        
+        sb.append("Hottest instructions:\n");
+        long[] pcCounts = stats.getPcCounts();
+        List<Integer> pcs = new ArrayList<>();
+        for(int pc = 0; pc < pcCounts.length; pc++) {
+            if(pcCounts[pc] > 0) {
+                pcs.add(pc);
+            }
+        }
+        pcs.sort((a, b) -> Long.compare(pcCounts[b], pcCounts[a]));
+        for(int pc : pcs.subList(0, Math.min(10, pcs.size()))) {
+            sb.append(String.format("  %6d %14d  ", pc, pcCounts[pc]));
+            Instruction.print(cpu, sb, stats.getBytecode().instr[pc]);
+        }
+        
+        sb.append("RAM accesses:\n");
+        sb.append(String.format("  %-14s %14s %14s%n", "region", "reads", "writes"));
+        for(ExecutionStats.Region region : ExecutionStats.Region.values()) {
+            sb.append(String.format("  %-14s %14d %14d%n", region.name().toLowerCase(), stats.getReads(region), stats.getWrites(region)));
         }
         
-        this.cpu.execute(code);
+        System.out.print(sb);
     }
     
     private void printInstructions(Bytecode code) {
@@ -0,0 +1,66 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * {@link MemoryBackend} backed by a memory mapped file.  The file is the memory; the operating system pages
+ * it in as it is accessed, so a large VM image on disk costs nothing until it is used, and the memory is 
+ * not part of the Java heap.  Writes go to the file, see {@link #flush()}.
+ * 
+ * @author Tony
+ *
+ */
+public class MappedMemory extends ByteBufferMemory {
+
+    private final MappedByteBuffer mappedBuffer;
+    private final Path file;
+    
+    /**
+     * Maps the first <code>sizeInBytes</code> of the file, creating (or growing) the file if
+     * it is smaller than that
+     * 
+     * @param file
+     * @param sizeInBytes
+     * @param order the byte order ints and floats are stored in
+     * @return the mapped memory
+     * @throws IOException
+     */
+    public static MappedMemory map(Path file, int sizeInBytes, ByteOrder order) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // the mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, sizeInBytes);
+            buffer.order(order);
+            
+            return new MappedMemory(file, buffer);
+        }
+    }
+    
+    private MappedMemory(Path file, MappedByteBuffer mappedBuffer) {
+        super(mappedBuffer);
+        this.file = file;
+        this.mappedBuffer = mappedBuffer;
+    }
+    
+    /**
+     * @return the file this memory is mapped to
+     */
+    public Path getFile() {
+        return file;
+    }
+    
+    /**
+     * Writes any changes to the memory out to the file
+     */
+    public void flush() {
+        this.mappedBuffer.force();
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * The storage behind the {@link RAM}.  Addresses are byte offsets from <code>0</code> up
+ * to {@link #sizeInBytes()}; accessing memory outside of that range fails with an
+ * {@link IndexOutOfBoundsException}.
+ * 
+ * @author Tony
+ *
+ */
+public interface MemoryBackend {
+
+    /**
+     * The most bytes the block operations move per read or write
+     */
+    int BLOCK_CHUNK_SIZE = 4 * 1024;
+    
+    /**
+     * @return the number of bytes that can be stored
+     */
+    int sizeInBytes();
+    
+    /**
+     * @return the array the memory is stored in, where the address of a byte is its index and the length of
+     * the array is the size of the memory; or null if the memory is not stored in such a Java byte array
+     */
+    byte[] array();
+    
+    /**
+     * @return the byte order ints and floats are stored in
+     */
+    ByteOrder getOrder();
+    
+    void storeBytes(int address, byte[] buf, int offset, int length);
+    
+    void storeInt(int address, int value);
+    
+    void storeFloat(int address, float value);
+    
+    void storeByte(int address, byte value);
+    
+    void readBytes(int address, byte[] buf, int offset, int length);
+    
+    int readInt(int address);
+    
+    float readFloat(int address);
+    
+    byte readByte(int address);
+    
+    /**
+     * Copies bytes within the memory, the ranges may overlap
+     * 
+     * @param destination
+     * @param source
+     * @param length
+     */
+    default void copy(int destination, int source, int length) {
+        Objects.checkFromIndexSize(source, length, sizeInBytes());
+        Objects.checkFromIndexSize(destination, length, sizeInBytes());
+        
+        byte[] chunk = new byte[Math.min(length, BLOCK_CHUNK_SIZE)];
+        
+        // copies from the end when the destination overlaps the end of the source
+        boolean backwards = destination > source && destination < source + length;
+        for(int done = 0; done < length; ) {
+            int count = Math.min(length - done, chunk.length);
+            int offset = backwards ? length - done - count : done;
+            
+            readBytes(source + offset, chunk, 0, count);
+            storeBytes(destination + offset, chunk, 0, count);
+            done += count;
+        }
+    }
+    
+    /**
+     * Fills a range of the memory with the value
+     * 
+     * @param address
+     * @param length
+     * @param value
+     */
+    default void fill(int address, int length, byte value) {
+        Objects.checkFromIndexSize(address, length, sizeInBytes());
+        
+        byte[] chunk = new byte[Math.min(length, BLOCK_CHUNK_SIZE)];
+        Arrays.fill(chunk, value);
+        
+        for(int done = 0; done < length; ) {
+            int count = Math.min(length - done, chunk.length);
+            storeBytes(address + done, chunk, 0, count);
+            done += count;
+        }
+    }
+    
+    /**
+     * Compares two ranges of the memory as unsigned bytes
+     * 
+     * @param x
+     * @param y
+     * @param length
+     * @return -1, 0 or 1 if the x range is less than, equal to or greater than the y range
+     */
+    default int compare(int x, int y, int length) {
+        Objects.checkFromIndexSize(x, length, sizeInBytes());
+        Objects.checkFromIndexSize(y, length, sizeInBytes());
+        
+        byte[] xChunk = new byte[Math.min(length, BLOCK_CHUNK_SIZE)];
+        byte[] yChunk = new byte[xChunk.length];
+        
+        for(int done = 0; done < length; ) {
+            int count = Math.min(length - done, xChunk.length);
+            readBytes(x + done, xChunk, 0, count);
+            readBytes(y + done, yChunk, 0, count);
+            
+            int result = Arrays.compareUnsigned(xChunk, 0, count, yChunk, 0, count);
+            if(result != 0) {
+                return Integer.signum(result);
+            }
+            done += count;
+        }
+        return 0;
+    }
+    
+    /**
+     * Finds the first byte with the value in a range of the memory
+     * 
+     * @param address
+     * @param length
+     * @param value
+     * @return the address of the byte, or -1 if it is not in the range
+     */
+    default int indexOf(int address, int length, byte value) {
+        Objects.checkFromIndexSize(address, length, sizeInBytes());
+        
+        byte[] chunk = new byte[Math.min(length, BLOCK_CHUNK_SIZE)];
+        for(int done = 0; done < length; ) {
+            int count = Math.min(length - done, chunk.length);
+            readBytes(address + done, chunk, 0, count);
+            
+            for(int i = 0; i < count; i++) {
+                if(chunk[i] == value) {
+                    return address + done + i;
+                }
+            }
+            done += count;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,516 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A separately assembled, relocatable module.  The instructions are numbered from the start of the module, and every
+ * reference to a label or constant is left unresolved, as a fixup, until the module is linked with the other modules
+ * of the program by the {@link Linker}.
+ *
+ * <p>
+ * Labels and constants are private to their module unless the module exports them, and a module can only refer to
+ * the symbols of other modules that it imports:
+ * <pre>
+ * export :print_string .newline
+ * import :strlen
+ * </pre>
+ *
+ * <p>
+ * A module can be written to a file, so that only the modules whose source changed need to be assembled again.  The
+ * file layout (all values are big endian, strings are an int length followed by UTF-8 bytes):
+ * <pre>
+ * int    magic            'LITO'
+ * short  version
+ * short  flags            unused
+ * int    numberOfInstructions
+ * int[]  instructions
+ * int    numberOfLabels   followed by: string name, int instruction
+ * int    numberOfConstants followed by: string name, byte type (0 int, 1 float, 2 string), value
+ * int    numberOfFixups   followed by: int instruction, byte kind, string symbol, int line number
+ * int    numberOfExports  followed by: string symbol
+ * int    numberOfImports  followed by: string symbol
+ * </pre>
+ *
+ * @author Tony
+ *
+ */
+public class ObjectModule {
+
+    public static final int MAGIC = 0x4C49544F; // LITO
+    public static final int VERSION = 1;
+
+    private static final int INT_CONSTANT = 0;
+    private static final int FLOAT_CONSTANT = 1;
+    private static final int STRING_CONSTANT = 2;
+
+    /**
+     * A reference to a label or constant, which is patched into the instruction once it is known
+     */
+    static class Fixup {
+        static final int JUMP = 0;      // label as a JMP or CALL target
+        static final int IMMEDIATE = 1; // label as an immediate argument
+        static final int CONSTANT = 2;  // constant index
+
+        final int instruction;
+        final int kind;
+        final String symbol;
+        final int lineNumber;
+
+        Fixup(int instruction, int kind, String symbol, int lineNumber) {
+            this.instruction = instruction;
+            this.kind = kind;
+            this.symbol = symbol;
+            this.lineNumber = lineNumber;
+        }
+    }
+
+    static class ConstantEntry {
+        final String constantName;
+        final Object value;
+        final boolean isNumber;
+
+        ConstantEntry(String constantName, Object value, boolean isNumber) {
+            this.constantName = constantName;
+            this.value = value;
+            this.isNumber = isNumber;
+        }
+    }
+
+    private final String name;
+
+    int[] instrs;
+    int numberOfInstrs;
+
+    final List<ConstantEntry> constantEntries = new ArrayList<>();
+    final List<Fixup> fixups = new ArrayList<>();
+    final Map<String, Integer> labels = new HashMap<>();
+    final Set<String> exports = new LinkedHashSet<>();
+    final Set<String> imports = new LinkedHashSet<>();
+
+    /**
+     * @param name the name of the module used in link errors, may be null
+     * @param capacity the initial number of instructions
+     */
+    ObjectModule(String name, int capacity) {
+        this.name = name;
+        this.instrs = new int[capacity];
+    }
+
+    /**
+     * @return the name of the module, may be null
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the number of instructions of the module
+     */
+    public int getNumberOfInstructions() {
+        return numberOfInstrs;
+    }
+
+    /**
+     * @return the labels and constants the module exports to other modules
+     */
+    public Set<String> getExports() {
+        return Collections.unmodifiableSet(exports);
+    }
+
+    /**
+     * @return the labels and constants the module imports from other modules
+     */
+    public Set<String> getImports() {
+        return Collections.unmodifiableSet(imports);
+    }
+
+    /**
+     * Assembles the lines read by the parser into this module
+     *
+     * @param parser
+     * @throws IOException
+     */
+    void compile(AssemblerParser parser) throws IOException {
+        while(parser.nextLine()) {
+            if(parser.getNumberOfTokens() == 0) {
+                continue;
+            }
+
+            /* The opcode can be either a Label or Data constant
+             */
+            switch(parser.getFirstChar(0)) {
+                // Label
+                case ':':
+                    this.labels.put(parser.getToken(0), this.numberOfInstrs);
+                    break;
+
+                // Data Constant
+                case '.':
+                    addConstant(parser);
+                    break;
+
+                // Actual opcode instruction
+                default:
+                    if(parser.isToken(0, "export")) {
+                        addSymbols(parser, this.exports);
+                    }
+                    else if(parser.isToken(0, "import")) {
+                        addSymbols(parser, this.imports);
+                    }
+                    else {
+                        addInstruction(parser);
+                    }
+                    break;
+            }
+        }
+    }
+
+    private void addSymbols(AssemblerParser parser, Set<String> symbols) {
+        if(parser.getNumberOfTokens() < 2) {
+            throw parser.parseError("Missing " + parser.getToken(0) + " symbol");
+        }
+
+        for(int i = 1; i < parser.getNumberOfTokens(); i++) {
+            char c = parser.getFirstChar(i);
+            if(c != ':' && c != '.') {
+                throw parser.parseError("Invalid " + parser.getToken(0) + " symbol, must be a label or constant: '" + parser.getToken(i) + "'");
+            }
+            symbols.add(parser.getToken(i));
+        }
+    }
+
+    private void addInstruction(int instruction) {
+        if(this.numberOfInstrs == this.instrs.length) {
+            this.instrs = Arrays.copyOf(this.instrs, this.instrs.length * 2);
+        }
+        this.instrs[this.numberOfInstrs++] = instruction;
+    }
+
+    private void addFixup(AssemblerParser parser, int kind, int token) {
+        this.fixups.add(new Fixup(this.numberOfInstrs, kind, parser.getToken(token), parser.getLineNumber()));
+    }
+
+    /**
+     * Converts the current assembly line into the equivalent machine code instruction
+     */
+    private void addInstruction(AssemblerParser parser) {
+        final int opcode = parser.parseOpcode();
+        final int numberOfTokens = parser.getNumberOfTokens();
+
+        int instruction = opcode << (Instruction.ARG1_SIZE + Instruction.ARG2_SIZE);
+
+        if(opcode == Opcodes.JMP || opcode == Opcodes.CALL) {
+            if(numberOfTokens < 2) {
+                throw parser.parseError("Missing jump instruction argument");
+            }
+
+            if(parser.getFirstChar(1) == ':') {
+                addFixup(parser, Fixup.JUMP, 1);
+            }
+            else {
+                instruction |= parser.parseJumpArg(1);
+            }
+        }
+        else if(Opcodes.numberOfArgs(opcode) == 2) {
+            if(numberOfTokens < 2) {
+                throw parser.parseError("Missing instruction argument");
+            }
+
+            instruction |= parser.parseArg1(1);
+            if(numberOfTokens > 2) {
+                instruction |= addArg2(parser, 2);
+            }
+        }
+        else if(numberOfTokens > 1) {
+            instruction |= addArg2(parser, 1);
+        }
+
+        addInstruction(instruction);
+    }
+
+    private int addArg2(AssemblerParser parser, int token) {
+        switch(parser.getFirstChar(token)) {
+            case ':':
+                addFixup(parser, Fixup.IMMEDIATE, token);
+                return 0;
+            case '.':
+                addFixup(parser, Fixup.CONSTANT, token);
+                return 0;
+            default:
+                return parser.parseArg2(token);
+        }
+    }
+
+    /**
+     * Adds the data constant of the current assembly line, it is pooled once the module is linked
+     */
+    private void addConstant(AssemblerParser parser) {
+        if(parser.getNumberOfTokens() < 2) {
+            throw parser.parseError("Illegal constant expression: '" + parser.getToken(0) + "'");
+        }
+
+        String name = parser.getToken(0);
+        String arg = parser.getToken(1);
+
+        try {
+
+            Number value;
+            if(arg.contains(".")) {
+                value = Float.parseFloat(arg);
+            }
+            else {
+                value = Integer.parseInt(arg);
+            }
+
+            this.constantEntries.add(new ConstantEntry(name, value, true));
+        }
+        catch(NumberFormatException e) {
+            this.constantEntries.add(new ConstantEntry(name, arg, false));
+        }
+    }
+
+    /**
+     * Joins consecutive runs of the same source (that share their labels and constants) into one module
+     *
+     * @param name
+     * @param chunks
+     * @return the module
+     */
+    static ObjectModule concat(String name, List<ObjectModule> chunks) {
+        int numberOfInstrs = 0;
+        for(ObjectModule chunk : chunks) {
+            numberOfInstrs += chunk.numberOfInstrs;
+        }
+
+        ObjectModule module = new ObjectModule(name, Math.max(16, numberOfInstrs));
+        for(ObjectModule chunk : chunks) {
+            final int base = module.numberOfInstrs;
+
+            System.arraycopy(chunk.instrs, 0, module.instrs, base, chunk.numberOfInstrs);
+            module.numberOfInstrs += chunk.numberOfInstrs;
+
+            for(Map.Entry<String, Integer> label : chunk.labels.entrySet()) {
+                module.labels.put(label.getKey(), base + label.getValue());
+            }
+            for(Fixup fixup : chunk.fixups) {
+                module.fixups.add(new Fixup(base + fixup.instruction, fixup.kind, fixup.symbol, fixup.lineNumber));
+            }
+
+            module.constantEntries.addAll(chunk.constantEntries);
+            module.exports.addAll(chunk.exports);
+            module.imports.addAll(chunk.imports);
+        }
+
+        return module;
+    }
+
+    /**
+     * Writes the module to the supplied file
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void write(Path file) throws IOException {
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeShort(0);
+
+            out.writeInt(this.numberOfInstrs);
+            for(int i = 0; i < this.numberOfInstrs; i++) {
+                out.writeInt(this.instrs[i]);
+            }
+
+            out.writeInt(this.labels.size());
+            for(Map.Entry<String, Integer> label : this.labels.entrySet()) {
+                writeString(out, label.getKey());
+                out.writeInt(label.getValue());
+            }
+
+            out.writeInt(this.constantEntries.size());
+            for(ConstantEntry entry : this.constantEntries) {
+                writeString(out, entry.constantName);
+                if(entry.value instanceof Integer) {
+                    out.writeByte(INT_CONSTANT);
+                    out.writeInt((Integer)entry.value);
+                }
+                else if(entry.value instanceof Float) {
+                    out.writeByte(FLOAT_CONSTANT);
+                    out.writeFloat((Float)entry.value);
+                }
+                else {
+                    out.writeByte(STRING_CONSTANT);
+                    writeString(out, (String)entry.value);
+                }
+            }
+
+            out.writeInt(this.fixups.size());
+            for(Fixup fixup : this.fixups) {
+                out.writeInt(fixup.instruction);
+                out.writeByte(fixup.kind);
+                writeString(out, fixup.symbol);
+                out.writeInt(fixup.lineNumber);
+            }
+
+            out.writeInt(this.exports.size());
+            for(String symbol : this.exports) {
+                writeString(out, symbol);
+            }
+
+            out.writeInt(this.imports.size());
+            for(String symbol : this.imports) {
+                writeString(out, symbol);
+            }
+        }
+    }
+
+    /**
+     * Reads the module from the supplied file, the module is named after the file
+     *
+     * @param file
+     * @return the module
+     * @throws IOException if the file can not be read or is not a valid module
+     */
+    public static ObjectModule read(Path file) throws IOException {
+        try(InputStream input = new BufferedInputStream(Files.newInputStream(file))) {
+            return read(file.getFileName().toString(), input);
+        }
+    }
+
+    /**
+     * Reads the module from the supplied stream, which is left open
+     *
+     * @param name the name of the module
+     * @param input
+     * @return the module
+     * @throws IOException if the stream can not be read or does not hold a valid module
+     */
+    public static ObjectModule read(String name, InputStream input) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(input.readAllBytes());
+        try {
+            if(buffer.remaining() < 4 || buffer.getInt() != MAGIC) {
+                throw new IOException("'" + name + "' is not a LitaVM module");
+            }
+
+            int version = buffer.getShort();
+            if(version != VERSION) {
+                throw new IOException("'" + name + "' is an unsupported LitaVM module version: " + version);
+            }
+            buffer.getShort(); // flags
+
+            // the counts are checked against the rest of the module before anything is allocated
+            int numberOfInstrs = buffer.getInt();
+            checkCount(name, buffer, numberOfInstrs, 4);
+
+            ObjectModule module = new ObjectModule(name, Math.max(16, numberOfInstrs));
+            buffer.asIntBuffer().get(module.instrs, 0, numberOfInstrs);
+            buffer.position(buffer.position() + numberOfInstrs * 4);
+            module.numberOfInstrs = numberOfInstrs;
+
+            int numberOfLabels = checkCount(name, buffer, buffer.getInt(), 8);
+            for(int i = 0; i < numberOfLabels; i++) {
+                String label = readString(name, buffer);
+                int instruction = buffer.getInt();
+                if(instruction < 0 || instruction > numberOfInstrs) {
+                    throw corrupt(name);
+                }
+                module.labels.put(label, instruction);
+            }
+
+            int numberOfConstants = checkCount(name, buffer, buffer.getInt(), 9);
+            for(int i = 0; i < numberOfConstants; i++) {
+                String constantName = readString(name, buffer);
+                int type = buffer.get();
+                switch(type) {
+                    case INT_CONSTANT:
+                        module.constantEntries.add(new ConstantEntry(constantName, buffer.getInt(), true));
+                        break;
+                    case FLOAT_CONSTANT:
+                        module.constantEntries.add(new ConstantEntry(constantName, buffer.getFloat(), true));
+                        break;
+                    case STRING_CONSTANT:
+                        module.constantEntries.add(new ConstantEntry(constantName, readString(name, buffer), false));
+                        break;
+                    default:
+                        throw new IOException("'" + name + "' has an invalid constant type: " + type);
+                }
+            }
+
+            int numberOfFixups = checkCount(name, buffer, buffer.getInt(), 13);
+            for(int i = 0; i < numberOfFixups; i++) {
+                int instruction = buffer.getInt();
+                int kind = buffer.get();
+                if(instruction < 0 || instruction >= numberOfInstrs || kind < Fixup.JUMP || kind > Fixup.CONSTANT) {
+                    throw corrupt(name);
+                }
+
+                String symbol = readString(name, buffer);
+                module.fixups.add(new Fixup(instruction, kind, symbol, buffer.getInt()));
+            }
+
+            int numberOfExports = checkCount(name, buffer, buffer.getInt(), 4);
+            for(int i = 0; i < numberOfExports; i++) {
+                module.exports.add(readString(name, buffer));
+            }
+
+            int numberOfImports = checkCount(name, buffer, buffer.getInt(), 4);
+            for(int i = 0; i < numberOfImports; i++) {
+                module.imports.add(readString(name, buffer));
+            }
+
+            return module;
+        }
+        catch(BufferUnderflowException e) {
+            throw corrupt(name);
+        }
+    }
+
+    /**
+     * Checks that the number of items, each of at least the supplied size, fits in the rest of the module
+     *
+     * @return the count
+     * @throws IOException if it does not
+     */
+    private static int checkCount(String name, ByteBuffer buffer, int count, int itemSize) throws IOException {
+        if(count < 0 || (long)count * itemSize > buffer.remaining()) {
+            throw corrupt(name);
+        }
+        return count;
+    }
+
+    private static IOException corrupt(String name) {
+        return new IOException("'" + name + "' is a truncated or corrupt LitaVM module");
+    }
+
+    private static void writeString(DataOutputStream out, String str) throws IOException {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(String name, ByteBuffer buffer) throws IOException {
+        byte[] bytes = new byte[checkCount(name, buffer, buffer.getInt(), 1)];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
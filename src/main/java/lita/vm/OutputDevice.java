@@ -0,0 +1,39 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+/**
+ * Where the <code>PRINT</code> opcodes of a {@link CPU32} write to.  A device is only written to by the thread 
+ * executing its CPU, so implementations need not be thread safe.
+ * 
+ * <p>
+ * Devices may hold on to the bytes written to them until they are flushed; the {@link CPU32} flushes its device
+ * whenever it stops executing, that is when the code runs to completion, is suspended or fails.
+ * 
+ * @author Tony
+ *
+ */
+public interface OutputDevice {
+
+    /**
+     * Writes a single byte
+     * 
+     * @param value
+     */
+    void write(byte value);
+    
+    /**
+     * Writes the supplied bytes
+     * 
+     * @param buf
+     * @param offset
+     * @param length
+     */
+    void write(byte[] buf, int offset, int length);
+    
+    /**
+     * Writes out any bytes that are being held on to
+     */
+    void flush();
+}
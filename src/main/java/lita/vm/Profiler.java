@@ -0,0 +1,209 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A sampling profiler of the guest call stack.
+ *
+ * <p>
+ * <code>CALL</code> only keeps the return address in <code>$r</code>, so the profiler maintains a shadow call stack
+ * of the <code>CALL</code> targets: a <code>CALL</code> pushes its target and a <code>RET</code> pops it.  Every
+ * {@link #getSampleInterval()} instructions the current stack is sampled.  The stacks are kept as a tree of frames,
+ * so a call, return or sample is only a pointer move or an increment.
+ *
+ * <p>
+ * The samples are written in the collapsed stack format used by flame graph tools, one line per distinct stack:
+ * <pre>
+ * main;print_string;print_char 1234
+ * </pre>
+ * Frames are named by the assembler label of the call target (see {@link Assembler#getSymbols()}), the root
+ * frame is <code>main</code>.
+ *
+ * <p>
+ * The profiler is enabled with {@link CPU32#setProfiler(Profiler)}, which executes the code on an instrumented engine.
+ *
+ * @author Tony
+ *
+ */
+public class Profiler {
+
+    public static final int DEFAULT_SAMPLE_INTERVAL = 1000;
+
+    /**
+     * Guards against programs that <code>CALL</code> without ever returning, calls deeper than this
+     * are attributed to the deepest frame
+     */
+    public static final int MAX_DEPTH = 1024;
+
+    /**
+     * A frame of the shadow call stack
+     */
+    private static class Frame {
+        final Frame parent;
+        final int target;
+        final int depth;
+        final Map<Integer, Frame> children;
+
+        long samples;
+
+        Frame(Frame parent, int target) {
+            this.parent = parent;
+            this.target = target;
+            this.depth = parent != null ? parent.depth + 1 : 0;
+            this.children = new HashMap<>();
+        }
+
+        Frame call(int target) {
+            Frame child = this.children.get(target);
+            if(child == null) {
+                child = new Frame(this, target);
+                this.children.put(target, child);
+            }
+            return child;
+        }
+    }
+
+    private final Map<Integer, String> names;
+    private final int sampleInterval;
+
+    private final Frame root;
+    private Frame current;
+
+    /**
+     * The number of calls past {@link #MAX_DEPTH} that have not returned yet
+     */
+    private int overflow;
+    private long numberOfSamples;
+
+    /**
+     * @param symbols the assembly symbols, to name the frames by; only the labels (<code>:</code> prefixed) are used
+     */
+    public Profiler(Map<String, Integer> symbols) {
+        this(symbols, DEFAULT_SAMPLE_INTERVAL);
+    }
+
+    /**
+     * @param symbols the assembly symbols, to name the frames by; only the labels (<code>:</code> prefixed) are used
+     * @param sampleInterval the number of instructions between samples
+     */
+    public Profiler(Map<String, Integer> symbols, int sampleInterval) {
+        if(sampleInterval < 1) {
+            throw new IllegalArgumentException("The sample interval must be at least 1 instruction");
+        }
+
+        this.names = new HashMap<>();
+        for(Map.Entry<String, Integer> symbol : symbols.entrySet()) {
+            if(symbol.getKey().startsWith(":")) {
+                this.names.put(symbol.getValue(), symbol.getKey().substring(1));
+            }
+        }
+
+        this.sampleInterval = sampleInterval;
+        this.root = new Frame(null, -1);
+        this.current = this.root;
+    }
+
+    /**
+     * @return the number of instructions between samples
+     */
+    public int getSampleInterval() {
+        return sampleInterval;
+    }
+
+    /**
+     * @return the total number of samples taken
+     */
+    public long getNumberOfSamples() {
+        return numberOfSamples;
+    }
+
+    /**
+     * Resets the shadow call stack to the root frame, the code starts executing from its entry point
+     */
+    void begin() {
+        this.current = this.root;
+        this.overflow = 0;
+    }
+
+    /**
+     * A <code>CALL</code> to the supplied target
+     *
+     * @param target the instruction index called
+     */
+    void call(int target) {
+        if(this.current.depth >= MAX_DEPTH) {
+            this.overflow++;
+        }
+        else {
+            this.current = this.current.call(target);
+        }
+    }
+
+    /**
+     * A <code>RET</code>, a return without a matching call is ignored
+     */
+    void ret() {
+        if(this.overflow > 0) {
+            this.overflow--;
+        }
+        else if(this.current.parent != null) {
+            this.current = this.current.parent;
+        }
+    }
+
+    /**
+     * Samples the current call stack
+     */
+    void sample() {
+        this.current.samples++;
+        this.numberOfSamples++;
+    }
+
+    /**
+     * @return the number of samples of each distinct call stack, keyed by the <code>;</code> separated frame names
+     */
+    public Map<String, Long> getCollapsedStacks() {
+        Map<String, Long> stacks = new LinkedHashMap<>();
+        collapse(this.root, "main", stacks);
+        return stacks;
+    }
+
+    private void collapse(Frame frame, String stack, Map<String, Long> stacks) {
+        if(frame.samples > 0) {
+            stacks.put(stack, frame.samples);
+        }
+
+        for(Frame child : frame.children.values()) {
+            collapse(child, stack + ";" + name(child.target), stacks);
+        }
+    }
+
+    private String name(int target) {
+        String name = this.names.get(target);
+        return name != null ? name : "@" + target;
+    }
+
+    /**
+     * Writes the samples to the supplied file in the collapsed stack format
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void write(Path file) throws IOException {
+        try(Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for(Map.Entry<String, Long> stack : getCollapsedStacks().entrySet()) {
+                writer.write(stack.getKey() + " " + stack.getValue() + "\n");
+            }
+        }
+    }
+}
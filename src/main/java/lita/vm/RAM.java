@@ -3,8 +3,6 @@
  */
 package lita.vm;
 
-import java.nio.ByteBuffer;
-
 /**
  * Random Access Memory, allows for storing volatile information
  * 
@@ -13,24 +11,41 @@ import java.nio.ByteBuffer;
  */
 public class RAM {
 
+    /**
+     * The array the memory is stored in, null if the {@link MemoryBackend} is not
+     * backed by a Java byte array
+     */
     public final byte[] mem;
-    private ByteBuffer memWindow;
+    private final MemoryBackend backend;
     
     /**
      * @param sizeInBytes
      */
     public RAM(int sizeInBytes) {
-        this.mem = new byte[sizeInBytes];
-        this.memWindow = ByteBuffer.wrap(this.mem);
+        this(new VarHandleMemory(sizeInBytes));
+    }
+    
+    /**
+     * @param backend the storage for this {@link RAM}
+     */
+    public RAM(MemoryBackend backend) {
+        this.backend = backend;
+        this.mem = backend.array();
     }
     
+    /**
+     * @return the storage for this {@link RAM}
+     */
+    public MemoryBackend getBackend() {
+        return backend;
+    }
     
     /**
      * Return the number of bytes that can be stored in {@link RAM}
      * @return the max number of bytes that can be stored 
      */
     public int sizeInBytes() {
-        return this.mem.length;
+        return this.backend.sizeInBytes();
     }
 
     /**
@@ -43,39 +58,88 @@ public class RAM {
      */
     @SuppressWarnings("deprecation")
     public void storeStr(int address, String str) {
-        str.getBytes(0, str.length(), this.mem, address);
-        this.memWindow.put(address + str.length(), (byte)'\0');
+        byte[] bytes = new byte[str.length()];
+        str.getBytes(0, str.length(), bytes, 0);
+        
+        this.backend.storeBytes(address, bytes, 0, bytes.length);
+        this.backend.storeByte(address + str.length(), (byte)'\0');
     }
     
     public void storeBytes(int address, byte[] buf, int offset, int length) {
-        System.arraycopy(buf, offset, this.mem, address, length);
+        this.backend.storeBytes(address, buf, offset, length);
     }
     
     public void storeInt(int address, int value) {
-        this.memWindow.putInt(address, value);
+        this.backend.storeInt(address, value);
     }
     
     public void storeFloat(int address, float value) {
-        this.memWindow.putFloat(address, value);
+        this.backend.storeFloat(address, value);
     }
     
     public void storeByte(int address, byte value) {
-        this.memWindow.put(address, value);
+        this.backend.storeByte(address, value);
     }
     
     public void readBytes(int address, byte[] buf, int offset, int length) {
-        System.arraycopy(this.mem, address, buf, offset, length);
+        this.backend.readBytes(address, buf, offset, length);
     }
     
     public int readInt(int address) {
-        return this.memWindow.getInt(address);
+        return this.backend.readInt(address);
     }
     
     public float readFloat(int address) {
-        return this.memWindow.getFloat(address);
+        return this.backend.readFloat(address);
     }
     
     public byte readByte(int address) {
-        return this.memWindow.get(address);
+        return this.backend.readByte(address);
+    }
+    
+    /**
+     * Copies bytes within the memory, the ranges may overlap
+     * 
+     * @param destination
+     * @param source
+     * @param length
+     */
+    public void copy(int destination, int source, int length) {
+        this.backend.copy(destination, source, length);
+    }
+    
+    /**
+     * Fills a range of the memory with the value
+     * 
+     * @param address
+     * @param length
+     * @param value
+     */
+    public void fill(int address, int length, byte value) {
+        this.backend.fill(address, length, value);
+    }
+    
+    /**
+     * Compares two ranges of the memory as unsigned bytes
+     * 
+     * @param x
+     * @param y
+     * @param length
+     * @return -1, 0 or 1 if the x range is less than, equal to or greater than the y range
+     */
+    public int compare(int x, int y, int length) {
+        return this.backend.compare(x, y, length);
+    }
+    
+    /**
+     * Finds the first byte with the value in a range of the memory
+     * 
+     * @param address
+     * @param length
+     * @param value
+     * @return the address of the byte, or -1 if it is not in the range
+     */
+    public int indexOf(int address, int length, byte value) {
+        return this.backend.indexOf(address, length, value);
     }
 }
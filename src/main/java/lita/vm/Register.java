@@ -6,7 +6,8 @@ package lita.vm;
 /**
  * Register points to a value in memory or contains an immediate value.
  * 
- * The register is represented by 32-bits.  
+ * The register is represented by 32-bits.  The value itself lives in the {@link CPU32} register file,
+ * this is a named view onto it, used for introspection and debugging.
  * 
  * @author Tony
  *
@@ -14,18 +15,22 @@ package lita.vm;
 public class Register {
 
     private String name;
-    private int address;
+    
+    private final int[] registerFile;
+    private final int index;
     
     private final int addressInc;
     
     /**
      * @param name
-     * @param vm
+     * @param cpu
+     * @param index the index of this register in the register file
      */
-    public Register(String name, CPU32 cpu) {
+    public Register(String name, CPU32 cpu, int index) {
         this.name = name;
         
-        this.address = 0;
+        this.registerFile = cpu.getRegisterFile();
+        this.index = index;
         
         // Word Size in bits, convert to bytes as this
         // is what RAM is addressed by
@@ -34,7 +39,7 @@ public class Register {
 
     @Override
     public String toString() {
-        return this.name + "@0x" + Integer.toHexString(this.address) + "[" + intValue() + "][" + floatValue() + "]";
+        return this.name + "@0x" + Integer.toHexString(address()) + "[" + intValue() + "][" + floatValue() + "]";
     }
     
     /**
@@ -44,11 +49,18 @@ public class Register {
         return name;
     }
     
+    /**
+     * @return the index of this register in the register file
+     */
+    public int getIndex() {
+        return index;
+    }
+    
     public int intValue() {
-        return this.address;
+        return this.registerFile[this.index];
     }
     public float floatValue() {
-        return Float.intBitsToFloat(this.address);
+        return Float.intBitsToFloat(intValue());
     }
     
     public byte byteValue() {
@@ -56,34 +68,31 @@ public class Register {
     }
     
     public void value(int newValue) {
-        this.address = newValue;        
+        this.registerFile[this.index] = newValue;        
     }
     
     public void value(float newValue) {
-        this.address = Float.floatToIntBits(newValue);        
+        this.registerFile[this.index] = Float.floatToIntBits(newValue);        
     }
     
     public int address() {
-        return this.address;
+        return this.registerFile[this.index];
     }
     
     public int address(int newAddress) {
-        this.address = newAddress;
-        return this.address;
+        this.registerFile[this.index] = newAddress;
+        return newAddress;
     }
     
     public int addressOffset(int adjustBy) {
-        this.address += adjustBy;
-        return this.address;
+        return this.registerFile[this.index] += adjustBy;
     }
     
     public int incAddress() {
-        this.address += this.addressInc;
-        return this.address;
+        return this.registerFile[this.index] += this.addressInc;
     }
     
     public int decAddress() {
-        this.address -= this.addressInc;
-        return this.address;
+        return this.registerFile[this.index] -= this.addressInc;
     }
 }
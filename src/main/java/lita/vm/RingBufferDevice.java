@@ -0,0 +1,145 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+/**
+ * {@link Device} that is a first in, first out queue of bytes shared between the guest and the host.  Every 
+ * address of the device is the same port: stores append to the queue and loads take from it.  The host uses
+ * {@link #offer(byte[], int, int)} and {@link #poll(byte[], int, int)} to do the same, and may do so from 
+ * another thread while the VM is executing.
+ * 
+ * <p>
+ * Reads from an empty queue and writes to a full one move fewer bytes than asked, which ends a 
+ * {@link DmaController} transfer; a single byte or int load from an empty queue reads <code>0</code>.
+ * 
+ * <p>
+ * When the guest reading from an empty queue is executing in a {@link VMScheduler} slice, its {@link VMTask} is 
+ * {@link VMTask#park() parked} once the slice ends, and unparked when bytes are next offered; so a guest polling 
+ * for input does not take up a thread while it waits.
+ * 
+ * @author Tony
+ *
+ */
+public class RingBufferDevice implements Device {
+
+    public static final int DEFAULT_SIZE = 4 * 1024;
+    
+    private final byte[] ring;
+    private final int size;
+    
+    private int head;
+    private int count;
+    
+    /**
+     * The task of the guest that found the queue empty, if any
+     */
+    private VMTask reader;
+    
+    /**
+     * @param capacity the number of bytes the queue holds
+     */
+    public RingBufferDevice(int capacity) {
+        this(capacity, DEFAULT_SIZE);
+    }
+    
+    /**
+     * @param capacity the number of bytes the queue holds
+     * @param size the number of bytes of address space, which is the most a single access can move
+     */
+    public RingBufferDevice(int capacity, int size) {
+        if(capacity < 1) {
+            throw new IllegalArgumentException("The capacity must be at least 1");
+        }
+        
+        this.ring = new byte[capacity];
+        this.size = size;
+    }
+    
+    @Override
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * @return the number of bytes in the queue
+     */
+    public synchronized int available() {
+        return count;
+    }
+    
+    /**
+     * Appends bytes to the queue
+     * 
+     * @param buf
+     * @param offset
+     * @param length
+     * @return the number of bytes appended, less than the length if the queue filled up
+     */
+    public int offer(byte[] buf, int offset, int length) {
+        int total;
+        VMTask waiting = null;
+        synchronized(this) {
+            total = Math.min(length, this.ring.length - this.count);
+            
+            int tail = (this.head + this.count) % this.ring.length;
+            int first = Math.min(total, this.ring.length - tail);
+            System.arraycopy(buf, offset, this.ring, tail, first);
+            System.arraycopy(buf, offset + first, this.ring, 0, total - first);
+            
+            this.count += total;
+            
+            if(total > 0) {
+                waiting = this.reader;
+                this.reader = null;
+            }
+        }
+        
+        if(waiting != null) {
+            waiting.unpark();
+        }
+        return total;
+    }
+    
+    /**
+     * Takes bytes from the queue
+     * 
+     * @param buf
+     * @param offset
+     * @param length
+     * @return the number of bytes taken, less than the length if the queue ran out
+     */
+    public synchronized int poll(byte[] buf, int offset, int length) {
+        int total = Math.min(length, this.count);
+        
+        int first = Math.min(total, this.ring.length - this.head);
+        System.arraycopy(this.ring, this.head, buf, offset, first);
+        System.arraycopy(this.ring, 0, buf, offset + first, total - first);
+        
+        this.head = (this.head + total) % this.ring.length;
+        this.count -= total;
+        return total;
+    }
+    
+    @Override
+    public int read(int offset, byte[] buf, int bufOffset, int length) {
+        VMTask task = VMTask.current();
+        if(task == null) {
+            return poll(buf, bufOffset, length);
+        }
+        
+        synchronized(this) {
+            int read = poll(buf, bufOffset, length);
+            if(read == 0 && length > 0) {
+                this.reader = task;
+                task.park();
+            }
+            return read;
+        }
+    }
+    
+    @Override
+    public int write(int offset, byte[] buf, int bufOffset, int length) {
+        return offer(buf, bufOffset, length);
+    }
+}
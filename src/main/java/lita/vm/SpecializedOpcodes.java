@@ -0,0 +1,134 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import static lita.vm.DecodedBytecode.*;
+import static lita.vm.Opcodes.*;
+
+/**
+ * Operand mode specialized versions of the {@link Opcodes}.  When {@link Bytecode} is decoded, each
+ * instruction is mapped (by its opcode, argument 1 mode and argument 2 mode) to a dedicated dispatch
+ * code, so that the {@link CPU32} doesn't have to branch on the argument modes for the most common
+ * instruction forms.  Instructions without a dedicated form dispatch on their plain opcode.
+ *
+ * The suffix of the specialized code denotes the argument forms:
+ * <ul>
+ *  <li>R - the value of the register</li>
+ *  <li>M - the value in memory at the address the register holds</li>
+ *  <li>I - immediate value</li>
+ * </ul>
+ *
+ * @author Tony
+ *
+ */
+class SpecializedOpcodes {
+
+    /**
+     * Specialized codes start after the last possible {@link Opcodes} value
+     */
+    static final int
+        MOVI_RR  = 64,
+        MOVI_RI  = 65,
+        MOVI_RM  = 66,
+        MOVI_MR  = 67,
+
+        ADDI_RR  = 68,
+        ADDI_RI  = 69,
+        SUBI_RR  = 70,
+        SUBI_RI  = 71,
+        MULI_RR  = 72,
+        MULI_RI  = 73,
+        ORI_RR   = 74,
+        ORI_RI   = 75,
+        ANDI_RR  = 76,
+        ANDI_RI  = 77,
+        XORI_RR  = 78,
+        XORI_RI  = 79,
+        SZRLI_RR = 80,
+        SZRLI_RI = 81,
+        SRLI_RR  = 82,
+        SRLI_RI  = 83,
+        SLLI_RR  = 84,
+        SLLI_RI  = 85,
+
+        IFI_RR   = 86,
+        IFI_RI   = 87,
+        IFEI_RR  = 88,
+        IFEI_RI  = 89,
+        IFB_MI   = 90,
+        IFB_MR   = 91,
+        IFEB_MI  = 92,
+        IFEB_MR  = 93,
+
+        PRINTC_M = 94
+        ;
+
+    /**
+     * The total number of dispatch codes (plain and specialized)
+     */
+    static final int NUMBER_OF_CODES = 95;
+
+    private static final int[] specializations = new int[64 * 16];
+    static {
+        for(int i = 0; i < specializations.length; i++) {
+            specializations[i] = i >>> 4;
+        }
+
+        add(MOVI, ARG_REG, ARG_REG, MOVI_RR);
+        add(MOVI, ARG_REG, ARG_IMMEDIATE, MOVI_RI);
+        add(MOVI, ARG_REG, ARG_REG_ADDR, MOVI_RM);
+        add(MOVI, ARG_REG_ADDR, ARG_REG, MOVI_MR);
+
+        add(ADDI, ARG_REG, ARG_REG, ADDI_RR);
+        add(ADDI, ARG_REG, ARG_IMMEDIATE, ADDI_RI);
+        add(SUBI, ARG_REG, ARG_REG, SUBI_RR);
+        add(SUBI, ARG_REG, ARG_IMMEDIATE, SUBI_RI);
+        add(MULI, ARG_REG, ARG_REG, MULI_RR);
+        add(MULI, ARG_REG, ARG_IMMEDIATE, MULI_RI);
+        add(ORI, ARG_REG, ARG_REG, ORI_RR);
+        add(ORI, ARG_REG, ARG_IMMEDIATE, ORI_RI);
+        add(ANDI, ARG_REG, ARG_REG, ANDI_RR);
+        add(ANDI, ARG_REG, ARG_IMMEDIATE, ANDI_RI);
+        add(XORI, ARG_REG, ARG_REG, XORI_RR);
+        add(XORI, ARG_REG, ARG_IMMEDIATE, XORI_RI);
+        add(SZRLI, ARG_REG, ARG_REG, SZRLI_RR);
+        add(SZRLI, ARG_REG, ARG_IMMEDIATE, SZRLI_RI);
+        add(SRLI, ARG_REG, ARG_REG, SRLI_RR);
+        add(SRLI, ARG_REG, ARG_IMMEDIATE, SRLI_RI);
+        add(SLLI, ARG_REG, ARG_REG, SLLI_RR);
+        add(SLLI, ARG_REG, ARG_IMMEDIATE, SLLI_RI);
+
+        add(IFI, ARG_REG, ARG_REG, IFI_RR);
+        add(IFI, ARG_REG, ARG_IMMEDIATE, IFI_RI);
+        add(IFEI, ARG_REG, ARG_REG, IFEI_RR);
+        add(IFEI, ARG_REG, ARG_IMMEDIATE, IFEI_RI);
+        add(IFB, ARG_REG_ADDR, ARG_IMMEDIATE, IFB_MI);
+        add(IFB, ARG_REG_ADDR, ARG_REG, IFB_MR);
+        add(IFEB, ARG_REG_ADDR, ARG_IMMEDIATE, IFEB_MI);
+        add(IFEB, ARG_REG_ADDR, ARG_REG, IFEB_MR);
+
+        // single argument instructions only use argument 2
+        add(PRINTC, ARG_REG, ARG_REG_ADDR, PRINTC_M);
+    }
+
+    private static void add(int opcode, int arg1Mode, int arg2Mode, int code) {
+        specializations[index(opcode, arg1Mode, arg2Mode)] = code;
+    }
+
+    private static int index(int opcode, int arg1Mode, int arg2Mode) {
+        return (opcode << 4) | (arg1Mode << 2) | arg2Mode;
+    }
+
+    /**
+     * Selects the dispatch code for the supplied decoded instruction
+     *
+     * @param opcode - in raw opcode number format
+     * @param arg1Mode the {@link DecodedBytecode} argument 1 mode
+     * @param arg2Mode the {@link DecodedBytecode} argument 2 mode
+     * @return the specialized code, or the opcode if there is no specialized form
+     */
+    static int specialize(int opcode, int arg1Mode, int arg2Mode) {
+        return specializations[index(opcode, arg1Mode, arg2Mode)];
+    }
+}
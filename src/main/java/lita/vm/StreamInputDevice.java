@@ -0,0 +1,178 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * {@link Device} that streams a host channel, such as a large file, through a fixed size window of guest 
+ * {@link RAM}, so that the guest can process any amount of input with bounded memory.  The window is ordinary
+ * memory, so the guest reads it at full speed; the device itself is four int registers:
+ * 
+ * <pre>
+ * offset 0   CONTROL  storing to it refills the window, the value is the number of bytes at the end of 
+ *                     the window to carry over to its start (say, a partial line), usually 0
+ * offset 4   COUNT    the number of bytes in the window, no more than the carry once the input is exhausted
+ * offset 8   WINDOW   the address of the window
+ * offset 12  SIZE     the size of the window
+ * </pre>
+ * 
+ * When the memory behind the window is a Java byte array or a {@link ByteBufferMemory}, the channel reads straight
+ * into it; otherwise the input is copied in through a buffer.
+ * 
+ * @author Tony
+ *
+ */
+public class StreamInputDevice implements Device {
+
+    public static final int CONTROL = 0;
+    public static final int COUNT   = 4;
+    public static final int WINDOW  = 8;
+    public static final int SIZE    = 12;
+    
+    public static final int DEVICE_SIZE = 16;
+    
+    private final ReadableByteChannel channel;
+    private final MemoryBackend memory;
+    private final RAM registers;
+    
+    private final int windowAddress;
+    private final int windowSize;
+    
+    /**
+     * The window as a buffer over the memory, or null if the input is copied in
+     */
+    private final ByteBuffer window;
+    private byte[] copyBuffer;
+    
+    private int count;
+    private long position;
+    
+    /**
+     * @param channel the input
+     * @param bus the bus the device is mapped on
+     * @param windowAddress the address of the window, which must not be mapped to a device
+     * @param windowSize the size of the window
+     */
+    public StreamInputDevice(ReadableByteChannel channel, DeviceBus bus, int windowAddress, int windowSize) {
+        if(windowSize < 1 || windowAddress < 0 || windowAddress > bus.sizeInBytes() - windowSize) {
+            throw new IllegalArgumentException("Window " + windowAddress + ".." + ((long)windowAddress + windowSize) + " is outside of memory");
+        }
+        if(bus.extent(windowAddress) < windowSize || bus.getDevice(windowAddress) != null) {
+            throw new IllegalArgumentException("Window " + windowAddress + ".." + (windowAddress + windowSize) + " overlaps a device");
+        }
+        
+        this.channel = channel;
+        this.memory = bus.getBackend();
+        this.windowAddress = windowAddress;
+        this.windowSize = windowSize;
+        
+        if(this.memory.array() != null) {
+            this.window = ByteBuffer.wrap(this.memory.array(), windowAddress, windowSize).slice();
+        }
+        else if(this.memory instanceof ByteBufferMemory) {
+            this.window = ((ByteBufferMemory)this.memory).slice(windowAddress, windowSize);
+        }
+        else {
+            this.window = null;
+        }
+        
+        this.registers = new RAM(new VarHandleMemory(DEVICE_SIZE, bus.getOrder()));
+        this.registers.storeInt(WINDOW, windowAddress);
+        this.registers.storeInt(SIZE, windowSize);
+    }
+    
+    /**
+     * @return the number of bytes of input that have been read into the window
+     */
+    public long getPosition() {
+        return position;
+    }
+    
+    @Override
+    public int size() {
+        return DEVICE_SIZE;
+    }
+    
+    @Override
+    public int read(int offset, byte[] buf, int bufOffset, int length) {
+        this.registers.readBytes(offset, buf, bufOffset, length);
+        return length;
+    }
+    
+    /**
+     * Only CONTROL can be written to, writes to the other registers are ignored
+     */
+    @Override
+    public int write(int offset, byte[] buf, int bufOffset, int length) {
+        for(int i = 0; i < length; i++) {
+            if(offset + i < CONTROL + 4) {
+                this.registers.storeByte(offset + i, buf[bufOffset + i]);
+            }
+        }
+        
+        // the refill starts once the last byte of CONTROL has been stored
+        if(offset <= CONTROL + 3 && offset + length > CONTROL + 3) {
+            this.registers.storeInt(COUNT, refill(this.registers.readInt(CONTROL)));
+        }
+        return length;
+    }
+    
+    /**
+     * Refills the window
+     * 
+     * @param carry the number of bytes at the end of the window to move to its start
+     * @return the number of bytes in the window, which is no more than the carry once the input is exhausted
+     */
+    public int refill(int carry) {
+        carry = Math.max(0, Math.min(carry, this.count));
+        if(carry > 0) {
+            byte[] carried = new byte[carry];
+            this.memory.readBytes(this.windowAddress + this.count - carry, carried, 0, carry);
+            this.memory.storeBytes(this.windowAddress, carried, 0, carry);
+        }
+        
+        int read = 0;
+        if(this.window != null) {
+            this.window.limit(this.windowSize).position(carry);
+            read = fill(this.window);
+        }
+        else {
+            if(this.copyBuffer == null) {
+                this.copyBuffer = new byte[this.windowSize];
+            }
+            
+            read = fill(ByteBuffer.wrap(this.copyBuffer, 0, this.windowSize - carry));
+            this.memory.storeBytes(this.windowAddress + carry, this.copyBuffer, 0, read);
+        }
+        
+        this.position += read;
+        this.count = carry + read;
+        return this.count;
+    }
+    
+    /**
+     * Reads until the buffer is full or the input is exhausted
+     * 
+     * @return the number of bytes read
+     */
+    private int fill(ByteBuffer buffer) {
+        int read = 0;
+        try {
+            while(buffer.hasRemaining()) {
+                int n = this.channel.read(buffer);
+                if(n < 0) {
+                    break;
+                }
+                read += n;
+            }
+        }
+        catch(IOException e) {
+            throw new EvalException("Unable to read input: " + e.getMessage(), e);
+        }
+        return read;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import static lita.vm.Opcodes.*;
+import static lita.vm.SpecializedOpcodes.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Superinstructions fuse a pair of adjacent instructions that commonly appear together (such as a
+ * compare followed by a <code>JMP</code>) into a single dispatch code, so that the {@link CPU32} only
+ * goes through its dispatch loop once for the pair.
+ *
+ * The fused code replaces the dispatch code of the first instruction only; the second instruction keeps
+ * its own dispatch code, so any jump that lands directly on the second instruction still executes just it.
+ *
+ * @author Tony
+ *
+ */
+class SuperInstructions {
+
+    /**
+     * Superinstruction codes start after the last {@link SpecializedOpcodes} code
+     */
+    static final int
+        IFI_RR_JMP       = 95,  // compare and branch
+        IFI_RI_JMP       = 96,
+        IFEI_RR_JMP      = 97,
+        IFEI_RI_JMP      = 98,
+        IFB_MI_JMP       = 99,
+        IFEB_MI_JMP      = 100,
+
+        PRINTC_M_ADDI_RI = 101, // print byte and advance the pointer
+        PUSHI_CALL       = 102  // push argument and call
+        ;
+
+    /**
+     * The total number of dispatch codes (plain, specialized and fused)
+     */
+    static final int NUMBER_OF_CODES = 103;
+
+    private static final int FIRST_CODE = IFI_RR_JMP;
+    private static final int NUMBER_OF_FUSED_CODES = NUMBER_OF_CODES - FIRST_CODE;
+
+    private static final String[] names = new String[NUMBER_OF_FUSED_CODES];
+    private static final int[] fusions = new int[SpecializedOpcodes.NUMBER_OF_CODES * SpecializedOpcodes.NUMBER_OF_CODES];
+    static {
+        add(IFI_RR, JMP, IFI_RR_JMP, "IFI_RR_JMP");
+        add(IFI_RI, JMP, IFI_RI_JMP, "IFI_RI_JMP");
+        add(IFEI_RR, JMP, IFEI_RR_JMP, "IFEI_RR_JMP");
+        add(IFEI_RI, JMP, IFEI_RI_JMP, "IFEI_RI_JMP");
+        add(IFB_MI, JMP, IFB_MI_JMP, "IFB_MI_JMP");
+        add(IFEB_MI, JMP, IFEB_MI_JMP, "IFEB_MI_JMP");
+
+        add(PRINTC_M, ADDI_RI, PRINTC_M_ADDI_RI, "PRINTC_M_ADDI_RI");
+        add(PUSHI, CALL, PUSHI_CALL, "PUSHI_CALL");
+    }
+
+    private static void add(int first, int second, int code, String name) {
+        fusions[index(first, second)] = code;
+        names[code - FIRST_CODE] = name;
+    }
+
+    private static int index(int first, int second) {
+        return first * SpecializedOpcodes.NUMBER_OF_CODES + second;
+    }
+
+    /**
+     * Fuses the adjacent instruction pairs of the supplied code that have a superinstruction, by
+     * replacing the dispatch code of the first instruction of each pair
+     *
+     * @param code the decoded (and specialized) code
+     * @return the number of pairs fused for each superinstruction, indexed by the superinstruction code
+     * minus {@link #IFI_RR_JMP}
+     */
+    static int[] fuse(DecodedBytecode code) {
+        final int[] dispatchCodes = code.dispatchCodes;
+        final int[] counts = new int[NUMBER_OF_FUSED_CODES];
+
+        for(int i = 0; i < code.length - 1; i++) {
+            final int first = dispatchCodes[i];
+            final int second = dispatchCodes[i + 1];
+
+            // already fused code is left as is
+            if(first >= SpecializedOpcodes.NUMBER_OF_CODES || second >= SpecializedOpcodes.NUMBER_OF_CODES) {
+                continue;
+            }
+
+            final int fused = fusions[index(first, second)];
+            if(fused != 0) {
+                dispatchCodes[i] = fused;
+                counts[fused - FIRST_CODE]++;
+            }
+        }
+
+        return counts;
+    }
+
+    /**
+     * Creates a human readable report of the superinstructions that were fused
+     *
+     * @param counts the result of {@link #fuse(DecodedBytecode)}
+     * @return the number of pairs fused, by superinstruction name
+     */
+    static Map<String, Integer> report(int[] counts) {
+        Map<String, Integer> report = new LinkedHashMap<>();
+        for(int i = 0; i < counts.length; i++) {
+            if(counts[i] > 0) {
+                report.put(names[i], counts[i]);
+            }
+        }
+
+        return report;
+    }
+}
@@ -0,0 +1,465 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import static lita.vm.CPU32.*;
+import static lita.vm.Opcodes.*;
+import static lita.vm.SpecializedOpcodes.*;
+import static lita.vm.SuperInstructions.*;
+
+/**
+ * An alternative to the switch based dispatch loop of the {@link CPU32}.  Every instruction slot of the
+ * {@link DecodedBytecode} is bound up front to a small {@link Handler}, which has the operands of the
+ * instruction already captured; executing is then just calling the handler of the current slot, which
+ * returns the next program counter.
+ *
+ * Each handler is a tiny method, so they stay well below the JVM's inlining and huge method limits,
+ * unlike the one big switch.  Which of the two is faster depends on the JVM, see the
+ * <code>InterpreterBenchmark</code> in the benchmarks module.
+ *
+ * @author Tony
+ *
+ */
+class ThreadedEngine {
+
+    /**
+     * Executes a single bound instruction
+     */
+    interface Handler {
+
+        /**
+         * @param e the engine executing the instruction
+         * @param pc the index of the next instruction
+         * @return the index of the instruction to execute after this one
+         */
+        int execute(ThreadedEngine e, int pc);
+    }
+
+    private interface IntOp {
+        int apply(int x, int y);
+    }
+
+    private interface FloatOp {
+        float apply(float x, float y);
+    }
+
+    private static final int WORD_BYTES = 4;
+
+    final CPU32 cpu;
+    final int[] regs;
+    final RAM ram;
+
+    /**
+     * The {@link JitCompiler} of the code currently executing, null if disabled
+     */
+    private JitCompiler jit;
+
+    /**
+     * @param cpu
+     */
+    ThreadedEngine(CPU32 cpu) {
+        this.cpu = cpu;
+        this.regs = cpu.getRegisterFile();
+        this.ram = cpu.getRam();
+    }
+
+    /**
+     * Execute the supplied {@link DecodedBytecode}
+     *
+     * @param code
+     * @param pc the instruction to start at
+     * @param jit the {@link JitCompiler} to compile loops with, or null to check the instruction
+     * budget of the {@link CPU32} instead
+     */
+    void execute(DecodedBytecode code, int pc, JitCompiler jit) {
+        final Handler[] handlers = code.getHandlers();
+        final int[] regs = this.regs;
+        final int len = code.length;
+
+        this.jit = jit;
+
+        while(pc < len) {
+            regs[PC] = ++pc;
+            pc = handlers[pc - 1].execute(this, pc);
+        }
+    }
+
+    /**
+     * Jumps to the target, backward jumps are loops, which are candidates for compiling, and where
+     * the instruction budget is checked
+     *
+     * @param target the jump target
+     * @param from the index of the jump instruction
+     * @return the index of the instruction to execute next
+     */
+    private int jump(int target, int from) {
+        if(target <= from) {
+            return this.jit != null ? this.jit.enter(target, this.cpu) : this.cpu.checkpoint(target, from);
+        }
+        return target;
+    }
+
+    private int call(int pc, int target) {
+        this.regs[R] = pc;
+        return this.jit != null ? this.jit.enter(target, this.cpu) : this.cpu.checkpoint(target, pc - 1);
+    }
+
+    private int ret(int pc) {
+        return this.jit != null ? this.regs[R] : this.cpu.checkpoint(this.regs[R], pc - 1);
+    }
+
+    private static EvalException divideByZero() {
+        return new EvalException("Divide be zero error.");
+    }
+
+    /**
+     * Binds a {@link Handler} to each instruction slot of the supplied code
+     *
+     * @param code
+     * @return the handlers, indexed by instruction
+     */
+    static Handler[] bind(DecodedBytecode code) {
+        Handler[] handlers = new Handler[code.length];
+        for(int i = 0; i < handlers.length; i++) {
+            handlers[i] = bind(code, i);
+        }
+
+        return handlers;
+    }
+
+    private static Handler bind(DecodedBytecode code, final int i) {
+        final int a1 = code.arg1[i];
+        final int m1 = code.arg1Mode[i];
+        final int a2 = code.arg2[i];
+        final int m2 = code.arg2Mode[i];
+
+        switch(code.dispatchCodes[i]) {
+            /* ===================================================
+             * Operand mode specialized forms
+             * ===================================================
+             */
+
+            case MOVI_RR:  return (e, pc) -> { e.regs[a1] = e.regs[a2]; return pc; };
+            case MOVI_RI:  return (e, pc) -> { e.regs[a1] = a2; return pc; };
+            case MOVI_RM:  return (e, pc) -> { e.regs[a1] = e.ram.readInt(e.regs[a2]); return pc; };
+            case MOVI_MR:  return (e, pc) -> { e.ram.storeInt(e.regs[a1], e.regs[a2]); return pc; };
+            case ADDI_RR:  return (e, pc) -> { e.regs[a1] += e.regs[a2]; return pc; };
+            case ADDI_RI:  return (e, pc) -> { e.regs[a1] += a2; return pc; };
+            case SUBI_RR:  return (e, pc) -> { e.regs[a1] -= e.regs[a2]; return pc; };
+            case SUBI_RI:  return (e, pc) -> { e.regs[a1] -= a2; return pc; };
+            case MULI_RR:  return (e, pc) -> { e.regs[a1] *= e.regs[a2]; return pc; };
+            case MULI_RI:  return (e, pc) -> { e.regs[a1] *= a2; return pc; };
+            case ORI_RR:   return (e, pc) -> { e.regs[a1] |= e.regs[a2]; return pc; };
+            case ORI_RI:   return (e, pc) -> { e.regs[a1] |= a2; return pc; };
+            case ANDI_RR:  return (e, pc) -> { e.regs[a1] &= e.regs[a2]; return pc; };
+            case ANDI_RI:  return (e, pc) -> { e.regs[a1] &= a2; return pc; };
+            case XORI_RR:  return (e, pc) -> { e.regs[a1] ^= e.regs[a2]; return pc; };
+            case XORI_RI:  return (e, pc) -> { e.regs[a1] ^= a2; return pc; };
+            case SZRLI_RR: return (e, pc) -> { e.regs[a1] >>>= e.regs[a2]; return pc; };
+            case SZRLI_RI: return (e, pc) -> { e.regs[a1] >>>= a2; return pc; };
+            case SRLI_RR:  return (e, pc) -> { e.regs[a1] >>= e.regs[a2]; return pc; };
+            case SRLI_RI:  return (e, pc) -> { e.regs[a1] >>= a2; return pc; };
+            case SLLI_RR:  return (e, pc) -> { e.regs[a1] <<= e.regs[a2]; return pc; };
+            case SLLI_RI:  return (e, pc) -> { e.regs[a1] <<= a2; return pc; };
+
+            case IFI_RR:   return (e, pc) -> e.regs[a1] > e.regs[a2] ? pc + 1 : pc;
+            case IFI_RI:   return (e, pc) -> e.regs[a1] > a2 ? pc + 1 : pc;
+            case IFEI_RR:  return (e, pc) -> e.regs[a1] >= e.regs[a2] ? pc + 1 : pc;
+            case IFEI_RI:  return (e, pc) -> e.regs[a1] >= a2 ? pc + 1 : pc;
+            case IFB_MI:   return (e, pc) -> e.ram.readByte(e.regs[a1]) > (byte)a2 ? pc + 1 : pc;
+            case IFB_MR:   return (e, pc) -> e.ram.readByte(e.regs[a1]) > (byte)e.regs[a2] ? pc + 1 : pc;
+            case IFEB_MI:  return (e, pc) -> e.ram.readByte(e.regs[a1]) >= (byte)a2 ? pc + 1 : pc;
+            case IFEB_MR:  return (e, pc) -> e.ram.readByte(e.regs[a1]) >= (byte)e.regs[a2] ? pc + 1 : pc;
+
+            case PRINTC_M: return (e, pc) -> { e.cpu.printChar(e.ram.readByte(e.regs[a2])); return pc; };
+
+            /* ===================================================
+             * Superinstructions
+             * ===================================================
+             */
+
+            case IFI_RR_JMP:
+            case IFI_RI_JMP:
+            case IFEI_RR_JMP:
+            case IFEI_RI_JMP:
+            case IFB_MI_JMP:
+            case IFEB_MI_JMP:
+                return bindCompareAndBranch(code, i);
+
+            case PRINTC_M_ADDI_RI: {
+                final int b1 = code.arg1[i + 1];
+                final int b2 = code.arg2[i + 1];
+                return (e, pc) -> {
+                    e.cpu.printChar(e.ram.readByte(e.regs[a2]));
+
+                    e.regs[PC] = ++pc;
+                    e.regs[b1] += b2;
+                    return pc;
+                };
+            }
+            case PUSHI_CALL: {
+                final int target = code.arg2[i + 1];
+                return (e, pc) -> {
+                    int value = e.cpu.getIntArg(m2, a2);
+
+                    e.regs[SP] -= WORD_BYTES;
+                    e.ram.storeInt(e.regs[SP], value);
+
+                    e.regs[PC] = ++pc;
+                    return e.call(pc, target);
+                };
+            }
+
+            /* ===================================================
+             * Generic forms
+             * ===================================================
+             */
+
+            case NOOP: return (e, pc) -> pc;
+            case MOVI:
+            case LDCI: return (e, pc) -> { e.cpu.setIntArg(m1, a1, e.cpu.getIntArg(m2, a2)); return pc; };
+            case MOVF:
+            case LDCF: return (e, pc) -> { e.cpu.setFloatArg(m1, a1, e.cpu.getFloatArg(m2, a2)); return pc; };
+            case MOVB:
+            case LDCB: return (e, pc) -> { e.cpu.setByteArg(m1, a1, e.cpu.getByteArg(m2, a2)); return pc; };
+            case LDCA: return (e, pc) -> { e.cpu.setIntArg(m1, a1, a2); return pc; };
+
+            case PUSHI: return (e, pc) -> {
+                int value = e.cpu.getIntArg(m2, a2);
+
+                e.regs[SP] -= WORD_BYTES;
+                e.ram.storeInt(e.regs[SP], value);
+                return pc;
+            };
+            case PUSHF: return (e, pc) -> {
+                float value = e.cpu.getFloatArg(m2, a2);
+
+                e.regs[SP] -= WORD_BYTES;
+                e.ram.storeFloat(e.regs[SP], value);
+                return pc;
+            };
+            case PUSHB: return (e, pc) -> {
+                byte value = e.cpu.getByteArg(m2, a2);
+
+                e.regs[SP] -= 1;
+                e.ram.storeByte(e.regs[SP], value);
+                return pc;
+            };
+            case POPI: return (e, pc) -> {
+                int value = e.ram.readInt(e.regs[SP]);
+                e.regs[SP] += WORD_BYTES;
+
+                e.cpu.setIntArg(m1, a1, value);
+                return pc;
+            };
+            case POPF: return (e, pc) -> {
+                float value = e.ram.readFloat(e.regs[SP]);
+                e.regs[SP] += WORD_BYTES;
+
+                e.cpu.setFloatArg(m1, a1, value);
+                return pc;
+            };
+            case POPB: return (e, pc) -> {
+                byte value = e.ram.readByte(e.regs[SP]);
+                e.regs[SP] += 1;
+
+                e.cpu.setByteArg(m1, a1, value);
+                return pc;
+            };
+            case DUPI: return (e, pc) -> {
+                int value = e.ram.readInt(e.regs[SP]);
+                e.regs[SP] -= WORD_BYTES;
+
+                e.ram.storeInt(e.regs[SP], value);
+
+                e.cpu.setIntArg(m1, a1, value);
+                return pc;
+            };
+            case DUPF: return (e, pc) -> {
+                float value = e.ram.readFloat(e.regs[SP]);
+                e.regs[SP] -= WORD_BYTES;
+
+                e.ram.storeFloat(e.regs[SP], value);
+
+                e.cpu.setFloatArg(m1, a1, value);
+                return pc;
+            };
+            case DUPB: return (e, pc) -> {
+                byte value = e.ram.readByte(e.regs[SP]);
+                e.regs[SP] -= 1;
+
+                e.ram.storeByte(e.regs[SP], value);
+
+                e.cpu.setByteArg(m1, a1, value);
+                return pc;
+            };
+
+            case IFI: return (e, pc) -> {
+                int yValue = e.cpu.getIntArg(m2, a2);
+                int xValue = e.cpu.getIntArg(m1, a1);
+                return xValue > yValue ? pc + 1 : pc;
+            };
+            case IFF: return (e, pc) -> {
+                float yValue = e.cpu.getFloatArg(m2, a2);
+                float xValue = e.cpu.getFloatArg(m1, a1);
+                return xValue > yValue ? pc + 1 : pc;
+            };
+            case IFB: return (e, pc) -> {
+                byte yValue = e.cpu.getByteArg(m2, a2);
+                byte xValue = e.cpu.getByteArg(m1, a1);
+                return xValue > yValue ? pc + 1 : pc;
+            };
+            case IFEI: return (e, pc) -> {
+                int yValue = e.cpu.getIntArg(m2, a2);
+                int xValue = e.cpu.getIntArg(m1, a1);
+                return xValue >= yValue ? pc + 1 : pc;
+            };
+            case IFEF: return (e, pc) -> {
+                float yValue = e.cpu.getFloatArg(m2, a2);
+                float xValue = e.cpu.getFloatArg(m1, a1);
+                return xValue >= yValue ? pc + 1 : pc;
+            };
+            case IFEB: return (e, pc) -> {
+                byte yValue = e.cpu.getByteArg(m2, a2);
+                byte xValue = e.cpu.getByteArg(m1, a1);
+                return xValue >= yValue ? pc + 1 : pc;
+            };
+
+            case JMP:  return (e, pc) -> e.jump(a2, i);
+            case CALL: return (e, pc) -> e.call(pc, a2);
+            case RET:  return (e, pc) -> e.ret(pc);
+
+            case PRINTI: return (e, pc) -> { e.cpu.printInt(e.cpu.getIntArg(m2, a2)); return pc; };
+            case PRINTF: return (e, pc) -> { e.cpu.printFloat(e.cpu.getFloatArg(m2, a2)); return pc; };
+            case PRINTB: return (e, pc) -> { e.cpu.printByte(e.cpu.getByteArg(m2, a2)); return pc; };
+            case PRINTC: return (e, pc) -> { e.cpu.printChar(e.cpu.getByteArg(m2, a2)); return pc; };
+
+            /* ===================================================
+             * ALU operations
+             * ===================================================
+             */
+
+            case ADDI:  return intOp(m1, a1, m2, a2, false, (x, y) -> x + y);
+            case ADDF:  return floatOp(m1, a1, m2, a2, false, (x, y) -> x + y);
+            case ADDB:  return byteOp(m1, a1, m2, a2, false, (x, y) -> x + y);
+            case SUBI:  return intOp(m1, a1, m2, a2, false, (x, y) -> x - y);
+            case SUBF:  return floatOp(m1, a1, m2, a2, false, (x, y) -> x - y);
+            case SUBB:  return byteOp(m1, a1, m2, a2, false, (x, y) -> x - y);
+            case MULI:  return intOp(m1, a1, m2, a2, false, (x, y) -> x * y);
+            case MULF:  return floatOp(m1, a1, m2, a2, false, (x, y) -> x * y);
+            case MULB:  return byteOp(m1, a1, m2, a2, false, (x, y) -> x * y);
+            case DIVI:  return intOp(m1, a1, m2, a2, true, (x, y) -> x / y);
+            case DIVF:  return floatOp(m1, a1, m2, a2, true, (x, y) -> x / y);
+            case DIVB:  return byteOp(m1, a1, m2, a2, true, (x, y) -> x / y);
+            case MODI:  return intOp(m1, a1, m2, a2, true, (x, y) -> x % y);
+            case MODF:  return floatOp(m1, a1, m2, a2, true, (x, y) -> x % y);
+            case MODB:  return byteOp(m1, a1, m2, a2, true, (x, y) -> x % y);
+            case ORI:   return intOp(m1, a1, m2, a2, false, (x, y) -> x | y);
+            case ORB:   return byteOp(m1, a1, m2, a2, false, (x, y) -> x | y);
+            case ANDI:  return intOp(m1, a1, m2, a2, false, (x, y) -> x & y);
+            case ANDB:  return byteOp(m1, a1, m2, a2, false, (x, y) -> x & y);
+            case NOTI:  return (e, pc) -> { e.cpu.setIntArg(m1, a1, ~e.cpu.getIntArg(m2, a2)); return pc; };
+            case NOTB:  return (e, pc) -> { e.cpu.setByteArg(m1, a1, (byte)(~e.cpu.getByteArg(m2, a2))); return pc; };
+            case XORI:  return intOp(m1, a1, m2, a2, false, (x, y) -> x ^ y);
+            case XORB:  return byteOp(m1, a1, m2, a2, false, (x, y) -> x ^ y);
+            case SZRLI: return intOp(m1, a1, m2, a2, false, (x, y) -> x >>> y);
+            case SZRLB: return byteOp(m1, a1, m2, a2, false, (x, y) -> x >>> y);
+            case SRLI:  return intOp(m1, a1, m2, a2, false, (x, y) -> x >> y);
+            case SRLB:  return byteOp(m1, a1, m2, a2, false, (x, y) -> x >> y);
+            case SLLI:  return intOp(m1, a1, m2, a2, false, (x, y) -> x << y);
+            case SLLB:  return byteOp(m1, a1, m2, a2, false, (x, y) -> x << y);
+
+            /* ===================================================
+             * Block memory operations
+             * ===================================================
+             */
+
+            case MEMCPY: return (e, pc) -> {
+                e.cpu.memcpy(e.cpu.getIntArg(m1, a1), e.cpu.getIntArg(m2, a2), e.regs[CPU32.C]);
+                return pc;
+            };
+            case MEMSET: return (e, pc) -> {
+                e.cpu.memset(e.cpu.getIntArg(m1, a1), e.cpu.getByteArg(m2, a2), e.regs[CPU32.C]);
+                return pc;
+            };
+            case MEMCMP: return (e, pc) -> {
+                e.cpu.setIntArg(m1, a1, e.cpu.memcmp(e.cpu.getIntArg(m1, a1), e.cpu.getIntArg(m2, a2), e.regs[CPU32.C]));
+                return pc;
+            };
+            case MEMFIND: return (e, pc) -> {
+                e.cpu.setIntArg(m1, a1, e.cpu.memfind(e.cpu.getIntArg(m1, a1), e.cpu.getByteArg(m2, a2), e.regs[CPU32.C]));
+                return pc;
+            };
+
+            default: {
+                final int opcode = code.opcodes[i];
+                return (e, pc) -> {
+                    throw new EvalException(String.format("Unknown opcode: %d", opcode));
+                };
+            }
+        }
+    }
+
+    private static Handler bindCompareAndBranch(DecodedBytecode code, final int i) {
+        final int a1 = code.arg1[i];
+        final int a2 = code.arg2[i];
+        final int jmp = i + 1;
+        final int target = code.arg2[jmp];
+
+        switch(code.dispatchCodes[i]) {
+            case IFI_RR_JMP:  return (e, pc) -> e.regs[a1] > e.regs[a2] ? pc + 1 : e.branch(pc, target, jmp);
+            case IFI_RI_JMP:  return (e, pc) -> e.regs[a1] > a2 ? pc + 1 : e.branch(pc, target, jmp);
+            case IFEI_RR_JMP: return (e, pc) -> e.regs[a1] >= e.regs[a2] ? pc + 1 : e.branch(pc, target, jmp);
+            case IFEI_RI_JMP: return (e, pc) -> e.regs[a1] >= a2 ? pc + 1 : e.branch(pc, target, jmp);
+            case IFB_MI_JMP:  return (e, pc) -> e.ram.readByte(e.regs[a1]) > (byte)a2 ? pc + 1 : e.branch(pc, target, jmp);
+            case IFEB_MI_JMP: return (e, pc) -> e.ram.readByte(e.regs[a1]) >= (byte)a2 ? pc + 1 : e.branch(pc, target, jmp);
+            default:
+                throw new IllegalArgumentException("Not a compare and branch: " + code.dispatchCodes[i]);
+        }
+    }
+
+    /**
+     * Executes the <code>JMP</code> half of a compare and branch
+     */
+    private int branch(int pc, int target, int jmp) {
+        this.regs[PC] = pc + 1;
+        return jump(target, jmp);
+    }
+
+    private static Handler intOp(int m1, int a1, int m2, int a2, boolean checkZero, IntOp op) {
+        return (e, pc) -> {
+            int value = e.cpu.getIntArg(m2, a2);
+            if(checkZero && value == 0) {
+                throw divideByZero();
+            }
+
+            e.cpu.setIntArg(m1, a1, op.apply(e.cpu.getIntArg(m1, a1), value));
+            return pc;
+        };
+    }
+
+    private static Handler floatOp(int m1, int a1, int m2, int a2, boolean checkZero, FloatOp op) {
+        return (e, pc) -> {
+            float value = e.cpu.getFloatArg(m2, a2);
+            if(checkZero && value == 0) {
+                throw divideByZero();
+            }
+
+            e.cpu.setFloatArg(m1, a1, op.apply(e.cpu.getFloatArg(m1, a1), value));
+            return pc;
+        };
+    }
+
+    private static Handler byteOp(int m1, int a1, int m2, int a2, boolean checkZero, IntOp op) {
+        return (e, pc) -> {
+            byte value = e.cpu.getByteArg(m2, a2);
+            if(checkZero && value == 0) {
+                throw divideByZero();
+            }
+
+            e.cpu.setByteArg(m1, a1, (byte)op.apply(e.cpu.getByteArg(m1, a1), value));
+            return pc;
+        };
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hosts many {@link LitaVM}s on a small, work-stealing thread pool.  Each VM is executed in slices of
+ * {@link #getSliceBudget()} instructions (see {@link CPU32#execute(DecodedBytecode, long)}); after a slice the VM
+ * goes to the back of the queue, so a long running or runaway guest program can't starve the others.
+ *
+ * <pre>
+ * try(VMScheduler scheduler = new VMScheduler()) {
+ *     for(...) {
+ *         scheduler.submit(template.fork(), code);
+ *     }
+ * }
+ * </pre>
+ *
+ * A VM must only be submitted once at a time, and its {@link DispatchMode} and RAM are used as is; the JIT
+ * compiler is not used when executing in slices.
+ *
+ * @author Tony
+ *
+ */
+public class VMScheduler implements AutoCloseable {
+
+    public static final long DEFAULT_SLICE_BUDGET = 100_000;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * VMs waiting for a slice, oldest first.  The pool only runs tokens that take the next VM from this queue;
+     * a VM requeued by a worker would otherwise go to the front of that worker's local queue, ahead of VMs
+     * submitted from outside the pool.
+     */
+    private final ConcurrentLinkedQueue<VMTask> runQueue;
+    private final long sliceBudget;
+    private final long startTime;
+
+    private final LongAdder submitted;
+    private final LongAdder completed;
+    private final LongAdder failed;
+    private final LongAdder parked;
+    private final LongAdder slices;
+
+    private final LongAdder totalLatency;
+    private final AtomicLong maxLatency;
+    private final LongAdder totalQueueDelay;
+    private final AtomicLong maxQueueDelay;
+
+    /**
+     * A scheduler with a thread per available processor
+     */
+    public VMScheduler() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_SLICE_BUDGET);
+    }
+
+    /**
+     * @param parallelism the number of threads
+     * @param sliceBudget the number of instructions a VM executes before going to the back of the queue
+     */
+    public VMScheduler(int parallelism, long sliceBudget) {
+        if(sliceBudget < 1) {
+            throw new IllegalArgumentException("The slice budget must be at least 1 instruction");
+        }
+
+        this.pool = new ForkJoinPool(parallelism, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        this.runQueue = new ConcurrentLinkedQueue<>();
+        this.sliceBudget = sliceBudget;
+        this.startTime = System.nanoTime();
+
+        this.submitted = new LongAdder();
+        this.completed = new LongAdder();
+        this.failed = new LongAdder();
+        this.parked = new LongAdder();
+        this.slices = new LongAdder();
+
+        this.totalLatency = new LongAdder();
+        this.maxLatency = new AtomicLong();
+        this.totalQueueDelay = new LongAdder();
+        this.maxQueueDelay = new AtomicLong();
+    }
+
+    /**
+     * @return the number of instructions a VM executes before going to the back of the queue
+     */
+    public long getSliceBudget() {
+        return sliceBudget;
+    }
+
+    /**
+     * @return the number of threads
+     */
+    public int getParallelism() {
+        return this.pool.getParallelism();
+    }
+
+    /**
+     * Schedules the VM to execute the supplied code
+     *
+     * @param vm
+     * @param code
+     * @return the task, to wait for the VM to finish
+     */
+    public VMTask submit(LitaVM vm, DecodedBytecode code) {
+        VMTask task = new VMTask(this, vm, code);
+        this.submitted.increment();
+        schedule(task);
+        return task;
+    }
+
+    void schedule(VMTask task) {
+        task.queued();
+        this.runQueue.add(task);
+        this.pool.execute(this::runNextSlice);
+    }
+
+    private void runNextSlice() {
+        VMTask task = this.runQueue.poll();
+        if(task != null) {
+            task.runSlice(this.sliceBudget);
+        }
+    }
+
+    void parked(VMTask task) {
+        this.parked.increment();
+    }
+
+    void unparked(VMTask task) {
+        this.parked.decrement();
+        schedule(task);
+    }
+
+    void sliceStarted(long queueDelay) {
+        this.slices.increment();
+        this.totalQueueDelay.add(queueDelay);
+        this.maxQueueDelay.accumulateAndGet(queueDelay, Math::max);
+    }
+
+    void finished(VMTask task, boolean success, long latency) {
+        if(success) {
+            this.completed.increment();
+            this.totalLatency.add(latency);
+            this.maxLatency.accumulateAndGet(latency, Math::max);
+        }
+        else {
+            this.failed.increment();
+        }
+    }
+
+    /**
+     * @return the number of VMs submitted
+     */
+    public long getSubmitted() {
+        return this.submitted.sum();
+    }
+
+    /**
+     * @return the number of VMs that ran their code to completion
+     */
+    public long getCompleted() {
+        return this.completed.sum();
+    }
+
+    /**
+     * @return the number of VMs that failed or were cancelled
+     */
+    public long getFailed() {
+        return this.failed.sum();
+    }
+
+    /**
+     * @return the number of VMs that have not finished yet, including parked VMs
+     */
+    public long getActive() {
+        return getSubmitted() - getCompleted() - getFailed();
+    }
+
+    /**
+     * @return the number of VMs currently parked
+     */
+    public long getParked() {
+        return this.parked.sum();
+    }
+
+    /**
+     * @return the number of slices executed
+     */
+    public long getSlices() {
+        return this.slices.sum();
+    }
+
+    /**
+     * @return the number of VMs completed per second, since the scheduler was created
+     */
+    public double getThroughput() {
+        double seconds = (System.nanoTime() - this.startTime) / 1_000_000_000.0;
+        return getCompleted() / seconds;
+    }
+
+    /**
+     * @return the mean time from submitting a VM to it completing, in nanoseconds
+     */
+    public long getMeanLatencyNanos() {
+        long count = getCompleted();
+        return count > 0 ? this.totalLatency.sum() / count : 0;
+    }
+
+    /**
+     * @return the longest time from submitting a VM to it completing, in nanoseconds
+     */
+    public long getMaxLatencyNanos() {
+        return this.maxLatency.get();
+    }
+
+    /**
+     * @return the mean time a VM waited in the queue before each of its slices, in nanoseconds
+     */
+    public long getMeanQueueDelayNanos() {
+        long count = getSlices();
+        return count > 0 ? this.totalQueueDelay.sum() / count : 0;
+    }
+
+    /**
+     * @return the longest time a VM waited in the queue before a slice, in nanoseconds
+     */
+    public long getMaxQueueDelayNanos() {
+        return this.maxQueueDelay.get();
+    }
+
+    /**
+     * Waits until all of the submitted VMs have finished; parked VMs must be unparked for this to return
+     *
+     * @param timeout
+     * @param unit
+     * @return true if all of the VMs finished, false if the timeout elapsed first
+     * @throws InterruptedException
+     */
+    public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while(getActive() > 0) {
+            long remaining = deadline - System.nanoTime();
+            if(remaining <= 0) {
+                return false;
+            }
+            this.pool.awaitQuiescence(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(10)), TimeUnit.NANOSECONDS);
+            if(getActive() > 0 && getActive() == getParked()) {
+                Thread.sleep(1);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stops the thread pool; VMs that have not finished are abandoned
+     */
+    @Override
+    public void close() {
+        this.pool.shutdownNow();
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A {@link LitaVM} hosted by a {@link VMScheduler}.  The task executes the VM one slice at a time, and goes
+ * back into the scheduler's queue after each slice until the code has finished.
+ *
+ * <p>
+ * A task that can't make progress, for example because its guest program is waiting on input that has not
+ * arrived yet, can be {@link #park()}ed: it is not scheduled again until it is {@link #unpark()}ed, so it does
+ * not take up any threads in the meantime.  Code running inside of a slice (such as a device the guest reads
+ * from) finds its task with {@link #current()}; the {@link RingBufferDevice} parks the task of a guest that reads
+ * from it while it is empty.
+ *
+ * @author Tony
+ *
+ */
+public class VMTask {
+
+    private static final ThreadLocal<VMTask> CURRENT = new ThreadLocal<>();
+
+    private final VMScheduler scheduler;
+    private final LitaVM vm;
+    private final DecodedBytecode code;
+    private final CompletableFuture<ExecutionState> future;
+
+    private final long submitTime;
+    private long queueTime;
+
+    private ExecutionState state;
+    private volatile int numberOfSlices;
+
+    private boolean parkRequested;
+    private boolean parked;
+    private volatile boolean cancelled;
+
+    VMTask(VMScheduler scheduler, LitaVM vm, DecodedBytecode code) {
+        this.scheduler = scheduler;
+        this.vm = vm;
+        this.code = code;
+        this.future = new CompletableFuture<>();
+        this.submitTime = System.nanoTime();
+    }
+
+    /**
+     * @return the task whose slice is executing on the current thread, or null if there is none
+     */
+    public static VMTask current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * @return the VM of this task
+     */
+    public LitaVM getVM() {
+        return vm;
+    }
+
+    /**
+     * @return completes with the final state once the code has finished; completes exceptionally if the
+     * code failed or the task was cancelled
+     */
+    public CompletableFuture<ExecutionState> getFuture() {
+        return future;
+    }
+
+    /**
+     * @return the number of slices executed so far
+     */
+    public int getNumberOfSlices() {
+        return numberOfSlices;
+    }
+
+    /**
+     * Stops scheduling this task once its current slice ends, until {@link #unpark()} is called
+     */
+    public synchronized void park() {
+        this.parkRequested = true;
+    }
+
+    /**
+     * Schedules this task again, if it was parked
+     */
+    public void unpark() {
+        boolean wasParked;
+        synchronized(this) {
+            this.parkRequested = false;
+            wasParked = this.parked;
+            this.parked = false;
+        }
+
+        if(wasParked) {
+            this.scheduler.unparked(this);
+        }
+    }
+
+    /**
+     * @return true if the task is parked
+     */
+    public synchronized boolean isParked() {
+        return this.parked;
+    }
+
+    /**
+     * Cancels the task; it stops once its current slice ends, or right away if it is parked
+     */
+    public void cancel() {
+        this.cancelled = true;
+        unpark();
+    }
+
+    /**
+     * Marks the time the task entered the run queue
+     */
+    void queued() {
+        this.queueTime = System.nanoTime();
+    }
+
+    /**
+     * Executes a slice
+     *
+     * @param sliceBudget the instruction budget of the slice
+     */
+    void runSlice(long sliceBudget) {
+        long start = System.nanoTime();
+        this.scheduler.sliceStarted(start - this.queueTime);
+
+        if(this.cancelled) {
+            this.future.completeExceptionally(new CancellationException());
+            this.scheduler.finished(this, false, start - this.submitTime);
+            return;
+        }
+
+        CURRENT.set(this);
+        try {
+            this.state = this.state == null ? this.vm.execute(this.code, sliceBudget)
+                                            : this.vm.resume(this.state, sliceBudget);
+            this.numberOfSlices++;
+        }
+        catch(Throwable e) {
+            this.future.completeExceptionally(e);
+            this.scheduler.finished(this, false, System.nanoTime() - this.submitTime);
+            return;
+        }
+        finally {
+            CURRENT.remove();
+        }
+
+        if(this.state.isFinished()) {
+            this.future.complete(this.state);
+            this.scheduler.finished(this, true, System.nanoTime() - this.submitTime);
+            return;
+        }
+
+        synchronized(this) {
+            if(this.parkRequested && !this.cancelled) {
+                this.parked = true;
+                this.scheduler.parked(this);
+                return;
+            }
+        }
+
+        this.scheduler.schedule(this);
+    }
+}
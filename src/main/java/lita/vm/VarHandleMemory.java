@@ -0,0 +1,154 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * {@link MemoryBackend} that accesses a byte array through {@link MethodHandles#byteArrayViewVarHandle(Class, ByteOrder)}
+ * views.  The JVM compiles these down to plain (possibly unaligned) loads and stores, with the byte swap
+ * and the array bounds check intrinsified, so there is no buffer object to go through on every access.  The block
+ * operations work on the array directly, rather than through the chunks of the {@link MemoryBackend} defaults.
+ * 
+ * @author Tony
+ *
+ */
+public class VarHandleMemory implements MemoryBackend {
+
+    private static final VarHandle BIG_ENDIAN_INTS      = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle BIG_ENDIAN_FLOATS    = MethodHandles.byteArrayViewVarHandle(float[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle LITTLE_ENDIAN_INTS   = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle LITTLE_ENDIAN_FLOATS = MethodHandles.byteArrayViewVarHandle(float[].class, ByteOrder.LITTLE_ENDIAN);
+    
+    private final byte[] mem;
+    private final ByteOrder order;
+    
+    /**
+     * The views are only fast when they are constants, so pick between the static 
+     * ones rather than holding on to one in a field
+     */
+    private final boolean isBigEndian;
+    
+    /**
+     * Big endian memory, which matches {@link ByteBufferMemory}
+     * 
+     * @param sizeInBytes
+     */
+    public VarHandleMemory(int sizeInBytes) {
+        this(sizeInBytes, ByteOrder.BIG_ENDIAN);
+    }
+    
+    /**
+     * @param sizeInBytes
+     * @param order the byte order ints and floats are stored in
+     */
+    public VarHandleMemory(int sizeInBytes, ByteOrder order) {
+        this.mem = new byte[sizeInBytes];
+        this.order = order;
+        this.isBigEndian = order == ByteOrder.BIG_ENDIAN;
+    }
+    
+    @Override
+    public ByteOrder getOrder() {
+        return order;
+    }
+    
+    @Override
+    public int sizeInBytes() {
+        return this.mem.length;
+    }
+    
+    @Override
+    public byte[] array() {
+        return this.mem;
+    }
+    
+    @Override
+    public void storeBytes(int address, byte[] buf, int offset, int length) {
+        System.arraycopy(buf, offset, this.mem, address, length);
+    }
+    
+    @Override
+    public void storeInt(int address, int value) {
+        if(this.isBigEndian) {
+            BIG_ENDIAN_INTS.set(this.mem, address, value);
+        }
+        else {
+            LITTLE_ENDIAN_INTS.set(this.mem, address, value);
+        }
+    }
+    
+    @Override
+    public void storeFloat(int address, float value) {
+        if(this.isBigEndian) {
+            BIG_ENDIAN_FLOATS.set(this.mem, address, value);
+        }
+        else {
+            LITTLE_ENDIAN_FLOATS.set(this.mem, address, value);
+        }
+    }
+    
+    @Override
+    public void storeByte(int address, byte value) {
+        this.mem[address] = value;
+    }
+    
+    @Override
+    public void readBytes(int address, byte[] buf, int offset, int length) {
+        System.arraycopy(this.mem, address, buf, offset, length);
+    }
+    
+    @Override
+    public int readInt(int address) {
+        return this.isBigEndian ? (int)BIG_ENDIAN_INTS.get(this.mem, address)
+                                : (int)LITTLE_ENDIAN_INTS.get(this.mem, address);
+    }
+    
+    @Override
+    public float readFloat(int address) {
+        return this.isBigEndian ? (float)BIG_ENDIAN_FLOATS.get(this.mem, address)
+                                : (float)LITTLE_ENDIAN_FLOATS.get(this.mem, address);
+    }
+    
+    @Override
+    public byte readByte(int address) {
+        return this.mem[address];
+    }
+    
+    @Override
+    public void copy(int destination, int source, int length) {
+        System.arraycopy(this.mem, source, this.mem, destination, length);
+    }
+    
+    @Override
+    public void fill(int address, int length, byte value) {
+        Objects.checkFromIndexSize(address, length, this.mem.length);
+        Arrays.fill(this.mem, address, address + length, value);
+    }
+    
+    @Override
+    public int compare(int x, int y, int length) {
+        Objects.checkFromIndexSize(x, length, this.mem.length);
+        Objects.checkFromIndexSize(y, length, this.mem.length);
+        return Integer.signum(Arrays.compareUnsigned(this.mem, x, x + length, this.mem, y, y + length));
+    }
+    
+    @Override
+    public int indexOf(int address, int length, byte value) {
+        Objects.checkFromIndexSize(address, length, this.mem.length);
+        
+        final byte[] mem = this.mem;
+        final int end = address + length;
+        for(int i = address; i < end; i++) {
+            if(mem[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Starts threads as Java virtual threads when the JVM has them (Java 21 and later), and as platform threads
+ * otherwise.  The virtual thread API is looked up reflectively, so that the VM still builds and runs on older JVMs.
+ *
+ * @author Tony
+ *
+ */
+class VirtualThreads {
+
+    private static final Method OF_VIRTUAL;
+    private static final Method NAME;
+    private static final Method START;
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method start = null;
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            name = builder.getMethod("name", String.class);
+            start = builder.getMethod("start", Runnable.class);
+
+            // the preview releases throw if previews aren't enabled
+            ofVirtual.invoke(null);
+        }
+        catch(ReflectiveOperationException | RuntimeException e) {
+            ofVirtual = null;
+        }
+
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        START = start;
+    }
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * @return true if threads are started as virtual threads
+     */
+    static boolean isSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Starts the task on a new thread
+     *
+     * @param name the name of the thread
+     * @param task
+     * @return the started thread, a virtual thread if they are supported
+     */
+    static Thread start(String name, Runnable task) {
+        if(OF_VIRTUAL != null) {
+            try {
+                Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), name);
+                return (Thread) START.invoke(builder, task);
+            }
+            catch(InvocationTargetException e) {
+                if(e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+            catch(IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+}
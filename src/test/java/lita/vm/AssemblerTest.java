@@ -0,0 +1,205 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+/**
+ * @author Tony
+ *
+ */
+public class AssemblerTest {
+
+    private static final String PROGRAM =   "movi $a #0\n"
+                                          + "ldca $b .text ; forward constant\n"
+                                          + "jmp :skip     ; forward label\n"
+                                          + ":body\n"
+                                          + "  addi $a #1\n"
+                                          + "  ifi $a #10\n"
+                                          + "  jmp :body\n"
+                                          + "  jmp :done\n"
+                                          + ":skip\n"
+                                          + "  movi $c :body\n"
+                                          + "  jmp :body\n"
+                                          + ":done\n"
+                                          + ".text \"a ; string\"\n";
+
+    private void assertSameBytecode(Bytecode expected, Bytecode actual) {
+        assertEquals(expected.length, actual.length);
+        assertArrayEquals(expected.constants, actual.constants);
+        assertArrayEquals(Arrays.copyOf(expected.instr, expected.length), Arrays.copyOf(actual.instr, actual.length));
+    }
+
+    @Test
+    public void testForwardReferences() {
+        LitaVM vm = new LitaVM(1024, 1024, false);
+        Assembler asm = new Assembler(vm);
+        vm.execute(asm.compile(PROGRAM));
+
+        int[] regs = vm.getCpu().getRegisterFile();
+        assertEquals(11, regs[4]);
+        assertEquals(3, regs[CPU32.C]);
+        byte[] text = new byte[10];
+        vm.getRam().readBytes(regs[5], text, 0, text.length);
+        assertEquals("a ; string", new String(text, StandardCharsets.US_ASCII));
+        assertEquals(Integer.valueOf(3), asm.getSymbols().get(":body"));
+        assertEquals(Integer.valueOf(7), asm.getSymbols().get(":skip"));
+    }
+
+    @Test
+    public void testStreamedInput() throws Exception {
+        Random rand = new Random(7);
+        for(int i = 0; i < 20; i++) {
+            String program = RandomPrograms.generate(rand);
+
+            Bytecode expected = new Assembler(new LitaVM(1024, 1024, false)).compile(program);
+            Bytecode fromReader = new Assembler(new LitaVM(1024, 1024, false)).compile(new StringReader(program));
+            Bytecode fromChannel = new Assembler(new LitaVM(1024, 1024, false))
+                    .compile(Channels.newChannel(new ByteArrayInputStream(program.getBytes(StandardCharsets.UTF_8))));
+
+            assertSameBytecode(expected, fromReader);
+            assertSameBytecode(expected, fromChannel);
+        }
+    }
+
+    @Test
+    public void testLargeProgram() {
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < 50_000; i++) {
+            sb.append(":l").append(i).append("\naddi $a #1\n");
+        }
+        sb.append("\tjmp   :l0\r\n");
+
+        Bytecode code = new Assembler(new LitaVM(1024, 1024, false)).compile(sb.toString());
+        assertEquals(50_001, code.length);
+        assertEquals(Opcodes.JMP, Instruction.opcode(code.instr[50_000]));
+        assertEquals(0, Instruction.argJmpValue(code.instr[50_000]));
+    }
+
+    @Test
+    public void testErrorLineNumbers() {
+        assertError("movi $a #1\n\n; comment\nnope $a\n", "at line: 4");
+        assertError("movi $a #1\njmp :missing\nmovi $b #2\n", "at line: 2");
+        assertError("ldca $a .missing\n", "at line: 1");
+        assertError("movi $a\nmovi $zz #1\n", "at line: 2");
+    }
+
+    @Test
+    public void testConstantPool() {
+        LitaVM vm = new LitaVM(1024, 1024, false);
+        Assembler asm = new Assembler(vm);
+        vm.execute(asm.compile(".one 1\n"
+                             + ".half 0.5\n"
+                             + ".str \"one\"\n"
+                             + ".again 1\n"
+                             + ".same \"one\"\n"
+                             + "ldci $a .again\n"
+                             + "ldcf $b .half\n"
+                             + "ldca $c .same\n"));
+
+        Map<String, Integer> symbols = asm.getSymbols();
+        assertEquals(symbols.get(".one"), symbols.get(".again"));
+        assertEquals(symbols.get(".str"), symbols.get(".same"));
+        assertEquals(Integer.valueOf(2), symbols.get(".str"));
+
+        int[] regs = vm.getCpu().getRegisterFile();
+        assertEquals(1, regs[4]);
+        assertEquals(0.5f, Float.intBitsToFloat(regs[5]), 0f);
+        assertEquals('o', vm.getRam().readByte(regs[6]));
+    }
+
+    @Test
+    public void testOpcodeLookup() {
+        for(int i = 0; i < 64; i++) {
+            if(Opcodes.isOpcode(i)) {
+                String name = Opcodes.opcodeStr(i);
+                assertEquals(i, Opcodes.strOpcode(name));
+                assertEquals(i, Opcodes.strOpcode(name.toLowerCase()));
+                assertEquals(-1, Opcodes.strOpcode(name + "X"));
+            }
+        }
+        assertEquals(-1, Opcodes.strOpcode(""));
+        assertEquals(-1, Opcodes.strOpcode("m0vi"));
+    }
+
+    @Test
+    public void testParallelMatchesSequential() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Random rand = new Random(11);
+            for(int i = 0; i < 20; i++) {
+                String program = RandomPrograms.generate(rand);
+                Bytecode expected = new Assembler(new LitaVM(1024, 1024, false)).compile(program);
+
+                for(int chunkSize : new int[] { 1, 37, 512, Assembler.DEFAULT_CHUNK_SIZE }) {
+                    LitaVM vm = new LitaVM(1024, 1024, false);
+                    assertSameBytecode(expected, new Assembler(vm).compileParallel(program, chunkSize, pool));
+                }
+            }
+
+            // labels and constants referenced (and redefined) across chunks
+            StringBuilder sb = new StringBuilder();
+            for(int i = 0; i < 20_000; i++) {
+                sb.append(":l").append(i % 1000).append("\n");
+                sb.append(".c").append(i % 700).append(" ").append(i % 300).append("\n");
+                sb.append(".s").append(i % 500).append(" \"s").append(i % 200).append("\"\n");
+                sb.append("jmp :l").append((i * 7) % 1000).append("\n");
+                sb.append("ldca $a .s").append((i * 3) % 500).append("\n");
+                sb.append("ldci $b .c").append((i * 5) % 700).append("\n");
+            }
+            String program = sb.toString();
+
+            LitaVM sequentialVM = new LitaVM(64 * 1024, 1024, false);
+            Assembler sequential = new Assembler(sequentialVM);
+            Bytecode expected = sequential.compile(program);
+
+            LitaVM parallelVM = new LitaVM(64 * 1024, 1024, false);
+            Assembler parallel = new Assembler(parallelVM);
+            assertSameBytecode(expected, parallel.compileParallel(program, 4096, pool));
+            assertEquals(sequential.getSymbols(), parallel.getSymbols());
+            assertEquals(sequentialVM.getCpu().getRegisterFile()[CPU32.H], parallelVM.getCpu().getRegisterFile()[CPU32.H]);
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelErrorLineNumbers() {
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < 1000; i++) {
+            sb.append("addi $a #1\n");
+        }
+        sb.append("jmp :missing\n");
+
+        try {
+            new Assembler(new LitaVM(1024, 1024, false)).compileParallel(sb.toString(), 100, ForkJoinPool.commonPool());
+            fail("Expected a parse error");
+        }
+        catch(ParserException e) {
+            assertTrue(e.getMessage(), e.getMessage().endsWith("at line: 1001"));
+        }
+    }
+
+    private void assertError(String program, String expected) {
+        try {
+            new Assembler(new LitaVM(1024, 1024, false)).compile(program);
+            fail("Expected a parse error for: " + program);
+        }
+        catch(ParserException e) {
+            assertTrue(e.getMessage(), e.getMessage().endsWith(expected));
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Tony
+ *
+ */
+public class AssemblyCacheTest {
+
+    private static final byte[] PROGRAM = (".text \"Hello\"\n"
+                                         + ".num 7\n"
+                                         + "ldci $a .num\n"
+                                         + "ldca $b .text\n"
+                                         + ":end\n"
+                                         + "movi $c :end\n").getBytes(StandardCharsets.UTF_8);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private List<Path> entries(AssemblyCache cache) throws Exception {
+        List<Path> entries = new ArrayList<>();
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(cache.getDirectory())) {
+            stream.forEach(entries::add);
+        }
+        return entries;
+    }
+
+    private void assertRuns(LitaVM vm, BytecodeImage image) {
+        vm.execute(image.load(vm));
+
+        int[] regs = vm.getCpu().getRegisterFile();
+        assertEquals(7, regs[4]);
+        assertEquals('H', vm.getRam().readByte(regs[5]));
+        assertEquals(2, regs[6]);
+    }
+
+    @Test
+    public void testHit() throws Exception {
+        AssemblyCache cache = new AssemblyCache(folder.getRoot().toPath().resolve("cache"), AssemblyCache.DEFAULT_MAX_SIZE);
+
+        LitaVM first = new LitaVM(1024, 256, false);
+        BytecodeImage assembled = cache.assemble(first, PROGRAM, false);
+        assertRuns(first, assembled);
+        assertEquals(0, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        LitaVM second = new LitaVM(1024, 256, false);
+        BytecodeImage cached = cache.assemble(second, PROGRAM, false);
+        assertEquals(1, cache.getHits());
+        assertArrayEquals(assembled.getBytecode().instr, cached.getBytecode().instr);
+        assertArrayEquals(assembled.getBytecode().constants, cached.getBytecode().constants);
+        assertArrayEquals(assembled.getConstantPool(), cached.getConstantPool());
+        assertEquals(assembled.getSymbols(), cached.getSymbols());
+        assertRuns(second, cached);
+
+        // the VM configuration is part of the key
+        cache.assemble(new LitaVM(2048, 256, false), PROGRAM, false);
+        cache.assemble(new LitaVM(1024, 512, false), PROGRAM, true);
+        assertEquals(1, cache.getHits());
+        assertEquals(3, cache.getMisses());
+        assertEquals(3, entries(cache).size());
+    }
+
+    @Test
+    public void testCorruptEntry() throws Exception {
+        AssemblyCache cache = new AssemblyCache(folder.getRoot().toPath(), AssemblyCache.DEFAULT_MAX_SIZE);
+        cache.assemble(new LitaVM(1024, 256, false), PROGRAM, false);
+
+        Path entry = entries(cache).get(0);
+        Files.write(entry, new byte[] { 1, 2, 3 });
+
+        LitaVM vm = new LitaVM(1024, 256, false);
+        assertRuns(vm, cache.assemble(vm, PROGRAM, false));
+        assertEquals(2, cache.getMisses());
+        assertTrue(Files.size(entry) > 3);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() throws Exception {
+        byte[][] programs = new byte[3][];
+        for(int i = 0; i < programs.length; i++) {
+            programs[i] = ("movi $a #" + (100 + i) + "\n").getBytes(StandardCharsets.UTF_8);
+        }
+
+        Path[] paths = new Path[programs.length];
+        AssemblyCache sizing = new AssemblyCache(folder.newFolder().toPath(), AssemblyCache.DEFAULT_MAX_SIZE);
+        for(int i = 0; i < programs.length; i++) {
+            sizing.assemble(new LitaVM(1024, 256, false), programs[i], false);
+
+            List<Path> added = entries(sizing);
+            added.removeAll(Arrays.asList(paths));
+            paths[i] = added.get(0);
+        }
+
+        // room for two entries
+        long entrySize = Files.size(paths[0]);
+        AssemblyCache cache = new AssemblyCache(folder.newFolder().toPath(), entrySize * 2 + entrySize / 2);
+        for(int i = 0; i < paths.length; i++) {
+            paths[i] = cache.getDirectory().resolve(paths[i].getFileName());
+        }
+
+        cache.assemble(new LitaVM(1024, 256, false), programs[0], false);
+        Files.setLastModifiedTime(paths[0], FileTime.fromMillis(1000));
+        cache.assemble(new LitaVM(1024, 256, false), programs[1], false);
+        Files.setLastModifiedTime(paths[1], FileTime.fromMillis(2000));
+
+        // use the first program, so the second is the least recently used
+        cache.assemble(new LitaVM(1024, 256, false), programs[0], false);
+        assertEquals(1, cache.getHits());
+
+        cache.assemble(new LitaVM(1024, 256, false), programs[2], false);
+        assertTrue(Files.exists(paths[0]));
+        assertFalse(Files.exists(paths[1]));
+        assertTrue(Files.exists(paths[2]));
+        assertEquals(2, entries(cache).size());
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author Tony
+ *
+ */
+public class BlockMemoryTest {
+
+    private static final String PROGRAM =   ".text \"Hello World\"\n"
+                                          + "movi $u #0\n"
+                                          + ":body\n"
+                                          + "ldca $a .text\n"
+                                          + "movi $c #100\n"
+                                          + "memfind $a #0\n"      // the terminator
+                                          + "ldca $b .text\n"
+                                          + "subi $a $b\n"         // the length
+                                          + "movi $c $a\n"
+                                          + "movi $d $h\n"
+                                          + "memcpy $d $b\n"
+                                          + "movi $i $h\n"
+                                          + "memcmp $i $b\n"
+                                          + "movi $c #5\n"
+                                          + "movi $j $h\n"
+                                          + "addi $j #2\n"
+                                          + "memcpy $j $h\n"       // overlapping
+                                          + "movi $c #3\n"
+                                          + "memset $h #88\n"
+                                          + "movi $k $h\n"
+                                          + "memcmp $k $b\n"
+                                          + "movi $j $b\n"
+                                          + "memcmp $j $h\n"
+                                          + "movi $d $h\n"
+                                          + "movi $c #11\n"
+                                          + "memfind $d #122\n"    // not there
+                                          + "addi $u #1\n"
+                                          + "ifi $u #1\n"
+                                          + "jmp :body\n";
+
+    private void assertRuns(MemoryBackend backend, DispatchMode dispatchMode, int jitThreshold) {
+        LitaVM vm = new LitaVM(new RAM(backend), 1024, false, dispatchMode);
+        vm.getCpu().setJitThreshold(jitThreshold);
+        vm.execute(new Assembler(vm).compile(PROGRAM));
+
+        int[] regs = vm.getCpu().getRegisterFile();
+        String mode = dispatchMode + " " + jitThreshold;
+        assertEquals(mode, 11, regs[4]);
+        assertEquals(mode, -1, regs[7]);
+        assertEquals(mode, 0, regs[8]);
+        assertEquals(mode, -1, regs[9]);
+        assertEquals(mode, 1, regs[10]);
+
+        byte[] heap = new byte[11];
+        vm.getRam().readBytes(regs[CPU32.H], heap, 0, heap.length);
+        assertEquals(mode, "XXXelloorld", new String(heap, StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    public void testOpcodes() {
+        for(DispatchMode mode : DispatchMode.values()) {
+            assertRuns(new VarHandleMemory(8 * 1024), mode, 0);
+            assertRuns(new VarHandleMemory(8 * 1024), mode, 1);
+            assertRuns(new CopyOnWriteMemory(8 * 1024), mode, 0);
+            assertRuns(new DeviceBus(new CopyOnWriteMemory(8 * 1024)), mode, 1);
+        }
+    }
+
+    @Test
+    public void testStats() {
+        ExecutionStats stats = new ExecutionStats();
+        LitaVM vm = new LitaVM(new RAM(stats.countAccesses(new VarHandleMemory(8 * 1024))), 1024, false, DispatchMode.SWITCH);
+        vm.getCpu().setStats(stats);
+        vm.execute(new Assembler(vm).compile(PROGRAM));
+
+        assertEquals(4, stats.getOpcodeCount(Opcodes.MEMCPY));
+        assertEquals(6, stats.getOpcodeCount(Opcodes.MEMCMP));
+    }
+
+    @Test
+    public void testDefaultBlockOperations() {
+        Random rand = new Random(0xb10c);
+        byte[] data = new byte[20000];
+        rand.nextBytes(data);
+
+        for(int[] copy : new int[][] { { 100, 5000, 10000 }, { 5000, 100, 10000 }, { 0, 0, 20000 } }) {
+            MemoryBackend array = new VarHandleMemory(data.length);
+            MemoryBackend pages = new CopyOnWriteMemory(data.length);
+            array.storeBytes(0, data, 0, data.length);
+            pages.storeBytes(0, data, 0, data.length);
+
+            new RAM(array).copy(copy[0], copy[1], copy[2]);
+            pages.copy(copy[0], copy[1], copy[2]);
+
+            byte[] expected = new byte[data.length];
+            byte[] actual = new byte[data.length];
+            array.readBytes(0, expected, 0, expected.length);
+            pages.readBytes(0, actual, 0, actual.length);
+            assertArrayEquals(expected, actual);
+        }
+
+        MemoryBackend pages = new CopyOnWriteMemory(data.length);
+        pages.fill(10, 9000, (byte)0x80);
+        assertEquals((byte)0x80, pages.readByte(9009));
+        assertEquals(0, pages.readByte(9010));
+
+        assertEquals(1, pages.compare(8000, 9010, 100));
+        assertEquals(-1, pages.compare(9010, 8000, 100));
+        assertEquals(0, pages.compare(10, 4000, 5000));
+        assertEquals(9010, pages.indexOf(5000, 10000, (byte)0));
+        assertEquals(-1, pages.indexOf(10, 9000, (byte)0));
+    }
+
+    @Test
+    public void testArrayBlockOperations() {
+        Random rand = new Random(0xa77a);
+        byte[] data = new byte[20000];
+        rand.nextBytes(data);
+
+        MemoryBackend array = new VarHandleMemory(data.length);
+        MemoryBackend pages = new CopyOnWriteMemory(data.length);
+        for(MemoryBackend memory : new MemoryBackend[] { array, pages }) {
+            memory.storeBytes(0, data, 0, data.length);
+            memory.copy(100, 5000, 10000);
+            memory.copy(5000, 100, 10000);
+            memory.fill(10, 9000, (byte)0x80);
+        }
+
+        byte[] expected = new byte[data.length];
+        byte[] actual = new byte[data.length];
+        pages.readBytes(0, expected, 0, expected.length);
+        array.readBytes(0, actual, 0, actual.length);
+        assertArrayEquals(expected, actual);
+
+        for(int[] range : new int[][] { { 8000, 9010, 100 }, { 9010, 8000, 100 }, { 10, 4000, 5000 }, { 0, 12000, 8000 } }) {
+            assertEquals(pages.compare(range[0], range[1], range[2]), array.compare(range[0], range[1], range[2]));
+            assertEquals(pages.indexOf(range[0], range[2], data[range[1]]), array.indexOf(range[0], range[2], data[range[1]]));
+        }
+        assertEquals(-1, array.indexOf(10, 9000, (byte)0));
+    }
+
+    @Test(expected=IndexOutOfBoundsException.class)
+    public void testArrayOutOfBounds() {
+        new VarHandleMemory(1024).fill(1000, 100, (byte)0);
+    }
+
+    @Test(expected=IndexOutOfBoundsException.class)
+    public void testOutOfBounds() {
+        new RAM(1024).copy(1000, 0, 100);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Tony
+ *
+ */
+public class BytecodeImageTest {
+
+    private static final String PROGRAM =
+          ".text \"Hello World\"\n"
+        + ".num 42\n"
+        + "ldca $a .text\n"
+        + "pushi $a\n"
+        + "call :strlen\n"
+        + "ldci $d .num\n"
+        + "jmp :exit\n"
+        + ":strlen\n"
+        + "  popi $a\n"
+        + "  :loop\n"
+        + "  ifb &$a #0\n"
+        + "  jmp :end\n"
+        + "  addi $a #1\n"
+        + "  addi $c #1\n"
+        + "  jmp :loop\n"
+        + "  :end\n"
+        + "  ret\n"
+        + ":exit\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        LitaVM assembled = new LitaVM(1024 * 8, 1024, false);
+        Assembler asm = new Assembler(assembled);
+        Bytecode bytecode = asm.compile(PROGRAM);
+
+        File file = folder.newFile("program.lita");
+        BytecodeImage.fromVM(assembled, bytecode, asm.getSymbols()).write(file.toPath());
+
+        BytecodeImage image = BytecodeImage.read(file.toPath());
+        assertArrayEquals(bytecode.instr, image.getBytecode().instr);
+        assertArrayEquals(bytecode.constants, image.getBytecode().constants);
+        assertEquals(bytecode.pc, image.getBytecode().pc);
+        assertEquals(Integer.valueOf(6), image.getSymbols().get(":loop"));
+        assertTrue(image.getSymbols().containsKey(".text"));
+
+        LitaVM loaded = new LitaVM(1024 * 8, 1024, false);
+        loaded.execute(image.load(loaded));
+        assembled.execute(bytecode);
+
+        assertEquals(11, loaded.getCpu().getRegisterFile()[6]);
+        assertArrayEquals(assembled.getCpu().getRegisterFile(), loaded.getCpu().getRegisterFile());
+        assertArrayEquals(assembled.getRam().mem, loaded.getRam().mem);
+    }
+
+    @Test
+    public void testCorruptCounts() throws Exception {
+        LitaVM vm = new LitaVM(1024 * 8, 1024, false);
+        Assembler asm = new Assembler(vm);
+        File file = folder.newFile("program.lita");
+        BytecodeImage.fromVM(vm, asm.compile(PROGRAM), asm.getSymbols()).write(file.toPath());
+        byte[] image = Files.readAllBytes(file.toPath());
+
+        // constant pool size, number of constants, instructions and symbols
+        for(int offset = 12; offset <= 24; offset += 4) {
+            for(int count : new int[] { -1, Integer.MAX_VALUE }) {
+                byte[] corrupt = image.clone();
+                ByteBuffer.wrap(corrupt).putInt(offset, count);
+                Files.write(file.toPath(), corrupt);
+
+                try {
+                    BytecodeImage.read(file.toPath());
+                    fail("Expected a corrupt image at offset " + offset);
+                }
+                catch(IOException e) {
+                    assertTrue(e.getMessage(), e.getMessage().contains("corrupt"));
+                }
+            }
+        }
+    }
+
+    @Test(expected=IOException.class)
+    public void testNotAnImage() throws Exception {
+        File file = folder.newFile("program.asm");
+        Files.write(file.toPath(), PROGRAM.getBytes("UTF8"));
+
+        BytecodeImage.read(file.toPath());
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Tony
+ *
+ */
+public class CPU32Test {
+
+    private LitaVM vm;
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        this.vm = new LitaVM(1024 * 64, 1024, false);
+    }
+
+    private CPU32 run(String assembly) {
+        Assembler asm = new Assembler(this.vm);
+        Bytecode code = asm.compile(assembly);
+
+        this.vm.execute(code);
+        return this.vm.getCpu();
+    }
+
+    private int reg(String name) {
+        for(Register r : this.vm.getCpu().getRegisters()) {
+            if(r.getName().equals(name)) {
+                return r.intValue();
+            }
+        }
+
+        throw new IllegalArgumentException(name);
+    }
+
+    @Test
+    public void testLoop() {
+        run(  "movi $b #1000\n"
+            + "movi $a #0\n"
+            + "movi $c #0\n"
+            + ":loop\n"
+            + "ifi $b $a\n"
+            + "jmp :done\n"
+            + "addi $a #1\n"
+            + "addi $c $a\n"
+            + "jmp :loop\n"
+            + ":done\n");
+
+        assertEquals(1000, reg("$a"));
+        assertEquals(500500, reg("$c"));
+    }
+
+    @Test
+    public void testStringWalk() {
+        run(  ".text \"Hello World\"\n"
+            + "ldca $a .text\n"
+            + "movi $b $a\n"
+            + "pushi $a\n"
+            + "call :strlen\n"
+            + "jmp :exit\n"
+            + ":strlen\n"
+            + "  popi $a\n"
+            + "  movi $c #0\n"
+            + "  :loop\n"
+            + "  ifb &$a #0\n"
+            + "  jmp :end\n"
+            + "  addi $a #1\n"
+            + "  addi $c #1\n"
+            + "  jmp :loop\n"
+            + "  :end\n"
+            + "  ret\n"
+            + ":exit\n");
+
+        assertEquals(11, reg("$c"));
+        assertEquals(reg("$b") + 11, reg("$a"));
+        assertEquals(4, reg("$r"));
+    }
+
+    @Test
+    public void testStack() {
+        CPU32 cpu = run(  "movi $a #7\n"
+                        + "pushi $a\n"
+                        + "pushb #3\n"
+                        + "popb $c\n"
+                        + "dupi $d\n"
+                        + "popi $b\n"
+                        + "popi $i\n");
+
+        assertEquals(7, reg("$b"));
+        assertEquals(3, reg("$c"));
+        assertEquals(7, reg("$d"));
+        assertEquals(7, reg("$i"));
+        assertEquals(cpu.getRam().sizeInBytes() - 1, cpu.getSp().address());
+    }
+
+    @Test
+    public void testMemoryArgs() {
+        run(  "movi $a $h\n"
+            + "movi &$a #300\n"
+            + "addi &$a #5\n"
+            + "movi $b &$a\n"
+            + "movb $c &$a\n");
+
+        assertEquals(305, reg("$b"));
+        assertEquals(0, reg("$c"));
+    }
+
+    @Test
+    public void testSpecializedFormsMatchGeneric() {
+        // $b is computed with the register forms, the memory at $a with the generic forms
+        run(  "movi $a $h\n"
+            + "movi $b #1234\n"
+            + "movi $c #3\n"
+            + "movi &$a $b\n"
+            + "slli $b $c\n"
+            + "slli &$a $c\n"
+            + "ori $b #0x55\n"
+            + "ori &$a #0x55\n"
+            + "subi $b $c\n"
+            + "subi &$a $c\n"
+            + "xori $b #0xFF\n"
+            + "xori &$a #0xFF\n"
+            + "szrli $b #2\n"
+            + "szrli &$a #2\n"
+            + "movi $d &$a\n");
+
+        assertEquals(((((1234 << 3) | 0x55) - 3) ^ 0xFF) >>> 2, reg("$b"));
+        assertEquals(reg("$b"), reg("$d"));
+    }
+
+    @Test
+    public void testSuperInstructions() {
+        Assembler asm = new Assembler(this.vm);
+        DecodedBytecode code = DecodedBytecode.decode(asm.compile(
+                  ".text \"Hello\"\n"
+                + "ldca $a .text\n"
+                + "pushi $a\n"
+                + "call :walk\n"
+                + "movi $b #0\n"
+                + "movi $c #0\n"
+                + "jmp :again\n"         // lands on the jmp half of the fused pair
+                + ":count\n"
+                + "addi $b #1\n"
+                + "addi $c #2\n"
+                + "ifei $b #5\n"
+                + ":again\n"
+                + "jmp :count\n"
+                + "jmp :exit\n"
+                + ":walk\n"
+                + "  popi $a\n"
+                + "  movi $d $h\n"
+                + "  :loop\n"
+                + "  ifb &$a #0\n"
+                + "  jmp :end\n"
+                + "  movb &$d &$a\n"
+                + "  addi $d #1\n"
+                + "  addi $a #1\n"
+                + "  jmp :loop\n"
+                + "  :end\n"
+                + "  ret\n"
+                + ":exit\n"));
+
+        assertEquals(Integer.valueOf(1), code.getFusions().get("IFEI_RI_JMP"));
+        assertEquals(Integer.valueOf(1), code.getFusions().get("IFB_MI_JMP"));
+        assertEquals(Integer.valueOf(1), code.getFusions().get("PUSHI_CALL"));
+
+        this.vm.execute(code);
+
+        assertEquals(5, reg("$b"));
+        assertEquals(10, reg("$c"));
+        assertEquals(reg("$h") + 5, reg("$d"));
+        assertEquals('o', this.vm.getRam().readByte(reg("$h") + 4));
+    }
+
+    @Test(expected=EvalException.class)
+    public void testDivideByZero() {
+        run(  "movi $a #10\n"
+            + "divi $a #0\n");
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+/**
+ * @author Tony
+ *
+ */
+public class DeviceBusTest {
+
+    private static final int CONSOLE = 480000;
+    private static final int RING    = 488000;
+    private static final int DMA     = 500000;
+
+    private static String copy(String source, String destination, String length, int flags) {
+        return    "movi $a #" + DMA + "\n"
+                + "movi &$a " + source + "\n"
+                + "addi $a #4\n"
+                + "movi &$a " + destination + "\n"
+                + "addi $a #4\n"
+                + "movi &$a " + length + "\n"
+                + "addi $a #4\n"
+                + "movi &$a #" + flags + "\n"
+                + "addi $a #4\n"
+                + "movi $b &$a\n";
+    }
+
+    @Test
+    public void testStreamDevices() {
+        DeviceBus bus = new DeviceBus(new VarHandleMemory(1 << 20));
+        LitaVM vm = new LitaVM(new RAM(bus), 1024, false, DispatchMode.SWITCH);
+
+        CaptureOutputDevice out = new CaptureOutputDevice();
+        vm.getCpu().setOutput(out);
+
+        RingBufferDevice ring = new RingBufferDevice(64 * 1024);
+        bus.map(CONSOLE, new ConsoleDevice(out, System.in));
+        bus.map(RING, ring);
+        bus.map(DMA, new DmaController(bus));
+
+        byte[] data = new byte[20000];
+        for(int i = 0; i < data.length; i++) {
+            data[i] = (byte)('a' + i % 26);
+        }
+        assertEquals(data.length, ring.offer(data, 0, data.length));
+
+        // ring -> heap, and heap -> console, asking for more than there is
+        vm.execute(new Assembler(vm).compile(
+                copy("#" + RING, "$h", "#30000", DmaController.FIXED_SOURCE)
+              + "printi $b\n"
+              + copy("$h", "#" + CONSOLE, "$b", DmaController.FIXED_DESTINATION)
+              + "printi $b\n"));
+
+        assertEquals(0, ring.available());
+        assertEquals("20000\n" + new String(data, StandardCharsets.ISO_8859_1) + "20000\n", out.toString());
+    }
+
+    @Test
+    public void testConsoleFlushesBeforeRead() {
+        DeviceBus bus = new DeviceBus(new VarHandleMemory(1 << 20));
+        LitaVM vm = new LitaVM(new RAM(bus), 1024, false, DispatchMode.SWITCH);
+
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        vm.getCpu().setOutput(new BufferedOutputDevice(Channels.newChannel(written)));
+
+        StringBuilder seenByRead = new StringBuilder();
+        InputStream input = new InputStream() {
+            @Override
+            public int read() {
+                seenByRead.append(new String(written.toByteArray(), StandardCharsets.ISO_8859_1));
+                return 'y';
+            }
+        };
+
+        bus.map(CONSOLE, new ConsoleDevice(vm.getCpu().getOutput(), input));
+
+        vm.execute(new Assembler(vm).compile(
+                "printc #63\n"
+              + "movi $a #" + CONSOLE + "\n"
+              + "movb $b &$a\n"));
+
+        assertEquals("?", seenByRead.toString());
+        assertEquals('y', vm.getCpu().getRegisterFile()[5]);
+    }
+
+    @Test
+    public void testLoadsAndStores() {
+        for(ByteOrder order : new ByteOrder[] { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN }) {
+            DeviceBus bus = new DeviceBus(new VarHandleMemory(1 << 20, order));
+            LitaVM vm = new LitaVM(new RAM(bus), 1024, false, DispatchMode.SWITCH);
+
+            RingBufferDevice ring = new RingBufferDevice(16);
+            bus.map(RING, ring);
+
+            vm.execute(new Assembler(vm).compile(
+                    "movi $a #" + RING + "\n"
+                  + "movi &$a #258\n"
+                  + "movb &$a #7\n"
+                  + "movi $b &$a\n"
+                  + "movb $c &$a\n"
+                  + "movb $d &$a\n"));
+
+            int[] regs = vm.getCpu().getRegisterFile();
+            assertEquals(order.toString(), 258, regs[5]);
+            assertEquals(order.toString(), 7, regs[6]);
+            assertEquals(order.toString(), 0, regs[7]);
+        }
+    }
+
+    @Test
+    public void testFileDevice() throws Exception {
+        Path file = Files.createTempFile("litavm", ".dat");
+        try {
+            Files.write(file, "file contents".getBytes(StandardCharsets.ISO_8859_1));
+
+            DeviceBus bus = new DeviceBus(new VarHandleMemory(1 << 20));
+            LitaVM vm = new LitaVM(new RAM(bus), 1024, false, DispatchMode.SWITCH);
+            try(FileDevice device = FileDevice.open(file, true)) {
+                bus.map(RING, device);
+                bus.map(DMA, new DmaController(bus));
+
+                vm.execute(new Assembler(vm).compile(
+                        copy("#" + RING, "#1000", "#100", 0)
+                      + "movi $a #1000\n"
+                      + "movb &$a #70\n"
+                      + copy("#1000", "#" + RING, "#4", 0)));
+
+                byte[] heap = new byte[13];
+                vm.getRam().readBytes(1000, heap, 0, heap.length);
+                assertEquals("File contents", new String(heap, StandardCharsets.ISO_8859_1));
+                assertEquals(4, vm.getCpu().getRegisterFile()[5]);
+            }
+            assertEquals("File contents", new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1));
+        }
+        finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testUnmappedMemory() {
+        DeviceBus bus = new DeviceBus(new VarHandleMemory(1024));
+        bus.map(512, new RingBufferDevice(16, 16));
+
+        bus.storeInt(100, 0x01020304);
+        assertEquals(0x01020304, bus.readInt(100));
+        assertNull(bus.getDevice(100));
+        assertNotNull(bus.getDevice(520));
+
+        // straddles memory and the device
+        bus.storeInt(508, 0x05060708);
+        bus.storeBytes(510, new byte[] { 1, 2, 3, 4 }, 0, 4);
+        assertEquals(0x05060102, bus.readInt(508));
+        assertEquals(0x03040000, bus.readInt(512));
+        assertEquals(0, bus.readByte(512));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testOverlap() {
+        DeviceBus bus = new DeviceBus(new VarHandleMemory(1024));
+        bus.map(512, new RingBufferDevice(16, 16));
+        bus.map(500, new RingBufferDevice(16, 16));
+    }
+}
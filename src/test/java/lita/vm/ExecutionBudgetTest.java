@@ -0,0 +1,127 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests executing with an instruction or time budget, and resuming the suspended execution
+ *
+ * @author Tony
+ *
+ */
+public class ExecutionBudgetTest {
+
+    private static final String FOREVER =   ":loop\n"
+                                          + "addi $a #1\n"
+                                          + "jmp :loop\n";
+
+    @Test
+    public void testSlicesMatchRunToCompletion() {
+        Random rand = new Random(0xb0d6e7);
+        for(int i = 0; i < 20; i++) {
+            String assembly = RandomPrograms.generate(rand);
+            for(DispatchMode mode : DispatchMode.values()) {
+                LitaVM whole = new LitaVM(1024 * 8, 1024, false, mode);
+                whole.execute(new Assembler(whole).compile(assembly));
+
+                LitaVM sliced = new LitaVM(1024 * 8, 1024, false, mode);
+                DecodedBytecode code = DecodedBytecode.decode(new Assembler(sliced).compile(assembly));
+
+                ExecutionState state = sliced.execute(code, 3);
+                while(!state.isFinished()) {
+                    state = sliced.resume(state, 3);
+                }
+
+                assertArrayEquals(assembly, whole.getCpu().getRegisterFile(), sliced.getCpu().getRegisterFile());
+                assertArrayEquals(assembly, whole.getRam().mem, sliced.getRam().mem);
+            }
+        }
+    }
+
+    @Test
+    public void testRunawayLoop() {
+        for(DispatchMode mode : DispatchMode.values()) {
+            LitaVM vm = new LitaVM(1024, 256, false, mode);
+            vm.getCpu().setJitThreshold(1);
+
+            DecodedBytecode code = DecodedBytecode.decode(new Assembler(vm).compile(FOREVER));
+
+            ExecutionState state = vm.execute(code, 1000);
+            assertFalse(state.isFinished());
+            assertEquals(0, state.getPc());
+            assertEquals(500, state.getRegisters()[4]);
+
+            state = vm.resume(state, 1000);
+            assertEquals(1000, vm.getCpu().getRegisterFile()[4]);
+
+            // the registers are restored from the state
+            vm.getCpu().getRegisterFile()[4] = 0;
+            vm.resume(state, 1000);
+            assertEquals(1500, vm.getCpu().getRegisterFile()[4]);
+        }
+    }
+
+    @Test
+    public void testReturnLoop() {
+        // RET can loop without a JMP or CALL
+        LitaVM vm = new LitaVM(1024, 256, false);
+        DecodedBytecode code = DecodedBytecode.decode(new Assembler(vm).compile("movi $r #0\n"
+                                                                               + "addi $a #1\n"
+                                                                               + "ret\n"));
+        assertFalse(vm.execute(code, 100_000).isFinished());
+    }
+
+    @Test
+    public void testCallsAreCharged() {
+        LitaVM vm = new LitaVM(1024, 256, false, DispatchMode.THREADED);
+        DecodedBytecode code = DecodedBytecode.decode(new Assembler(vm).compile(":loop\n"
+                                                                               + "pushi $a\n"
+                                                                               + "call :inc\n"
+                                                                               + "jmp :loop\n"
+                                                                               + ":inc\n"
+                                                                               + "popi $b\n"
+                                                                               + "addi $a #1\n"
+                                                                               + "ret\n"));
+        ExecutionState state = vm.execute(code, 600);
+        assertFalse(state.isFinished());
+        assertEquals(100, state.getRegisters()[4]);
+    }
+
+    @Test
+    public void testTimeBudget() {
+        LitaVM vm = new LitaVM(1024, 256, false);
+        DecodedBytecode code = DecodedBytecode.decode(new Assembler(vm).compile(FOREVER));
+
+        ExecutionState state = vm.getCpu().executeFor(code, 20_000_000L);
+        assertFalse(state.isFinished());
+        assertTrue(state.getRegisters()[4] > 0);
+    }
+
+    @Test
+    public void testFinishedWithinBudget() {
+        LitaVM vm = new LitaVM(1024, 256, false);
+        DecodedBytecode code = DecodedBytecode.decode(new Assembler(vm).compile("movi $a #3\n"));
+
+        ExecutionState state = vm.execute(code, 1);
+        assertTrue(state.isFinished());
+        assertSame(state, vm.resume(state, 1));
+    }
+
+    @Test
+    public void testStatsWithBudget() {
+        ExecutionStats stats = new ExecutionStats();
+        LitaVM vm = new LitaVM(1024, 256, false);
+        vm.getCpu().setStats(stats);
+
+        DecodedBytecode code = DecodedBytecode.decode(new Assembler(vm).compile(FOREVER));
+        ExecutionState state = vm.execute(code, 1000);
+        assertFalse(state.isFinished());
+        assertEquals(1000, stats.getInstructionsRetired());
+    }
+}
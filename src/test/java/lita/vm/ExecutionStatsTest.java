@@ -0,0 +1,92 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import lita.vm.ExecutionStats.Region;
+
+/**
+ * @author Tony
+ *
+ */
+public class ExecutionStatsTest {
+
+    private static final String PROGRAM =   ".text \"Hi\"\n"
+                                          + "movi $a #0\n"
+                                          + ":loop\n"
+                                          + "addi $a #1\n"
+                                          + "ifi $a #4\n"    // fused with the jmp, but still counted separately
+                                          + "jmp :loop\n"
+                                          + "ldca $b .text\n"
+                                          + "movb $c &$b\n"
+                                          + "movi $k $h\n"
+                                          + "movi &$k $a\n"
+                                          + "pushi $a\n"
+                                          + "popi $d\n";
+
+    @Test
+    public void testCounts() {
+        for(DispatchMode mode : DispatchMode.values()) {
+            ExecutionStats stats = new ExecutionStats();
+
+            LitaVM vm = new LitaVM(new RAM(stats.countAccesses(new VarHandleMemory(1024))), 256, false, mode);
+            vm.getCpu().setJitThreshold(1);
+            vm.getCpu().setStats(stats);
+            vm.execute(new Assembler(vm).compile(PROGRAM));
+
+            assertEquals(5, vm.getCpu().getRegisterFile()[7]);
+
+            // 1 + 5 * (addi, ifi) + 4 jmps + 6
+            assertEquals(21, stats.getInstructionsRetired());
+            assertEquals(5, stats.getOpcodeCount(Opcodes.ADDI));
+            assertEquals(5, stats.getOpcodeCount(Opcodes.IFI));
+            assertEquals(4, stats.getOpcodeCount(Opcodes.JMP));
+            assertArrayEquals(new long[] { 1, 5, 5, 4, 1, 1, 1, 1, 1, 1 }, stats.getPcCounts());
+
+            assertEquals(1, stats.getReads(Region.CONSTANT_POOL));
+            assertEquals(0, stats.getWrites(Region.CONSTANT_POOL));
+            assertEquals(1, stats.getWrites(Region.HEAP));
+            assertEquals(1, stats.getWrites(Region.STACK));
+            assertEquals(1, stats.getReads(Region.STACK));
+        }
+    }
+
+    @Test
+    public void testRepeatedExecutions() {
+        ExecutionStats stats = new ExecutionStats();
+
+        LitaVM vm = new LitaVM(1024, 256, false);
+        vm.getCpu().setStats(stats);
+
+        Bytecode code = new Assembler(vm).compile(PROGRAM);
+        vm.execute(code);
+        vm.execute(code);
+
+        // the hit counts of the first execution are not added again
+        assertEquals(42, stats.getInstructionsRetired());
+        assertArrayEquals(new long[] { 2, 10, 10, 8, 2, 2, 2, 2, 2, 2 }, stats.getPcCounts());
+    }
+
+    @Test
+    public void testSameResults() {
+        String assembly = RandomPrograms.generate(new Random(0x57a7));
+
+        LitaVM plain = new LitaVM(1024 * 8, 1024, false);
+        plain.execute(new Assembler(plain).compile(assembly));
+
+        ExecutionStats stats = new ExecutionStats();
+        LitaVM instrumented = new LitaVM(1024 * 8, 1024, false);
+        instrumented.getCpu().setStats(stats);
+        instrumented.execute(new Assembler(instrumented).compile(assembly));
+
+        assertArrayEquals(plain.getCpu().getRegisterFile(), instrumented.getCpu().getRegisterFile());
+        assertArrayEquals(plain.getRam().mem, instrumented.getRam().mem);
+        assertTrue(stats.getInstructionsRetired() > 0);
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+/**
+ * Runs the same programs through the interpreter and the {@link JitCompiler} and verifies
+ * they end up in the same state
+ *
+ * @author Tony
+ *
+ */
+public class JitCompilerTest {
+
+    private static class Result {
+        int[] registers;
+        byte[] memory;
+        int compiledRegions;
+        int failedRegions;
+    }
+
+    private Result run(String assembly, int jitThreshold) {
+        LitaVM vm = new LitaVM(1024 * 8, 1024, false);
+        vm.getCpu().setJitThreshold(jitThreshold);
+
+        DecodedBytecode code = DecodedBytecode.decode(new Assembler(vm).compile(assembly));
+        vm.getCpu().execute(code);
+
+        Result result = new Result();
+        result.registers = vm.getCpu().getRegisterFile().clone();
+        result.memory = new byte[vm.getRam().sizeInBytes()];
+        vm.getRam().readBytes(0, result.memory, 0, result.memory.length);
+        if(jitThreshold > 0) {
+            result.compiledRegions = code.getJitCompiler(jitThreshold).getNumberOfCompiledRegions();
+            result.failedRegions = code.getJitCompiler(jitThreshold).getFailures().size();
+        }
+        return result;
+    }
+
+    private void assertSameResults(String assembly) {
+        Result interpreted = run(assembly, 0);
+        Result compiled = run(assembly, 1);
+
+        assertTrue(compiled.compiledRegions > 0);
+        assertEquals(0, compiled.failedRegions);
+        assertArrayEquals(assembly, interpreted.registers, compiled.registers);
+        assertArrayEquals(assembly, interpreted.memory, compiled.memory);
+    }
+
+    @Test
+    public void testSharedAcrossThreads() throws Exception {
+        String assembly =   "movi $b #20000\n"
+                          + "movi $a #0\n"
+                          + "movi $c #0\n"
+                          + ":loop\n"
+                          + "ifi $b $a\n"
+                          + "jmp :done\n"
+                          + "addi $a #1\n"
+                          + "addi $c $a\n"
+                          + "jmp :loop\n"
+                          + ":done\n";
+        Result interpreted = run(assembly, 0);
+        Result compiled = run(assembly, 50);
+
+        DecodedBytecode code = DecodedBytecode.decode(new Assembler(new LitaVM(1024 * 8, 1024, false)).compile(assembly));
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<int[]>> results = new ArrayList<>();
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            for(int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> {
+                    LitaVM vm = new LitaVM(1024 * 8, 1024, false);
+                    vm.getCpu().setJitThreshold(50);
+                    start.await();
+                    vm.getCpu().execute(code);
+                    return vm.getCpu().getRegisterFile().clone();
+                }));
+            }
+            start.countDown();
+
+            for(Future<int[]> result : results) {
+                assertArrayEquals(interpreted.registers, result.get());
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+
+        // every target is compiled once, however many threads reach the threshold
+        assertEquals(compiled.compiledRegions, code.getJitCompiler(50).getNumberOfCompiledRegions());
+    }
+
+    @Test
+    public void testLoop() {
+        assertSameResults(  "movi $b #1000\n"
+                          + "movi $a #0\n"
+                          + "movi $c #0\n"
+                          + ":loop\n"
+                          + "ifi $b $a\n"
+                          + "jmp :done\n"
+                          + "addi $a #1\n"
+                          + "addi $c $a\n"
+                          + "jmp :loop\n"
+                          + ":done\n");
+    }
+
+    @Test
+    public void testStringWalk() {
+        assertSameResults(  ".text \"Hello World\"\n"
+                          + "movi $j #0\n"
+                          + ":again\n"
+                          + "ldca $a .text\n"
+                          + "pushi $a\n"
+                          + "call :strlen\n"
+                          + "addi $j #1\n"
+                          + "ifei $j #10\n"
+                          + "jmp :again\n"
+                          + "jmp :exit\n"
+                          + ":strlen\n"
+                          + "  popi $a\n"
+                          + "  :loop\n"
+                          + "  ifb &$a #0\n"
+                          + "  jmp :end\n"
+                          + "  addi $a #1\n"
+                          + "  addi $c #1\n"
+                          + "  jmp :loop\n"
+                          + "  :end\n"
+                          + "  ret\n"
+                          + ":exit\n");
+    }
+
+    @Test
+    public void testRandomPrograms() {
+        Random rand = new Random(0x11a);
+        for(int i = 0; i < 40; i++) {
+            assertSameResults(RandomPrograms.generate(rand));
+        }
+    }
+
+    /**
+     * Both arguments read a FIFO device, so the result depends on the order they are read in
+     */
+    @Test
+    public void testDeviceArgumentOrder() {
+        final int ring = 500000;
+        String assembly =   "movi $a #" + ring + "\n"
+                          + "movi $b #0\n"
+                          + "movi $c #0\n"
+                          + "movi $d #0\n"
+                          + ":loop\n"
+                          + "ifi &$a &$a\n"
+                          + "addi $c #1\n"
+                          + "movi $i &$a\n"
+                          + "subi $i &$a\n"
+                          + "addi $d $i\n"
+                          + "addi $b #1\n"
+                          + "ifei $b #3\n"
+                          + "jmp :loop\n";
+
+        int[][] registers = new int[2][];
+        for(int jitThreshold = 0; jitThreshold < 2; jitThreshold++) {
+            DeviceBus bus = new DeviceBus(new VarHandleMemory(1 << 20));
+            LitaVM vm = new LitaVM(new RAM(bus), 1024, false, DispatchMode.SWITCH);
+            vm.getCpu().setJitThreshold(jitThreshold);
+
+            RingBufferDevice device = new RingBufferDevice(1024);
+            bus.map(ring, device);
+
+            byte[] values = new byte[4 * 16];
+            for(int i = 0; i < 16; i++) {
+                values[i * 4 + 3] = (byte)i;
+            }
+            device.offer(values, 0, values.length);
+
+            vm.execute(new Assembler(vm).compile(assembly));
+            registers[jitThreshold] = vm.getCpu().getRegisterFile().clone();
+        }
+
+        assertEquals(0, registers[0][6]);
+        assertArrayEquals(registers[0], registers[1]);
+    }
+
+    @Test
+    public void testDivideByZero() {
+        String assembly =   "movi $a #10\n"
+                          + "movi $b #3\n"
+                          + ":loop\n"
+                          + "subi $b #1\n"
+                          + "divi $a $b\n"
+                          + "jmp :loop\n";
+
+        LitaVM vm = new LitaVM(1024, 256, false);
+        vm.getCpu().setJitThreshold(1);
+        try {
+            vm.execute(new Assembler(vm).compile(assembly));
+            fail("Expected divide by zero");
+        }
+        catch(EvalException e) {
+            assertEquals(0, vm.getCpu().getRegisterFile()[5]);
+            assertEquals(5, vm.getCpu().getRegisterFile()[4]);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Tony
+ *
+ */
+public class LinkerTest {
+
+    private static final String MAIN =   "import :strlen .greeting\n"
+                                       + ".one 1\n"
+                                       + "ldca $a .greeting\n"
+                                       + "pushi $a\n"
+                                       + "call :strlen\n"
+                                       + "movi $d $r\n"
+                                       + "ldci $i .one\n"
+                                       + "movi $j #0\n"
+                                       + ":loop\n"                 // also defined by the library
+                                       + "  addi $j #1\n"
+                                       + "  ifi $j #2\n"
+                                       + "  jmp :loop\n"
+                                       + "jmp :exit\n"
+                                       + ":exit\n";
+
+    private static final String LIBRARY =   "export :strlen .greeting\n"
+                                          + ".greeting \"Hello World\"\n"
+                                          + ".one 1\n"
+                                          + ":strlen\n"
+                                          + "  popi $b\n"
+                                          + "  movi $r #0\n"
+                                          + "  :loop\n"
+                                          + "  ifb &$b #0\n"
+                                          + "  jmp :end\n"
+                                          + "  addi $b #1\n"
+                                          + "  addi $r #1\n"
+                                          + "  jmp :loop\n"
+                                          + "  :end\n"
+                                          + "  ret\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private void assertRuns(LitaVM vm, Bytecode code) {
+        vm.execute(code);
+
+        int[] regs = vm.getCpu().getRegisterFile();
+        assertEquals(11, regs[7]);
+        assertEquals(1, regs[8]);
+        assertEquals(3, regs[9]);
+    }
+
+    @Test
+    public void testLink() {
+        LitaVM vm = new LitaVM(1024, 256, false);
+        Assembler asm = new Assembler(vm);
+
+        ObjectModule main = asm.compileModule("main", MAIN);
+        ObjectModule library = asm.compileModule("library", LIBRARY);
+        assertEquals(new LinkedHashSet<>(Arrays.asList(":strlen", ".greeting")), library.getExports());
+
+        Bytecode code = asm.link(Arrays.asList(main, library));
+        assertEquals(main.getNumberOfInstructions() + library.getNumberOfInstructions(), code.length);
+
+        // the equal constants of both modules share an entry
+        assertEquals(2, code.constants.length);
+        // the entry module is laid out after the library
+        assertEquals(library.getNumberOfInstructions(), code.pc);
+        assertEquals(Integer.valueOf(0), asm.getSymbols().get(":strlen"));
+
+        assertRuns(vm, code);
+    }
+
+    @Test
+    public void testModuleFiles() throws Exception {
+        LitaVM vm = new LitaVM(1024, 256, false);
+        Assembler asm = new Assembler(vm);
+        Bytecode expected = asm.link(Arrays.asList(asm.compileModule("main", MAIN), asm.compileModule("library", LIBRARY)));
+
+        Path mainFile = folder.getRoot().toPath().resolve("main.lito");
+        Path libraryFile = folder.getRoot().toPath().resolve("library.lito");
+        asm.compileModule("main", MAIN).write(mainFile);
+        asm.compileModule("library", LIBRARY).write(libraryFile);
+
+        ObjectModule library = ObjectModule.read(libraryFile);
+        assertEquals("library.lito", library.getName());
+
+        LitaVM linked = new LitaVM(1024, 256, false);
+        Bytecode code = new Assembler(linked).link(Arrays.asList(ObjectModule.read(mainFile), library));
+        assertArrayEquals(expected.instr, code.instr);
+        assertArrayEquals(expected.constants, code.constants);
+        assertEquals(expected.pc, code.pc);
+        assertRuns(linked, code);
+    }
+
+    @Test
+    public void testCorruptModuleFiles() throws Exception {
+        Assembler asm = new Assembler(new LitaVM(1024, 256, false));
+        Path file = folder.getRoot().toPath().resolve("library.lito");
+        asm.compileModule("library", LIBRARY).write(file);
+        byte[] valid = Files.readAllBytes(file);
+
+        // the number of instructions follows the magic, version and flags
+        for(int numberOfInstrs : new int[] { 0x7fffff00, -5 }) {
+            byte[] corrupt = valid.clone();
+            ByteBuffer.wrap(corrupt).putInt(8, numberOfInstrs);
+            assertCorrupt(file, corrupt);
+        }
+        assertCorrupt(file, Arrays.copyOf(valid, valid.length - 1));
+
+        for(int[] fixup : new int[][] { { 1000, ObjectModule.Fixup.JUMP }, { -1, ObjectModule.Fixup.JUMP }, { 0, 7 } }) {
+            ObjectModule module = asm.compileModule("library", LIBRARY);
+            module.fixups.add(new ObjectModule.Fixup(fixup[0], fixup[1], ":strlen", 1));
+            module.write(file);
+            assertCorrupt(file, Files.readAllBytes(file));
+        }
+    }
+
+    private void assertCorrupt(Path file, byte[] contents) throws Exception {
+        Files.write(file, contents);
+        try {
+            ObjectModule.read(file);
+            fail("Expected a corrupt module");
+        }
+        catch(IOException e) {
+            assertEquals("'library.lito' is a truncated or corrupt LitaVM module", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testSingleModule() {
+        Assembler asm = new Assembler(new LitaVM(1024, 256, false));
+        Bytecode expected = asm.compile(LIBRARY);
+
+        Bytecode linked = asm.link(Arrays.asList(asm.compileModule(null, LIBRARY)));
+        assertArrayEquals(expected.instr, linked.instr);
+        assertArrayEquals(expected.constants, linked.constants);
+    }
+
+    @Test
+    public void testLinkErrors() {
+        assertLinkError("Symbol ':strlen' is exported by more than one module in 'copy'", MAIN, LIBRARY, LIBRARY);
+        assertLinkError("No label defined for ':strlen' in 'main' at line: 5", MAIN.replace("import :strlen", "import"), LIBRARY);
+        assertLinkError("No module exports ':strlen' in 'main' at line: 5", MAIN, LIBRARY.replace("export :strlen", "export"));
+        assertLinkError("Exported symbol ':missing' is not defined in 'library'", MAIN, LIBRARY + "export :missing\n");
+    }
+
+    private void assertLinkError(String expected, String... sources) {
+        Assembler asm = new Assembler(new LitaVM(1024, 256, false));
+        ObjectModule[] modules = new ObjectModule[sources.length];
+        for(int i = 0; i < sources.length; i++) {
+            modules[i] = asm.compileModule(i == 0 ? "main" : (i == 1 ? "library" : "copy"), sources[i]);
+        }
+
+        try {
+            asm.link(Arrays.asList(modules));
+            fail("Expected a link error: " + expected);
+        }
+        catch(ParserException e) {
+            assertEquals(expected, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * @author Tony
+ *
+ */
+public class OutputDeviceTest {
+
+    private CaptureOutputDevice run(String assembly, DispatchMode dispatchMode) {
+        LitaVM vm = new LitaVM(1024, 256, false, dispatchMode);
+        CaptureOutputDevice out = new CaptureOutputDevice();
+        vm.getCpu().setOutput(out);
+        vm.execute(new Assembler(vm).compile(assembly));
+        return out;
+    }
+
+    @Test
+    public void testPrint() {
+        String assembly =   ".half 2.5\n"
+                          + "movi $a #0\n"
+                          + "subi $a #123\n"
+                          + "printi $a\n"
+                          + "printi #0\n"
+                          + "printi #524287\n"
+                          + "movi $b #1\n"
+                          + "slli $b #31\n"
+                          + "printi $b\n"
+                          + "ldcf $c .half\n"
+                          + "printf $c\n"
+                          + "printb #7\n"
+                          + "printc #72\n"
+                          + "printc #105\n";
+
+        String expected = "-123\n0\n524287\n" + Integer.MIN_VALUE + "\n2.5\n7\nHi";
+        for(DispatchMode mode : DispatchMode.values()) {
+            assertEquals(mode.name(), expected, run(assembly, mode).toString());
+        }
+    }
+
+    @Test
+    public void testBufferedFlush() {
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        BufferedOutputDevice device = new BufferedOutputDevice(Channels.newChannel(received), 4);
+
+        device.write("Hel".getBytes(StandardCharsets.ISO_8859_1), 0, 3);
+        assertEquals(0, received.size());
+
+        device.write((byte)'l');
+        device.write((byte)'o');
+        assertEquals("Hell", received.toString(StandardCharsets.ISO_8859_1));
+
+        device.flush();
+        assertEquals("Hello", received.toString(StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    public void testFlushOnFailure() {
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+
+        LitaVM vm = new LitaVM(1024, 256, false);
+        vm.getCpu().setOutput(new BufferedOutputDevice(Channels.newChannel(received)));
+        try {
+            vm.execute(new Assembler(vm).compile("printi #42\n"
+                                               + "divi $a #0\n"));
+            fail();
+        }
+        catch(EvalException e) {
+            assertEquals("42\n", received.toString(StandardCharsets.ISO_8859_1));
+        }
+    }
+
+    @Test
+    public void testCaptureReset() {
+        CaptureOutputDevice out = new CaptureOutputDevice();
+        byte[] bytes = new byte[1000];
+        out.write(bytes, 0, bytes.length);
+        assertEquals(1000, out.size());
+
+        out.reset();
+        out.write((byte)'x');
+        assertEquals("x", out.toString());
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * @author Tony
+ *
+ */
+public class ProfilerTest {
+
+    private Profiler profile(String assembly, int sampleInterval) {
+        LitaVM vm = new LitaVM(1024 * 8, 1024, false);
+        Assembler asm = new Assembler(vm);
+        Bytecode code = asm.compile(assembly);
+
+        Profiler profiler = new Profiler(asm.getSymbols(), sampleInterval);
+        vm.getCpu().setProfiler(profiler);
+        vm.execute(code);
+        return profiler;
+    }
+
+    @Test
+    public void testCallStacks() {
+        Profiler profiler = profile("call :outer\n"
+                                  + "jmp :exit\n"
+                                  + ":outer\n"
+                                  + "  pushi $r\n"
+                                  + "  call :inner\n"
+                                  + "  call :inner\n"
+                                  + "  popi $r\n"
+                                  + "  ret\n"
+                                  + ":inner\n"
+                                  + "  addi $a #1\n"
+                                  + "  ret\n"
+                                  + ":exit\n", 1);
+
+        Map<String, Long> stacks = profiler.getCollapsedStacks();
+
+        // sampled after each instruction, so a call is attributed to the callee and a ret to the caller
+        assertEquals(Long.valueOf(2), stacks.get("main"));              // ret, jmp :exit
+        assertEquals(Long.valueOf(5), stacks.get("main;outer"));        // call, pushi, ret, ret, popi
+        assertEquals(Long.valueOf(4), stacks.get("main;outer;inner"));  // call, addi, call, addi
+        assertEquals(3, stacks.size());
+        assertEquals(11, profiler.getNumberOfSamples());
+    }
+
+    @Test
+    public void testRecursion() {
+        Profiler profiler = profile("movi $a #5\n"
+                                  + "call :down\n"
+                                  + "jmp :exit\n"
+                                  + ":down\n"
+                                  + "  pushi $r\n"
+                                  + "  subi $a #1\n"
+                                  + "  ifei $a #1\n"
+                                  + "  jmp :unwind\n"
+                                  + "  call :down\n"
+                                  + "  :unwind\n"
+                                  + "  popi $r\n"
+                                  + "  ret\n"
+                                  + ":exit\n", 1);
+
+        Map<String, Long> stacks = profiler.getCollapsedStacks();
+        assertTrue(stacks.containsKey("main;down;down;down;down;down"));
+        assertFalse(stacks.containsKey("main;down;down;down;down;down;down"));
+    }
+
+    @Test
+    public void testUnbalancedCalls() {
+        // calls that never return are capped at the max depth
+        Profiler profiler = profile("movi $j #0\n"
+                                  + ":loop\n"
+                                  + "addi $j #1\n"
+                                  + "ifei $j #2000\n"
+                                  + "call :loop\n", 1);
+
+        for(String stack : profiler.getCollapsedStacks().keySet()) {
+            assertTrue(stack.split(";").length <= Profiler.MAX_DEPTH + 1);
+        }
+        assertEquals(6000, profiler.getNumberOfSamples());
+    }
+}
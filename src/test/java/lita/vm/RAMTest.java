@@ -0,0 +1,158 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+/**
+ * @author Tony
+ *
+ */
+public class RAMTest {
+
+    private void assertRoundTrips(RAM ram) {
+        ram.storeInt(0, 0x12345678);
+        ram.storeFloat(4, 3.25f);
+        ram.storeByte(8, (byte)-7);
+        ram.storeStr(9, "abc");
+        ram.storeInt(ram.sizeInBytes() - 4, -1);
+
+        assertEquals(0x12345678, ram.readInt(0));
+        assertEquals(3.25f, ram.readFloat(4), 0f);
+        assertEquals(-7, ram.readByte(8));
+        assertEquals('c', ram.readByte(11));
+        assertEquals(0, ram.readByte(12));
+        assertEquals(-1, ram.readInt(ram.sizeInBytes() - 4));
+    }
+
+    @Test
+    public void testBackends() {
+        assertRoundTrips(new RAM(new ByteBufferMemory(64)));
+        assertRoundTrips(new RAM(new VarHandleMemory(64)));
+        assertRoundTrips(new RAM(new ByteBufferMemory(64, ByteOrder.LITTLE_ENDIAN)));
+        assertRoundTrips(new RAM(new VarHandleMemory(64, ByteOrder.LITTLE_ENDIAN)));
+        assertRoundTrips(new RAM(ByteBufferMemory.allocateDirect(64, ByteOrder.BIG_ENDIAN)));
+        assertRoundTrips(new RAM(new CopyOnWriteMemory(64)));
+        assertRoundTrips(new RAM(new CopyOnWriteMemory(64, ByteOrder.LITTLE_ENDIAN)));
+    }
+
+    @Test
+    public void testCopyOnWritePages() {
+        final int straddle = CopyOnWriteMemory.PAGE_SIZE - 2;
+
+        CopyOnWriteMemory template = new CopyOnWriteMemory(CopyOnWriteMemory.PAGE_SIZE * 4);
+        template.storeInt(straddle, 0x0A0B0C0D);
+        template.storeFloat(8, 1.5f);
+        assertEquals(2, template.getNumberOfPrivatePages());
+
+        RAM reference = new RAM(new ByteBufferMemory(CopyOnWriteMemory.PAGE_SIZE * 4));
+        reference.storeInt(straddle, 0x0A0B0C0D);
+        byte[] expected = new byte[8];
+        byte[] actual = new byte[8];
+        reference.readBytes(straddle - 2, expected, 0, 8);
+        template.readBytes(straddle - 2, actual, 0, 8);
+        assertArrayEquals(expected, actual);
+
+        CopyOnWriteMemory fork = template.fork();
+        assertEquals(0, fork.getNumberOfPrivatePages());
+        assertEquals(0x0A0B0C0D, fork.readInt(straddle));
+
+        fork.storeInt(8, 42);
+        template.storeInt(straddle, 7);
+
+        assertEquals(1, fork.getNumberOfPrivatePages());
+        assertEquals(42, fork.readInt(8));
+        assertEquals(1.5f, template.readFloat(8), 0f);
+        assertEquals(0x0A0B0C0D, fork.readInt(straddle));
+        assertEquals(7, template.readInt(straddle));
+    }
+
+    @Test
+    public void testForkVM() {
+        LitaVM template = new LitaVM(new RAM(new CopyOnWriteMemory(1024 * 64)), 1024, false, DispatchMode.SWITCH);
+        Bytecode code = new Assembler(template).compile(
+              ".text \"Hello World\"\n"
+            + "ldca $a .text\n"
+            + "movi $b $h\n"
+            + "addb &$a #1\n"     // changes the constant in place
+            + "movb $c &$a\n"
+            + "movi &$b $c\n");
+
+        for(int i = 0; i < 10; i++) {
+            LitaVM vm = template.fork();
+            vm.execute(code);
+
+            assertEquals('I', vm.getCpu().getRegisterFile()[6]);
+            assertEquals('I', vm.getRam().readInt(template.getCpu().getH().address()));
+        }
+
+        assertEquals('H', template.getRam().readByte(0));
+        assertEquals(0, template.getRam().readInt(template.getCpu().getH().address()));
+    }
+
+    @Test
+    public void testMappedMemory() throws Exception {
+        File file = File.createTempFile("litavm", ".img");
+        file.deleteOnExit();
+
+        MappedMemory memory = MappedMemory.map(file.toPath(), 64, ByteOrder.BIG_ENDIAN);
+        assertNull(new RAM(memory).mem);
+        assertRoundTrips(new RAM(memory));
+        memory.flush();
+
+        byte[] image = Files.readAllBytes(file.toPath());
+        assertEquals(64, image.length);
+        assertEquals(0x12, image[0]);
+
+        // mapping the image again picks up where it left off
+        RAM ram = new RAM(MappedMemory.map(file.toPath(), 64, ByteOrder.BIG_ENDIAN));
+        assertEquals(0x12345678, ram.readInt(0));
+    }
+
+    @Test
+    public void testByteOrder() {
+        RAM buffer = new RAM(new ByteBufferMemory(8));
+        RAM big = new RAM(new VarHandleMemory(8));
+        RAM little = new RAM(new VarHandleMemory(8, ByteOrder.LITTLE_ENDIAN));
+
+        buffer.storeInt(0, 0x01020304);
+        big.storeInt(0, 0x01020304);
+        little.storeInt(0, 0x01020304);
+
+        assertArrayEquals(buffer.mem, big.mem);
+        assertEquals(0x01, big.readByte(0));
+        assertEquals(0x04, little.readByte(0));
+    }
+
+    @Test
+    public void testSlicedBuffer() {
+        byte[] array = new byte[16];
+        ByteBuffer buffer = ByteBuffer.wrap(array);
+        buffer.position(4);
+
+        ByteBufferMemory sliced = new ByteBufferMemory(buffer.slice());
+        assertNull(sliced.array());
+        assertNull(new ByteBufferMemory(ByteBuffer.wrap(array, 0, 8).slice()).array());
+        assertSame(array, new ByteBufferMemory(ByteBuffer.wrap(array)).array());
+
+        RAM ram = new RAM(sliced);
+        ram.storeInt(0, 0x01020304);
+        ram.fill(4, 4, (byte)7);
+        assertEquals(0x01, array[4]);
+        assertEquals(7, array[11]);
+        assertEquals(0x01020304, ram.readInt(0));
+    }
+
+    @Test(expected=IndexOutOfBoundsException.class)
+    public void testOutOfBounds() {
+        new RAM(new VarHandleMemory(8)).readInt(6);
+    }
+}
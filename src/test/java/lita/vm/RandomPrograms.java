@@ -0,0 +1,111 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import java.util.Random;
+
+/**
+ * Generates random (but terminating and fault free) programs, used to check that the different
+ * ways of executing code all end up in the same state
+ *
+ * @author Tony
+ *
+ */
+class RandomPrograms {
+
+    private static final String[] DEST_REGS = { "$a", "$b", "$c", "$d", "$i", "&$k", "&$u" };
+    private static final String[] REGS      = { "$a", "$b", "$c", "$d", "$i" };
+    private static final String[] SRC_REGS  = { "$a", "$b", "$c", "$d", "$i", "&$k", "&$u", "$pc" };
+
+    private static final String[] INT_OPS   = { "movi", "addi", "subi", "muli", "ori", "andi", "xori", "szrli", "srli", "slli", "noti" };
+    private static final String[] BYTE_OPS  = { "movb", "addb", "subb", "mulb", "orb", "andb", "xorb", "szrlb", "srlb", "sllb", "notb" };
+    private static final String[] FLOAT_OPS = { "movf", "addf", "subf", "mulf" };
+    private static final String[] IF_OPS    = { "ifi", "ifei", "ifb", "ifeb", "iff", "ifef" };
+
+    private static String pick(Random rand, String[] values) {
+        return values[rand.nextInt(values.length)];
+    }
+
+    private static String src(Random rand) {
+        switch(rand.nextInt(4)) {
+            case 0:  return "#" + rand.nextInt(1 << 12);
+            case 1:  return rand.nextBoolean() ? ".f1" : ".f2";
+            default: return pick(rand, SRC_REGS);
+        }
+    }
+
+    private static void randomInstructions(Random rand, StringBuilder sb, int count) {
+        for(int n = 0; n < count; n++) {
+            switch(rand.nextInt(9)) {
+                case 0:
+                case 1:
+                case 2:
+                    sb.append(pick(rand, INT_OPS)).append(" ").append(pick(rand, DEST_REGS)).append(" ").append(src(rand)).append("\n");
+                    break;
+                case 3:
+                    sb.append(pick(rand, BYTE_OPS)).append(" ").append(pick(rand, DEST_REGS)).append(" ").append(src(rand)).append("\n");
+                    break;
+                case 4:
+                    // NaN payloads out of float arithmetic are not stable across JVM tiers, the register
+                    // file canonicalizes them but raw memory does not
+                    sb.append(pick(rand, FLOAT_OPS)).append(" ").append(pick(rand, REGS)).append(" ").append(pick(rand, SRC_REGS)).append("\n");
+                    break;
+                case 5: {
+                    // float compares treat immediates as constant indexes, so keep those to registers
+                    String op = pick(rand, IF_OPS);
+                    String arg = op.endsWith("f") ? pick(rand, SRC_REGS) : src(rand);
+                    sb.append(op).append(" ").append(pick(rand, SRC_REGS)).append(" ").append(arg).append("\n");
+                    sb.append("addi $c #1\n");
+                    break;
+                }
+                case 6: {
+                    String type = pick(rand, new String[] { "i", "f", "b" });
+                    sb.append("push").append(type).append(" ").append(pick(rand, SRC_REGS)).append("\n");
+                    if(rand.nextBoolean()) {
+                        sb.append("dup").append(type).append(" ").append(pick(rand, REGS)).append("\n");
+                        sb.append("pop").append(type).append(" $d\n");
+                    }
+                    sb.append("pop").append(type).append(" ").append(pick(rand, REGS)).append("\n");
+                    break;
+                }
+                case 7:
+                    sb.append(rand.nextBoolean() ? "divi " : "modi ").append(pick(rand, DEST_REGS)).append(" #").append(1 + rand.nextInt(100)).append("\n");
+                    break;
+                default:
+                    sb.append("ldca $d .f2\n");
+            }
+        }
+    }
+
+    /**
+     * Generates a program that loops over a random block of instructions, including a call
+     * to a random subroutine
+     *
+     * @param rand
+     * @return the assembly of the program
+     */
+    static String generate(Random rand) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(".f1 1.5\n");
+        sb.append(".f2 0.25\n");
+        sb.append("movi $k $h\n");
+        sb.append("movi $u $h\n");
+        sb.append("addi $u #64\n");
+        sb.append("movi $a #").append(rand.nextInt(1000)).append("\n");
+        sb.append("movi $j #0\n");
+        sb.append(":loop\n");
+        randomInstructions(rand, sb, 30);
+        sb.append("call :sub\n");
+        randomInstructions(rand, sb, 10);
+        sb.append("addi $j #1\n");
+        sb.append("ifei $j #50\n");
+        sb.append("jmp :loop\n");
+        sb.append("jmp :end\n");
+        sb.append(":sub\n");
+        randomInstructions(rand, sb, 10);
+        sb.append("ret\n");
+        sb.append(":end\n");
+        return sb.toString();
+    }
+}
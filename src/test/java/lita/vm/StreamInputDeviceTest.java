@@ -0,0 +1,121 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author Tony
+ *
+ */
+public class StreamInputDeviceTest {
+
+    private static final int DEVICE = 400000;
+    private static final int WINDOW = DEVICE + StreamInputDevice.DEVICE_SIZE;
+
+    /**
+     * Counts the new lines of the input, a window at a time
+     */
+    private static final String COUNT_LINES =   "movi $i #0\n"
+                                              + ":refill\n"
+                                              + "movi $a #" + DEVICE + "\n"
+                                              + "movi &$a #0\n"
+                                              + "addi $a #4\n"
+                                              + "movi $b &$a\n"
+                                              + "ifi $b #0\n"
+                                              + "jmp :done\n"
+                                              + "movi $c #" + WINDOW + "\n"
+                                              + "movi $d $c\n"
+                                              + "addi $d $b\n"
+                                              + ":scan\n"
+                                              + "ifi $d $c\n"
+                                              + "jmp :refill\n"
+                                              + "ifb &$c #10\n"
+                                              + "addi $i #1\n"
+                                              + "addi $c #1\n"
+                                              + "jmp :scan\n"
+                                              + ":done\n"
+                                              + "printi $i\n";
+
+    private static byte[] lines(int numberOfLines) {
+        Random rand = new Random(0x11e5);
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < numberOfLines; i++) {
+            for(int j = rand.nextInt(40); j >= 0; j--) {
+                sb.append((char)('a' + rand.nextInt(26)));
+            }
+            sb.append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private void assertCountsLines(MemoryBackend memory) {
+        byte[] input = lines(5000);
+
+        DeviceBus bus = new DeviceBus(memory);
+        LitaVM vm = new LitaVM(new RAM(bus), 1024, false, DispatchMode.SWITCH);
+        CaptureOutputDevice out = new CaptureOutputDevice();
+        vm.getCpu().setOutput(out);
+
+        StreamInputDevice device = new StreamInputDevice(Channels.newChannel(new ByteArrayInputStream(input)), bus, WINDOW, 4096);
+        bus.map(DEVICE, device);
+
+        vm.execute(new Assembler(vm).compile(COUNT_LINES));
+
+        assertEquals("5000\n", out.toString());
+        assertEquals(input.length, device.getPosition());
+    }
+
+    @Test
+    public void testArrayMemory() {
+        assertCountsLines(new VarHandleMemory(1 << 20));
+    }
+
+    @Test
+    public void testDirectMemory() {
+        assertCountsLines(ByteBufferMemory.allocateDirect(1 << 20, ByteOrder.BIG_ENDIAN));
+    }
+
+    @Test
+    public void testCopiedMemory() {
+        assertCountsLines(new CopyOnWriteMemory(1 << 20));
+    }
+
+    @Test
+    public void testCarry() {
+        byte[] input = "first line\nsecond".getBytes(StandardCharsets.ISO_8859_1);
+
+        DeviceBus bus = new DeviceBus(new VarHandleMemory(1 << 20));
+        StreamInputDevice device = new StreamInputDevice(Channels.newChannel(new ByteArrayInputStream(input)), bus, WINDOW, 8);
+        bus.map(DEVICE, device);
+
+        assertEquals(8, device.refill(0));
+        assertEquals(8, device.refill(3));
+        byte[] window = new byte[8];
+        bus.readBytes(WINDOW, window, 0, 8);
+        assertEquals(" line\nse", new String(window, StandardCharsets.ISO_8859_1));
+
+        assertEquals(6, device.refill(2));
+        assertEquals(2, device.refill(2));
+        assertEquals(input.length, device.getPosition());
+
+        assertEquals(WINDOW, bus.readInt(DEVICE + StreamInputDevice.WINDOW));
+        assertEquals(8, bus.readInt(DEVICE + StreamInputDevice.SIZE));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testWindowOverlapsDevice() {
+        DeviceBus bus = new DeviceBus(new VarHandleMemory(1 << 20));
+        bus.map(WINDOW + 100, new RingBufferDevice(16, 16));
+        new StreamInputDevice(Channels.newChannel(new ByteArrayInputStream(new byte[0])), bus, WINDOW, 4096);
+    }
+}
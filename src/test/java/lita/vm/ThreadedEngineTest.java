@@ -0,0 +1,83 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Runs the same programs with {@link DispatchMode#SWITCH} and {@link DispatchMode#THREADED} dispatch
+ * and verifies they end up in the same state
+ *
+ * @author Tony
+ *
+ */
+public class ThreadedEngineTest {
+
+    private LitaVM run(String assembly, DispatchMode dispatchMode, int jitThreshold) {
+        LitaVM vm = new LitaVM(1024 * 8, 1024, false, dispatchMode);
+        vm.getCpu().setJitThreshold(jitThreshold);
+        vm.execute(new Assembler(vm).compile(assembly));
+        return vm;
+    }
+
+    private void assertSameResults(String assembly, int jitThreshold) {
+        LitaVM switched = run(assembly, DispatchMode.SWITCH, 0);
+        LitaVM threaded = run(assembly, DispatchMode.THREADED, jitThreshold);
+
+        assertArrayEquals(assembly, switched.getCpu().getRegisterFile(), threaded.getCpu().getRegisterFile());
+        assertArrayEquals(assembly, switched.getRam().mem, threaded.getRam().mem);
+    }
+
+    @Test
+    public void testSuperInstructions() {
+        String assembly =   ".text \"Hello\"\n"
+                          + "ldca $a .text\n"
+                          + "pushi $a\n"
+                          + "call :walk\n"
+                          + "movi $b #0\n"
+                          + "jmp :again\n"
+                          + ":count\n"
+                          + "addi $b #1\n"
+                          + "ifi $b #7\n"
+                          + ":again\n"
+                          + "jmp :count\n"
+                          + "jmp :exit\n"
+                          + ":walk\n"
+                          + "  popi $a\n"
+                          + "  movi $d $h\n"
+                          + "  :loop\n"
+                          + "  ifeb &$a #1\n"
+                          + "  jmp :end\n"
+                          + "  movb &$d &$a\n"
+                          + "  addi $d #1\n"
+                          + "  addi $a #1\n"
+                          + "  jmp :loop\n"
+                          + "  :end\n"
+                          + "  ret\n"
+                          + ":exit\n";
+
+        assertSameResults(assembly, 0);
+        assertSameResults(assembly, 1);
+    }
+
+    @Test
+    public void testRandomPrograms() {
+        Random rand = new Random(0x7ead);
+        for(int i = 0; i < 40; i++) {
+            String assembly = RandomPrograms.generate(rand);
+            assertSameResults(assembly, 0);
+            assertSameResults(assembly, 1);
+        }
+    }
+
+    @Test(expected=EvalException.class)
+    public void testDivideByZero() {
+        run("movi $a #10\n"
+          + "divi $a #0\n", DispatchMode.THREADED, 0);
+    }
+}
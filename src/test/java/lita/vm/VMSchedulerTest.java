@@ -0,0 +1,160 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author Tony
+ *
+ */
+public class VMSchedulerTest {
+
+    private static final String SUM =   "movi $a #0\n"
+                                      + "movi $b #0\n"
+                                      + ":loop\n"
+                                      + "addi $a #1\n"
+                                      + "addi $b $a\n"
+                                      + "ifei $a #2000\n"
+                                      + "jmp :loop\n";
+
+    private static final String FOREVER =   ":loop\n"
+                                          + "addi $a #1\n"
+                                          + "jmp :loop\n";
+
+    @Test
+    public void testManyVMs() throws Exception {
+        LitaVM template = new LitaVM(new RAM(new CopyOnWriteMemory(1024 * 64)), 1024, false, DispatchMode.SWITCH);
+        DecodedBytecode code = DecodedBytecode.decode(new Assembler(template).compile(SUM));
+
+        try(VMScheduler scheduler = new VMScheduler(4, 1000)) {
+            List<VMTask> tasks = new ArrayList<>();
+            for(int i = 0; i < 2000; i++) {
+                tasks.add(scheduler.submit(template.fork(), code));
+            }
+
+            assertTrue(scheduler.awaitCompletion(30, TimeUnit.SECONDS));
+            for(VMTask task : tasks) {
+                int[] registers = task.getFuture().get().getRegisters();
+                assertEquals(2000, registers[4]);
+                assertEquals(2000 * 2001 / 2, registers[5]);
+                assertTrue(task.getNumberOfSlices() > 1);
+            }
+
+            assertEquals(2000, scheduler.getCompleted());
+            assertEquals(0, scheduler.getActive());
+            assertTrue(scheduler.getSlices() > 2000);
+            assertTrue(scheduler.getMaxLatencyNanos() >= scheduler.getMeanLatencyNanos());
+        }
+    }
+
+    @Test
+    public void testRunawayVMDoesNotStarveOthers() throws Exception {
+        try(VMScheduler scheduler = new VMScheduler(1, 1000)) {
+            LitaVM runaway = new LitaVM(1024, 256, false);
+            VMTask forever = scheduler.submit(runaway, DecodedBytecode.decode(new Assembler(runaway).compile(FOREVER)));
+
+            LitaVM vm = new LitaVM(1024, 256, false);
+            VMTask sum = scheduler.submit(vm, DecodedBytecode.decode(new Assembler(vm).compile(SUM)));
+
+            assertEquals(2000, sum.getFuture().get(10, TimeUnit.SECONDS).getRegisters()[4]);
+            assertFalse(forever.getFuture().isDone());
+
+            forever.cancel();
+            try {
+                forever.getFuture().get(10, TimeUnit.SECONDS);
+                fail();
+            }
+            catch(CancellationException e) {
+            }
+        }
+    }
+
+    @Test
+    public void testParking() throws Exception {
+        try(VMScheduler scheduler = new VMScheduler(2, 100)) {
+            LitaVM vm = new LitaVM(1024, 256, false);
+            VMTask task = scheduler.submit(vm, DecodedBytecode.decode(new Assembler(vm).compile(FOREVER)));
+
+            task.park();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while(!task.isParked() && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertTrue(task.isParked());
+            assertEquals(1, scheduler.getParked());
+
+            int slices = task.getNumberOfSlices();
+            Thread.sleep(50);
+            assertEquals(slices, task.getNumberOfSlices());
+
+            task.unpark();
+            while(task.getNumberOfSlices() == slices && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertTrue(task.getNumberOfSlices() > slices);
+            assertEquals(0, scheduler.getParked());
+
+            task.cancel();
+        }
+    }
+
+    @Test
+    public void testParkedOnEmptyDevice() throws Exception {
+        try(VMScheduler scheduler = new VMScheduler(1, 100)) {
+            DeviceBus bus = new DeviceBus(new VarHandleMemory(1 << 20));
+            LitaVM vm = new LitaVM(new RAM(bus), 1024, false, DispatchMode.SWITCH);
+
+            RingBufferDevice ring = new RingBufferDevice(16);
+            bus.map(500000, ring);
+
+            // polls the device until it reads a byte
+            VMTask task = scheduler.submit(vm, DecodedBytecode.decode(new Assembler(vm).compile(
+                                                    "movi $a #500000\n"
+                                                  + ":wait\n"
+                                                  + "movb $b &$a\n"
+                                                  + "ifb $b #0\n"
+                                                  + "jmp :wait\n")));
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while(!task.isParked() && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertTrue(task.isParked());
+
+            int slices = task.getNumberOfSlices();
+            Thread.sleep(50);
+            assertEquals(slices, task.getNumberOfSlices());
+
+            assertEquals(1, ring.offer(new byte[] { 42 }, 0, 1));
+            assertEquals(42, task.getFuture().get(10, TimeUnit.SECONDS).getRegisters()[5]);
+            assertEquals(0, scheduler.getParked());
+        }
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        try(VMScheduler scheduler = new VMScheduler(1, 100)) {
+            LitaVM vm = new LitaVM(1024, 256, false);
+            VMTask task = scheduler.submit(vm, DecodedBytecode.decode(new Assembler(vm).compile("divi $a #0\n")));
+            try {
+                task.getFuture().get(10, TimeUnit.SECONDS);
+                fail();
+            }
+            catch(ExecutionException e) {
+                assertTrue(e.getCause() instanceof EvalException);
+            }
+            assertTrue(scheduler.awaitCompletion(10, TimeUnit.SECONDS));
+            assertEquals(1, scheduler.getFailed());
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * see license.txt
+ */
+package lita.vm;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author Tony
+ *
+ */
+public class VirtualThreadTest {
+
+    private static final String HELLO =   ".text \"Hello\"\n"
+                                        + "ldca $a .text\n"
+                                        + ":loop\n"
+                                        + "ifb &$a #0\n"
+                                        + "jmp :end\n"
+                                        + "printc &$a\n"
+                                        + "addi $a #1\n"
+                                        + "jmp :loop\n"
+                                        + ":end\n"
+                                        + "printi #42\n";
+
+    @Test
+    public void testSupport() {
+        if(Runtime.version().feature() < 19) {
+            assertFalse(LitaVM.isVirtualThreadSupported());
+        }
+        if(Runtime.version().feature() >= 21) {
+            assertTrue(LitaVM.isVirtualThreadSupported());
+        }
+    }
+
+    @Test
+    public void testManyVMs() throws Exception {
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        List<CaptureOutputDevice> outputs = new ArrayList<>();
+
+        for(int i = 0; i < 500; i++) {
+            CaptureOutputDevice out = new CaptureOutputDevice();
+            outputs.add(out);
+
+            LitaVM vm = new LitaVM(1024, 256, false);
+            vm.getCpu().setOutput(out);
+            futures.add(vm.start(DecodedBytecode.decode(new Assembler(vm).compile(HELLO))));
+        }
+
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+        for(CaptureOutputDevice out : outputs) {
+            assertEquals("Hello42\n", out.toString());
+        }
+    }
+
+    @Test
+    public void testBlockingChannel() throws Exception {
+        Pipe pipe = Pipe.open();
+
+        LitaVM vm = new LitaVM(1024, 256, false);
+        vm.getCpu().setOutput(new BufferedOutputDevice(pipe.sink(), 4));
+        CompletableFuture<Void> future = vm.start(DecodedBytecode.decode(new Assembler(vm).compile(HELLO)));
+        future.thenRun(() -> {
+            try {
+                pipe.sink().close();
+            }
+            catch(Exception e) {
+            }
+        });
+
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(3);
+        while(pipe.source().read(buffer) >= 0) {
+            buffer.flip();
+            received.write(buffer.array(), 0, buffer.limit());
+            buffer.clear();
+        }
+
+        future.get(10, TimeUnit.SECONDS);
+        assertEquals("Hello42\n", received.toString(StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        LitaVM vm = new LitaVM(1024, 256, false);
+        CompletableFuture<Void> future = vm.start(DecodedBytecode.decode(new Assembler(vm).compile("divi $a #0\n")));
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail();
+        }
+        catch(ExecutionException e) {
+            assertTrue(e.getCause() instanceof EvalException);
+        }
+    }
+}